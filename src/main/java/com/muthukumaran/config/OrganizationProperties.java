@@ -0,0 +1,466 @@
+package com.muthukumaran.organization.config;
+
+import com.muthukumaran.organization.storage.StorageType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Service specific settings under the "organization" prefix
+ */
+@Data
+@ConfigurationProperties(prefix = "organization")
+public class OrganizationProperties {
+    
+    private Storage storage = new Storage();
+    
+    private ResponseCache responseCache = new ResponseCache();
+    
+    private Bulk bulk = new Bulk();
+    
+    private Lookup lookup = new Lookup();
+    
+    private Audit audit = new Audit();
+    
+    private HierarchySnapshot hierarchySnapshot = new HierarchySnapshot();
+    
+    private ReplicaReads replicaReads = new ReplicaReads();
+    
+    private RedisCluster redisCluster = new RedisCluster();
+    
+    private StaleReads staleReads = new StaleReads();
+    
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    
+    private Admission admission = new Admission();
+    
+    private MembershipExpiry membershipExpiry = new MembershipExpiry();
+    
+    private History history = new History();
+    
+    private Tracing tracing = new Tracing();
+    
+    private HotGroups hotGroups = new HotGroups();
+    
+    private ReadBatching readBatching = new ReadBatching();
+    
+    @Data
+    public static class Storage {
+        
+        /**
+         * Backend of the groups, memberships and bulk jobs
+         */
+        private StorageType type = StorageType.REDIS;
+        
+        private Memory memory = new Memory();
+    }
+    
+    @Data
+    public static class Memory {
+        
+        /**
+         * Directory of the snapshot and the append-only log
+         */
+        private String directory = "data";
+        
+        /**
+         * How often the log is synced to disk; changes within the last interval can be lost on a crash
+         */
+        private Duration fsyncInterval = Duration.ofSeconds(1);
+        
+        /**
+         * How often the state is snapshotted and the log truncated
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+        
+        /**
+         * Take a snapshot early once the log grows beyond this many bytes
+         */
+        private long maxLogSize = 64L * 1024 * 1024;
+    }
+    
+    @Data
+    public static class ResponseCache {
+        
+        /**
+         * Cache the serialized JSON of resolved groups for GET /groups/{uuid}
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Upper bound on cached groups; an arbitrary entry is evicted when full
+         */
+        private int maxEntries = 10_000;
+    }
+    
+    @Data
+    public static class Bulk {
+        
+        /**
+         * Threads running background bulk jobs
+         */
+        private int jobThreads = 2;
+        
+        /**
+         * How long finished jobs and their progress are kept
+         */
+        private Duration jobTtl = Duration.ofHours(24);
+        
+        /**
+         * A running job without progress for this long is considered abandoned and can be resumed
+         */
+        private Duration jobStaleAfter = Duration.ofMinutes(1);
+        
+        /**
+         * Groups written per pipelined batch by the import
+         */
+        private int importBatchSize = 500;
+        
+        /**
+         * Largest accepted import document
+         */
+        private int importMaxGroups = 100_000;
+        
+        /**
+         * Bulk moves up to this size are applied within the request; larger ones run as a background job
+         */
+        private int moveSyncMax = 1_000;
+        
+        /**
+         * User moves sent per pipeline by a bulk move
+         */
+        private int moveBatchSize = 1_000;
+    }
+    
+    @Data
+    public static class Lookup {
+        
+        /**
+         * User pointers read per MGET by the bulk user-to-group lookup
+         */
+        private int mgetChunkSize = 1_000;
+        
+        /**
+         * MGETs sent per pipeline; each pipeline's results are streamed as soon as they arrive
+         */
+        private int chunksPerPipeline = 10;
+        
+        /**
+         * Pipelines in flight at once, each on its own connection
+         */
+        private int pipelines = 4;
+    }
+    
+    @Data
+    public static class Audit {
+        
+        /**
+         * Keys or set members fetched per SCAN/SSCAN step, and checked per pipelined batch
+         */
+        private int batchSize = 500;
+        
+        /**
+         * Upper bound on batches an audit sends to Redis per second, across its worker threads
+         */
+        private int maxBatchesPerSecond = 20;
+        
+        /**
+         * Threads checking batches in parallel
+         */
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        
+        /**
+         * Findings kept as examples in the audit report; all of them are counted
+         */
+        private int maxFindings = 100;
+    }
+    
+    @Data
+    public static class HierarchySnapshot {
+        
+        /**
+         * Serve group reads from a local memory-mapped snapshot (Redis storage only)
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Snapshot file, rewritten from memory from time to time
+         */
+        private String file = "data/hierarchy.snapshot";
+        
+        /**
+         * How often changed groups are refetched; until then their reads go to Redis
+         */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        
+        /**
+         * How often the change log is read for changes whose events were missed
+         */
+        private Duration catchUpInterval = Duration.ofMinutes(1);
+        
+        /**
+         * How often the snapshot is rewritten, besides when max-refreshed is reached
+         */
+        private Duration rewriteInterval = Duration.ofHours(1);
+        
+        /**
+         * How long changes are kept in the change log; a snapshot older than that is rebuilt from
+         * Redis before it is served
+         */
+        private Duration changeLogRetention = Duration.ofDays(1);
+        
+        /**
+         * Groups refetched since the snapshot was written, held in memory, beyond which it is rewritten early
+         */
+        private int maxRefreshed = 10_000;
+        
+        /**
+         * Groups compared or fetched per pipelined round trip
+         */
+        private int batchSize = 1_000;
+    }
+    
+    @Data
+    public static class ReplicaReads {
+        
+        /**
+         * Serve group, membership and lookup reads from a Redis replica (Redis storage only)
+         */
+        private boolean enabled = false;
+        
+        /**
+         * Replica to read from; credentials, database and client settings are those of the primary
+         */
+        private String host = "localhost";
+        
+        private int port = 6380;
+        
+        /**
+         * How long a read with a consistency token waits for the replica to catch up before it goes to the primary
+         */
+        private Duration maxWait = Duration.ofMillis(50);
+        
+        /**
+         * How often the replica's link and replication offset are checked
+         */
+        private Duration checkInterval = Duration.ofMillis(100);
+    }
+    
+    @Data
+    public static class RedisCluster {
+        
+        /**
+         * Groups whose tenant (root group) is remembered for building their membership keys
+         */
+        private int tenantCacheMaxEntries = 100_000;
+    }
+    
+    @Data
+    public static class StaleReads {
+        
+        /**
+         * Serve the last copy of a changed group while its refresh is slow
+         */
+        private boolean enabled = true;
+        
+        /**
+         * How long a group read with a stale copy waits for its refresh before it serves the copy
+         */
+        private Duration maxWait = Duration.ofMillis(200);
+        
+        /**
+         * Stale copies older than this are not served; the read waits for Redis instead
+         */
+        private Duration maxAge = Duration.ofHours(1);
+        
+        /**
+         * Upper bound on kept stale copies; an arbitrary one is dropped when full
+         */
+        private int maxEntries = 10_000;
+        
+        /**
+         * Threads refreshing groups in the background, each group at most once at a time
+         */
+        private int refreshThreads = 4;
+        
+        /**
+         * Refreshes waiting for a thread; beyond this the stale copy is served without one
+         */
+        private int refreshQueue = 100;
+    }
+    
+    @Data
+    public static class CircuitBreaker {
+        
+        /**
+         * Reject writes without calling Redis while it is failing (Redis storage only)
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Consecutive failed or slow writes that open the circuit
+         */
+        private int failureThreshold = 5;
+        
+        /**
+         * Writes taking longer than this count as failed, even when they succeed
+         */
+        private Duration slowCallDuration = Duration.ofSeconds(1);
+        
+        /**
+         * How long writes are rejected before a single trial write is let through
+         */
+        private Duration openDuration = Duration.ofSeconds(5);
+    }
+    
+    @Data
+    public static class Admission {
+        
+        /**
+         * Reject API requests beyond the concurrency limit instead of queueing them on server threads
+         */
+        private boolean enabled = true;
+        
+        /**
+         * API requests handled at once; keep below server.tomcat.threads.max (200 by default)
+         */
+        private int maxConcurrentRequests = 150;
+        
+        /**
+         * How long a request beyond the limit waits for a slot before it is rejected
+         */
+        private Duration maxWait = Duration.ofMillis(50);
+    }
+    
+    @Data
+    public static class MembershipExpiry {
+        
+        /**
+         * End memberships added or moved with an expiry once it has passed
+         */
+        private boolean enabled = true;
+        
+        /**
+         * How often due expiries are looked for; a membership ends at most this late
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+        
+        /**
+         * Expiries claimed and applied at once
+         */
+        private int batchSize = 1000;
+        
+        /**
+         * How long claimed expiries are withheld from other instances; an instance that stops
+         * before applying them leaves them to be claimed again after this
+         */
+        private Duration lease = Duration.ofMinutes(1);
+    }
+    
+    @Data
+    public static class History {
+        
+        /**
+         * Keep a version log of each group for point-in-time reads
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Every update reaching a multiple of this as version writes the full group; a
+         * point-in-time read replays at most this many deltas
+         */
+        private int checkpointInterval = 20;
+        
+        /**
+         * How far back point-in-time reads go; older entries are compacted away, and the log of a
+         * deleted group is dropped after this
+         */
+        private Duration retention = Duration.ofDays(90);
+        
+        /**
+         * Checkpoints kept per group even within the retention, bounding the log of a group
+         * to about this many times the checkpoint interval
+         */
+        private int maxCheckpoints = 100;
+    }
+    
+    @Data
+    public static class Tracing {
+        
+        /**
+         * Record the Redis commands and ancestor hops of sampled requests; when off, Redis commands
+         * are not intercepted at all. Read at startup.
+         */
+        private boolean enabled = false;
+        
+        /**
+         * Share of API requests traced, from 0 to 1; requests sending X-Trace: true are traced as well
+         */
+        private double sampleRate = 0.01;
+        
+        /**
+         * Completed traces kept for the debug endpoint; older ones are overwritten
+         */
+        private int maxTraces = 1000;
+        
+        /**
+         * Events (commands and hops) recorded per trace; further ones are only counted
+         */
+        private int maxEventsPerTrace = 256;
+    }
+    
+    @Data
+    public static class HotGroups {
+        
+        /**
+         * Keep local copies of the groups read most from Redis
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Groups kept locally at most; a group read more often takes the place of the coldest
+         */
+        private int maxEntries = 256;
+        
+        /**
+         * Estimated reads within the sketch's window (10 × sketch-width reads) that make a group hot
+         */
+        private int hotThreshold = 32;
+        
+        /**
+         * Counters per row of the frequency sketch; more means fewer collisions between groups
+         */
+        private int sketchWidth = 4096;
+        
+        /**
+         * How long a local copy is served before its version is checked against Redis again
+         */
+        private Duration lease = Duration.ofSeconds(1);
+    }
+    
+    @Data
+    public static class ReadBatching {
+        
+        /**
+         * Send the group reads of concurrent requests to Redis in shared pipelines (Redis storage only)
+         */
+        private boolean enabled = true;
+        
+        /**
+         * Group reads sent in one pipeline at most
+         */
+        private int maxBatchSize = 64;
+        
+        /**
+         * How long a batch waits for more reads before it is sent; with zero it is sent at once, holding the
+         * reads that queued up while the previous batches were in flight
+         */
+        private Duration window = Duration.ZERO;
+        
+        /**
+         * Batches in flight at once; further reads queue up for the next batch
+         */
+        private int maxInFlight = 4;
+    }
+}
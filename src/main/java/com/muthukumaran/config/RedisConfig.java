@@ -1,25 +1,71 @@
 package com.muthukumaran.organization.config;
 
+import com.muthukumaran.organization.event.GroupChangeRelay;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
 
 @Configuration
 @EnableRedisRepositories(basePackages = "com.muthukumaran.organization.repository")
 public class RedisConfig {
     
+    private static final int PIPELINE_FLUSH_THRESHOLD = 1000;
+    
+    /**
+     * Buffer pipelined commands instead of flushing each one to the socket,
+     * which is what makes bulk writes (imports, batch moves) fast
+     */
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public static BeanPostProcessor lettucePipeliningFlushPolicy() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof LettuceConnectionFactory factory) {
+                    factory.setPipeliningFlushPolicy(pipeliningFlushPolicy());
+                }
+                return bean;
+            }
+        };
+    }
+    
+    public static LettuceConnection.PipeliningFlushPolicy pipeliningFlushPolicy() {
+        return LettuceConnection.PipeliningFlushPolicy.buffered(PIPELINE_FLUSH_THRESHOLD);
+    }
+    
+    /**
+     * The templates read from the replica inside replica reads when those are enabled
+     */
+    @Bean
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory,
+                                                       ReplicaReadRouter replicaReadRouter) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
-        template.setConnectionFactory(connectionFactory);
+        template.setConnectionFactory(replicaReadRouter.routing(connectionFactory));
         return template;
     }
     
     @Bean
-    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
-        return new StringRedisTemplate(connectionFactory);
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory,
+                                                   ReplicaReadRouter replicaReadRouter) {
+        return new StringRedisTemplate(replicaReadRouter.routing(connectionFactory));
+    }
+    
+    @Bean
+    @ConditionalOnRedisStorage
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                      GroupChangeRelay groupChangeRelay) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(groupChangeRelay, new ChannelTopic(GroupChangeRelay.CHANNEL));
+        return container;
     }
 }
@@ -0,0 +1,24 @@
+package com.muthukumaran.organization.config;
+
+import com.muthukumaran.organization.tracing.RedisCommandTracing;
+import org.springframework.boot.autoconfigure.data.redis.ClientResourcesBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hooks request tracing into the Redis client, only when tracing is enabled, so with tracing off
+ * Lettuce dispatches commands without any tracing step. The setting is checked when the client is
+ * built rather than by a bean condition, which AOT processing would fix at build time.
+ */
+@Configuration
+public class TracingConfig {
+    
+    @Bean
+    public ClientResourcesBuilderCustomizer redisCommandTracing(OrganizationProperties properties) {
+        return builder -> {
+            if (properties.getTracing().isEnabled()) {
+                builder.tracing(new RedisCommandTracing());
+            }
+        };
+    }
+}
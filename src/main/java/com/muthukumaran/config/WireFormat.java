@@ -0,0 +1,78 @@
+package com.muthukumaran.organization.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The representations the API can answer in. JSON is the default; the binary formats encode the
+ * same documents, with the field names and types of the OpenAPI schema, for service-to-service callers.
+ */
+public enum WireFormat {
+    
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.parseMediaType("application/cbor")),
+    SMILE(MediaType.parseMediaType("application/x-jackson-smile"));
+    
+    private final MediaType mediaType;
+    
+    WireFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+    
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+    
+    JsonFactory createFactory() {
+        return switch (this) {
+            case JSON -> new JsonFactory();
+            case CBOR -> new CBORFactory();
+            // Batches repeat the same group UUIDs and values, which Smile then writes as back-references
+            case SMILE -> SmileFactory.builder().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES).build();
+        };
+    }
+    
+    /**
+     * The format an Accept header asks for: the first of the media types with the highest quality
+     * that names a binary format, JSON for a wildcard, and JSON when the header is missing, invalid
+     * or names none of the formats
+     */
+    public static WireFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        // Stable, so types of equal quality keep the order of the header
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType type : accepted) {
+            if (type.getQualityValue() == 0) {
+                break;
+            }
+            if (type.isWildcardType() || type.isWildcardSubtype()) {
+                if (type.includes(JSON.mediaType)) {
+                    return JSON;
+                }
+                continue;
+            }
+            for (WireFormat format : values()) {
+                if (format.mediaType.isCompatibleWith(type)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,54 @@
+package com.muthukumaran.organization.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Answers requests accepting CBOR or Smile in that format. The converters take the place of the
+ * ones Spring MVC registers by default, which come after JSON, so JSON stays the default, and use
+ * copies of the application's ObjectMapper, so all formats share its modules and settings.
+ */
+@Configuration
+public class WireFormatConfig {
+    
+    @Bean
+    public WireFormatMappers wireFormatMappers(ObjectMapper objectMapper) {
+        Map<WireFormat, ObjectMapper> mappers = new EnumMap<>(WireFormat.class);
+        for (WireFormat format : WireFormat.values()) {
+            mappers.put(format, format == WireFormat.JSON ? objectMapper : objectMapper.copyWith(format.createFactory()));
+        }
+        return new WireFormatMappers(mappers);
+    }
+    
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(WireFormatMappers mappers) {
+        return new MappingJackson2CborHttpMessageConverter(mappers.get(WireFormat.CBOR));
+    }
+    
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(WireFormatMappers mappers) {
+        return new MappingJackson2SmileHttpMessageConverter(mappers.get(WireFormat.SMILE));
+    }
+    
+    /**
+     * The ObjectMapper of each format, for code writing a format by hand
+     */
+    public static class WireFormatMappers {
+        
+        private final Map<WireFormat, ObjectMapper> mappers;
+        
+        WireFormatMappers(Map<WireFormat, ObjectMapper> mappers) {
+            this.mappers = mappers;
+        }
+        
+        public ObjectMapper get(WireFormat format) {
+            return mappers.get(format);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.muthukumaran.organization.controller;
+
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.service.ConsistencyAuditService;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+
+@RestController
+@ConditionalOnRedisStorage
+@Lazy
+@RequestMapping("/api/v1/audits")
+@RequiredArgsConstructor
+@Tag(name = "Consistency Audit", description = "APIs for checking and repairing the stored hierarchy and memberships")
+public class AuditController {
+    
+    private final ConsistencyAuditService consistencyAuditService;
+    
+    @Operation(summary = "Start a consistency audit",
+               description = "Scans the groups, membership sets, user pointers and member counters in the background, "
+                   + "in rate-limited batches checked in parallel. Reports groups whose parent is gone, cycles, "
+                   + "dangling or missing user pointers, users in more than one group and drifted counters. "
+                   + "With repair=true each finding is also fixed.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Audit started; poll it for progress and findings",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class)))
+    })
+    @PostMapping
+    public ResponseEntity<BulkJobResponse> startAudit(
+            @Parameter(description = "Fix what is found instead of only reporting it")
+            @RequestParam(defaultValue = "false") boolean repair) {
+        BulkJobResponse response = consistencyAuditService.startAudit(repair);
+        return ResponseEntity.accepted()
+            .location(URI.create("/api/v1/audits/" + response.getJobId()))
+            .body(response);
+    }
+    
+    @Operation(summary = "Get the progress and findings of a consistency audit",
+               description = "counts holds the number of findings per kind and of repairs; findings holds examples")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Audit progress",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Audit not found")
+    })
+    @GetMapping("/{jobId}")
+    public ResponseEntity<BulkJobResponse> getAudit(
+            @Parameter(description = "ID of the audit", required = true)
+            @PathVariable String jobId) {
+        return ResponseEntity.ok(consistencyAuditService.getAudit(jobId));
+    }
+}
@@ -1,7 +1,14 @@
 package com.muthukumaran.organization.controller;
 
+import com.muthukumaran.organization.config.WireFormat;
 import com.muthukumaran.organization.dto.*;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.resilience.RedisCircuitBreaker;
+import com.muthukumaran.organization.service.GroupImportService;
+import com.muthukumaran.organization.service.GroupResponseCache;
+import com.muthukumaran.organization.service.GroupResponseCache.CachedGroupResponse;
 import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -11,10 +18,14 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @RestController
@@ -24,6 +35,10 @@ import java.util.Set;
 public class GroupController {
     
     private final GroupService groupService;
+    private final GroupResponseCache groupResponseCache;
+    private final GroupImportService groupImportService;
+    private final ReplicaReadRouter replicaReadRouter;
+    private final RedisCircuitBreaker circuitBreaker;
     
     @Operation(summary = "Create a new group", description = "Creates a new group with optional parent reference. Validates parent existence if provided.")
     @ApiResponses(value = {
@@ -35,37 +50,174 @@ public class GroupController {
     @PostMapping
     public ResponseEntity<GroupResponse> createGroup(
             @Valid @RequestBody GroupCreateRequest request) {
-        GroupResponse response = groupService.createGroup(request);
-        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        GroupResponse response = circuitBreaker.call(() -> groupService.createGroup(request));
+        return ResponseEntity.status(HttpStatus.CREATED).headers(consistencyToken()).body(response);
     }
     
-    @Operation(summary = "Get a group by UUID", description = "Retrieves a group with inherited properties from parent hierarchy")
+    @Operation(summary = "Import a tree of groups",
+               description = "Validates a nested or parent-referencing tree of groups and writes it in pipelined batches "
+                   + "in the background. Retrying with the same importId is idempotent and resumes an interrupted import.")
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "Group retrieved successfully",
-            content = @Content(mediaType = "application/json", schema = @Schema(implementation = GroupResponse.class))),
-        @ApiResponse(responseCode = "404", description = "Group not found")
+        @ApiResponse(responseCode = "202", description = "Import accepted; poll the job for progress",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid tree: unknown or missing parents, duplicate refs or cycles")
+    })
+    @PostMapping("/import")
+    public ResponseEntity<BulkJobResponse> importGroups(
+            @Valid @RequestBody GroupImportRequest request) {
+        BulkJobResponse response = circuitBreaker.call(() -> groupImportService.importGroups(request));
+        return ResponseEntity.accepted()
+            .location(URI.create("/api/v1/groups/import/" + response.getJobId()))
+            .body(response);
+    }
+    
+    @Operation(summary = "Clone a subtree of groups",
+               description = "Copies a group and all groups below it under the target parent, or as a new root, with "
+                   + "fresh UUIDs. The subtree is read level by level and the copies are written parents-first in "
+                   + "pipelined batches. Inheritable fields are copied, left to be inherited, or overridden for the "
+                   + "whole copy. Memberships are not copied, as a user belongs to a single group.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "201", description = "Subtree cloned; uuids maps every original to its copy",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Subtree larger than the import limit"),
+        @ApiResponse(responseCode = "404", description = "Group or target parent not found")
+    })
+    @PostMapping("/{uuid}/clone")
+    public ResponseEntity<BulkJobResponse> cloneGroup(
+            @Parameter(description = "UUID of the root of the subtree to copy", required = true)
+            @PathVariable String uuid,
+            @Parameter(description = "UUID of the group to copy the subtree under; omit to make the copy a root")
+            @RequestParam(required = false) String targetParent,
+            @RequestBody(required = false) GroupCloneRequest request) {
+        GroupCloneRequest options = request != null ? request : new GroupCloneRequest();
+        BulkJobResponse response = circuitBreaker.call(() -> groupImportService.cloneSubtree(uuid, targetParent, options));
+        return ResponseEntity.created(URI.create("/api/v1/groups/" + response.getUuids().get(uuid)))
+            .headers(consistencyToken())
+            .body(response);
+    }
+    
+    @Operation(summary = "Get the progress of a group import")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Import progress",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Import not found")
+    })
+    @GetMapping("/import/{jobId}")
+    public ResponseEntity<BulkJobResponse> getImport(
+            @Parameter(description = "ID of the import job", required = true)
+            @PathVariable String jobId) {
+        return ResponseEntity.ok(groupImportService.getImport(jobId));
+    }
+    
+    @Operation(summary = "Get a group by UUID", description = "Retrieves a group with inherited properties from parent hierarchy. "
+            + "When fields is given only those fields are read, resolved and returned. "
+            + "Full responses carry a strong ETag and honour If-None-Match. While Redis is slow, a group changed "
+            + "since it was last served may be returned as it was then, with an Age header. "
+            + "When asOf is given the group is returned as it was at that time, inheritance included, "
+            + "restricted to fields if those are given too. "
+            + "Callers accepting application/cbor or application/x-jackson-smile get the same document in that format.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Group retrieved successfully", content = {
+            @Content(mediaType = "application/json", schema = @Schema(implementation = GroupResponse.class)),
+            @Content(mediaType = "application/cbor", schema = @Schema(implementation = GroupResponse.class)),
+            @Content(mediaType = "application/x-jackson-smile", schema = @Schema(implementation = GroupResponse.class))}),
+        @ApiResponse(responseCode = "304", description = "Group unchanged since the ETag in If-None-Match"),
+        @ApiResponse(responseCode = "400", description = "Unknown field in fields or invalid asOf"),
+        @ApiResponse(responseCode = "404", description = "Group not found, or no recorded state as of the given time")
     })
     @GetMapping("/{uuid}")
-    public ResponseEntity<GroupResponse> getGroup(
+    public ResponseEntity<?> getGroup(
             @Parameter(description = "UUID of the group", required = true)
-            @PathVariable String uuid) {
-        GroupResponse response = groupService.getGroupWithInheritance(uuid);
-        return ResponseEntity.ok(response);
+            @PathVariable String uuid,
+            @Parameter(description = "Comma separated list of fields to return", example = "spaceId,status")
+            @RequestParam(required = false) String fields,
+            @Parameter(description = "Return the group as it was at this time (ISO-8601)", example = "2024-05-01T12:00:00Z")
+            @RequestParam(required = false) String asOf,
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (asOf != null) {
+            if (fields != null) {
+                return ResponseEntity.ok(groupService.getGroupFieldsAsOf(uuid, asOf, GroupField.parse(fields)));
+            }
+            return ResponseEntity.ok(groupService.getGroupAsOf(uuid, asOf));
+        }
+        if (fields != null) {
+            Map<String, Object> projection = replicaReadRouter.read(consistencyToken,
+                () -> groupService.getGroupFields(uuid, GroupField.parse(fields)));
+            return ResponseEntity.ok(projection);
+        }
+        // Pre-serialized bytes; a matching If-None-Match is answered with 304 by Spring
+        WireFormat format = WireFormat.negotiate(accept);
+        CachedGroupResponse cached = replicaReadRouter.read(consistencyToken, () -> groupResponseCache.getAllowingStale(uuid));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setVary(List.of(HttpHeaders.ACCEPT));
+        if (cached.isStale()) {
+            headers.set(HttpHeaders.AGE, Long.toString(cached.ageSeconds()));
+        }
+        return ResponseEntity.ok()
+            .eTag(cached.etag(format))
+            .headers(headers)
+            .contentType(format.getMediaType())
+            .body(groupResponseCache.body(cached, format));
     }
     
-    @Operation(summary = "Update a group", description = "Updates an existing group's properties")
+    @Operation(summary = "Get membership statistics of a group",
+               description = "Returns the number of users directly in the group and in the group and all of its sub-groups")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = GroupStatsResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Group not found")
+    })
+    @GetMapping("/{uuid}/stats")
+    public ResponseEntity<GroupStatsResponse> getGroupStats(
+            @Parameter(description = "UUID of the group", required = true)
+            @PathVariable String uuid,
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken) {
+        return ResponseEntity.ok(replicaReadRouter.read(consistencyToken, () -> groupService.getGroupStats(uuid)));
+    }
+    
+    @Operation(summary = "Get membership statistics of many groups",
+               description = "Returns the direct and total member counts of up to 1000 groups in one call. Unknown groups are left out.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid input")
+    })
+    @PostMapping("/stats")
+    public ResponseEntity<List<GroupStatsResponse>> getGroupStats(
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken,
+            @Valid @RequestBody GroupStatsRequest request) {
+        return ResponseEntity.ok(replicaReadRouter.read(consistencyToken, () -> groupService.getGroupStats(request.getUuids())));
+    }
+    
+    @Operation(summary = "Update a group", description = "Updates an existing group's properties and returns it "
+            + "with inherited properties, as a GET would, together with its ETag. "
+            + "With If-Match the update only applies if the group is unchanged since that ETag was issued.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Group updated successfully",
             content = @Content(mediaType = "application/json", schema = @Schema(implementation = GroupResponse.class))),
-        @ApiResponse(responseCode = "404", description = "Group not found")
+        @ApiResponse(responseCode = "404", description = "Group not found"),
+        @ApiResponse(responseCode = "412", description = "Group was modified since the ETag in If-Match")
     })
     @PutMapping("/{uuid}")
     public ResponseEntity<GroupResponse> updateGroup(
             @Parameter(description = "UUID of the group", required = true)
             @PathVariable String uuid,
+            @Parameter(description = "ETag of the representation the update is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @Valid @RequestBody GroupUpdateRequest request) {
-        GroupResponse response = groupService.updateGroup(uuid, request);
-        return ResponseEntity.ok(response);
+        return circuitBreaker.call(() -> {
+            Long expectedVersion = ifMatch != null ? groupResponseCache.versionMatching(uuid, ifMatch) : null;
+            groupService.updateGroup(uuid, request, expectedVersion);
+            // The resolved group as a GET returns it, so the body matches its ETag
+            CachedGroupResponse updated = groupResponseCache.get(uuid);
+            return ResponseEntity.ok()
+                .eTag(updated.getEtag())
+                .headers(consistencyToken())
+                .body(updated.getResponse());
+        });
     }
     
     @Operation(summary = "Delete a group", description = "Deletes a group if it has no child groups")
@@ -78,11 +230,12 @@ public class GroupController {
     public ResponseEntity<Void> deleteGroup(
             @Parameter(description = "UUID of the group", required = true)
             @PathVariable String uuid) {
-        groupService.deleteGroup(uuid);
-        return ResponseEntity.noContent().build();
+        circuitBreaker.run(() -> groupService.deleteGroup(uuid));
+        return ResponseEntity.noContent().headers(consistencyToken()).build();
     }
     
-    @Operation(summary = "Add a user to a group", description = "Adds a user to the specified group")
+    @Operation(summary = "Add a user to a group",
+               description = "Adds a user to the specified group, until expiresAt if given")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "User added successfully"),
         @ApiResponse(responseCode = "404", description = "Group not found")
@@ -92,8 +245,8 @@ public class GroupController {
             @Parameter(description = "UUID of the group", required = true)
             @PathVariable String uuid,
             @Valid @RequestBody AddUserRequest request) {
-        groupService.addUserToGroup(uuid, request.getUserId());
-        return ResponseEntity.ok().build();
+        circuitBreaker.run(() -> groupService.addUserToGroup(uuid, request.getUserId(), request.getExpiresAt()));
+        return ResponseEntity.ok().headers(consistencyToken()).build();
     }
     
     @Operation(summary = "Remove a user from a group", description = "Removes a user from the specified group")
@@ -107,20 +260,49 @@ public class GroupController {
             @PathVariable String uuid,
             @Parameter(description = "ID of the user", required = true)
             @PathVariable String userId) {
-        groupService.removeUserFromGroup(uuid, userId);
-        return ResponseEntity.noContent().build();
+        circuitBreaker.run(() -> groupService.removeUserFromGroup(uuid, userId));
+        return ResponseEntity.noContent().headers(consistencyToken()).build();
     }
     
-    @Operation(summary = "Get users in a group", description = "Retrieves all users in the specified group")
+    @Operation(summary = "Get users in a group",
+               description = "Retrieves all users in the specified group. With since or cursor, returns the users "
+            + "that joined since then in the order they joined, a page at a time, for incremental sync.")
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "Users retrieved successfully"),
+        @ApiResponse(responseCode = "200", description = "Users retrieved successfully",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = JoinedMembersResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid since or cursor"),
         @ApiResponse(responseCode = "404", description = "Group not found")
     })
     @GetMapping("/{uuid}/users")
-    public ResponseEntity<Set<String>> getUsersInGroup(
+    public ResponseEntity<?> getUsersInGroup(
             @Parameter(description = "UUID of the group", required = true)
-            @PathVariable String uuid) {
-        Set<String> users = groupService.getUsersInGroup(uuid);
+            @PathVariable String uuid,
+            @Parameter(description = "Only users that joined at or after this ISO-8601 instant", example = "2026-10-01T00:00:00Z")
+            @RequestParam(required = false) String since,
+            @Parameter(description = "nextCursor of the previous page; takes the place of since")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Most users per page when reading by join time, up to 1000")
+            @RequestParam(defaultValue = "100") int limit,
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken) {
+        if (since != null || cursor != null) {
+            JoinedMembersResponse joined = replicaReadRouter.read(consistencyToken,
+                () -> groupService.getUsersJoinedSince(uuid, since, cursor, limit));
+            return ResponseEntity.ok(joined);
+        }
+        Set<String> users = replicaReadRouter.read(consistencyToken, () -> groupService.getUsersInGroup(uuid));
         return ResponseEntity.ok(users);
     }
+    
+    /**
+     * The consistency token for reads that must reflect the write just made, when reads go to a replica
+     */
+    private HttpHeaders consistencyToken() {
+        HttpHeaders headers = new HttpHeaders();
+        String token = replicaReadRouter.issueToken();
+        if (token != null) {
+            headers.set(ReplicaReadRouter.TOKEN_HEADER, token);
+        }
+        return headers;
+    }
 }
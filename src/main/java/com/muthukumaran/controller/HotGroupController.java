@@ -0,0 +1,38 @@
+package com.muthukumaran.organization.controller;
+
+import com.muthukumaran.organization.dto.HotGroupStatsResponse;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.hot.HotGroupTier;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/debug/hot-groups")
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+@Tag(name = "Hot Groups", description = "APIs for inspecting the groups this instance keeps locally because they are read most")
+public class HotGroupController {
+    
+    private final HotGroupTier hotGroupTier;
+    
+    @Operation(summary = "Get hot group statistics",
+               description = "Returns how many group reads of this instance were served from local copies, and the "
+                   + "groups copied, hottest first, with their estimated reads in the current window")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = HotGroupStatsResponse.class)))
+    })
+    @GetMapping
+    public ResponseEntity<HotGroupStatsResponse> getHotGroups() {
+        return ResponseEntity.ok(hotGroupTier.getStats());
+    }
+}
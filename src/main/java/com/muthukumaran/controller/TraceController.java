@@ -0,0 +1,55 @@
+package com.muthukumaran.organization.controller;
+
+import com.muthukumaran.organization.dto.RequestTraceResponse;
+import com.muthukumaran.organization.tracing.RequestTracer;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/debug/traces")
+@RequiredArgsConstructor
+@Tag(name = "Request Tracing", description = "APIs for reading the Redis commands and ancestor hops of sampled requests")
+public class TraceController {
+    
+    private static final int MAX_LIMIT = 1000;
+    
+    private final RequestTracer requestTracer;
+    
+    @Operation(summary = "List recent traces",
+               description = "Returns the most recently completed traces of this instance, newest first, without their "
+                   + "events. Empty unless tracing is enabled.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Traces retrieved successfully")
+    })
+    @GetMapping
+    public ResponseEntity<List<RequestTraceResponse>> getTraces(
+            @Parameter(description = "Most traces to return, up to 1000")
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(requestTracer.recent(Math.max(0, Math.min(limit, MAX_LIMIT))));
+    }
+    
+    @Operation(summary = "Get a trace",
+               description = "Returns the Redis commands, with durations and payload sizes, and the ancestor hops of a "
+                   + "traced request, in the order they were issued")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Trace retrieved successfully",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = RequestTraceResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Trace not found, or already overwritten by newer ones")
+    })
+    @GetMapping("/{traceId}")
+    public ResponseEntity<RequestTraceResponse> getTrace(
+            @Parameter(description = "ID of the trace, from the X-Trace-Id header", required = true)
+            @PathVariable String traceId) {
+        return ResponseEntity.ok(requestTracer.get(traceId));
+    }
+}
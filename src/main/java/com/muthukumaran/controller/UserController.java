@@ -1,16 +1,37 @@
 package com.muthukumaran.organization.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.muthukumaran.organization.config.WireFormat;
+import com.muthukumaran.organization.config.WireFormatConfig.WireFormatMappers;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.dto.BulkMoveRequest;
 import com.muthukumaran.organization.dto.MoveUserRequest;
+import com.muthukumaran.organization.dto.UserContextBatchRequest;
+import com.muthukumaran.organization.dto.UserContextResponse;
+import com.muthukumaran.organization.dto.UserGroupLookupRequest;
+import com.muthukumaran.organization.resilience.RedisCircuitBreaker;
+import com.muthukumaran.organization.service.BulkMoveService;
 import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.service.UserContextService;
+import com.muthukumaran.organization.service.UserGroupLookupService;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/v1/users")
@@ -19,9 +40,15 @@ import org.springframework.web.bind.annotation.*;
 public class UserController {
     
     private final GroupService groupService;
+    private final UserContextService userContextService;
+    private final UserGroupLookupService userGroupLookupService;
+    private final BulkMoveService bulkMoveService;
+    private final ReplicaReadRouter replicaReadRouter;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final WireFormatMappers wireFormatMappers;
     
     @Operation(summary = "Move a user to another group", 
-               description = "Atomically moves a user from their current group to a target group")
+               description = "Atomically moves a user from their current group to a target group, until expiresAt if given")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "User moved successfully"),
         @ApiResponse(responseCode = "404", description = "Target group not found")
@@ -31,7 +58,121 @@ public class UserController {
             @Parameter(description = "ID of the user to move", required = true)
             @PathVariable String userId,
             @Valid @RequestBody MoveUserRequest request) {
-        groupService.moveUser(userId, request.getTargetGroupUuid());
-        return ResponseEntity.ok().build();
+        circuitBreaker.run(() -> groupService.moveUser(userId, request.getTargetGroupUuid(), request.getExpiresAt()));
+        return ResponseEntity.ok().headers(consistencyToken()).build();
+    }
+    
+    @Operation(summary = "Move many users",
+               description = "Moves users to their target groups, validating each distinct target once and applying the moves "
+                   + "in pipelined chunks. Up to 1000 moves are applied within the request and every user's outcome is "
+                   + "returned; larger batches run as a background job that can be resumed by retrying with the same moveId.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Users moved; outcome per user",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "202", description = "Move accepted; poll the job for progress",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input")
+    })
+    @PostMapping("/move")
+    public ResponseEntity<BulkJobResponse> moveUsers(
+            @Valid @RequestBody BulkMoveRequest request) {
+        BulkJobResponse response = circuitBreaker.call(() -> bulkMoveService.moveUsers(request));
+        if (response.getJobId() == null) {
+            return ResponseEntity.ok().headers(consistencyToken()).body(response);
+        }
+        return ResponseEntity.accepted()
+            .location(URI.create("/api/v1/users/move/" + response.getJobId()))
+            .body(response);
+    }
+    
+    @Operation(summary = "Get the progress of a background user move")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Move progress",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = BulkJobResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Move not found")
+    })
+    @GetMapping("/move/{jobId}")
+    public ResponseEntity<BulkJobResponse> getMove(
+            @Parameter(description = "ID of the move job", required = true)
+            @PathVariable String jobId) {
+        return ResponseEntity.ok(bulkMoveService.getMove(jobId));
+    }
+    
+    @Operation(summary = "Get a user's context",
+               description = "Returns the user's current group with its resolved spaceId, location, language and segments in one call")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Context retrieved successfully",
+            content = @Content(mediaType = "application/json", schema = @Schema(implementation = UserContextResponse.class))),
+        @ApiResponse(responseCode = "404", description = "User is not in any group")
+    })
+    @GetMapping("/{userId}/context")
+    public ResponseEntity<UserContextResponse> getUserContext(
+            @Parameter(description = "ID of the user", required = true)
+            @PathVariable String userId,
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken) {
+        return ResponseEntity.ok(replicaReadRouter.read(consistencyToken, () -> userContextService.getUserContext(userId)));
+    }
+    
+    @Operation(summary = "Get the context of many users",
+               description = "Returns the context of up to 1000 users in one call; each distinct group is resolved once. "
+                   + "Users that are not in any group are left out.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Contexts retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid input")
+    })
+    @PostMapping("/context")
+    public ResponseEntity<List<UserContextResponse>> getUserContexts(
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken,
+            @Valid @RequestBody UserContextBatchRequest request) {
+        return ResponseEntity.ok(replicaReadRouter.read(consistencyToken,
+            () -> userContextService.getUserContexts(request.getUserIds())));
+    }
+    
+    @Operation(summary = "Look up the current group of many users",
+               description = "Resolves the current group of up to 50000 users. The result is a JSON object mapping each "
+                   + "user ID to its group UUID (null for users without a group), streamed while the lookup progresses. "
+                   + "Callers accepting application/cbor or application/x-jackson-smile get the same object in that format.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Groups looked up successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid input")
+    })
+    @PostMapping("/groups:lookup")
+    public ResponseEntity<StreamingResponseBody> lookupGroups(
+            @Parameter(description = "Consistency token of an earlier write the read must reflect")
+            @RequestHeader(value = ReplicaReadRouter.TOKEN_HEADER, required = false) String consistencyToken,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @Valid @RequestBody UserGroupLookupRequest request) {
+        WireFormat format = WireFormat.negotiate(accept);
+        StreamingResponseBody body = outputStream -> replicaReadRouter.read(consistencyToken, () -> {
+            try (JsonGenerator generator = wireFormatMappers.get(format).createGenerator(outputStream)) {
+                generator.writeStartObject();
+                userGroupLookupService.lookupGroups(request.getUserIds(), groupsByUser -> {
+                    for (Map.Entry<String, String> entry : groupsByUser.entrySet()) {
+                        generator.writeStringField(entry.getKey(), entry.getValue());
+                    }
+                    generator.flush();
+                });
+                generator.writeEndObject();
+            }
+            return null;
+        });
+        return ResponseEntity.ok()
+            .varyBy(HttpHeaders.ACCEPT)
+            .contentType(format.getMediaType())
+            .body(body);
+    }
+    
+    /**
+     * The consistency token for reads that must reflect the write just made, when reads go to a replica
+     */
+    private HttpHeaders consistencyToken() {
+        HttpHeaders headers = new HttpHeaders();
+        String token = replicaReadRouter.issueToken();
+        if (token != null) {
+            headers.set(ReplicaReadRouter.TOKEN_HEADER, token);
+        }
+        return headers;
     }
 }
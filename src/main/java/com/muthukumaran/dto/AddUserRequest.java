@@ -1,12 +1,15 @@
 package com.muthukumaran.organization.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Future;
 import jakarta.validation.constraints.NotBlank;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,4 +20,8 @@ public class AddUserRequest {
     @NotBlank(message = "User ID is mandatory")
     @Schema(description = "ID of the user to add", example = "user-123", required = true)
     private String userId;
+    
+    @Future(message = "Expiry must be in the future")
+    @Schema(description = "When the membership ends; omit to keep it", example = "2026-12-31T18:00:00Z")
+    private Instant expiresAt;
 }
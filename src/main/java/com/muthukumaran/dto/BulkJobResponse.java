@@ -0,0 +1,53 @@
+package com.muthukumaran.organization.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.MoveOutcome;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Progress of a background bulk job")
+public class BulkJobResponse {
+    
+    @Schema(description = "ID of the job", example = "tenant-42-onboarding")
+    private String jobId;
+    
+    @Schema(description = "Kind of job", example = "group-import")
+    private String type;
+    
+    @Schema(description = "Job status", example = "RUNNING")
+    private BulkJobStatus status;
+    
+    @Schema(description = "Number of items in the job", example = "20000")
+    private long total;
+    
+    @Schema(description = "Number of items processed so far", example = "12500")
+    private long processed;
+    
+    @Schema(description = "Failure reason when the job failed")
+    private String error;
+    
+    @Schema(description = "Number of items per outcome", example = "{\"MOVED\": 11800, \"UNCHANGED\": 700}")
+    private Map<String, Long> counts;
+    
+    @Schema(description = "Client references mapped to the UUIDs of the imported groups (only on submission)")
+    private Map<String, String> uuids;
+    
+    @Schema(description = "Outcome per user of a user move; for background moves only the rejected users")
+    private Map<String, MoveOutcome> outcomes;
+    
+    @Schema(description = "Examples of the problems found by a consistency audit",
+            example = "[\"DANGLING_POINTER user-7 -> 3f2c9a1e-5b7d-4e8f-a0c1-9d2e4b6f8a10\"]")
+    private List<String> findings;
+}
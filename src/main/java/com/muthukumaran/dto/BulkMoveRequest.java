@@ -0,0 +1,30 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Request to move many users at once")
+public class BulkMoveRequest {
+    
+    @Schema(description = "Idempotency key for moves that run in the background; retrying with the same key resumes an interrupted move",
+            example = "reorg-2025-q1")
+    private String moveId;
+    
+    @Valid
+    @NotEmpty(message = "At least one move is required")
+    @Size(max = 200_000, message = "At most 200000 moves per request")
+    @Schema(description = "Users and their target groups, applied in order", required = true)
+    private List<UserMove> moves;
+}
@@ -0,0 +1,52 @@
+package com.muthukumaran.organization.dto;
+
+import com.muthukumaran.organization.model.GroupStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Options for copying a subtree of groups; every option may be omitted")
+public class GroupCloneRequest {
+    
+    @Schema(description = "Idempotency key; the UUIDs of the copies are derived from it, so retrying with the same key "
+            + "rewrites the same groups instead of creating more", example = "apac-from-template")
+    private String cloneId;
+    
+    @Schema(description = "Name of the copy of the subtree's root (defaults to the original's)", example = "APAC")
+    private String name;
+    
+    @Schema(description = "Display name of the copy of the subtree's root (defaults to the new name, else the original's)",
+            example = "Asia Pacific")
+    private String displayName;
+    
+    @Schema(description = "Status of the copy of the subtree's root (defaults to the original's)", example = "INACTIVE")
+    private GroupStatus status;
+    
+    @Schema(description = "Copy the spaceId, location, language and segments each group sets itself; when false the "
+            + "copies set none and inherit them from the target parent (defaults to true)", example = "true")
+    private Boolean copyInheritableFields;
+    
+    @Schema(description = "Space ID for the whole copy: set on its root and cleared below, so every copy inherits it",
+            example = "space-apac")
+    private String spaceId;
+    
+    @Schema(description = "Location for the whole copy: set on its root and cleared below, so every copy inherits it",
+            example = "Singapore")
+    private String location;
+    
+    @Schema(description = "Language for the whole copy: set on its root and cleared below, so every copy inherits it",
+            example = "en-SG")
+    private String language;
+    
+    @Schema(description = "Segments for the whole copy: set on its root and cleared below, so every copy inherits them",
+            example = "[\"Corporate\"]")
+    private List<String> segments;
+}
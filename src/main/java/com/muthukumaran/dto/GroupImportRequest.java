@@ -0,0 +1,28 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Request to import a whole tree of groups in one call")
+public class GroupImportRequest {
+    
+    @Schema(description = "Idempotency key; retrying with the same key never creates duplicates and resumes an interrupted import",
+            example = "tenant-42-onboarding")
+    private String importId;
+    
+    @Valid
+    @NotEmpty(message = "At least one group is required")
+    @Schema(description = "Top level groups of the import, with nested children or parent references", required = true)
+    private List<GroupImportNode> groups;
+}
@@ -31,6 +31,10 @@ public class GroupResponse {
     @Schema(description = "Group status", example = "ACTIVE")
     private GroupStatus status;
     
+    @Schema(description = "DEACTIVATED if the group or any of its ancestors is deactivated, ACTIVE otherwise; "
+        + "only resolved on reads", example = "ACTIVE")
+    private GroupStatus effectiveStatus;
+    
     @Schema(description = "ID of the linked Client Space (inherited if null)", example = "space-123")
     private String spaceId;
     
@@ -42,4 +46,7 @@ public class GroupResponse {
     
     @Schema(description = "List of business verticals (inherited if null)", example = "[\"Corporate\", \"Education\"]")
     private List<String> segments;
+    
+    @Schema(description = "Version of the group, incremented on every update", example = "3")
+    private Long version;
 }
@@ -0,0 +1,24 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Request for the membership statistics of several groups")
+public class GroupStatsRequest {
+    
+    @NotEmpty(message = "At least one group UUID is required")
+    @Size(max = 1000, message = "At most 1000 groups per request")
+    @Schema(description = "UUIDs of the groups", required = true)
+    private List<String> uuids;
+}
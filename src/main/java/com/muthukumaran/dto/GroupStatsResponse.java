@@ -0,0 +1,24 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Membership statistics of a group")
+public class GroupStatsResponse {
+    
+    @Schema(description = "UUID of the group", example = "123e4567-e89b-12d3-a456-426614174000")
+    private String uuid;
+    
+    @Schema(description = "Number of users directly in the group", example = "12")
+    private long directMembers;
+    
+    @Schema(description = "Number of users in the group and all of its sub-groups", example = "340")
+    private long totalMembers;
+}
@@ -0,0 +1,27 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A group kept locally because it is read often")
+public class HotGroup {
+    
+    @Schema(description = "UUID of the group", example = "123e4567-e89b-12d3-a456-426614174000")
+    private String uuid;
+    
+    @Schema(description = "Estimated reads of the group within the current sketch window", example = "5210")
+    private int estimatedReads;
+    
+    @Schema(description = "Reads served from the local copy since it was pinned", example = "48211")
+    private long hits;
+    
+    @Schema(description = "Version of the local copy", example = "7")
+    private long version;
+}
@@ -0,0 +1,54 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "How skewed group reads are and how much of them the local tier of hot groups absorbs")
+public class HotGroupStatsResponse {
+    
+    @Schema(description = "Whether hot groups are kept locally", example = "true")
+    private boolean enabled;
+    
+    @Schema(description = "Group reads that reached the Redis store since startup, including those then served locally",
+            example = "1250000")
+    private long reads;
+    
+    @Schema(description = "Reads served from local copies", example = "1010000")
+    private long hits;
+    
+    @Schema(description = "Share of reads served from local copies", example = "0.808")
+    private double hitRatio;
+    
+    @Schema(description = "Leases extended after the version was found unchanged", example = "5400")
+    private long leaseRenewals;
+    
+    @Schema(description = "Groups pinned, including those refetched after a version change", example = "310")
+    private long admissions;
+    
+    @Schema(description = "Hot groups not pinned because the tier was full of hotter ones", example = "12")
+    private long rejectedAdmissions;
+    
+    @Schema(description = "Groups unpinned for a hotter one or after cooling down", example = "40")
+    private long evictions;
+    
+    @Schema(description = "Estimated reads per window that make a group hot", example = "32")
+    private int hotThreshold;
+    
+    @Schema(description = "Reads per sketch window, after which the estimates are halved", example = "40960")
+    private int windowReads;
+    
+    @Schema(description = "Groups kept locally at most", example = "256")
+    private int maxEntries;
+    
+    @Schema(description = "Groups kept locally, hottest first")
+    private List<HotGroup> groups;
+}
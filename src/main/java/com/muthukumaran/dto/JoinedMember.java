@@ -0,0 +1,23 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A member of a group and when they joined it")
+public class JoinedMember {
+    
+    @Schema(description = "ID of the user", example = "user-123")
+    private String userId;
+    
+    @Schema(description = "When the user joined the group", example = "2026-10-19T08:15:30.125Z")
+    private Instant joinedAt;
+}
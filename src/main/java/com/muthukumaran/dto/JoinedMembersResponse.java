@@ -0,0 +1,27 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Members of a group in the order they joined")
+public class JoinedMembersResponse {
+    
+    @Schema(description = "UUID of the group", example = "123e4567-e89b-12d3-a456-426614174000")
+    private String uuid;
+    
+    @Schema(description = "Members that joined since the requested time, oldest first")
+    private List<JoinedMember> users;
+    
+    @Schema(description = "Cursor to pass for the members that joined after these, also when the list is empty",
+            example = "1792397730125-user-456")
+    private String nextCursor;
+}
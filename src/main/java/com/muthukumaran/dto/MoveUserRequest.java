@@ -1,12 +1,15 @@
 package com.muthukumaran.organization.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Future;
 import jakarta.validation.constraints.NotBlank;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,4 +20,8 @@ public class MoveUserRequest {
     @NotBlank(message = "Target group UUID is mandatory")
     @Schema(description = "UUID of the target group", example = "123e4567-e89b-12d3-a456-426614174000", required = true)
     private String targetGroupUuid;
+    
+    @Future(message = "Expiry must be in the future")
+    @Schema(description = "When the membership in the target group ends; omit to keep it", example = "2026-12-31T18:00:00Z")
+    private Instant expiresAt;
 }
@@ -0,0 +1,47 @@
+package com.muthukumaran.organization.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "The Redis commands and ancestor hops of a traced request, in the order they were issued")
+public class RequestTraceResponse {
+    
+    @Schema(description = "ID of the trace, also returned in the X-Trace-Id header of the request", example = "1f4")
+    private String traceId;
+    
+    @Schema(description = "HTTP method of the request", example = "GET")
+    private String method;
+    
+    @Schema(description = "Path of the request", example = "/api/v1/groups/123e4567-e89b-12d3-a456-426614174000")
+    private String path;
+    
+    @Schema(description = "HTTP status of the response", example = "200")
+    private int status;
+    
+    @Schema(description = "When the request started")
+    private Instant startedAt;
+    
+    @Schema(description = "Time the request took on the server, in microseconds", example = "1840")
+    private long durationMicros;
+    
+    @Schema(description = "Redis commands issued", example = "3")
+    private int commands;
+    
+    @Schema(description = "Events beyond the per-trace limit, counted but not recorded", example = "0")
+    private int droppedEvents;
+    
+    @Schema(description = "Commands and hops, in order; left out of trace listings")
+    private List<TraceEvent> events;
+}
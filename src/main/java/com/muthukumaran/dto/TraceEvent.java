@@ -0,0 +1,48 @@
+package com.muthukumaran.organization.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "A Redis command or an ancestor hop of a traced request")
+public class TraceEvent {
+    
+    public enum Type { COMMAND, HOP }
+    
+    @Schema(description = "Kind of event", example = "COMMAND")
+    private Type type;
+    
+    @Schema(description = "Offset from the start of the request, in microseconds; for commands, when written to Redis",
+            example = "212")
+    private long offsetMicros;
+    
+    @Schema(description = "Redis command", example = "HMGET")
+    private String command;
+    
+    @Schema(description = "Time from writing the command to its reply, in microseconds; null if the reply had not "
+            + "arrived when the request ended", example = "95")
+    private Long durationMicros;
+    
+    @Schema(description = "Size of the encoded arguments of the command, in bytes", example = "118")
+    private Integer requestBytes;
+    
+    @Schema(description = "Approximate size of the reply: the bytes of its values", example = "42")
+    private Integer responseBytes;
+    
+    @Schema(description = "Redis error or client exception of the command")
+    private String error;
+    
+    @Schema(description = "Ancestor read by the hop", example = "123e4567-e89b-12d3-a456-426614174000")
+    private String groupUuid;
+    
+    @Schema(description = "Comma separated fields read from the ancestor", example = "parentUuid,location,status")
+    private String fields;
+}
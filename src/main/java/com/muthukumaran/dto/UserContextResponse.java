@@ -0,0 +1,45 @@
+package com.muthukumaran.organization.dto;
+
+import com.muthukumaran.organization.model.GroupStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A user's current group with its resolved inheritable properties")
+public class UserContextResponse {
+    
+    @Schema(description = "ID of the user", example = "user-123")
+    private String userId;
+    
+    @Schema(description = "UUID of the user's current group", example = "123e4567-e89b-12d3-a456-426614174000")
+    private String groupUuid;
+    
+    @Schema(description = "Internal name of the group", example = "Engineering Team")
+    private String groupName;
+    
+    @Schema(description = "Status of the group", example = "ACTIVE")
+    private GroupStatus groupStatus;
+    
+    @Schema(description = "DEACTIVATED if the group or any of its ancestors is deactivated", example = "ACTIVE")
+    private GroupStatus effectiveGroupStatus;
+    
+    @Schema(description = "Space ID (inherited from parent if not set)", example = "space-001")
+    private String spaceId;
+    
+    @Schema(description = "Location (inherited from parent if not set)", example = "USA")
+    private String location;
+    
+    @Schema(description = "Language (inherited from parent if not set)", example = "English")
+    private String language;
+    
+    @Schema(description = "Segments (inherited from parent if not set)")
+    private List<String> segments;
+}
@@ -0,0 +1,24 @@
+package com.muthukumaran.organization.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Request for the current group of many users")
+public class UserGroupLookupRequest {
+    
+    @NotEmpty(message = "At least one user ID is required")
+    @Size(max = 50_000, message = "At most 50000 users per request")
+    @Schema(description = "IDs of the users", required = true)
+    private List<String> userIds;
+}
@@ -0,0 +1,108 @@
+package com.muthukumaran.organization.event;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.repository.RedisKeys;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Relays local group changes to the other service instances over Redis pub/sub
+ * and republishes their changes as remote {@link GroupChangedEvent}s.
+ * <p>
+ * Each change is also recorded in a change log kept for {@code change-log-retention}, so an
+ * instance that was down, or missed a message, can find the groups changed since a given time.
+ */
+@Component
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+@Slf4j
+public class GroupChangeRelay implements MessageListener {
+    
+    public static final String CHANNEL = "group:changes";
+    
+    // Appended to the payload of rerooted changes
+    private static final String REROOTED = "|rerooted";
+    
+    private static final String INSTANCE_ID = UUID.randomUUID().toString();
+    
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RedisKeys redisKeys;
+    private final OrganizationProperties properties;
+    
+    /**
+     * Record and announce a change made here. The change is already stored, so a failure is only
+     * logged: it delays other instances, whose copies expire or are caught up later, but must not
+     * turn a successful write into an error.
+     */
+    @EventListener(condition = "!#event.remote")
+    public void onLocalChange(GroupChangedEvent event) {
+        byte[] changes = bytes(redisKeys.groupChanges(event.getUuid()));
+        byte[] channel = bytes(CHANNEL);
+        byte[] payload = bytes(INSTANCE_ID + "|" + event.getUuid() + (event.isRerooted() ? REROOTED : ""));
+        long now = System.currentTimeMillis();
+        long expired = now - properties.getHierarchySnapshot().getChangeLogRetention().toMillis();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.zSetCommands().zAdd(changes, now, bytes(event.getUuid()));
+                connection.zSetCommands().zRemRangeByScore(changes, Double.NEGATIVE_INFINITY, expired);
+                connection.publish(channel, payload);
+                return null;
+            });
+        } catch (DataAccessException e) {
+            log.warn("Failed to relay the change of group {} to other instances: {}", event.getUuid(), e.getMessage());
+        }
+    }
+    
+    /**
+     * The groups changed at or after the given time, as far back as the change log reaches
+     */
+    public Set<String> changedSince(long since) {
+        return ReplicaReadRouter.fromPrimary(() -> {
+            Set<String> changed = new HashSet<>();
+            for (int shard = 0; shard < redisKeys.groupChangeShards(); shard++) {
+                Set<String> uuids = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(redisKeys.groupChangeShard(shard), since, Double.POSITIVE_INFINITY);
+                if (uuids != null) {
+                    changed.addAll(uuids);
+                }
+            }
+            return changed;
+        });
+    }
+    
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = payload.indexOf('|');
+        if (separator < 0 || payload.substring(0, separator).equals(INSTANCE_ID)) {
+            return;
+        }
+        String uuid = payload.substring(separator + 1);
+        boolean rerooted = uuid.endsWith(REROOTED);
+        if (rerooted) {
+            uuid = uuid.substring(0, uuid.length() - REROOTED.length());
+        }
+        log.debug("Received change of group {} from another instance", uuid);
+        eventPublisher.publishEvent(GroupChangedEvent.remote(uuid, rerooted));
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
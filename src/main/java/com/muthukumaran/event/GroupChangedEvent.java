@@ -0,0 +1,34 @@
+package com.muthukumaran.organization.event;
+
+import lombok.Value;
+
+/**
+ * Published whenever a group is created, updated or deleted.
+ * Remote events are changes made by another instance and relayed over Redis pub/sub.
+ * Rerooted events tell that the group was detached and its subtree got it as new root.
+ */
+@Value
+public class GroupChangedEvent {
+    
+    String uuid;
+    
+    boolean remote;
+    
+    boolean rerooted;
+    
+    public static GroupChangedEvent local(String uuid) {
+        return new GroupChangedEvent(uuid, false, false);
+    }
+    
+    public static GroupChangedEvent rerooted(String uuid) {
+        return new GroupChangedEvent(uuid, false, true);
+    }
+    
+    public static GroupChangedEvent remote(String uuid) {
+        return new GroupChangedEvent(uuid, true, false);
+    }
+    
+    public static GroupChangedEvent remote(String uuid, boolean rerooted) {
+        return new GroupChangedEvent(uuid, true, rerooted);
+    }
+}
@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class GroupVersionConflictException extends RuntimeException {
+    public GroupVersionConflictException(String uuid) {
+        super("Group with UUID: " + uuid + " has been modified since the version given in If-Match");
+    }
+}
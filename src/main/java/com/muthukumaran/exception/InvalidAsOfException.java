@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class InvalidAsOfException extends RuntimeException {
+    public InvalidAsOfException(String asOf) {
+        super("Invalid asOf, expected an ISO-8601 instant such as 2024-05-01T12:00:00Z: " + asOf);
+    }
+}
@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class InvalidConsistencyTokenException extends RuntimeException {
+    public InvalidConsistencyTokenException(String token) {
+        super("Invalid consistency token: " + token);
+    }
+}
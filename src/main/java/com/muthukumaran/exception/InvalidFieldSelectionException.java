@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class InvalidFieldSelectionException extends RuntimeException {
+    public InvalidFieldSelectionException(String field) {
+        super("Unknown or empty field selection: " + field);
+    }
+}
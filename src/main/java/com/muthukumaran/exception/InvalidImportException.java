@@ -0,0 +1,13 @@
+package com.muthukumaran.organization.exception;
+
+import java.util.List;
+
+public class InvalidImportException extends RuntimeException {
+    
+    private static final int MAX_REPORTED_PROBLEMS = 20;
+    
+    public InvalidImportException(List<String> problems) {
+        super("Invalid import: " + String.join("; ", problems.subList(0, Math.min(problems.size(), MAX_REPORTED_PROBLEMS)))
+            + (problems.size() > MAX_REPORTED_PROBLEMS ? " (and " + (problems.size() - MAX_REPORTED_PROBLEMS) + " more)" : ""));
+    }
+}
@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class InvalidMemberRangeException extends RuntimeException {
+    public InvalidMemberRangeException(String parameter, String value) {
+        super("Invalid " + parameter + ": " + value);
+    }
+}
@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class JobNotFoundException extends RuntimeException {
+    public JobNotFoundException(String jobId) {
+        super("Job not found with ID: " + jobId);
+    }
+}
@@ -0,0 +1,14 @@
+package com.muthukumaran.organization.exception;
+
+import lombok.Getter;
+
+@Getter
+public class RedisUnavailableException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public RedisUnavailableException(long retryAfterSeconds) {
+        super("Redis is failing, writes are rejected for " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
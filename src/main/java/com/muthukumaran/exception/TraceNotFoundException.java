@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.exception;
+
+public class TraceNotFoundException extends RuntimeException {
+    public TraceNotFoundException(String traceId) {
+        super("Trace not found with ID: " + traceId);
+    }
+}
@@ -0,0 +1,23 @@
+package com.muthukumaran.organization.model;
+
+/**
+ * Kinds of inconsistency reported by the consistency audit
+ */
+public enum AuditFinding {
+    /** The group's parent does not exist */
+    ORPHAN_GROUP,
+    /** The group is its own ancestor */
+    CYCLE,
+    /** The group is still indexed but its hash is gone */
+    STALE_GROUP_INDEX,
+    /** A membership set is left over from a deleted group */
+    ORPHAN_MEMBERSHIP_SET,
+    /** The user's pointer holds a group the user is not a member of */
+    DANGLING_POINTER,
+    /** The user is a member of a group but has no pointer */
+    MISSING_POINTER,
+    /** The user is a member of a group besides the one the pointer holds */
+    DUPLICATE_MEMBERSHIP,
+    /** The stored member counts of the group differ from its sets */
+    COUNTER_DRIFT
+}
@@ -0,0 +1,41 @@
+package com.muthukumaran.organization.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * State of a background bulk job, kept in Redis so progress is visible from
+ * every instance and an interrupted job can be resumed from its checkpoint.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkJob {
+    
+    private String jobId;
+    
+    private String type;
+    
+    private BulkJobStatus status;
+    
+    private long total;
+    
+    /**
+     * Checkpoint: number of items durably processed
+     */
+    private long processed;
+    
+    private String error;
+    
+    /**
+     * Tally of item outcomes, such as MOVED or UNCHANGED for user moves
+     */
+    private Map<String, Long> counts;
+    
+    private long updatedAt;
+}
@@ -0,0 +1,7 @@
+package com.muthukumaran.organization.model;
+
+public enum BulkJobStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -8,6 +8,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.redis.core.RedisHash;
 import org.springframework.data.redis.core.index.Indexed;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -18,6 +19,11 @@ import java.util.UUID;
 @RedisHash("Group")
 public class Group {
     
+    /**
+     * The ancestors of a root
+     */
+    public static final String NO_ANCESTORS = "/";
+    
     @Id
     @Indexed
     private String uuid;
@@ -39,10 +45,46 @@ public class Group {
     
     private List<String> segments;
     
+    /**
+     * Incremented on every update; used for optimistic concurrency control.
+     * Groups written before versioning was introduced have no version (treated as 0).
+     */
+    private Long version;
+    
+    /**
+     * The ancestors from the root down to the parent, as "/root/.../parent/", or "/" for a root.
+     * Written with the group and rewritten below a group that is detached; absent on groups
+     * written before it was kept.
+     */
+    private String ancestors;
+    
     public String getUuid() {
         if (uuid == null) {
             uuid = UUID.randomUUID().toString();
         }
         return uuid;
     }
+    
+    /**
+     * The ancestors of a child of this group, or null if this group's are unknown
+     */
+    public String ancestorsOfChild() {
+        return ancestors != null ? ancestors + getUuid() + "/" : null;
+    }
+    
+    /**
+     * The ancestors, root first, or null if unknown
+     */
+    public static List<String> ancestorUuids(String ancestors) {
+        if (ancestors == null) {
+            return null;
+        }
+        List<String> uuids = new ArrayList<>();
+        for (String uuid : ancestors.split("/")) {
+            if (!uuid.isEmpty()) {
+                uuids.add(uuid);
+            }
+        }
+        return uuids;
+    }
 }
@@ -0,0 +1,76 @@
+package com.muthukumaran.organization.model;
+
+import com.muthukumaran.organization.exception.InvalidFieldSelectionException;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Selectable fields of a group, used for field projection on reads.
+ * The JSON name doubles as the field name in the Redis hash, except for the effective status,
+ * which is not stored but resolved against the ancestors.
+ */
+public enum GroupField {
+    UUID("uuid", false),
+    PARENT_UUID("parentUuid", false),
+    NAME("name", false),
+    DISPLAY_NAME("displayName", false),
+    STATUS("status", false),
+    SPACE_ID("spaceId", true),
+    LOCATION("location", true),
+    LANGUAGE("language", true),
+    SEGMENTS("segments", true),
+    VERSION("version", false),
+    EFFECTIVE_STATUS("effectiveStatus", false),
+    /**
+     * Read to resolve the effective status, but not selectable
+     */
+    ANCESTORS("ancestors", false);
+    
+    private final String jsonName;
+    private final boolean inheritable;
+    
+    GroupField(String jsonName, boolean inheritable) {
+        this.jsonName = jsonName;
+        this.inheritable = inheritable;
+    }
+    
+    public String getJsonName() {
+        return jsonName;
+    }
+    
+    public boolean isInheritable() {
+        return inheritable;
+    }
+    
+    /**
+     * Parse a comma separated field list such as "spaceId,status"
+     */
+    public static Set<GroupField> parse(String fields) {
+        EnumSet<GroupField> selected = EnumSet.noneOf(GroupField.class);
+        for (String name : fields.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            selected.add(fromJsonName(trimmed));
+        }
+        if (selected.isEmpty()) {
+            throw new InvalidFieldSelectionException(fields);
+        }
+        return selected;
+    }
+    
+    public static GroupField fromJsonName(String jsonName) {
+        for (GroupField field : values()) {
+            if (field != ANCESTORS && field.jsonName.equals(jsonName)) {
+                return field;
+            }
+        }
+        throw new InvalidFieldSelectionException(jsonName);
+    }
+    
+    public static Set<GroupField> inheritable() {
+        return EnumSet.of(SPACE_ID, LOCATION, LANGUAGE, SEGMENTS);
+    }
+}
@@ -0,0 +1,81 @@
+package com.muthukumaran.organization.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One change in the version log of a group: the full group at a checkpoint, the fields
+ * written by an update, or the deletion of the group
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupHistoryEntry {
+    
+    public enum Type { CHECKPOINT, DELTA, DELETED }
+    
+    private Type type;
+    
+    /**
+     * Version of the group after the change
+     */
+    private long version;
+    
+    /**
+     * The group as written; only set on checkpoints
+     */
+    private Group group;
+    
+    /**
+     * The fields written, by JSON name; only set on deltas
+     */
+    private Map<String, String> fields;
+    
+    /**
+     * The segments written, or null if they were left as they were; only set on deltas
+     */
+    private List<String> segments;
+    
+    /**
+     * Apply a delta to a copy of the group it follows
+     */
+    public Group applyTo(Group previous) {
+        Group group = Group.builder()
+            .uuid(previous.getUuid())
+            .parentUuid(previous.getParentUuid())
+            .name(previous.getName())
+            .displayName(previous.getDisplayName())
+            .status(previous.getStatus())
+            .spaceId(previous.getSpaceId())
+            .location(previous.getLocation())
+            .language(previous.getLanguage())
+            .segments(previous.getSegments())
+            .version(version)
+            .build();
+        if (fields != null) {
+            fields.forEach((name, value) -> {
+                switch (GroupField.fromJsonName(name)) {
+                    case PARENT_UUID -> group.setParentUuid(value);
+                    case NAME -> group.setName(value);
+                    case DISPLAY_NAME -> group.setDisplayName(value);
+                    case STATUS -> group.setStatus(GroupStatus.valueOf(value));
+                    case SPACE_ID -> group.setSpaceId(value);
+                    case LOCATION -> group.setLocation(value);
+                    case LANGUAGE -> group.setLanguage(value);
+                    default -> throw new IllegalArgumentException("Field cannot be updated: " + name);
+                }
+            });
+        }
+        if (segments != null) {
+            group.setSegments(new ArrayList<>(segments));
+        }
+        return group;
+    }
+}
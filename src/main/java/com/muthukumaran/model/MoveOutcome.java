@@ -0,0 +1,10 @@
+package com.muthukumaran.organization.model;
+
+/**
+ * Result of moving one user in a bulk move
+ */
+public enum MoveOutcome {
+    MOVED,
+    UNCHANGED,
+    TARGET_MISSING
+}
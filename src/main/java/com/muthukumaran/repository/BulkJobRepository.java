@@ -0,0 +1,146 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.JobStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Bulk job state stored as a Redis hash per job
+ */
+@Repository
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+public class BulkJobRepository implements JobStore {
+    
+    private static final String COUNT_PREFIX = "count.";
+    
+    /**
+     * Claim a job: start it if new, failed or abandoned (no progress since ARGV[4]),
+     * keeping the processed checkpoint of an earlier attempt. Returns 1 if claimed.
+     * ARGV: type, total, now, stale threshold, ttl in seconds.
+     */
+    private static final RedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local status = redis.call('HGET', KEYS[1], 'status')
+            if status == 'COMPLETED' then
+                return 0
+            end
+            if status == 'RUNNING' and tonumber(redis.call('HGET', KEYS[1], 'updatedAt')) > tonumber(ARGV[4]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'type', ARGV[1], 'total', ARGV[2], 'status', 'RUNNING',
+                'error', '', 'updatedAt', ARGV[3])
+            redis.call('HSETNX', KEYS[1], 'processed', 0)
+            redis.call('EXPIRE', KEYS[1], ARGV[5])
+            return 1
+            """, Long.class);
+    
+    /**
+     * Record a checkpoint and add up outcome counts. A script rather than MULTI/EXEC,
+     * which Redis Cluster connections do not offer.
+     * ARGV: processed, now, then the outcome count fields and the counts to add.
+     */
+    private static final RedisScript<Long> PROGRESS_SCRIPT = new DefaultRedisScript<>("""
+            for i = 3, #ARGV, 2 do
+                redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+            end
+            redis.call('HSET', KEYS[1], 'processed', ARGV[1], 'updatedAt', ARGV[2])
+            return 1
+            """, Long.class);
+    
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisKeys redisKeys;
+    
+    /**
+     * Atomically claim the job for this instance
+     *
+     * @return true if the caller should run the job
+     */
+    @Override
+    public boolean claim(String jobId, String type, long total, Duration staleAfter, Duration ttl) {
+        long now = System.currentTimeMillis();
+        Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT, List.of(key(jobId)),
+            type, Long.toString(total), Long.toString(now), Long.toString(now - staleAfter.toMillis()),
+            Long.toString(ttl.toSeconds()));
+        return claimed != null && claimed == 1;
+    }
+    
+    @Override
+    public Optional<BulkJob> findById(String jobId) {
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(key(jobId));
+        if (hash.isEmpty()) {
+            return Optional.empty();
+        }
+        String error = (String) hash.get("error");
+        Map<String, Long> counts = new TreeMap<>();
+        hash.forEach((field, value) -> {
+            if (field.toString().startsWith(COUNT_PREFIX)) {
+                counts.put(field.toString().substring(COUNT_PREFIX.length()), Long.parseLong(value.toString()));
+            }
+        });
+        return Optional.of(BulkJob.builder()
+            .jobId(jobId)
+            .type((String) hash.get("type"))
+            .status(BulkJobStatus.valueOf((String) hash.get("status")))
+            .total(Long.parseLong((String) hash.get("total")))
+            .processed(Long.parseLong((String) hash.get("processed")))
+            .error(error == null || error.isEmpty() ? null : error)
+            .updatedAt(Long.parseLong((String) hash.get("updatedAt")))
+            .counts(counts)
+            .build());
+    }
+    
+    /**
+     * Record a checkpoint and add the outcome counts of the items since the last one, atomically
+     */
+    @Override
+    public void updateProgress(String jobId, long processed, Map<String, Long> counts) {
+        List<String> args = new ArrayList<>();
+        args.add(Long.toString(processed));
+        args.add(Long.toString(System.currentTimeMillis()));
+        counts.forEach((outcome, count) -> {
+            args.add(COUNT_PREFIX + outcome);
+            args.add(Long.toString(count));
+        });
+        stringRedisTemplate.execute(PROGRESS_SCRIPT, List.of(key(jobId)), args.toArray());
+    }
+    
+    @Override
+    public void finish(String jobId, BulkJobStatus status, String error) {
+        stringRedisTemplate.opsForHash().putAll(key(jobId), Map.of(
+            "status", status.name(),
+            "error", error != null ? error : "",
+            "updatedAt", Long.toString(System.currentTimeMillis())));
+    }
+    
+    /**
+     * Append an example finding to the job, kept as long as the job itself
+     */
+    @Override
+    public void addFinding(String jobId, String finding, Duration ttl) {
+        String key = redisKeys.findings(jobId);
+        stringRedisTemplate.opsForList().rightPush(key, finding);
+        stringRedisTemplate.expire(key, ttl);
+    }
+    
+    @Override
+    public List<String> findFindings(String jobId) {
+        return stringRedisTemplate.opsForList().range(redisKeys.findings(jobId), 0, -1);
+    }
+    
+    private String key(String jobId) {
+        return redisKeys.job(jobId);
+    }
+}
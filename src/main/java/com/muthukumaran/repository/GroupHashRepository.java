@@ -0,0 +1,688 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.GroupStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Field level access to the group hashes written by {@link GroupRepository}.
+ * Used where reading the whole entity would be wasted work.
+ */
+@Repository
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+public class GroupHashRepository {
+    
+    /**
+     * HMGET of the requested fields. Segments are stored flattened as
+     * "segments.[n]", so when ARGV[1] is "1" they are collected and appended
+     * after the plain field values.
+     */
+    private static final RedisScript<List> FETCH_FIELDS_SCRIPT = new DefaultRedisScript<>("""
+            local values = {}
+            if #ARGV > 1 then
+                values = redis.call('HMGET', KEYS[1], unpack(ARGV, 2))
+            end
+            if ARGV[1] == '1' then
+                local index = 0
+                while true do
+                    local segment = redis.call('HGET', KEYS[1], 'segments.[' .. index .. ']')
+                    if not segment then
+                        break
+                    end
+                    values[#values + 1] = segment
+                    index = index + 1
+                end
+            end
+            return values
+            """, List.class);
+    
+    /**
+     * Compare-and-set partial update.
+     * ARGV: expected version (empty for none), number of field pairs, the field/value pairs,
+     * "1" if the segments are replaced followed by the new segments.
+     */
+    private static final RedisScript<Long> UPDATE_FIELDS_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return -1
+            end
+            local current = tonumber(redis.call('HGET', KEYS[1], 'version') or '0')
+            if ARGV[1] ~= '' and tonumber(ARGV[1]) ~= current then
+                return -2
+            end
+            local pairs = tonumber(ARGV[2])
+            local i = 3
+            for _ = 1, pairs do
+                redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+                i = i + 2
+            end
+            if ARGV[i] == '1' then
+                local index = 0
+                while redis.call('HDEL', KEYS[1], 'segments.[' .. index .. ']') == 1 do
+                    index = index + 1
+                end
+                for s = i + 1, #ARGV do
+                    redis.call('HSET', KEYS[1], 'segments.[' .. (s - i - 1) .. ']', ARGV[s])
+                end
+            end
+            local version = current + 1
+            redis.call('HSET', KEYS[1], 'version', version)
+            return version
+            """, Long.class);
+    
+    /**
+     * Clear the parent of a group, record that it has no ancestors, and bump its version.
+     * KEYS: group hash, then unless clustered its index-tracking set. ARGV: uuid, prefix of the parentUuid index.
+     * Unless clustered, the group is also taken out of the parentUuid index of its former parent.
+     * Returns the new version, or -1 if the group does not exist.
+     */
+    private static final RedisScript<Long> CLEAR_PARENT_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return -1
+            end
+            local parent = redis.call('HGET', KEYS[1], 'parentUuid')
+            if parent then
+                redis.call('HDEL', KEYS[1], 'parentUuid')
+                if #KEYS > 1 then
+                    local index = ARGV[2] .. parent
+                    redis.call('SREM', index, ARGV[1])
+                    redis.call('SREM', KEYS[2], index)
+                end
+            end
+            redis.call('HSET', KEYS[1], 'ancestors', '/')
+            local version = tonumber(redis.call('HGET', KEYS[1], 'version') or '0') + 1
+            redis.call('HSET', KEYS[1], 'version', version)
+            return version
+            """, Long.class);
+    
+    /**
+     * Drop a group whose hash is gone from the keyspace set and from the indexes it was filed under.
+     * KEYS: group hash, its index-tracking set, the keyspace set. ARGV: uuid.
+     * Returns 0 if the group exists after all.
+     */
+    private static final RedisScript<Long> REMOVE_INDEX_ENTRIES_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                return 0
+            end
+            for _, index in ipairs(redis.call('SMEMBERS', KEYS[2])) do
+                redis.call('SREM', index, ARGV[1])
+            end
+            redis.call('DEL', KEYS[2])
+            redis.call('SREM', KEYS[3], ARGV[1])
+            return 1
+            """, Long.class);
+    
+    // Type hint Spring Data writes into every hash
+    private static final String CLASS_FIELD = "_class";
+    
+    // Bounds the walk of findRoots, against a cycle in the parent references
+    private static final int MAX_DEPTH = 1_000;
+    
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisKeys redisKeys;
+    
+    /**
+     * A read of a whole group, or of some of its fields
+     *
+     * @param fields the fields to read, or null for the whole group
+     */
+    public record Read(String uuid, Set<GroupField> fields) {
+    }
+    
+    /**
+     * Fetch only the given fields of a group in a single round trip.
+     * Returns empty if the group does not exist. Fields without a value are absent from the map.
+     */
+    public Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields) {
+        FieldQuery query = new FieldQuery(fields);
+        List<?> result = stringRedisTemplate.execute(
+            FETCH_FIELDS_SCRIPT, List.of(redisKeys.group(uuid)), (Object[]) query.args);
+        return query.parse(result);
+    }
+    
+    /**
+     * Atomically apply a partial update: HSET only the given fields, replace the segments
+     * when given, and bump the version. When expectedVersion is set the write only happens
+     * if the stored version still matches (compare-and-set).
+     *
+     * @return the new version, {@link GroupStore#NOT_FOUND} or {@link GroupStore#VERSION_MISMATCH}
+     */
+    public long updateFields(String uuid, Long expectedVersion, Map<GroupField, String> fields, List<String> segments) {
+        List<String> args = new ArrayList<>();
+        args.add(expectedVersion != null ? expectedVersion.toString() : "");
+        args.add(Integer.toString(fields.size()));
+        fields.forEach((field, value) -> {
+            args.add(field.getJsonName());
+            args.add(value);
+        });
+        args.add(segments != null ? "1" : "0");
+        if (segments != null) {
+            args.addAll(segments);
+        }
+        
+        Long result = stringRedisTemplate.execute(
+            UPDATE_FIELDS_SCRIPT, List.of(redisKeys.group(uuid)), args.toArray());
+        return result != null ? result : GroupStore.NOT_FOUND;
+    }
+    
+    /**
+     * Make a group a root, producing what {@link GroupRepository#save} of the group without its
+     * parent would, but writing only the parent and the version
+     *
+     * @return the new version or {@link GroupStore#NOT_FOUND}
+     */
+    public long clearParent(String uuid) {
+        String groupKey = redisKeys.group(uuid);
+        String childrenPrefix = redisKeys.children("");
+        if (!redisKeys.isClustered()) {
+            Long version = stringRedisTemplate.execute(CLEAR_PARENT_SCRIPT,
+                List.of(groupKey, redisKeys.groupIndexes(uuid)), uuid, childrenPrefix);
+            return version != null ? version : GroupStore.NOT_FOUND;
+        }
+        // The index sets live in other slots, so they are updated after the hash
+        Object parentUuid = stringRedisTemplate.opsForHash().get(groupKey, GroupField.PARENT_UUID.getJsonName());
+        Long version = stringRedisTemplate.execute(CLEAR_PARENT_SCRIPT, List.of(groupKey), uuid, childrenPrefix);
+        if (version != null && version >= 0 && parentUuid != null) {
+            String index = redisKeys.children(parentUuid.toString());
+            stringRedisTemplate.opsForSet().remove(index, uuid);
+            stringRedisTemplate.opsForSet().remove(redisKeys.groupIndexes(uuid), index);
+        }
+        return version != null ? version : GroupStore.NOT_FOUND;
+    }
+    
+    /**
+     * The group followed by its ancestors, nearest first, reading only the parentUuid of each.
+     * Returns empty if the group does not exist.
+     */
+    public Optional<List<String>> findLineage(String uuid) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(redisKeys.group(uuid)))) {
+            return Optional.empty();
+        }
+        List<String> lineage = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        String current = uuid;
+        // Stop at the root, at a dangling parent reference or at a cycle
+        while (current != null && !current.isEmpty() && visited.add(current)) {
+            lineage.add(current);
+            Object parentUuid = stringRedisTemplate.opsForHash()
+                .get(redisKeys.group(current), GroupField.PARENT_UUID.getJsonName());
+            current = parentUuid != null ? parentUuid.toString() : null;
+        }
+        return Optional.of(lineage);
+    }
+    
+    /**
+     * The root group of each of the given groups that exists, as the last of its {@link #findLineage},
+     * walking all of them up together with one pipelined round trip per level
+     */
+    public Map<String, String> findRoots(Collection<String> uuids) {
+        Map<String, String> roots = new HashMap<>();
+        // The furthest ancestor reached so far by each group not resolved yet
+        Map<String, String> reached = new HashMap<>();
+        uuids.forEach(uuid -> reached.put(uuid, uuid));
+        for (int depth = 0; !reached.isEmpty(); depth++) {
+            Map<String, String> parents = findParents(new ArrayList<>(new HashSet<>(reached.values())));
+            Iterator<Map.Entry<String, String>> it = reached.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                String parent = parents.get(entry.getValue());
+                if (parent != null && !parent.isEmpty() && depth < MAX_DEPTH) {
+                    entry.setValue(parent);
+                    continue;
+                }
+                // A missing ancestor is a dangling parent reference, which ends the lineage
+                if (parent != null || depth > 0) {
+                    roots.put(entry.getKey(), entry.getValue());
+                }
+                it.remove();
+            }
+        }
+        return roots;
+    }
+    
+    /**
+     * Check which of the given groups exist, with one pipelined round trip
+     */
+    public Set<String> findExisting(Collection<String> uuids) {
+        List<String> ordered = new ArrayList<>(uuids);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String uuid : ordered) {
+                connection.keyCommands().exists(toBytes(redisKeys.group(uuid)));
+            }
+            return null;
+        });
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                existing.add(ordered.get(i));
+            }
+        }
+        return existing;
+    }
+    
+    /**
+     * Iterate the UUIDs in the keyspace set of the groups, in batches, with SSCAN
+     */
+    public void scanUuids(int batchSize, Consumer<List<String>> batches) {
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(RedisKeys.GROUP_KEYSPACE, options)) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == batchSize) {
+                    batches.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.accept(batch);
+            }
+        }
+    }
+    
+    /**
+     * The parentUuid of each of the given groups that exists ("" for roots), with one pipelined round trip
+     */
+    public Map<String, String> findParents(List<String> uuids) {
+        byte[] uuidField = toBytes(GroupField.UUID.getJsonName());
+        byte[] parentField = toBytes(GroupField.PARENT_UUID.getJsonName());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String uuid : uuids) {
+                connection.hashCommands().hMGet(toBytes(redisKeys.group(uuid)), uuidField, parentField);
+            }
+            return null;
+        });
+        Map<String, String> parents = new HashMap<>();
+        for (int i = 0; i < uuids.size(); i++) {
+            List<?> values = (List<?>) results.get(i);
+            if (values.get(0) != null) {
+                parents.put(uuids.get(i), values.get(1) != null ? values.get(1).toString() : "");
+            }
+        }
+        return parents;
+    }
+    
+    /**
+     * The version of each of the given groups that exists (0 for groups without one), with one pipelined round trip
+     */
+    public Map<String, Long> findVersions(List<String> uuids) {
+        byte[] uuidField = toBytes(GroupField.UUID.getJsonName());
+        byte[] versionField = toBytes(GroupField.VERSION.getJsonName());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String uuid : uuids) {
+                connection.hashCommands().hMGet(toBytes(redisKeys.group(uuid)), uuidField, versionField);
+            }
+            return null;
+        });
+        Map<String, Long> versions = new HashMap<>();
+        for (int i = 0; i < uuids.size(); i++) {
+            List<?> values = (List<?>) results.get(i);
+            if (values.get(0) != null) {
+                versions.put(uuids.get(i), values.get(1) != null ? Long.parseLong(values.get(1).toString()) : 0L);
+            }
+        }
+        return versions;
+    }
+    
+    /**
+     * Read whole groups with one pipelined round trip, as {@link GroupRepository#findById} would.
+     * Groups that do not exist are absent from the map.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Group> findAll(List<String> uuids) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String uuid : uuids) {
+                connection.hashCommands().hGetAll(toBytes(redisKeys.group(uuid)));
+            }
+            return null;
+        });
+        Map<String, Group> groups = new HashMap<>();
+        for (int i = 0; i < uuids.size(); i++) {
+            Map<String, String> hash = (Map<String, String>) results.get(i);
+            if (hash != null && !hash.isEmpty()) {
+                groups.put(uuids.get(i), fromHash(uuids.get(i), hash));
+            }
+        }
+        return groups;
+    }
+    
+    /**
+     * Whether any of the given groups is deactivated, reading their statuses with one pipelined round trip
+     */
+    public boolean anyDeactivated(List<String> uuids) {
+        byte[] status = toBytes(GroupField.STATUS.getJsonName());
+        List<Object> statuses = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String uuid : uuids) {
+                connection.hashCommands().hGet(toBytes(redisKeys.group(uuid)), status);
+            }
+            return null;
+        });
+        return statuses.contains(GroupStatus.DEACTIVATED.name());
+    }
+    
+    /**
+     * Run many reads with one pipelined round trip: whole groups as {@link #findAll} reads them,
+     * the others as {@link #findFields} does. Reads without the segments are a plain HMGET; those
+     * with them run the field script by its SHA, and the pipeline is sent again with the script
+     * source if Redis does not know it yet, which also loads it for the next batches.
+     *
+     * @return per read the {@link Group} or the map of its fields, or null if the group does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> readAll(List<Read> reads) {
+        List<FieldQuery> queries = new ArrayList<>(reads.size());
+        for (Read read : reads) {
+            queries.add(read.fields() != null ? new FieldQuery(read.fields()) : null);
+        }
+        List<Object> results;
+        try {
+            results = pipelineReads(reads, queries, false);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            results = pipelineReads(reads, queries, true);
+        }
+        List<Object> values = new ArrayList<>(reads.size());
+        for (int i = 0; i < reads.size(); i++) {
+            FieldQuery query = queries.get(i);
+            if (query == null) {
+                Map<String, String> hash = (Map<String, String>) results.get(i);
+                values.add(hash == null || hash.isEmpty() ? null : fromHash(reads.get(i).uuid(), hash));
+            } else {
+                values.add(query.parse((List<?>) results.get(i)).orElse(null));
+            }
+        }
+        return values;
+    }
+    
+    private List<Object> pipelineReads(List<Read> reads, List<FieldQuery> queries, boolean sendScript) {
+        byte[] script = FETCH_FIELDS_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        String sha = FETCH_FIELDS_SCRIPT.getSha1();
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < reads.size(); i++) {
+                byte[] key = toBytes(redisKeys.group(reads.get(i).uuid()));
+                FieldQuery query = queries.get(i);
+                if (query == null) {
+                    connection.hashCommands().hGetAll(key);
+                } else if (!query.withSegments) {
+                    byte[][] fields = new byte[query.plainFields.size()][];
+                    for (int j = 0; j < fields.length; j++) {
+                        fields[j] = toBytes(query.plainFields.get(j).getJsonName());
+                    }
+                    connection.hashCommands().hMGet(key, fields);
+                } else {
+                    byte[][] keyAndArgs = new byte[query.args.length + 1][];
+                    keyAndArgs[0] = key;
+                    for (int j = 0; j < query.args.length; j++) {
+                        keyAndArgs[j + 1] = toBytes(query.args[j]);
+                    }
+                    if (sendScript) {
+                        connection.scriptingCommands().eval(script, ReturnType.MULTI, 1, keyAndArgs);
+                    } else {
+                        connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, 1, keyAndArgs);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Whether a pipeline failed because Redis did not have a script it was asked to run by SHA
+     */
+    private static boolean isNoScript(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+            if (cause instanceof RedisPipelineException pipeline) {
+                for (Object result : pipeline.getPipelineResult()) {
+                    if (result instanceof Exception failed && failed != cause && isNoScript(failed)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The children of each of the given groups, with two pipelined round trips: their entries in
+     * the parentUuid index, then their hashes. Groups without children are absent from the map.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<Group>> findChildren(List<String> parentUuids) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String parentUuid : parentUuids) {
+                connection.setCommands().sMembers(toBytes(redisKeys.children(parentUuid)));
+            }
+            return null;
+        });
+        List<String> childUuids = new ArrayList<>();
+        for (Object members : results) {
+            childUuids.addAll((Set<String>) members);
+        }
+        Map<String, List<Group>> children = new HashMap<>();
+        if (childUuids.isEmpty()) {
+            return children;
+        }
+        // An index entry whose hash is gone is skipped, as findByParentUuid does
+        for (Group child : findAll(childUuids).values()) {
+            children.computeIfAbsent(child.getParentUuid(), uuid -> new ArrayList<>()).add(child);
+        }
+        return children;
+    }
+    
+    /**
+     * Remove the index entries left behind by a group whose hash no longer exists
+     *
+     * @return false if the group exists
+     */
+    public boolean removeIndexEntries(String uuid) {
+        String groupKey = redisKeys.group(uuid);
+        String indexesKey = redisKeys.groupIndexes(uuid);
+        if (!redisKeys.isClustered()) {
+            Long removed = stringRedisTemplate.execute(REMOVE_INDEX_ENTRIES_SCRIPT,
+                List.of(groupKey, indexesKey, RedisKeys.GROUP_KEYSPACE), uuid);
+            return removed != null && removed == 1;
+        }
+        // The index sets live in other slots, so step by step; a group written meanwhile is refiled by its next save
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(groupKey))) {
+            return false;
+        }
+        Set<String> indexes = stringRedisTemplate.opsForSet().members(indexesKey);
+        if (indexes != null) {
+            indexes.forEach(index -> stringRedisTemplate.opsForSet().remove(index, uuid));
+        }
+        stringRedisTemplate.delete(indexesKey);
+        stringRedisTemplate.opsForSet().remove(RedisKeys.GROUP_KEYSPACE, uuid);
+        return true;
+    }
+    
+    /**
+     * Write new groups with their index entries in one pipeline, producing exactly
+     * what {@link GroupRepository#save} would. Rewriting the same groups is idempotent.
+     * The keyspace set and the parentUuid index are written with one SADD per set.
+     */
+    public void insertAll(List<Group> groups) {
+        Map<String, List<byte[]>> childrenByParent = new LinkedHashMap<>();
+        byte[][] ids = new byte[groups.size()][];
+        for (int i = 0; i < groups.size(); i++) {
+            Group group = groups.get(i);
+            ids[i] = toBytes(group.getUuid());
+            if (group.getParentUuid() != null) {
+                childrenByParent.computeIfAbsent(group.getParentUuid(), parent -> new ArrayList<>()).add(ids[i]);
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < groups.size(); i++) {
+                Group group = groups.get(i);
+                byte[] uuidIndex = toBytes(redisKeys.uuidIndex(group.getUuid()));
+                connection.hashCommands().hMSet(toBytes(redisKeys.group(group.getUuid())), toHash(group));
+                connection.setCommands().sAdd(uuidIndex, ids[i]);
+                if (group.getParentUuid() != null) {
+                    connection.setCommands().sAdd(toBytes(redisKeys.groupIndexes(group.getUuid())),
+                        uuidIndex, toBytes(redisKeys.children(group.getParentUuid())));
+                } else {
+                    connection.setCommands().sAdd(toBytes(redisKeys.groupIndexes(group.getUuid())), uuidIndex);
+                }
+            }
+            if (ids.length > 0) {
+                connection.setCommands().sAdd(toBytes(RedisKeys.GROUP_KEYSPACE), ids);
+            }
+            childrenByParent.forEach((parentUuid, children) ->
+                connection.setCommands().sAdd(toBytes(redisKeys.children(parentUuid)), children.toArray(new byte[0][])));
+            return null;
+        });
+    }
+    
+    /**
+     * The hash {@link GroupRepository#save} writes for a group, built without the mapping converter,
+     * which costs more than the writes themselves in bulk. Fields without a value are left out and
+     * the segments are flattened as "segments.[n]". Must follow the fields of {@link Group}.
+     */
+    private static Map<byte[], byte[]> toHash(Group group) {
+        Map<byte[], byte[]> hash = new LinkedHashMap<>();
+        hash.put(toBytes(CLASS_FIELD), toBytes(Group.class.getName()));
+        putIfSet(hash, GroupField.UUID, group.getUuid());
+        putIfSet(hash, GroupField.PARENT_UUID, group.getParentUuid());
+        putIfSet(hash, GroupField.NAME, group.getName());
+        putIfSet(hash, GroupField.DISPLAY_NAME, group.getDisplayName());
+        putIfSet(hash, GroupField.STATUS, group.getStatus() != null ? group.getStatus().name() : null);
+        putIfSet(hash, GroupField.SPACE_ID, group.getSpaceId());
+        putIfSet(hash, GroupField.LOCATION, group.getLocation());
+        putIfSet(hash, GroupField.LANGUAGE, group.getLanguage());
+        if (group.getSegments() != null) {
+            for (int i = 0; i < group.getSegments().size(); i++) {
+                hash.put(toBytes(segmentField(i)), toBytes(group.getSegments().get(i)));
+            }
+        }
+        putIfSet(hash, GroupField.VERSION, group.getVersion() != null ? group.getVersion().toString() : null);
+        putIfSet(hash, GroupField.ANCESTORS, group.getAncestors());
+        return hash;
+    }
+    
+    /**
+     * The group {@link GroupRepository#findById} reads from a hash, built without the mapping converter
+     */
+    private Group fromHash(String uuid, Map<String, String> hash) {
+        List<String> segments = null;
+        String segment;
+        while ((segment = hash.get(segmentField(segments == null ? 0 : segments.size()))) != null) {
+            if (segments == null) {
+                segments = new ArrayList<>();
+            }
+            segments.add(segment);
+        }
+        String status = hash.get(GroupField.STATUS.getJsonName());
+        String version = hash.get(GroupField.VERSION.getJsonName());
+        return Group.builder()
+            .uuid(uuid)
+            .parentUuid(hash.get(GroupField.PARENT_UUID.getJsonName()))
+            .name(hash.get(GroupField.NAME.getJsonName()))
+            .displayName(hash.get(GroupField.DISPLAY_NAME.getJsonName()))
+            .status(status != null ? GroupStatus.valueOf(status) : null)
+            .spaceId(hash.get(GroupField.SPACE_ID.getJsonName()))
+            .location(hash.get(GroupField.LOCATION.getJsonName()))
+            .language(hash.get(GroupField.LANGUAGE.getJsonName()))
+            .segments(segments)
+            .version(version != null ? Long.valueOf(version) : null)
+            .ancestors(hash.get(GroupField.ANCESTORS.getJsonName()))
+            .build();
+    }
+    
+    private static void putIfSet(Map<byte[], byte[]> hash, GroupField field, String value) {
+        if (value != null) {
+            hash.put(toBytes(field.getJsonName()), toBytes(value));
+        }
+    }
+    
+    private static String segmentField(int index) {
+        return "segments.[" + index + "]";
+    }
+    
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * The arguments of the fetch script for a set of fields, and the reading of its result
+     */
+    private static final class FieldQuery {
+        
+        final Set<GroupField> fields;
+        final List<GroupField> plainFields = new ArrayList<>();
+        final boolean withSegments;
+        final String[] args;
+        
+        FieldQuery(Set<GroupField> fields) {
+            this.fields = fields;
+            // uuid is always written, so it doubles as the existence check
+            plainFields.add(GroupField.UUID);
+            for (GroupField field : fields) {
+                if (field != GroupField.UUID && field != GroupField.SEGMENTS) {
+                    plainFields.add(field);
+                }
+            }
+            withSegments = fields.contains(GroupField.SEGMENTS);
+            args = new String[plainFields.size() + 1];
+            args[0] = withSegments ? "1" : "0";
+            for (int i = 0; i < plainFields.size(); i++) {
+                args[i + 1] = plainFields.get(i).getJsonName();
+            }
+        }
+        
+        Optional<Map<GroupField, Object>> parse(List<?> result) {
+            if (result == null || result.isEmpty() || result.get(0) == null) {
+                return Optional.empty();
+            }
+            Map<GroupField, Object> values = new EnumMap<>(GroupField.class);
+            for (int i = 0; i < plainFields.size(); i++) {
+                Object value = result.get(i);
+                if (value != null) {
+                    GroupField field = plainFields.get(i);
+                    values.put(field, convert(field, value.toString()));
+                }
+            }
+            if (withSegments && result.size() > plainFields.size()) {
+                List<String> segments = new ArrayList<>();
+                for (Object segment : result.subList(plainFields.size(), result.size())) {
+                    segments.add(segment.toString());
+                }
+                values.put(GroupField.SEGMENTS, segments);
+            }
+            if (!fields.contains(GroupField.UUID)) {
+                values.remove(GroupField.UUID);
+            }
+            return Optional.of(values);
+        }
+    }
+    
+    private static Object convert(GroupField field, String value) {
+        switch (field) {
+            case STATUS:
+                return GroupStatus.valueOf(value);
+            case VERSION:
+                return Long.valueOf(value);
+            default:
+                return value;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.muthukumaran.organization.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muthukumaran.organization.model.GroupHistoryEntry;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.GroupHistoryStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The version log of each group as two sorted sets scored by the time of the change, taken
+ * from the Redis clock: the checkpoints and the deltas. A point-in-time read takes the newest
+ * checkpoint up to the time and the deltas after it, so it never reads more than the deltas
+ * between two checkpoints.
+ */
+@Repository
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+public class GroupHistoryRepository implements GroupHistoryStore {
+    
+    /**
+     * KEYS: checkpoints, deltas. ARGV: entry type, entry, retention in milliseconds, checkpoints kept.
+     * Appending a checkpoint compacts the log; appending the deletion also lets it expire, and any
+     * other checkpoint keeps it again, as when a group is created again under the same UUID.
+     */
+    private static final String APPEND_SCRIPT = MembershipRepository.NOW + """
+            if ARGV[1] == 'DELTA' then
+                redis.call('ZADD', KEYS[2], now, ARGV[2])
+                return now
+            end
+            redis.call('ZADD', KEYS[1], now, ARGV[2])
+            local base = redis.call('ZREVRANGEBYSCORE', KEYS[1], now - tonumber(ARGV[3]), '-inf',
+                'WITHSCORES', 'LIMIT', 0, 1)
+            if base[2] then
+                redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(' .. base[2])
+            end
+            local excess = redis.call('ZCARD', KEYS[1]) - tonumber(ARGV[4])
+            if excess > 0 then
+                redis.call('ZREMRANGEBYRANK', KEYS[1], 0, excess - 1)
+            end
+            local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+            redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', '(' .. oldest[2])
+            if ARGV[1] == 'DELETED' then
+                redis.call('PEXPIRE', KEYS[1], ARGV[3])
+                redis.call('PEXPIRE', KEYS[2], ARGV[3])
+            else
+                redis.call('PERSIST', KEYS[1])
+                redis.call('PERSIST', KEYS[2])
+            end
+            return now
+            """;
+    
+    /**
+     * KEYS: checkpoints, deltas. ARGV: time. Returns the newest checkpoint up to the time
+     * followed by the deltas from it up to the time, or nothing without such a checkpoint.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> FIND_SCRIPT = new DefaultRedisScript<>("""
+            local checkpoint = redis.call('ZREVRANGEBYSCORE', KEYS[1], ARGV[1], '-inf', 'WITHSCORES', 'LIMIT', 0, 1)
+            if not checkpoint[1] then
+                return {}
+            end
+            local entries = redis.call('ZRANGEBYSCORE', KEYS[2], checkpoint[2], ARGV[1])
+            table.insert(entries, 1, checkpoint[1])
+            return entries
+            """, List.class);
+    
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisKeys redisKeys;
+    private final ObjectMapper objectMapper;
+    
+    /**
+     * Append the changes in one pipeline, one script per change
+     */
+    @Override
+    public void append(List<Change> changes, Compaction compaction) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        byte[] script = APPEND_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        byte[] retention = bytes(Long.toString(compaction.retention().toMillis()));
+        byte[] maxCheckpoints = bytes(Integer.toString(compaction.maxCheckpoints()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Change change : changes) {
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2,
+                    bytes(redisKeys.historyCheckpoints(change.uuid())), bytes(redisKeys.historyDeltas(change.uuid())),
+                    bytes(change.entry().getType().name()), bytes(write(change.entry())), retention, maxCheckpoints);
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public List<GroupHistoryEntry> findAsOf(String uuid, long asOf) {
+        List<?> result = stringRedisTemplate.execute(FIND_SCRIPT,
+            List.of(redisKeys.historyCheckpoints(uuid), redisKeys.historyDeltas(uuid)), Long.toString(asOf));
+        List<GroupHistoryEntry> entries = new ArrayList<>();
+        if (result != null) {
+            for (Object entry : result) {
+                entries.add(read(entry.toString()));
+            }
+        }
+        return entries;
+    }
+    
+    private String write(GroupHistoryEntry entry) {
+        try {
+            return objectMapper.writeValueAsString(entry);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize history entry of version " + entry.getVersion(), e);
+        }
+    }
+    
+    private GroupHistoryEntry read(String entry) {
+        try {
+            return objectMapper.readValue(entry, GroupHistoryEntry.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to read history entry: " + entry, e);
+        }
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,231 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the group reads of concurrent requests to Redis together, one pipeline per batch.
+ * <p>
+ * A read joins a queue, and if fewer than max-in-flight batches are being sent, the reader sends
+ * the queued reads itself right away. Otherwise it waits; the reader whose batch completes next hands
+ * the queue to the first waiting reader, which sends everything queued by then as the next batch.
+ * At low load every batch holds one read and costs no added latency; as load rises, the reads
+ * queued behind the batches in flight share round trips. Whole groups are read with HGETALL and
+ * projections, such as the fields an ancestor walk needs, with HMGET of those fields only. The same
+ * read made by several requests in one batch is sent once. Reads routed to the replica are batched
+ * apart from those on the primary.
+ */
+@Component
+@ConditionalOnRedisStorage
+public class GroupReadBatcher {
+    
+    private static final Object LEAD = new Object();
+    private static final Object MISSING = new Object();
+    
+    private final GroupHashRepository groupHashRepository;
+    private final OrganizationProperties.ReadBatching settings;
+    private final Lane primary;
+    private final Lane replica;
+    
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    
+    /**
+     * Reads sent so far, the batches they were sent in and the largest batch
+     */
+    public record Stats(long reads, long batches, int largestBatch) {
+    }
+    
+    private record Failure(RuntimeException exception) {
+    }
+    
+    private final class Lane {
+        
+        final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+        final Semaphore senders = new Semaphore(settings.getMaxInFlight());
+    }
+    
+    private static final class Pending {
+        
+        final GroupHashRepository.Read read;
+        final Thread reader = Thread.currentThread();
+        
+        // Null until the read completes or the reader is asked to send the next batch
+        volatile Object outcome;
+        
+        Pending(GroupHashRepository.Read read) {
+            this.read = read;
+        }
+        
+        void complete(Object value) {
+            outcome = value;
+            LockSupport.unpark(reader);
+        }
+        
+        Object await() {
+            boolean interrupted = false;
+            Object value;
+            while ((value = outcome) == null) {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        }
+    }
+    
+    public GroupReadBatcher(GroupHashRepository groupHashRepository, OrganizationProperties properties) {
+        this.groupHashRepository = groupHashRepository;
+        this.settings = properties.getReadBatching();
+        this.primary = new Lane();
+        this.replica = new Lane();
+    }
+    
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+    
+    /**
+     * Read a whole group as part of the next batch
+     *
+     * @return the group, which only this caller holds
+     */
+    public Optional<Group> find(String uuid) {
+        return Optional.ofNullable((Group) read(new GroupHashRepository.Read(uuid, null)));
+    }
+    
+    /**
+     * Read some fields of a group as part of the next batch, as {@link GroupHashRepository#findFields} does
+     *
+     * @return the fields, in a map only this caller holds
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields) {
+        return Optional.ofNullable((Map<GroupField, Object>) read(new GroupHashRepository.Read(uuid, fields)));
+    }
+    
+    public Stats getStats() {
+        return new Stats(reads.sum(), batches.sum(), largestBatch.get());
+    }
+    
+    /**
+     * @return the group or its fields, or null if it does not exist
+     */
+    private Object read(GroupHashRepository.Read read) {
+        Lane lane = ReplicaReadRouter.onReplica() ? replica : primary;
+        Pending pending = new Pending(read);
+        lane.queue.add(pending);
+        if (lane.senders.tryAcquire()) {
+            send(lane, null);
+        }
+        Object outcome;
+        while ((outcome = pending.await()) == LEAD) {
+            pending.outcome = null;
+            send(lane, pending);
+        }
+        if (outcome instanceof Failure failure) {
+            throw failure.exception();
+        }
+        return outcome == MISSING ? null : outcome;
+    }
+    
+    /**
+     * Send the queued reads, holding one of the lane's permits, then pass the permit on to a waiting reader
+     *
+     * @param first a reader asked to send, already taken off the queue
+     */
+    private void send(Lane lane, Pending first) {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            if (first != null) {
+                batch.add(first);
+            }
+            drain(lane, batch);
+            long window = settings.getWindow().toNanos();
+            if (window > 0 && batch.size() < settings.getMaxBatchSize()) {
+                LockSupport.parkNanos(window);
+                drain(lane, batch);
+            }
+            if (!batch.isEmpty()) {
+                fetch(batch);
+            }
+        } catch (RuntimeException e) {
+            Failure failure = new Failure(e);
+            for (Pending pending : batch) {
+                if (pending.outcome == null) {
+                    pending.complete(failure);
+                }
+            }
+        } finally {
+            lane.senders.release();
+            // A reader that queued after the last drain and found no permit is waiting for one
+            while (!lane.queue.isEmpty() && lane.senders.tryAcquire()) {
+                Pending next = lane.queue.poll();
+                if (next != null) {
+                    next.complete(LEAD);
+                    break;
+                }
+                lane.senders.release();
+            }
+        }
+    }
+    
+    private void drain(Lane lane, List<Pending> batch) {
+        Pending pending;
+        while (batch.size() < settings.getMaxBatchSize() && (pending = lane.queue.poll()) != null) {
+            batch.add(pending);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void fetch(List<Pending> batch) {
+        Set<GroupHashRepository.Read> distinct = new LinkedHashSet<>();
+        for (Pending pending : batch) {
+            distinct.add(pending.read);
+        }
+        List<GroupHashRepository.Read> sent = new ArrayList<>(distinct);
+        List<Object> results = groupHashRepository.readAll(sent);
+        Map<GroupHashRepository.Read, Object> values = new HashMap<>();
+        for (int i = 0; i < sent.size(); i++) {
+            values.put(sent.get(i), results.get(i));
+        }
+        reads.add(batch.size());
+        batches.increment();
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+        
+        // Readers of the same read each get their own instance, as they may modify it; the copies are
+        // taken before any reader is woken
+        Set<GroupHashRepository.Read> handedOut = new HashSet<>();
+        Object[] outcomes = new Object[batch.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            GroupHashRepository.Read read = batch.get(i).read;
+            Object value = values.get(read);
+            if (value == null) {
+                outcomes[i] = MISSING;
+            } else if (handedOut.add(read)) {
+                outcomes[i] = value;
+            } else {
+                outcomes[i] = value instanceof Group group ? GroupStore.copyOf(group)
+                    : new EnumMap<>((Map<GroupField, Object>) value);
+            }
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            batch.get(i).complete(outcomes[i]);
+        }
+    }
+}
@@ -0,0 +1,1318 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.event.GroupChangedEvent;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.MembershipStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * User memberships and the per-group membership counters.
+ * Every membership change runs as one script that also maintains the direct count of the
+ * group and the total (subtree) count of the group and its ancestors, so counts never
+ * drift from the sets and can be read in O(1). Next to each membership set a sorted set keeps
+ * the members by the time they joined, taken from the Redis clock, so recent joiners can be
+ * read as a range.
+ * Besides the {@link MembershipStore} operations it offers the scans and repairs of the consistency audit.
+ * <p>
+ * With Redis Cluster the user pointer lives in another slot than the membership keys of the
+ * tenant (see {@link RedisKeys}), so changes that involve it run in two steps: the membership
+ * set and counters first, then the pointer, undoing the first step if the pointer moved on.
+ * A failure in between leaves drift of the kind the consistency audit repairs.
+ */
+@Repository
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+public class MembershipRepository implements MembershipStore {
+    
+    public static final String DIRECT = "direct";
+    public static final String TOTAL = "total";
+    
+    /**
+     * Defines now, the Redis server time in epoch milliseconds, which all instances share
+     */
+    static final String NOW = """
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            """;
+    
+    /**
+     * KEYS: membership set, join times, user pointer, counters of the group and its ancestors.
+     * ARGV: user, group. Returns 1 if the user was added.
+     */
+    private static final String ADD_SCRIPT = NOW + """
+            local added = redis.call('SADD', KEYS[1], ARGV[1])
+            redis.call('SET', KEYS[3], ARGV[2])
+            if added == 1 then
+                redis.call('ZADD', KEYS[2], now, ARGV[1])
+                redis.call('HINCRBY', KEYS[4], 'direct', 1)
+                for i = 4, #KEYS do
+                    redis.call('HINCRBY', KEYS[i], 'total', 1)
+                end
+            end
+            return added
+            """;
+    
+    /**
+     * KEYS: membership set, join times, user pointer, counters of the group and its ancestors.
+     * ARGV: user, group, optionally the group the pointer must hold. Returns 0 if the user
+     * was not a member or the pointer does not hold the expected group.
+     * The pointer is only cleared if it points at this group.
+     */
+    private static final String REMOVE_SCRIPT = """
+            if ARGV[3] and redis.call('GET', KEYS[3]) ~= ARGV[3] then
+                return 0
+            end
+            if redis.call('SREM', KEYS[1], ARGV[1]) == 0 then
+                return 0
+            end
+            redis.call('ZREM', KEYS[2], ARGV[1])
+            if redis.call('GET', KEYS[3]) == ARGV[2] then
+                redis.call('DEL', KEYS[3])
+            end
+            redis.call('HINCRBY', KEYS[4], 'direct', -1)
+            for i = 4, #KEYS do
+                redis.call('HINCRBY', KEYS[i], 'total', -1)
+            end
+            return 1
+            """;
+    
+    /**
+     * Moves a chunk of users atomically, each one only if its pointer still holds the expected
+     * source group. Counter changes are summed over the chunk and applied once per group.
+     * Unless the pointer changed, the expiry of the source membership is dropped and the one of the
+     * target membership set or dropped, in the same call as the compare-and-set.
+     * KEYS: per move the user pointer, target set, target join times, source set and source join times,
+     * then the counters of all groups involved, then the expiry index.
+     * ARGV: number of moves, then per move the user, target group, expected source group (empty for none),
+     * the comma separated positions among the counters of the source and of the target lineage,
+     * the expiry of the target membership (empty for none), the member of the expiry index of the
+     * source membership (empty when there is none or it is the target) and that of the target membership.
+     * Returns per move 1 when moved, 0 when already in the target group, -1 when the pointer changed.
+     */
+    private static final String MOVE_SCRIPT = NOW + """
+            local moves = tonumber(ARGV[1])
+            local counters = moves * 5
+            local expiries = KEYS[#KEYS]
+            local direct = {}
+            local total = {}
+            local function adjust(lineage, by)
+                local first = true
+                for position in string.gmatch(lineage, '%d+') do
+                    local key = KEYS[counters + tonumber(position)]
+                    if first then
+                        direct[key] = (direct[key] or 0) + by
+                        first = false
+                    end
+                    total[key] = (total[key] or 0) + by
+                end
+            end
+            local results = {}
+            for m = 1, moves do
+                local k = 5 * (m - 1)
+                local pointer, targetSet, targetJoined = KEYS[k + 1], KEYS[k + 2], KEYS[k + 3]
+                local sourceSet, sourceJoined = KEYS[k + 4], KEYS[k + 5]
+                local a = 2 + (m - 1) * 8
+                local user, target, expected, expiresAt = ARGV[a], ARGV[a + 1], ARGV[a + 2], ARGV[a + 5]
+                local current = redis.call('GET', pointer) or ''
+                if current ~= expected then
+                    results[m] = -1
+                elseif current == target and redis.call('SISMEMBER', targetSet, user) == 1 then
+                    results[m] = 0
+                else
+                    if expected ~= '' and redis.call('SREM', sourceSet, user) == 1 then
+                        redis.call('ZREM', sourceJoined, user)
+                        adjust(ARGV[a + 3], -1)
+                    end
+                    if redis.call('SADD', targetSet, user) == 1 then
+                        redis.call('ZADD', targetJoined, now, user)
+                        adjust(ARGV[a + 4], 1)
+                    end
+                    redis.call('SET', pointer, target)
+                    results[m] = 1
+                end
+                if results[m] >= 0 then
+                    if ARGV[a + 6] ~= '' then
+                        redis.call('ZREM', expiries, ARGV[a + 6])
+                    end
+                    if expiresAt == '' then
+                        redis.call('ZREM', expiries, ARGV[a + 7])
+                    else
+                        redis.call('ZADD', expiries, expiresAt, ARGV[a + 7])
+                    end
+                end
+            end
+            for key, by in pairs(direct) do
+                if by ~= 0 then
+                    redis.call('HINCRBY', key, 'direct', by)
+                end
+            end
+            for key, by in pairs(total) do
+                if by ~= 0 then
+                    redis.call('HINCRBY', key, 'total', by)
+                end
+            end
+            return results
+            """;
+    
+    /**
+     * KEYS: membership set, join times, counters of the group and its ancestors.
+     * Returns the number of members removed.
+     */
+    private static final String DELETE_GROUP_SCRIPT = """
+            local count = redis.call('SCARD', KEYS[1])
+            redis.call('DEL', KEYS[1], KEYS[2], KEYS[3])
+            if count > 0 then
+                for i = 4, #KEYS do
+                    redis.call('HINCRBY', KEYS[i], 'total', -count)
+                end
+            end
+            return count
+            """;
+    
+    /**
+     * KEYS: membership set, counters of the group, counters of its children, then the group hash
+     * unless clustered (it lives in another slot and is checked beforehand). ARGV: number of children.
+     * Sets the group's counters from the set size and the children's totals, so recounting
+     * children before parents rebuilds consistent counters even while memberships change.
+     * Returns the previous direct and total counts followed by the recounted ones,
+     * or nothing if the group does not exist.
+     */
+    private static final String RECOUNT_SCRIPT = """
+            local children = tonumber(ARGV[1])
+            if #KEYS > children + 2 and redis.call('EXISTS', KEYS[#KEYS]) == 0 then
+                return {}
+            end
+            local previous = redis.call('HMGET', KEYS[2], 'direct', 'total')
+            local direct = redis.call('SCARD', KEYS[1])
+            local total = direct
+            for i = 3, children + 2 do
+                total = total + tonumber(redis.call('HGET', KEYS[i], 'total') or '0')
+            end
+            redis.call('HSET', KEYS[2], 'direct', direct, 'total', total)
+            return {tonumber(previous[1] or '0'), tonumber(previous[2] or '0'), direct, total}
+            """;
+    
+    /**
+     * KEYS: user pointer, membership set of the group. ARGV: user, group.
+     * Deletes the pointer only if it still holds the group and the user is not a member of it.
+     */
+    private static final String DELETE_POINTER_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[2] and redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 0 then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+    
+    /**
+     * KEYS: user pointer, membership set of the group. ARGV: user, group.
+     * Points a user without a pointer at the group, if the user is still a member of it.
+     */
+    private static final String RESTORE_POINTER_SCRIPT = """
+            if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 and redis.call('SET', KEYS[1], ARGV[2], 'NX') then
+                return 1
+            end
+            return 0
+            """;
+    
+    /**
+     * Cluster mode membership change without the user pointer.
+     * KEYS: membership set, join times, counters of the group and its ancestors.
+     * ARGV: 1 to add or -1 to remove, the users.
+     * Returns per user 1 if added or removed, 0 if already in or not in the set.
+     */
+    private static final String MEMBERS_SCRIPT = NOW + """
+            local by = tonumber(ARGV[1])
+            local changed = 0
+            local results = {}
+            for i = 2, #ARGV do
+                if by > 0 then
+                    results[i - 1] = redis.call('SADD', KEYS[1], ARGV[i])
+                    if results[i - 1] == 1 then
+                        redis.call('ZADD', KEYS[2], now, ARGV[i])
+                    end
+                else
+                    results[i - 1] = redis.call('SREM', KEYS[1], ARGV[i])
+                    redis.call('ZREM', KEYS[2], ARGV[i])
+                end
+                changed = changed + results[i - 1]
+            end
+            if changed > 0 then
+                redis.call('HINCRBY', KEYS[3], 'direct', by * changed)
+                for i = 3, #KEYS do
+                    redis.call('HINCRBY', KEYS[i], 'total', by * changed)
+                end
+            end
+            return results
+            """;
+    
+    /**
+     * Cluster mode compare-and-set of a user pointer. KEYS: user pointer.
+     * ARGV: the group it must hold (empty for none), the new group (empty to delete it).
+     * Returns 1 if the pointer held the expected group.
+     */
+    private static final String POINTER_SCRIPT = """
+            if (redis.call('GET', KEYS[1]) or '') ~= ARGV[1] then
+                return 0
+            end
+            if ARGV[2] == '' then
+                redis.call('DEL', KEYS[1])
+            else
+                redis.call('SET', KEYS[1], ARGV[2])
+            end
+            return 1
+            """;
+    
+    /**
+     * KEYS: expiry index. ARGV: now, limit, lease end.
+     * Returns the members and scores of up to limit expiries due by now, rescored to the lease end.
+     */
+    private static final String CLAIM_EXPIRIES_SCRIPT = """
+            local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, ARGV[2])
+            for i = 1, #due, 2 do
+                redis.call('ZADD', KEYS[1], ARGV[3], due[i])
+            end
+            return due
+            """;
+    
+    /**
+     * KEYS: expiry index, membership set, join times, user pointer, counters of the group and its ancestors.
+     * ARGV: expiry member, user, group, lease end. Drops the expiry if it is still claimed, and
+     * then removes the user as the remove script does. Returns 1 if the user was removed.
+     */
+    private static final String EXPIRE_SCRIPT = """
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if not score or tonumber(score) ~= tonumber(ARGV[4]) then
+                return 0
+            end
+            redis.call('ZREM', KEYS[1], ARGV[1])
+            if redis.call('SREM', KEYS[2], ARGV[2]) == 0 then
+                return 0
+            end
+            redis.call('ZREM', KEYS[3], ARGV[2])
+            if redis.call('GET', KEYS[4]) == ARGV[3] then
+                redis.call('DEL', KEYS[4])
+            end
+            redis.call('HINCRBY', KEYS[5], 'direct', -1)
+            for i = 5, #KEYS do
+                redis.call('HINCRBY', KEYS[i], 'total', -1)
+            end
+            return 1
+            """;
+    
+    /**
+     * Cluster mode first step of ending a membership. KEYS: expiry index. ARGV: expiry member, lease end.
+     * Drops the expiry and returns 1 if it is still claimed.
+     */
+    private static final String RELEASE_EXPIRY_SCRIPT = """
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if score and tonumber(score) == tonumber(ARGV[2]) then
+                return redis.call('ZREM', KEYS[1], ARGV[1])
+            end
+            return 0
+            """;
+    
+    /**
+     * KEYS: join times. ARGV: since, the member after which to start among those that joined at
+     * since or an empty string, limit. Returns the members that joined at or after since and their
+     * join times, leaving out the current millisecond, in which more members may still join.
+     * Members with the same join time are ordered by their bytes, so the start is found by a
+     * binary search over that run whether or not the after member is still in it.
+     */
+    private static final String JOINED_SCRIPT = NOW + """
+            local function greater(a, b)
+                for i = 1, math.min(#a, #b) do
+                    local x, y = string.byte(a, i), string.byte(b, i)
+                    if x ~= y then
+                        return x > y
+                    end
+                end
+                return #a > #b
+            end
+            local first = redis.call('ZCOUNT', KEYS[1], '-inf', '(' .. ARGV[1])
+            if ARGV[2] ~= '' then
+                local low, high = first, first + redis.call('ZCOUNT', KEYS[1], ARGV[1], ARGV[1])
+                while low < high do
+                    local middle = math.floor((low + high) / 2)
+                    if greater(redis.call('ZRANGE', KEYS[1], middle, middle)[1], ARGV[2]) then
+                        high = middle
+                    else
+                        low = middle + 1
+                    end
+                end
+                first = low
+            end
+            local found = redis.call('ZRANGE', KEYS[1], first, first + tonumber(ARGV[3]) - 1, 'WITHSCORES')
+            local page = {}
+            for i = 1, #found, 2 do
+                if tonumber(found[i + 1]) >= now then
+                    break
+                end
+                page[#page + 1] = found[i]
+                page[#page + 1] = found[i + 1]
+            end
+            return page
+            """;
+    
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final GroupHashRepository groupHashRepository;
+    private final RedisKeys redisKeys;
+    private final OrganizationProperties properties;
+    
+    // Root group of the groups whose keys were built lately, in cluster mode
+    private final Map<String, String> tenants = new ConcurrentHashMap<>();
+    
+    /**
+     * Add a user to a group and point the user at it
+     *
+     * @param lineage the group followed by its ancestors, nearest first
+     * @return true if the user was not a member yet
+     */
+    @Override
+    public boolean add(List<String> lineage, String userId) {
+        String groupUuid = lineage.get(0);
+        if (redisKeys.isClustered()) {
+            boolean added = changeMembers(List.of(new MemberChange(lineage, List.of(userId))), 1).get(0).get(0) == 1;
+            redisTemplate.opsForValue().set(redisKeys.pointer(userId), groupUuid);
+            return added;
+        }
+        List<byte[]> keys = new ArrayList<>();
+        keys.add(key(redisKeys.members(null, groupUuid)));
+        keys.add(key(redisKeys.joined(null, groupUuid)));
+        keys.add(key(redisKeys.pointer(userId)));
+        addCounterKeys(keys, null, lineage);
+        return eval(ADD_SCRIPT, keys, value(userId), value(groupUuid)) == 1;
+    }
+    
+    /**
+     * Remove a user from a group, and clear the user's pointer if it points at the group
+     *
+     * @param lineage the group followed by its ancestors, nearest first
+     * @return false if the user was not a member
+     */
+    @Override
+    public boolean remove(List<String> lineage, String userId) {
+        String groupUuid = lineage.get(0);
+        if (redisKeys.isClustered()) {
+            boolean removed = changeMembers(List.of(new MemberChange(lineage, List.of(userId))), -1).get(0).get(0) == 1;
+            if (removed) {
+                swapPointers(List.of(new PointerSwap(userId, groupUuid, "")));
+            }
+            return removed;
+        }
+        List<byte[]> keys = new ArrayList<>();
+        keys.add(key(redisKeys.members(null, groupUuid)));
+        keys.add(key(redisKeys.joined(null, groupUuid)));
+        keys.add(key(redisKeys.pointer(userId)));
+        addCounterKeys(keys, null, lineage);
+        return eval(REMOVE_SCRIPT, keys, value(userId), value(groupUuid)) == 1;
+    }
+    
+    /**
+     * Apply many moves as one atomic script, with one counter update per group involved
+     *
+     * @return the result of each move, as for {@link #move(Move)}
+     */
+    @Override
+    public List<Long> moveAll(List<Move> moves) {
+        if (redisKeys.isClustered()) {
+            return moveAllClustered(moves);
+        }
+        List<byte[]> keys = new ArrayList<>(moves.size() * 5);
+        List<byte[]> args = new ArrayList<>(moves.size() * 8 + 1);
+        Map<String, Integer> counterPositions = new LinkedHashMap<>();
+        args.add(Integer.toString(moves.size()).getBytes(StandardCharsets.UTF_8));
+        for (Move move : moves) {
+            List<String> sourceLineage = move.sourceLineage();
+            String targetUuid = move.targetLineage().get(0);
+            byte[] targetSet = key(redisKeys.members(null, targetUuid));
+            byte[] targetJoined = key(redisKeys.joined(null, targetUuid));
+            keys.add(key(redisKeys.pointer(move.userId())));
+            keys.add(targetSet);
+            keys.add(targetJoined);
+            // Without a source group the target keys stand in, so every move has five keys
+            keys.add(sourceLineage.isEmpty() ? targetSet : key(redisKeys.members(null, sourceLineage.get(0))));
+            keys.add(sourceLineage.isEmpty() ? targetJoined : key(redisKeys.joined(null, sourceLineage.get(0))));
+            
+            args.add(value(move.userId()));
+            args.add(value(targetUuid));
+            args.add(sourceLineage.isEmpty() ? new byte[0] : value(sourceLineage.get(0)));
+            args.add(positions(sourceLineage, counterPositions));
+            args.add(positions(move.targetLineage(), counterPositions));
+            args.add(move.expiresAt() == null ? new byte[0] : bytes(move.expiresAt().toString()));
+            args.add(sourceLineage.isEmpty() || sourceLineage.get(0).equals(targetUuid) ? new byte[0]
+                : bytes(expiryMember(sourceLineage.get(0), move.userId())));
+            args.add(bytes(expiryMember(targetUuid, move.userId())));
+        }
+        for (String groupUuid : counterPositions.keySet()) {
+            keys.add(counterKey(null, groupUuid));
+        }
+        keys.add(bytes(redisKeys.expiries()));
+        
+        byte[][] keysAndArgs = keysAndArgs(keys, args.toArray(new byte[0][]));
+        List<Object> results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> connection.scriptingCommands()
+            .eval(MOVE_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.MULTI, keys.size(), keysAndArgs));
+        
+        List<Long> moved = new ArrayList<>(moves.size());
+        for (Object result : results) {
+            moved.add((Long) result);
+        }
+        return moved;
+    }
+    
+    private static byte[] positions(List<String> lineage, Map<String, Integer> counterPositions) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (String groupUuid : lineage) {
+            joiner.add(counterPositions.computeIfAbsent(groupUuid, uuid -> counterPositions.size() + 1).toString());
+        }
+        return joiner.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * The moves in cluster mode: users join their target groups first, so a moved user is never
+     * without a group, then their pointers are swapped. Users whose pointer no longer holds the
+     * expected source leave the target again; the others leave their source group, and the
+     * expiries of the memberships they left and joined are updated last.
+     */
+    private List<Long> moveAllClustered(List<Move> moves) {
+        boolean[] all = new boolean[moves.size()];
+        Arrays.fill(all, true);
+        boolean[] added = changeMembers(moves, all, Move::targetLineage, 1);
+        
+        List<PointerSwap> swaps = new ArrayList<>(moves.size());
+        for (Move move : moves) {
+            swaps.add(new PointerSwap(move.userId(), sourceOf(move), move.targetLineage().get(0)));
+        }
+        List<Boolean> swapped = swapPointers(swaps);
+        
+        List<Long> results = new ArrayList<>(moves.size());
+        boolean[] undo = new boolean[moves.size()];
+        boolean[] leave = new boolean[moves.size()];
+        for (int i = 0; i < moves.size(); i++) {
+            String source = sourceOf(moves.get(i));
+            if (!swapped.get(i)) {
+                undo[i] = added[i];
+                results.add(POINTER_CHANGED);
+            } else if (source.equals(moves.get(i).targetLineage().get(0))) {
+                results.add(added[i] ? MOVED : UNCHANGED);
+            } else {
+                leave[i] = !source.isEmpty();
+                results.add(MOVED);
+            }
+        }
+        changeMembers(moves, undo, Move::targetLineage, -1);
+        changeMembers(moves, leave, Move::sourceLineage, -1);
+        updateExpiries(moves, results);
+        return results;
+    }
+    
+    /**
+     * Cluster mode: the expiry index lives in a slot of its own, so the expiries of the moves
+     * that went through are updated in one pipeline after the moves
+     */
+    private void updateExpiries(List<Move> moves, List<Long> results) {
+        byte[] expiries = bytes(redisKeys.expiries());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < moves.size(); i++) {
+                if (results.get(i) == POINTER_CHANGED) {
+                    continue;
+                }
+                Move move = moves.get(i);
+                String source = sourceOf(move);
+                String target = move.targetLineage().get(0);
+                if (!source.isEmpty() && !source.equals(target)) {
+                    connection.zSetCommands().zRem(expiries, bytes(expiryMember(source, move.userId())));
+                }
+                byte[] member = bytes(expiryMember(target, move.userId()));
+                if (move.expiresAt() == null) {
+                    connection.zSetCommands().zRem(expiries, member);
+                } else {
+                    connection.zSetCommands().zAdd(expiries, move.expiresAt(), member);
+                }
+            }
+            return null;
+        });
+    }
+    
+    private static String sourceOf(Move move) {
+        return move.sourceLineage().isEmpty() ? "" : move.sourceLineage().get(0);
+    }
+    
+    /**
+     * Add or remove the users of the selected moves, grouped by the group the lineage leads to
+     *
+     * @return per move whether its user was added or removed
+     */
+    private boolean[] changeMembers(List<Move> moves, boolean[] selected, Function<Move, List<String>> lineageOf, int by) {
+        Map<String, List<Integer>> byGroup = new LinkedHashMap<>();
+        for (int i = 0; i < moves.size(); i++) {
+            if (selected[i]) {
+                byGroup.computeIfAbsent(lineageOf.apply(moves.get(i)).get(0), uuid -> new ArrayList<>()).add(i);
+            }
+        }
+        boolean[] changed = new boolean[moves.size()];
+        if (byGroup.isEmpty()) {
+            return changed;
+        }
+        List<MemberChange> changes = new ArrayList<>(byGroup.size());
+        for (List<Integer> indexes : byGroup.values()) {
+            List<String> userIds = new ArrayList<>(indexes.size());
+            indexes.forEach(i -> userIds.add(moves.get(i).userId()));
+            changes.add(new MemberChange(lineageOf.apply(moves.get(indexes.get(0))), userIds));
+        }
+        List<List<Long>> results = changeMembers(changes, by);
+        int group = 0;
+        for (List<Integer> indexes : byGroup.values()) {
+            for (int j = 0; j < indexes.size(); j++) {
+                changed[indexes.get(j)] = results.get(group).get(j) == 1;
+            }
+            group++;
+        }
+        return changed;
+    }
+    
+    /**
+     * Cluster mode: add (by 1) or remove (by -1) users, one script per group, in one pipeline
+     * that reaches the nodes of all tenants involved in parallel
+     *
+     * @return per change whether each of its users was added or removed
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<Long>> changeMembers(List<MemberChange> changes, int by) {
+        byte[] script = MEMBERS_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (MemberChange change : changes) {
+                String tenant = tenantOf(change.lineage());
+                List<byte[]> keys = new ArrayList<>();
+                keys.add(key(redisKeys.members(tenant, change.lineage().get(0))));
+                keys.add(key(redisKeys.joined(tenant, change.lineage().get(0))));
+                addCounterKeys(keys, tenant, change.lineage());
+                byte[][] args = new byte[change.userIds().size() + 1][];
+                args[0] = Integer.toString(by).getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i < change.userIds().size(); i++) {
+                    args[i + 1] = value(change.userIds().get(i));
+                }
+                connection.scriptingCommands().eval(script, ReturnType.MULTI, keys.size(), keysAndArgs(keys, args));
+            }
+            return null;
+        });
+        List<List<Long>> changed = new ArrayList<>(results.size());
+        results.forEach(result -> changed.add((List<Long>) result));
+        return changed;
+    }
+    
+    /**
+     * Cluster mode: compare-and-set user pointers in one pipeline
+     *
+     * @return per swap whether the pointer held the expected group
+     */
+    private List<Boolean> swapPointers(List<PointerSwap> swaps) {
+        byte[] script = POINTER_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PointerSwap swap : swaps) {
+                byte[] expected = swap.expected().isEmpty() ? new byte[0] : value(swap.expected());
+                byte[] updated = swap.updated().isEmpty() ? new byte[0] : value(swap.updated());
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1,
+                    key(redisKeys.pointer(swap.userId())), expected, updated);
+            }
+            return null;
+        });
+        List<Boolean> swapped = new ArrayList<>(results.size());
+        results.forEach(result -> swapped.add(Long.valueOf(1).equals(result)));
+        return swapped;
+    }
+    
+    /**
+     * Drop all memberships of a group without children and take them off its ancestors' totals
+     *
+     * @param lineage the group followed by its ancestors, nearest first
+     */
+    @Override
+    public long deleteGroup(List<String> lineage) {
+        String tenant = tenantOf(lineage);
+        List<byte[]> keys = new ArrayList<>();
+        keys.add(key(redisKeys.members(tenant, lineage.get(0))));
+        keys.add(key(redisKeys.joined(tenant, lineage.get(0))));
+        addCounterKeys(keys, tenant, lineage);
+        long removed = eval(DELETE_GROUP_SCRIPT, keys);
+        tenants.remove(lineage.get(0));
+        return removed;
+    }
+    
+    /**
+     * Cluster mode: move the membership keys of the subtree into the slot of its new root.
+     * Not atomic, like the repairs of the audit that detaches groups; the counters of former
+     * ancestors are left for it to recount.
+     */
+    @Override
+    public void reroot(List<String> subtree) {
+        if (!redisKeys.isClustered()) {
+            return;
+        }
+        String root = subtree.get(0);
+        Map<String, String> former = tenantsOf(subtree);
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            for (String groupUuid : subtree) {
+                String tenant = former.get(groupUuid);
+                if (!tenant.equals(root)) {
+                    moveKey(connection, key(redisKeys.members(tenant, groupUuid)), key(redisKeys.members(root, groupUuid)));
+                    moveKey(connection, key(redisKeys.joined(tenant, groupUuid)), key(redisKeys.joined(root, groupUuid)));
+                    moveKey(connection, counterKey(tenant, groupUuid), counterKey(root, groupUuid));
+                }
+                tenants.put(groupUuid, root);
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Another instance detached a subtree, whose groups now have a new tenant. The change names
+     * only the root of the subtree, and detaching is rare, so all tenants are looked up again.
+     */
+    @EventListener(condition = "#event.remote && #event.rerooted")
+    public void onRerooted(GroupChangedEvent event) {
+        tenants.clear();
+    }
+    
+    private static void moveKey(RedisConnection connection, byte[] from, byte[] to) {
+        byte[] dump = connection.keyCommands().dump(from);
+        if (dump != null) {
+            connection.keyCommands().restore(to, 0, dump, true);
+            connection.keyCommands().del(from);
+        }
+    }
+    
+    /**
+     * Record when the user's membership of the group expires, scored by that time in the expiry set;
+     * a later call for the same membership replaces the time
+     */
+    @Override
+    public void setExpiry(Expiry expiry) {
+        stringRedisTemplate.opsForZSet().add(redisKeys.expiries(), expiryMember(expiry.groupUuid(), expiry.userId()),
+            expiry.expiresAt());
+    }
+    
+    @Override
+    public void clearExpiry(String userId, String groupUuid) {
+        stringRedisTemplate.opsForZSet().remove(redisKeys.expiries(), expiryMember(groupUuid, userId));
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Expiry> claimDueExpiries(long now, int limit, long leaseUntil) {
+        List<byte[]> due = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection
+            .scriptingCommands().eval(CLAIM_EXPIRIES_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.MULTI, 1,
+                bytes(redisKeys.expiries()), bytes(Long.toString(now)), bytes(Integer.toString(limit)),
+                bytes(Long.toString(leaseUntil))));
+        List<Expiry> claimed = new ArrayList<>();
+        if (due == null) {
+            return claimed;
+        }
+        for (int i = 0; i + 1 < due.size(); i += 2) {
+            String member = new String(due.get(i), StandardCharsets.UTF_8);
+            long expiresAt = (long) Double.parseDouble(new String(due.get(i + 1), StandardCharsets.UTF_8));
+            int separator = member.indexOf(':');
+            claimed.add(new Expiry(member.substring(separator + 1), member.substring(0, separator), expiresAt));
+        }
+        return claimed;
+    }
+    
+    @Override
+    public long expire(List<Expiry> claimed, long leaseUntil, Map<String, List<String>> lineages) {
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+        if (redisKeys.isClustered()) {
+            return expireClustered(claimed, leaseUntil, lineages);
+        }
+        byte[] script = EXPIRE_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        byte[] lease = bytes(Long.toString(leaseUntil));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Expiry expiry : claimed) {
+                List<String> lineage = lineageOf(expiry, lineages);
+                List<byte[]> keys = new ArrayList<>();
+                keys.add(bytes(redisKeys.expiries()));
+                keys.add(key(redisKeys.members(null, expiry.groupUuid())));
+                keys.add(key(redisKeys.joined(null, expiry.groupUuid())));
+                keys.add(key(redisKeys.pointer(expiry.userId())));
+                addCounterKeys(keys, null, lineage);
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, keys.size(), keysAndArgs(keys,
+                    bytes(expiryMember(expiry.groupUuid(), expiry.userId())), value(expiry.userId()),
+                    value(expiry.groupUuid()), lease));
+            }
+            return null;
+        });
+        return results.stream().filter(result -> Long.valueOf(1).equals(result)).count();
+    }
+    
+    /**
+     * Cluster mode: drop the expiries still claimed, then remove their users per group and
+     * clear the pointers that hold the group. A failure in between is left to the audit.
+     */
+    private long expireClustered(List<Expiry> claimed, long leaseUntil, Map<String, List<String>> lineages) {
+        byte[] script = RELEASE_EXPIRY_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        byte[] lease = bytes(Long.toString(leaseUntil));
+        List<Object> released = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Expiry expiry : claimed) {
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1, bytes(redisKeys.expiries()),
+                    bytes(expiryMember(expiry.groupUuid(), expiry.userId())), lease);
+            }
+            return null;
+        });
+        
+        Map<String, List<String>> usersByGroup = new LinkedHashMap<>();
+        for (int i = 0; i < claimed.size(); i++) {
+            if (Long.valueOf(1).equals(released.get(i))) {
+                usersByGroup.computeIfAbsent(claimed.get(i).groupUuid(), uuid -> new ArrayList<>()).add(claimed.get(i).userId());
+            }
+        }
+        if (usersByGroup.isEmpty()) {
+            return 0;
+        }
+        List<MemberChange> changes = new ArrayList<>(usersByGroup.size());
+        usersByGroup.forEach((groupUuid, userIds) -> changes.add(new MemberChange(
+            lineages.getOrDefault(groupUuid, List.of(groupUuid)), userIds)));
+        List<List<Long>> results = changeMembers(changes, -1);
+        
+        List<PointerSwap> swaps = new ArrayList<>();
+        for (int c = 0; c < changes.size(); c++) {
+            MemberChange change = changes.get(c);
+            for (int u = 0; u < change.userIds().size(); u++) {
+                if (results.get(c).get(u) == 1) {
+                    swaps.add(new PointerSwap(change.userIds().get(u), change.lineage().get(0), ""));
+                }
+            }
+        }
+        if (!swaps.isEmpty()) {
+            swapPointers(swaps);
+        }
+        return swaps.size();
+    }
+    
+    /**
+     * A group gone since the expiry was set has no memberships and no counters to adjust
+     */
+    private static List<String> lineageOf(Expiry expiry, Map<String, List<String>> lineages) {
+        return lineages.getOrDefault(expiry.groupUuid(), List.of(expiry.groupUuid()));
+    }
+    
+    /**
+     * Member of the expiry index; group UUIDs never contain the colon, user IDs may
+     */
+    private static String expiryMember(String groupUuid, String userId) {
+        return groupUuid + ":" + userId;
+    }
+    
+    @Override
+    public Optional<String> findGroupOfUser(String userId) {
+        Object groupUuid = redisTemplate.opsForValue().get(redisKeys.pointer(userId));
+        return Optional.ofNullable((String) groupUuid);
+    }
+    
+    /**
+     * The current groups of many users with a single MGET, null for users without a group.
+     * In cluster mode the MGET is split by node.
+     */
+    @Override
+    public List<String> findGroupsOfUsers(List<String> userIds) {
+        List<String> keys = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            keys.add(redisKeys.pointer(userId));
+        }
+        List<Object> groupUuids = redisTemplate.opsForValue().multiGet(keys);
+        
+        List<String> result = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            result.add(groupUuids != null ? (String) groupUuids.get(i) : null);
+        }
+        return result;
+    }
+    
+    /**
+     * The current groups of many users, one MGET per chunk, all sent in a single pipeline.
+     * In cluster mode, where an MGET cannot span slots, the pipeline holds a GET per user instead.
+     *
+     * @return the group of each user in order of the chunks, null for users without a group
+     */
+    @Override
+    public List<String> findGroupsOfUsersPipelined(List<List<String>> chunks) {
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (List<String> chunk : chunks) {
+                if (redisKeys.isClustered()) {
+                    chunk.forEach(userId -> connection.stringCommands().get(key(redisKeys.pointer(userId))));
+                    continue;
+                }
+                byte[][] keys = new byte[chunk.size()][];
+                for (int i = 0; i < chunk.size(); i++) {
+                    keys[i] = key(redisKeys.pointer(chunk.get(i)));
+                }
+                connection.stringCommands().mGet(keys);
+            }
+            return null;
+        });
+        
+        List<String> groupUuids = new ArrayList<>();
+        for (Object result : results) {
+            if (result instanceof List<?> values) {
+                values.forEach(groupUuid -> groupUuids.add((String) groupUuid));
+            } else {
+                groupUuids.add((String) result);
+            }
+        }
+        return groupUuids;
+    }
+    
+    /**
+     * Iterate the groups that have a membership set, in batches, with SCAN
+     */
+    public void scanMembershipSets(int batchSize, Consumer<List<String>> batches) {
+        scanKeys(redisKeys.membersPattern(), key -> {
+            String[] parsed = redisKeys.parseMembers(key);
+            if (parsed == null) {
+                return null;
+            }
+            if (parsed[0] != null) {
+                // Sets of deleted groups can only be found by their key
+                remember(parsed[1], parsed[0]);
+            }
+            return parsed[1];
+        }, batchSize, batches);
+    }
+    
+    /**
+     * Iterate the users that have a group pointer, in batches, with SCAN
+     */
+    public void scanPointers(int batchSize, Consumer<List<String>> batches) {
+        scanKeys(redisKeys.pointersPattern(), redisKeys::parsePointer, batchSize, batches);
+    }
+    
+    /**
+     * Iterate the members of a group in batches with SSCAN
+     */
+    public void scanMembers(String groupUuid, int batchSize, Consumer<List<String>> batches) {
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        String key = redisKeys.members(tenantOf(groupUuid), groupUuid);
+        try (Cursor<Object> cursor = redisTemplate.opsForSet().scan(key, options)) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next().toString());
+                if (batch.size() == batchSize) {
+                    batches.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.accept(batch);
+            }
+        }
+    }
+    
+    /**
+     * SCAN for keys written through the RedisTemplate serializers, keeping the IDs the parser
+     * finds in them. The serialized keys end with the plain key text, hence the leading wildcard.
+     * In cluster mode every master is scanned, all in parallel, handing over one batch at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private void scanKeys(String pattern, Function<String, String> parser, int batchSize, Consumer<List<String>> batches) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        ScanOptions options = ScanOptions.scanOptions().match("*" + pattern).count(batchSize).build();
+        if (!redisKeys.isClustered()) {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                    collect(cursor, keySerializer, parser, batchSize, batches);
+                }
+                return null;
+            });
+            return;
+        }
+        
+        List<RedisClusterNode> masters = new ArrayList<>();
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            ((RedisClusterConnection) connection).clusterGetNodes().forEach(node -> {
+                if (node.isMaster()) {
+                    masters.add(node);
+                }
+            });
+            return null;
+        });
+        Object lock = new Object();
+        Consumer<List<String>> handOver = batch -> {
+            synchronized (lock) {
+                batches.accept(batch);
+            }
+        };
+        List<CompletableFuture<Void>> scans = new ArrayList<>(masters.size());
+        for (RedisClusterNode master : masters) {
+            scans.add(CompletableFuture.runAsync(() -> redisTemplate.execute((RedisCallback<Void>) connection -> {
+                try (Cursor<byte[]> cursor = ((RedisClusterConnection) connection).scan(master, options)) {
+                    collect(cursor, keySerializer, parser, batchSize, handOver);
+                }
+                return null;
+            })));
+        }
+        try {
+            CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+    
+    private static void collect(Cursor<byte[]> cursor, RedisSerializer<String> keySerializer,
+                                Function<String, String> parser, int batchSize, Consumer<List<String>> batches) {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (cursor.hasNext()) {
+            String id;
+            try {
+                String key = keySerializer.deserialize(cursor.next());
+                id = key != null ? parser.apply(key) : null;
+            } catch (SerializationException e) {
+                // A key written by some other client that happens to match the pattern
+                continue;
+            }
+            if (id == null) {
+                continue;
+            }
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                batches.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.accept(batch);
+        }
+    }
+    
+    /**
+     * Check in one pipeline whether each user is a member of the paired group
+     */
+    public List<Boolean> areMembers(List<String> groupUuids, List<String> userIds) {
+        Map<String, String> groupTenants = tenantsOf(groupUuids);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < groupUuids.size(); i++) {
+                String groupUuid = groupUuids.get(i);
+                connection.setCommands().sIsMember(key(redisKeys.members(groupTenants.get(groupUuid), groupUuid)),
+                    value(userIds.get(i)));
+            }
+            return null;
+        });
+        List<Boolean> members = new ArrayList<>(results.size());
+        results.forEach(result -> members.add(Boolean.TRUE.equals(result)));
+        return members;
+    }
+    
+    /**
+     * Sizes of the membership sets of the given groups in one pipeline
+     */
+    public List<Long> countMembers(List<String> groupUuids) {
+        Map<String, String> groupTenants = tenantsOf(groupUuids);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String groupUuid : groupUuids) {
+                connection.setCommands().sCard(key(redisKeys.members(groupTenants.get(groupUuid), groupUuid)));
+            }
+            return null;
+        });
+        List<Long> sizes = new ArrayList<>(results.size());
+        results.forEach(result -> sizes.add((Long) result));
+        return sizes;
+    }
+    
+    /**
+     * Rebuild the counters of a group from its set size and the totals of its children
+     *
+     * @return the previous direct and total counts followed by the recounted ones,
+     *         or empty if the group does not exist
+     */
+    public Optional<long[]> recount(String groupUuid, Collection<String> childUuids) {
+        String tenant = tenantOf(groupUuid);
+        List<byte[]> keys = new ArrayList<>();
+        keys.add(key(redisKeys.members(tenant, groupUuid)));
+        keys.add(counterKey(tenant, groupUuid));
+        childUuids.forEach(child -> keys.add(counterKey(tenant, child)));
+        if (!redisKeys.isClustered()) {
+            keys.add(redisKeys.group(groupUuid).getBytes(StandardCharsets.UTF_8));
+        } else if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(redisKeys.group(groupUuid)))) {
+            return Optional.empty();
+        }
+        byte[][] keysAndArgs = keysAndArgs(keys, Integer.toString(childUuids.size()).getBytes(StandardCharsets.UTF_8));
+        
+        List<Object> results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> connection.scriptingCommands()
+            .eval(RECOUNT_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.MULTI, keys.size(), keysAndArgs));
+        if (results == null || results.isEmpty()) {
+            return Optional.empty();
+        }
+        long[] counts = new long[4];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = (Long) results.get(i);
+        }
+        return Optional.of(counts);
+    }
+    
+    /**
+     * Remove a user from a group they are in besides the group their pointer holds.
+     * Nothing changes unless the pointer still holds pointerGroupUuid.
+     */
+    public boolean removeDuplicate(List<String> lineage, String userId, String pointerGroupUuid) {
+        if (redisKeys.isClustered()) {
+            // The pointer is checked first; a move in between is left to the next audit
+            if (!pointerGroupUuid.equals(findGroupOfUser(userId).orElse(null))) {
+                return false;
+            }
+            return changeMembers(List.of(new MemberChange(lineage, List.of(userId))), -1).get(0).get(0) == 1;
+        }
+        List<byte[]> keys = new ArrayList<>();
+        keys.add(key(redisKeys.members(null, lineage.get(0))));
+        keys.add(key(redisKeys.joined(null, lineage.get(0))));
+        keys.add(key(redisKeys.pointer(userId)));
+        addCounterKeys(keys, null, lineage);
+        return eval(REMOVE_SCRIPT, keys, value(userId), value(lineage.get(0)), value(pointerGroupUuid)) == 1;
+    }
+    
+    /**
+     * Point a member without a pointer back at the group
+     */
+    public boolean restorePointer(String userId, String groupUuid) {
+        String members = redisKeys.members(tenantOf(groupUuid), groupUuid);
+        if (redisKeys.isClustered()) {
+            return Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(members, userId))
+                && Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(redisKeys.pointer(userId), groupUuid));
+        }
+        List<byte[]> keys = List.of(key(redisKeys.pointer(userId)), key(members));
+        return eval(RESTORE_POINTER_SCRIPT, keys, value(userId), value(groupUuid)) == 1;
+    }
+    
+    /**
+     * Delete a user's pointer if it still holds the group and the user is not a member of it
+     */
+    public boolean deleteDanglingPointer(String userId, String groupUuid) {
+        String members = redisKeys.members(tenantOf(groupUuid), groupUuid);
+        if (redisKeys.isClustered()) {
+            return !Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(members, userId))
+                && swapPointers(List.of(new PointerSwap(userId, groupUuid, ""))).get(0);
+        }
+        List<byte[]> keys = List.of(key(redisKeys.pointer(userId)), key(members));
+        return eval(DELETE_POINTER_SCRIPT, keys, value(userId), value(groupUuid)) == 1;
+    }
+    
+    /**
+     * Drop the membership set, join times and counters of a group that no longer exists
+     */
+    public void deleteMembershipSet(String groupUuid) {
+        String tenant = tenantOf(groupUuid);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.keyCommands().del(
+            key(redisKeys.members(tenant, groupUuid)), key(redisKeys.joined(tenant, groupUuid)), counterKey(tenant, groupUuid)));
+        tenants.remove(groupUuid);
+    }
+    
+    @Override
+    public Set<String> findMembers(String groupUuid) {
+        Set<Object> members = redisTemplate.opsForSet().members(redisKeys.members(tenantOf(groupUuid), groupUuid));
+        
+        Set<String> users = new HashSet<>();
+        if (members != null) {
+            members.forEach(member -> users.add(member.toString()));
+        }
+        return users;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Joined> findMembersJoinedSince(String groupUuid, long since, String after, int limit) {
+        byte[] joined = key(redisKeys.joined(tenantOf(groupUuid), groupUuid));
+        byte[] afterMember = after != null ? value(after) : new byte[0];
+        List<byte[]> found = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection
+            .scriptingCommands().eval(JOINED_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.MULTI, 1, joined,
+                bytes(Long.toString(since)), afterMember, bytes(Integer.toString(limit))));
+        List<Joined> members = new ArrayList<>();
+        if (found == null) {
+            return members;
+        }
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        for (int i = 0; i + 1 < found.size(); i += 2) {
+            Object userId = valueSerializer.deserialize(found.get(i));
+            long joinedAt = (long) Double.parseDouble(new String(found.get(i + 1), StandardCharsets.UTF_8));
+            members.add(new Joined(String.valueOf(userId), joinedAt));
+        }
+        return members;
+    }
+    
+    /**
+     * Direct and total member counts of the given groups in one pipelined round trip.
+     * Groups without counters report zero.
+     *
+     * @return for each group, in order, {direct, total}
+     */
+    @Override
+    public List<long[]> findCounts(List<String> groupUuids) {
+        Map<String, String> groupTenants = tenantsOf(groupUuids);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String groupUuid : groupUuids) {
+                connection.hashCommands().hMGet(counterKey(groupTenants.get(groupUuid), groupUuid),
+                    DIRECT.getBytes(StandardCharsets.UTF_8), TOTAL.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<long[]> counts = new ArrayList<>(groupUuids.size());
+        for (Object result : results) {
+            List<?> values = (List<?>) result;
+            counts.add(new long[] {toLong(values.get(0)), toLong(values.get(1))});
+        }
+        return counts;
+    }
+    
+    /**
+     * The tenant of a group given with its lineage, the root at its end; null unless clustered
+     */
+    private String tenantOf(List<String> lineage) {
+        if (!redisKeys.isClustered()) {
+            return null;
+        }
+        String tenant = lineage.get(lineage.size() - 1);
+        remember(lineage.get(0), tenant);
+        return tenant;
+    }
+    
+    /**
+     * The tenant of a group given alone; null unless clustered
+     */
+    private String tenantOf(String groupUuid) {
+        if (!redisKeys.isClustered()) {
+            return null;
+        }
+        String tenant = tenants.get(groupUuid);
+        return tenant != null ? tenant : tenantsOf(List.of(groupUuid)).get(groupUuid);
+    }
+    
+    /**
+     * The tenants of many groups, looking up those not seen lately together; empty unless clustered
+     */
+    private Map<String, String> tenantsOf(Collection<String> groupUuids) {
+        Map<String, String> resolved = new HashMap<>();
+        if (!redisKeys.isClustered()) {
+            return resolved;
+        }
+        List<String> unknown = new ArrayList<>();
+        for (String groupUuid : groupUuids) {
+            String tenant = tenants.get(groupUuid);
+            if (tenant != null) {
+                resolved.put(groupUuid, tenant);
+            } else {
+                unknown.add(groupUuid);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            Map<String, String> roots = groupHashRepository.findRoots(unknown);
+            for (String groupUuid : unknown) {
+                String root = roots.get(groupUuid);
+                if (root != null) {
+                    remember(groupUuid, root);
+                }
+                // A group that does not exist has no memberships; keys under its own UUID stay empty
+                resolved.put(groupUuid, root != null ? root : groupUuid);
+            }
+        }
+        return resolved;
+    }
+    
+    /**
+     * Tenants only change when a subtree is detached, which updates or drops the entries;
+     * otherwise the map is only bounded
+     */
+    private void remember(String groupUuid, String tenant) {
+        if (tenants.containsKey(groupUuid)) {
+            return;
+        }
+        if (tenants.size() >= properties.getRedisCluster().getTenantCacheMaxEntries()) {
+            Iterator<String> it = tenants.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        tenants.put(groupUuid, tenant);
+    }
+    
+    private void addCounterKeys(List<byte[]> keys, String tenant, List<String> lineage) {
+        for (String uuid : lineage) {
+            keys.add(counterKey(tenant, uuid));
+        }
+    }
+    
+    private long eval(String script, List<byte[]> keys, byte[]... args) {
+        byte[][] keysAndArgs = keysAndArgs(keys, args);
+        Long result = redisTemplate.execute((RedisCallback<Long>) connection -> connection.scriptingCommands()
+            .eval(script.getBytes(StandardCharsets.UTF_8), ReturnType.INTEGER, keys.size(), keysAndArgs));
+        return result != null ? result : 0;
+    }
+    
+    private static byte[][] keysAndArgs(List<byte[]> keys, byte[]... args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i);
+        }
+        System.arraycopy(args, 0, keysAndArgs, keys.size(), args.length);
+        return keysAndArgs;
+    }
+    
+    /**
+     * Membership sets and user pointers are written through the RedisTemplate serializers
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] key(String name) {
+        return ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(name);
+    }
+    
+    /**
+     * Counters are plain strings so they can be read with the StringRedisTemplate
+     */
+    private byte[] counterKey(String tenant, String groupUuid) {
+        return redisKeys.counts(tenant, groupUuid).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private byte[] value(String value) {
+        return ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(value);
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static long toLong(Object value) {
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+    
+    /**
+     * Users to add to or remove from the group the lineage leads to
+     */
+    private record MemberChange(List<String> lineage, List<String> userIds) {
+    }
+    
+    /**
+     * A compare-and-set of a user's pointer; an empty group stands for none
+     */
+    private record PointerSwap(String userId, String expected, String updated) {
+    }
+}
@@ -0,0 +1,123 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.hot.HotGroupTier;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+
+/**
+ * Groups in Redis: whole entities through {@link GroupRepository},
+ * field level reads and writes through {@link GroupHashRepository}.
+ * Reads of the hottest groups are served from the copies of the {@link HotGroupTier}, the
+ * others are sent in the shared pipelines of the {@link GroupReadBatcher}.
+ */
+@Repository
+@ConditionalOnRedisStorage
+@RequiredArgsConstructor
+public class RedisGroupStore implements GroupStore {
+    
+    private final GroupRepository groupRepository;
+    private final GroupHashRepository groupHashRepository;
+    private final HotGroupTier hotGroupTier;
+    private final GroupReadBatcher groupReadBatcher;
+    
+    @Override
+    public Optional<Group> findById(String uuid) {
+        Group hot = hotGroupTier.find(uuid);
+        if (hot != null) {
+            return Optional.of(GroupStore.copyOf(hot));
+        }
+        if (groupReadBatcher.isEnabled()) {
+            return groupReadBatcher.find(uuid);
+        }
+        return groupRepository.findById(uuid);
+    }
+    
+    @Override
+    public List<Group> findByParentUuid(String parentUuid) {
+        return groupRepository.findByParentUuid(parentUuid);
+    }
+    
+    @Override
+    public Map<String, List<Group>> findChildren(Collection<String> parentUuids) {
+        return groupHashRepository.findChildren(new ArrayList<>(parentUuids));
+    }
+    
+    @Override
+    public Group save(Group group) {
+        Group saved = groupRepository.save(group);
+        hotGroupTier.invalidate(group.getUuid());
+        return saved;
+    }
+    
+    @Override
+    public void delete(Group group) {
+        groupRepository.delete(group);
+        hotGroupTier.invalidate(group.getUuid());
+    }
+    
+    @Override
+    public Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields) {
+        Group hot = hotGroupTier.find(uuid);
+        if (hot != null) {
+            return Optional.of(GroupStore.fieldsOf(hot, fields));
+        }
+        if (groupReadBatcher.isEnabled()) {
+            return groupReadBatcher.findFields(uuid, fields);
+        }
+        return groupHashRepository.findFields(uuid, fields);
+    }
+    
+    /**
+     * Hot copies first, then the statuses of the others with one pipelined round trip
+     */
+    @Override
+    public boolean anyDeactivated(List<String> uuids) {
+        List<String> cold = new ArrayList<>(uuids.size());
+        for (String uuid : uuids) {
+            Group hot = hotGroupTier.find(uuid);
+            if (hot == null) {
+                cold.add(uuid);
+            } else if (hot.getStatus() == GroupStatus.DEACTIVATED) {
+                return true;
+            }
+        }
+        return !cold.isEmpty() && groupHashRepository.anyDeactivated(cold);
+    }
+    
+    @Override
+    public long updateFields(String uuid, Long expectedVersion, Map<GroupField, String> fields, List<String> segments) {
+        long version = groupHashRepository.updateFields(uuid, expectedVersion, fields, segments);
+        hotGroupTier.invalidate(uuid);
+        return version;
+    }
+    
+    @Override
+    public long clearParent(String uuid) {
+        long version = groupHashRepository.clearParent(uuid);
+        hotGroupTier.invalidate(uuid);
+        return version;
+    }
+    
+    @Override
+    public Optional<List<String>> findLineage(String uuid) {
+        return groupHashRepository.findLineage(uuid);
+    }
+    
+    @Override
+    public Set<String> findExisting(Collection<String> uuids) {
+        return groupHashRepository.findExisting(uuids);
+    }
+    
+    @Override
+    public void insertAll(List<Group> groups) {
+        groupHashRepository.insertAll(groups);
+        groups.forEach(group -> hotGroupTier.invalidate(group.getUuid()));
+    }
+}
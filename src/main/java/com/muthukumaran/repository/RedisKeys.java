@@ -0,0 +1,200 @@
+package com.muthukumaran.organization.repository;
+
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * The names of all keys the service keeps in Redis.
+ * <p>
+ * With Redis Cluster the membership set, join times and counters of a group carry the UUID of its
+ * root group, the tenant, as hash tag. All membership keys of one organisation then share a
+ * slot, so the scripts that change a membership set together with the counters of the whole
+ * lineage still run atomically. Group hashes, keyed by Spring Data on the UUID alone, and user
+ * pointers, looked up by user ID alone, are spread over the cluster. The two keys of the version
+ * log of a group always carry its UUID as hash tag, so they are changed together.
+ */
+@Component
+@ConditionalOnRedisStorage
+public class RedisKeys {
+    
+    public static final String GROUP_KEYSPACE = "Group";
+    
+    private static final String GROUP_KEY = GROUP_KEYSPACE + ":%s";
+    private static final String MEMBERS_PREFIX = "group:";
+    private static final String MEMBERS_SUFFIX = ":users";
+    private static final String COUNTS_SUFFIX = ":counts";
+    private static final String JOINED_SUFFIX = ":joined";
+    private static final String POINTER_PREFIX = "user:";
+    private static final String POINTER_SUFFIX = ":group";
+    private static final String EXPIRIES_KEY = "membership:expiries";
+    private static final String CHANGES_KEY = "groups:changed";
+    private static final int CHANGES_SHARDS = 16;
+    private static final String HISTORY_PREFIX = "history:{";
+    private static final String CHECKPOINTS_SUFFIX = "}:checkpoints";
+    private static final String DELTAS_SUFFIX = "}:deltas";
+    private static final String JOB_KEY = "job:%s";
+    private static final String FINDINGS_KEY = "job:%s:findings";
+    
+    private final boolean clustered;
+    
+    public RedisKeys(RedisConnectionFactory connectionFactory) {
+        this.clustered = connectionFactory instanceof LettuceConnectionFactory lettuce && lettuce.isClusterAware();
+    }
+    
+    /**
+     * Whether Redis runs as a cluster, so keys of different tenants may not meet in one command
+     */
+    public boolean isClustered() {
+        return clustered;
+    }
+    
+    public String group(String uuid) {
+        return String.format(GROUP_KEY, uuid);
+    }
+    
+    /**
+     * The index entry of a group under its own UUID, maintained by Spring Data
+     */
+    public String uuidIndex(String uuid) {
+        return group("uuid:" + uuid);
+    }
+    
+    /**
+     * The set of the children of a group: the parentUuid index maintained by Spring Data
+     */
+    public String children(String parentUuid) {
+        return group("parentUuid:" + parentUuid);
+    }
+    
+    /**
+     * The set of the index keys the group is filed under, maintained by Spring Data
+     */
+    public String groupIndexes(String uuid) {
+        return group(uuid) + ":idx";
+    }
+    
+    /**
+     * @param tenant the root group of the group; only used in cluster mode
+     */
+    public String members(String tenant, String groupUuid) {
+        return MEMBERS_PREFIX + tagged(tenant, groupUuid) + MEMBERS_SUFFIX;
+    }
+    
+    /**
+     * @param tenant the root group of the group; only used in cluster mode
+     */
+    public String counts(String tenant, String groupUuid) {
+        return MEMBERS_PREFIX + tagged(tenant, groupUuid) + COUNTS_SUFFIX;
+    }
+    
+    /**
+     * Sorted set of the members of a group scored by the time they joined
+     *
+     * @param tenant the root group of the group; only used in cluster mode
+     */
+    public String joined(String tenant, String groupUuid) {
+        return MEMBERS_PREFIX + tagged(tenant, groupUuid) + JOINED_SUFFIX;
+    }
+    
+    public String pointer(String userId) {
+        return POINTER_PREFIX + userId + POINTER_SUFFIX;
+    }
+    
+    /**
+     * Sorted set of the memberships due to end, scored by their expiry; a single key, so it is
+     * not tied to a tenant
+     */
+    public String expiries() {
+        return EXPIRIES_KEY;
+    }
+    
+    /**
+     * Sorted set of recently changed groups holding the given group, scored by the time of their
+     * latest change. With Redis Cluster the log is split over {@link #groupChangeShards()} keys
+     * with a hash tag each, so every write does not land on one node.
+     */
+    public String groupChanges(String uuid) {
+        return groupChangeShard(clustered ? Math.floorMod(uuid.hashCode(), CHANGES_SHARDS) : 0);
+    }
+    
+    /**
+     * Number of keys the change log is split over
+     */
+    public int groupChangeShards() {
+        return clustered ? CHANGES_SHARDS : 1;
+    }
+    
+    public String groupChangeShard(int shard) {
+        return clustered ? CHANGES_KEY + ":{" + shard + "}" : CHANGES_KEY;
+    }
+    
+    /**
+     * Sorted set of the checkpoints of a group's version log, scored by the time of the change
+     */
+    public String historyCheckpoints(String uuid) {
+        return HISTORY_PREFIX + uuid + CHECKPOINTS_SUFFIX;
+    }
+    
+    /**
+     * Sorted set of the deltas of a group's version log, scored by the time of the change
+     */
+    public String historyDeltas(String uuid) {
+        return HISTORY_PREFIX + uuid + DELTAS_SUFFIX;
+    }
+    
+    public String job(String jobId) {
+        return String.format(JOB_KEY, jobId);
+    }
+    
+    public String findings(String jobId) {
+        return String.format(FINDINGS_KEY, jobId);
+    }
+    
+    /**
+     * SCAN pattern of the membership sets
+     */
+    public String membersPattern() {
+        return MEMBERS_PREFIX + "*" + MEMBERS_SUFFIX;
+    }
+    
+    /**
+     * SCAN pattern of the user pointers
+     */
+    public String pointersPattern() {
+        return POINTER_PREFIX + "*" + POINTER_SUFFIX;
+    }
+    
+    /**
+     * The tenant (null unless clustered) and the group of a membership set key, or null for other keys
+     */
+    public String[] parseMembers(String key) {
+        if (!key.startsWith(MEMBERS_PREFIX) || !key.endsWith(MEMBERS_SUFFIX)) {
+            return null;
+        }
+        String id = key.substring(MEMBERS_PREFIX.length(), key.length() - MEMBERS_SUFFIX.length());
+        if (!clustered) {
+            return new String[] {null, id};
+        }
+        int close = id.indexOf("}:");
+        if (!id.startsWith("{") || close < 0) {
+            return null;
+        }
+        return new String[] {id.substring(1, close), id.substring(close + 2)};
+    }
+    
+    /**
+     * The user of a pointer key, or null for other keys
+     */
+    public String parsePointer(String key) {
+        if (!key.startsWith(POINTER_PREFIX) || !key.endsWith(POINTER_SUFFIX)) {
+            return null;
+        }
+        return key.substring(POINTER_PREFIX.length(), key.length() - POINTER_SUFFIX.length());
+    }
+    
+    private String tagged(String tenant, String groupUuid) {
+        return clustered ? "{" + tenant + "}:" + groupUuid : groupUuid;
+    }
+}
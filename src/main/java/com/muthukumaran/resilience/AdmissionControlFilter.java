@@ -0,0 +1,89 @@
+package com.muthukumaran.organization.resilience;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.exception.ErrorResponse;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of API requests handled at once and rejects the rest with 503.
+ * <p>
+ * When Redis slows down, requests take longer and pile up on the server threads until none
+ * are left, at which point even requests that would not touch Redis, and health checks,
+ * queue behind them. Rejecting requests beyond the limit early keeps threads free and tells
+ * clients to back off while the backlog drains.
+ */
+@Component
+@Slf4j
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    
+    private static final String API_PATH = "/api/";
+    private static final String RETRY_AFTER_SECONDS = "1";
+    
+    private final OrganizationProperties.Admission settings;
+    private final ObjectMapper objectMapper;
+    private final Semaphore permits;
+    
+    public AdmissionControlFilter(OrganizationProperties properties, ObjectMapper objectMapper) {
+        this.settings = properties.getAdmission();
+        this.objectMapper = objectMapper;
+        this.permits = new Semaphore(settings.getMaxConcurrentRequests());
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !settings.isEnabled() || !request.getRequestURI().startsWith(API_PATH);
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(settings.getMaxWait().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            reject(request, response);
+            return;
+        }
+        // A streamed response goes on on another thread after this returns, without holding a server thread
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+    
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.warn("Rejecting {} {}: {} requests in progress", request.getMethod(), request.getRequestURI(),
+            settings.getMaxConcurrentRequests());
+        ErrorResponse error = new ErrorResponse(
+            LocalDateTime.now(),
+            HttpStatus.SERVICE_UNAVAILABLE.value(),
+            "Service Unavailable",
+            "Too many requests in progress",
+            request.getRequestURI()
+        );
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), error);
+    }
+}
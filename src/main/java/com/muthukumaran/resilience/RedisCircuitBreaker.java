@@ -0,0 +1,120 @@
+package com.muthukumaran.organization.resilience;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.exception.RedisUnavailableException;
+import com.muthukumaran.organization.storage.StorageType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Fails writes fast while Redis is failing, instead of letting each of them hold a server
+ * thread for the full Redis timeout.
+ * <p>
+ * Consecutive writes that time out, cannot connect or are merely slow open the circuit. While
+ * it is open writes are rejected right away with {@link RedisUnavailableException}. Once the
+ * open duration has passed a single trial write is let through: if it goes well the circuit
+ * closes, otherwise it opens again. Errors Redis answered with, such as a missing group, do
+ * not count as failures.
+ */
+@Component
+@Slf4j
+public class RedisCircuitBreaker {
+    
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final OrganizationProperties.CircuitBreaker settings;
+    private final boolean active;
+    
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    
+    public RedisCircuitBreaker(OrganizationProperties properties) {
+        this.settings = properties.getCircuitBreaker();
+        this.active = settings.isEnabled() && properties.getStorage().getType() == StorageType.REDIS;
+    }
+    
+    /**
+     * Run a write unless the circuit is open
+     *
+     * @throws RedisUnavailableException if the circuit is open
+     */
+    public <T> T call(Supplier<T> write) {
+        if (!active) {
+            return write.get();
+        }
+        acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = write.get();
+            failed = System.nanoTime() - start > settings.getSlowCallDuration().toNanos();
+            return result;
+        } catch (DataAccessResourceFailureException | QueryTimeoutException e) {
+            throw e;
+        } catch (RuntimeException | Error e) {
+            failed = false;
+            throw e;
+        } finally {
+            record(failed);
+        }
+    }
+    
+    public void run(Runnable write) {
+        call(() -> {
+            write.run();
+            return null;
+        });
+    }
+    
+    /**
+     * Whether writes are currently rejected
+     */
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+    
+    private synchronized void acquire() {
+        switch (state) {
+            case CLOSED -> {
+            }
+            case OPEN -> {
+                long remaining = openUntil - System.nanoTime();
+                if (remaining > 0) {
+                    throw new RedisUnavailableException(retryAfterSeconds(remaining));
+                }
+                // This write is the trial; the others are rejected until it is done
+                state = State.HALF_OPEN;
+            }
+            case HALF_OPEN -> throw new RedisUnavailableException(retryAfterSeconds(0));
+        }
+    }
+    
+    private synchronized void record(boolean failed) {
+        if (!failed) {
+            if (state != State.CLOSED) {
+                log.info("Redis writes are succeeding again, closing the circuit");
+            }
+            state = State.CLOSED;
+            failures = 0;
+            return;
+        }
+        failures++;
+        if (state == State.HALF_OPEN || failures >= settings.getFailureThreshold()) {
+            if (state == State.CLOSED) {
+                log.warn("{} Redis writes in a row failed or were slow, rejecting writes for {}",
+                    failures, settings.getOpenDuration());
+            }
+            state = State.OPEN;
+            openUntil = System.nanoTime() + settings.getOpenDuration().toNanos();
+        }
+    }
+    
+    private static long retryAfterSeconds(long remainingNanos) {
+        return Math.max(1, (remainingNanos + 999_999_999L) / 1_000_000_000L);
+    }
+}
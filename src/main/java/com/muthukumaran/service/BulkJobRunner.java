@@ -0,0 +1,128 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.exception.JobNotFoundException;
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.storage.JobStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs bulk jobs in the background with progress checkpoints in Redis.
+ * A job ID can only run once at a time across instances; resubmitting a failed or
+ * abandoned job resumes it from its last checkpoint, resubmitting a completed one is a no-op.
+ * Job IDs are scoped by job type, so the same ID given to jobs of two types names two jobs.
+ */
+@Component
+@Slf4j
+public class BulkJobRunner {
+    
+    private final JobStore jobStore;
+    private final OrganizationProperties properties;
+    private final ExecutorService executor;
+    
+    public BulkJobRunner(JobStore jobStore, OrganizationProperties properties) {
+        this.jobStore = jobStore;
+        this.properties = properties;
+        this.executor = Executors.newFixedThreadPool(properties.getBulk().getJobThreads(),
+            new CustomizableThreadFactory("bulk-job-"));
+    }
+    
+    /**
+     * Work of a job, resumed from checkpoint (the number of items already processed)
+     */
+    @FunctionalInterface
+    public interface JobTask {
+        void run(long checkpoint, ProgressListener progress) throws Exception;
+    }
+    
+    /**
+     * Records a checkpoint, together with the outcome tally of the items since the last one
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void processed(long processed, Map<String, Long> counts);
+        
+        default void processed(long processed) {
+            processed(processed, Map.of());
+        }
+    }
+    
+    /**
+     * Start the job in the background unless it is already running or completed
+     *
+     * @return the current state of the job
+     */
+    public BulkJob submit(String jobId, String type, long total, JobTask task) {
+        OrganizationProperties.Bulk bulk = properties.getBulk();
+        String key = key(type, jobId);
+        if (jobStore.claim(key, type, total, bulk.getJobStaleAfter(), bulk.getJobTtl())) {
+            BulkJob claimed = get(jobId, type);
+            log.info("Starting {} job {} at {}/{}", type, jobId, claimed.getProcessed(), total);
+            executor.execute(() -> run(key, claimed, task));
+            return claimed;
+        }
+        return get(jobId, type);
+    }
+    
+    /**
+     * The job with the given ID and one of the given types
+     *
+     * @throws JobNotFoundException if there is no such job
+     */
+    public BulkJob get(String jobId, String... types) {
+        for (String type : types) {
+            Optional<BulkJob> job = jobStore.findById(key(type, jobId));
+            if (job.isPresent()) {
+                job.get().setJobId(jobId);
+                return job.get();
+            }
+        }
+        throw new JobNotFoundException(jobId);
+    }
+    
+    public static BulkJobResponse toResponse(BulkJob job) {
+        return BulkJobResponse.builder()
+            .jobId(job.getJobId())
+            .type(job.getType())
+            .status(job.getStatus())
+            .total(job.getTotal())
+            .processed(job.getProcessed())
+            .error(job.getError())
+            .counts(job.getCounts() == null || job.getCounts().isEmpty() ? null : job.getCounts())
+            .build();
+    }
+    
+    private void run(String key, BulkJob job, JobTask task) {
+        String jobId = job.getJobId();
+        try {
+            task.run(job.getProcessed(), (processed, counts) -> jobStore.updateProgress(key, processed, counts));
+            jobStore.finish(key, BulkJobStatus.COMPLETED, null);
+            log.info("{} job {} completed", job.getType(), jobId);
+        } catch (Exception e) {
+            log.error("{} job {} failed", job.getType(), jobId, e);
+            jobStore.finish(key, BulkJobStatus.FAILED, e.getMessage());
+        }
+    }
+    
+    /**
+     * The ID of the job in the job store
+     */
+    private static String key(String type, String jobId) {
+        return type + ":" + jobId;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
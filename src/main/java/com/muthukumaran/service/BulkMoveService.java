@@ -0,0 +1,153 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.dto.BulkMoveRequest;
+import com.muthukumaran.organization.dto.UserMove;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.MoveOutcome;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.MembershipStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Moves many users at once for re-orgs.
+ * Each distinct target group is validated once, and the moves are applied in atomic
+ * chunks of individually atomic moves. Small batches are applied within the request,
+ * large ones run as a resumable background job.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BulkMoveService {
+    
+    public static final String JOB_TYPE = "user-move";
+    
+    private final GroupStore groupStore;
+    private final MembershipStore membershipStore;
+    private final GroupService groupService;
+    private final BulkJobRunner bulkJobRunner;
+    private final OrganizationProperties properties;
+    
+    /**
+     * Move the users, or start moving them in the background for large batches
+     *
+     * @return the outcome of every user, or the state of the background job
+     */
+    public BulkJobResponse moveUsers(BulkMoveRequest request) {
+        List<UserMove> moves = request.getMoves();
+        log.info("Moving {} users", moves.size());
+        
+        // Validate each distinct target once; the lineages double as the counter keys of the moves
+        Map<String, List<String>> lineages = new HashMap<>();
+        Set<String> missingTargets = new HashSet<>();
+        for (UserMove move : moves) {
+            String target = move.getTargetGroupUuid();
+            if (!lineages.containsKey(target) && !missingTargets.contains(target)) {
+                groupStore.findLineage(target)
+                    .ifPresentOrElse(lineage -> lineages.put(target, lineage), () -> missingTargets.add(target));
+            }
+        }
+        
+        List<UserMove> valid = new ArrayList<>(moves.size());
+        Map<String, MoveOutcome> rejected = new LinkedHashMap<>();
+        for (UserMove move : moves) {
+            if (missingTargets.contains(move.getTargetGroupUuid())) {
+                rejected.put(move.getUserId(), MoveOutcome.TARGET_MISSING);
+            } else {
+                valid.add(move);
+            }
+        }
+        
+        OrganizationProperties.Bulk bulk = properties.getBulk();
+        if (moves.size() <= bulk.getMoveSyncMax()) {
+            Map<String, MoveOutcome> outcomes = new LinkedHashMap<>();
+            for (int from = 0; from < valid.size(); from += bulk.getMoveBatchSize()) {
+                outcomes.putAll(applyMoves(valid.subList(from, Math.min(from + bulk.getMoveBatchSize(), valid.size())), lineages));
+            }
+            outcomes.putAll(rejected);
+            return BulkJobResponse.builder()
+                .status(BulkJobStatus.COMPLETED)
+                .total(moves.size())
+                .processed(moves.size())
+                .counts(count(outcomes.values()))
+                .outcomes(outcomes)
+                .build();
+        }
+        
+        String jobId = request.getMoveId() != null ? request.getMoveId() : UUID.randomUUID().toString();
+        BulkJob job = bulkJobRunner.submit(jobId, JOB_TYPE, valid.size(), (checkpoint, progress) -> {
+            if (checkpoint == 0 && !rejected.isEmpty()) {
+                progress.processed(0, Map.of(MoveOutcome.TARGET_MISSING.name(), (long) rejected.size()));
+            }
+            // Moves are idempotent, so a chunk repeated after an interruption only reports UNCHANGED
+            for (int from = (int) checkpoint; from < valid.size(); from += bulk.getMoveBatchSize()) {
+                int to = Math.min(from + bulk.getMoveBatchSize(), valid.size());
+                Map<String, MoveOutcome> outcomes = applyMoves(valid.subList(from, to), lineages);
+                progress.processed(to, count(outcomes.values()));
+            }
+        });
+        
+        BulkJobResponse response = BulkJobRunner.toResponse(job);
+        response.setOutcomes(rejected);
+        return response;
+    }
+    
+    public BulkJobResponse getMove(String jobId) {
+        return BulkJobRunner.toResponse(bulkJobRunner.get(jobId, JOB_TYPE));
+    }
+    
+    /**
+     * Apply one chunk: one MGET for the current groups, then one atomic script of compare-and-set moves,
+     * which drop the expiries of the memberships left and joined, as bulk moves are for good.
+     * Moves that lose a race with a concurrent move of the same user are retried one by one.
+     */
+    private Map<String, MoveOutcome> applyMoves(List<UserMove> chunk, Map<String, List<String>> lineages) {
+        List<String> userIds = new ArrayList<>(chunk.size());
+        chunk.forEach(move -> userIds.add(move.getUserId()));
+        List<String> currentGroups = membershipStore.findGroupsOfUsers(userIds);
+        
+        List<MembershipStore.Move> planned = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            String source = currentGroups.get(i);
+            List<String> sourceLineage = source == null ? List.of() : lineages.computeIfAbsent(source,
+                uuid -> groupStore.findLineage(uuid).orElse(List.of(uuid)));
+            planned.add(new MembershipStore.Move(
+                userIds.get(i), sourceLineage, lineages.get(chunk.get(i).getTargetGroupUuid())));
+        }
+        List<Long> results = membershipStore.moveAll(planned);
+        
+        Map<String, MoveOutcome> outcomes = new LinkedHashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            UserMove move = chunk.get(i);
+            long result = results.get(i);
+            if (result == MembershipStore.POINTER_CHANGED) {
+                outcomes.put(move.getUserId(), moveOne(move));
+            } else {
+                outcomes.put(move.getUserId(), result == MembershipStore.MOVED ? MoveOutcome.MOVED : MoveOutcome.UNCHANGED);
+            }
+        }
+        return outcomes;
+    }
+    
+    private MoveOutcome moveOne(UserMove move) {
+        try {
+            groupService.moveUser(move.getUserId(), move.getTargetGroupUuid());
+            return MoveOutcome.MOVED;
+        } catch (GroupNotFoundException e) {
+            return MoveOutcome.TARGET_MISSING;
+        }
+    }
+    
+    private static Map<String, Long> count(Collection<MoveOutcome> outcomes) {
+        Map<String, Long> counts = new TreeMap<>();
+        outcomes.forEach(outcome -> counts.merge(outcome.name(), 1L, Long::sum));
+        return counts;
+    }
+}
@@ -0,0 +1,481 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.model.AuditFinding;
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.repository.BulkJobRepository;
+import com.muthukumaran.organization.repository.GroupHashRepository;
+import com.muthukumaran.organization.repository.MembershipRepository;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Online consistency audit of the hierarchy and the memberships.
+ * The keyspace is walked with SCAN/SSCAN in batches, each batch is checked on a worker pool,
+ * and one pacer caps the batches per second across the workers so the audit does not crowd
+ * out regular traffic. In repair mode each finding is fixed with an atomic compare-and-set
+ * that leaves data changed concurrently alone.
+ */
+@Service
+@ConditionalOnRedisStorage
+@Lazy
+@Slf4j
+public class ConsistencyAuditService {
+    
+    public static final String AUDIT_JOB_TYPE = "consistency-audit";
+    public static final String REPAIR_JOB_TYPE = "consistency-repair";
+    public static final String REPAIRED = "REPAIRED";
+    
+    private final GroupHashRepository groupHashRepository;
+    private final MembershipRepository membershipRepository;
+    private final GroupService groupService;
+    private final BulkJobRunner bulkJobRunner;
+    private final BulkJobRepository bulkJobRepository;
+    private final OrganizationProperties properties;
+    private final ExecutorService executor;
+    
+    public ConsistencyAuditService(GroupHashRepository groupHashRepository, MembershipRepository membershipRepository,
+                                   GroupService groupService, BulkJobRunner bulkJobRunner,
+                                   BulkJobRepository bulkJobRepository, OrganizationProperties properties) {
+        this.groupHashRepository = groupHashRepository;
+        this.membershipRepository = membershipRepository;
+        this.groupService = groupService;
+        this.bulkJobRunner = bulkJobRunner;
+        this.bulkJobRepository = bulkJobRepository;
+        this.properties = properties;
+        this.executor = Executors.newFixedThreadPool(properties.getAudit().getParallelism(),
+            new CustomizableThreadFactory("consistency-audit-"));
+    }
+    
+    /**
+     * Start an audit in the background
+     *
+     * @param repair also fix what is found
+     */
+    public BulkJobResponse startAudit(boolean repair) {
+        String jobId = UUID.randomUUID().toString();
+        log.info("Starting consistency audit {} (repair: {})", jobId, repair);
+        BulkJob job = bulkJobRunner.submit(jobId, repair ? REPAIR_JOB_TYPE : AUDIT_JOB_TYPE, 0,
+            (checkpoint, progress) -> new Audit(jobId, repair, progress).run());
+        return BulkJobRunner.toResponse(job);
+    }
+    
+    /**
+     * Progress of an audit: items examined, findings per kind and examples of them
+     */
+    public BulkJobResponse getAudit(String jobId) {
+        BulkJobResponse response = BulkJobRunner.toResponse(bulkJobRunner.get(jobId, AUDIT_JOB_TYPE, REPAIR_JOB_TYPE));
+        List<String> findings = bulkJobRepository.findFindings(jobId);
+        response.setFindings(findings == null || findings.isEmpty() ? null : findings);
+        return response;
+    }
+    
+    /**
+     * One audit run. Phases run one after the other, each fanning its batches out to the workers:
+     * the hierarchy, the membership sets, the user pointers, then the member counters.
+     * A repair can uncover problems of an earlier phase (a dangling pointer removed by the pointer
+     * check leaves its user without one), which the next audit picks up.
+     */
+    private final class Audit {
+        
+        private final String jobId;
+        private final boolean repair;
+        private final BulkJobRunner.ProgressListener progress;
+        private final OrganizationProperties.Audit settings = properties.getAudit();
+        private final long batchInterval = TimeUnit.SECONDS.toNanos(1) / settings.getMaxBatchesPerSecond();
+        private final Semaphore permits = new Semaphore(settings.getParallelism());
+        private final List<Future<?>> pending = new ArrayList<>();
+        
+        private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+        private final AtomicLong examined = new AtomicLong();
+        private final AtomicInteger sampled = new AtomicInteger();
+        
+        /** parentUuid of every group, "" for roots */
+        private final Map<String, String> parents = new ConcurrentHashMap<>();
+        private final Set<String> cyclic = new HashSet<>();
+        
+        private long nextBatchAt;
+        private long lastFlushAt = System.nanoTime();
+        
+        Audit(String jobId, boolean repair, BulkJobRunner.ProgressListener progress) {
+            this.jobId = jobId;
+            this.repair = repair;
+            this.progress = progress;
+        }
+        
+        void run() throws Exception {
+            checkHierarchy();
+            checkMembershipSets();
+            checkPointers();
+            checkCounters();
+            flush();
+            log.info("Consistency audit {} examined {} items: {}", jobId, examined.get(), counts);
+        }
+        
+        /**
+         * Groups indexed without a hash, groups whose parent is gone, and cycles
+         */
+        private void checkHierarchy() throws Exception {
+            groupHashRepository.scanUuids(settings.getBatchSize(), batch -> dispatch(() -> {
+                Map<String, String> found = groupHashRepository.findParents(batch);
+                parents.putAll(found);
+                examined.addAndGet(batch.size());
+                for (String uuid : batch) {
+                    if (!found.containsKey(uuid)) {
+                        report(AuditFinding.STALE_GROUP_INDEX, uuid);
+                        if (repair && groupHashRepository.removeIndexEntries(uuid)) {
+                            repaired();
+                        }
+                    }
+                }
+            }));
+            awaitBatches();
+            
+            // A parent missing from the scan may still exist if only its index entry is lost
+            Set<String> unseen = new HashSet<>();
+            parents.values().forEach(parent -> {
+                if (!parent.isEmpty() && !parents.containsKey(parent)) {
+                    unseen.add(parent);
+                }
+            });
+            Set<String> unindexed = unseen.isEmpty() ? Set.of() : groupHashRepository.findExisting(unseen);
+            for (Map.Entry<String, String> entry : new ArrayList<>(parents.entrySet())) {
+                String parent = entry.getValue();
+                if (unseen.contains(parent) && !unindexed.contains(parent)) {
+                    report(AuditFinding.ORPHAN_GROUP, entry.getKey() + " -> " + parent);
+                    detach(entry.getKey());
+                }
+            }
+            
+            // Walk up from every group; reaching a group already on the walk closes a cycle
+            Set<String> done = new HashSet<>();
+            for (String start : new ArrayList<>(parents.keySet())) {
+                Map<String, Integer> walk = new LinkedHashMap<>();
+                String current = start;
+                while (parents.containsKey(current) && !done.contains(current)) {
+                    walk.put(current, walk.size());
+                    String parent = parents.get(current);
+                    if (walk.containsKey(parent)) {
+                        List<String> cycle = new ArrayList<>(walk.keySet()).subList(walk.get(parent), walk.size());
+                        report(AuditFinding.CYCLE, String.join(" -> ", cycle));
+                        if (repair) {
+                            detach(Collections.min(cycle));
+                        } else {
+                            cyclic.addAll(cycle);
+                        }
+                        break;
+                    }
+                    current = parent;
+                }
+                done.addAll(walk.keySet());
+            }
+            flush();
+        }
+        
+        /**
+         * Membership sets of deleted groups, members without a pointer and members of two groups
+         */
+        private void checkMembershipSets() throws Exception {
+            membershipRepository.scanMembershipSets(settings.getBatchSize(), batch -> dispatch(() -> {
+                examined.addAndGet(batch.size());
+                Set<String> existing = groupHashRepository.findExisting(batch);
+                for (String groupUuid : batch) {
+                    if (existing.contains(groupUuid)) {
+                        checkMembers(groupUuid);
+                    } else {
+                        report(AuditFinding.ORPHAN_MEMBERSHIP_SET, groupUuid);
+                        if (repair) {
+                            membershipRepository.deleteMembershipSet(groupUuid);
+                            repaired();
+                        }
+                    }
+                }
+            }));
+            awaitBatches();
+            flush();
+        }
+        
+        private void checkMembers(String groupUuid) {
+            membershipRepository.scanMembers(groupUuid, settings.getBatchSize(), members -> {
+                pace();
+                examined.addAndGet(members.size());
+                List<String> pointers = membershipRepository.findGroupsOfUsers(members);
+                List<String> otherGroups = new ArrayList<>();
+                List<String> otherUsers = new ArrayList<>();
+                for (int i = 0; i < members.size(); i++) {
+                    String userId = members.get(i);
+                    String pointer = pointers.get(i);
+                    if (pointer == null) {
+                        report(AuditFinding.MISSING_POINTER, userId + " in " + groupUuid);
+                        if (repair && membershipRepository.restorePointer(userId, groupUuid)) {
+                            repaired();
+                        }
+                    } else if (!pointer.equals(groupUuid)) {
+                        otherGroups.add(pointer);
+                        otherUsers.add(userId);
+                    }
+                }
+                if (otherUsers.isEmpty()) {
+                    return;
+                }
+                
+                // The pointer decides which membership is kept
+                List<Boolean> memberOfOther = membershipRepository.areMembers(otherGroups, otherUsers);
+                List<String> lineage = null;
+                for (int i = 0; i < otherUsers.size(); i++) {
+                    if (!memberOfOther.get(i)) {
+                        continue;
+                    }
+                    String userId = otherUsers.get(i);
+                    report(AuditFinding.DUPLICATE_MEMBERSHIP, userId + " in " + groupUuid + " and " + otherGroups.get(i));
+                    if (repair) {
+                        if (lineage == null) {
+                            lineage = groupHashRepository.findLineage(groupUuid).orElse(List.of(groupUuid));
+                        }
+                        if (membershipRepository.removeDuplicate(lineage, userId, otherGroups.get(i))) {
+                            repaired();
+                        }
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Pointers holding a deleted group or a group the user is not a member of
+         */
+        private void checkPointers() throws Exception {
+            membershipRepository.scanPointers(settings.getBatchSize(), batch -> dispatch(() -> {
+                examined.addAndGet(batch.size());
+                List<String> groups = membershipRepository.findGroupsOfUsers(batch);
+                
+                // A pointer can be removed between the SCAN and the MGET
+                List<String> userIds = new ArrayList<>();
+                List<String> groupUuids = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    if (groups.get(i) != null) {
+                        userIds.add(batch.get(i));
+                        groupUuids.add(groups.get(i));
+                    }
+                }
+                Set<String> existing = groupHashRepository.findExisting(new HashSet<>(groupUuids));
+                List<Boolean> members = membershipRepository.areMembers(groupUuids, userIds);
+                for (int i = 0; i < userIds.size(); i++) {
+                    if (!existing.contains(groupUuids.get(i)) || !members.get(i)) {
+                        report(AuditFinding.DANGLING_POINTER, userIds.get(i) + " -> " + groupUuids.get(i));
+                        if (repair && membershipRepository.deleteDanglingPointer(userIds.get(i), groupUuids.get(i))) {
+                            repaired();
+                        }
+                    }
+                }
+            }));
+            awaitBatches();
+            flush();
+        }
+        
+        /**
+         * Member counters that differ from the set sizes. A repair recounts the groups level by level
+         * from the leaves up, each from its set and its children's fresh totals. Without repair the
+         * expected counts are computed from SCARDs, so groups changing during the audit may show up.
+         * Groups in a cycle are skipped.
+         */
+        private void checkCounters() throws Exception {
+            Map<String, List<String>> children = new HashMap<>();
+            List<String> level = new ArrayList<>();
+            parents.forEach((uuid, parent) -> {
+                if (cyclic.contains(uuid)) {
+                    return;
+                }
+                if (parents.containsKey(parent)) {
+                    children.computeIfAbsent(parent, key -> new ArrayList<>()).add(uuid);
+                } else {
+                    level.add(uuid);
+                }
+            });
+            List<List<String>> levels = new ArrayList<>();
+            while (!level.isEmpty()) {
+                levels.add(new ArrayList<>(level));
+                List<String> next = new ArrayList<>();
+                level.forEach(uuid -> next.addAll(children.getOrDefault(uuid, List.of())));
+                level.clear();
+                level.addAll(next);
+            }
+            Collections.reverse(levels);
+            
+            if (repair) {
+                for (List<String> groups : levels) {
+                    forEachBatch(groups, batch -> {
+                        for (String uuid : batch) {
+                            membershipRepository.recount(uuid, children.getOrDefault(uuid, List.of())).ifPresent(counted -> {
+                                if (counted[0] != counted[2] || counted[1] != counted[3]) {
+                                    report(AuditFinding.COUNTER_DRIFT, driftOf(uuid, counted[0], counted[1], counted[2], counted[3]));
+                                    repaired();
+                                }
+                            });
+                        }
+                    });
+                    awaitBatches();
+                }
+            } else {
+                Map<String, Long> direct = new ConcurrentHashMap<>();
+                for (List<String> groups : levels) {
+                    forEachBatch(groups, batch -> {
+                        List<Long> sizes = membershipRepository.countMembers(batch);
+                        for (int i = 0; i < batch.size(); i++) {
+                            direct.put(batch.get(i), sizes.get(i));
+                        }
+                    });
+                }
+                awaitBatches();
+                
+                Map<String, Long> total = new HashMap<>();
+                for (List<String> groups : levels) {
+                    for (String uuid : groups) {
+                        long sum = direct.get(uuid);
+                        for (String child : children.getOrDefault(uuid, List.of())) {
+                            sum += total.get(child);
+                        }
+                        total.put(uuid, sum);
+                    }
+                }
+                
+                for (List<String> groups : levels) {
+                    forEachBatch(groups, batch -> {
+                        List<long[]> stored = membershipRepository.findCounts(batch);
+                        for (int i = 0; i < batch.size(); i++) {
+                            String uuid = batch.get(i);
+                            long[] counted = stored.get(i);
+                            if (counted[0] != direct.get(uuid) || counted[1] != total.get(uuid)) {
+                                report(AuditFinding.COUNTER_DRIFT,
+                                    driftOf(uuid, counted[0], counted[1], direct.get(uuid), total.get(uuid)));
+                            }
+                        }
+                    });
+                }
+                awaitBatches();
+            }
+            flush();
+        }
+        
+        private String driftOf(String uuid, long direct, long total, long expectedDirect, long expectedTotal) {
+            return String.format("%s direct %d, expected %d, total %d, expected %d",
+                uuid, direct, expectedDirect, total, expectedTotal);
+        }
+        
+        private void detach(String uuid) {
+            if (repair) {
+                groupService.detachFromParent(uuid);
+                parents.put(uuid, "");
+                repaired();
+            }
+        }
+        
+        private void forEachBatch(List<String> items, Consumer<List<String>> check) {
+            for (int from = 0; from < items.size(); from += settings.getBatchSize()) {
+                List<String> batch = items.subList(from, Math.min(from + settings.getBatchSize(), items.size()));
+                dispatch(() -> {
+                    examined.addAndGet(batch.size());
+                    check.accept(batch);
+                });
+            }
+        }
+        
+        /**
+         * Hand a batch to the workers once the pacer allows it and a worker is free
+         */
+        private void dispatch(Runnable batch) {
+            pace();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Consistency audit interrupted");
+            }
+            pending.add(executor.submit(() -> {
+                try {
+                    batch.run();
+                } finally {
+                    permits.release();
+                }
+            }));
+            if (System.nanoTime() - lastFlushAt > TimeUnit.SECONDS.toNanos(1)) {
+                flush();
+            }
+        }
+        
+        private void awaitBatches() throws Exception {
+            try {
+                for (Future<?> future : pending) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            } finally {
+                pending.clear();
+            }
+        }
+        
+        /**
+         * Wait for the next free slot of the batch rate, shared by the dispatcher and the workers
+         */
+        private void pace() {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(nextBatchAt, now);
+                nextBatchAt = slot + batchInterval;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Consistency audit interrupted");
+                }
+            }
+        }
+        
+        private void report(AuditFinding finding, String detail) {
+            log.debug("Consistency audit {}: {} {}", jobId, finding, detail);
+            counts.computeIfAbsent(finding.name(), key -> new AtomicLong()).incrementAndGet();
+            if (sampled.getAndIncrement() < settings.getMaxFindings()) {
+                bulkJobRepository.addFinding(jobId, finding + " " + detail, properties.getBulk().getJobTtl());
+            }
+        }
+        
+        private void repaired() {
+            counts.computeIfAbsent(REPAIRED, key -> new AtomicLong()).incrementAndGet();
+        }
+        
+        /**
+         * Record the items examined and the findings since the last checkpoint
+         */
+        private void flush() {
+            Map<String, Long> delta = new TreeMap<>();
+            counts.forEach((name, count) -> {
+                long value = count.getAndSet(0);
+                if (value > 0) {
+                    delta.put(name, value);
+                }
+            });
+            progress.processed(examined.get(), delta);
+            lastFlushAt = System.nanoTime();
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
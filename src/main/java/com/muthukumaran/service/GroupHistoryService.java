@@ -0,0 +1,130 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupHistoryEntry;
+import com.muthukumaran.organization.storage.GroupHistoryStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the version log of each group and reads groups as they were at a given time.
+ * <p>
+ * Creating a group writes a checkpoint holding the full group, and so does every update that
+ * reaches a multiple of the checkpoint interval as version; the other updates write only the
+ * fields they changed. A point-in-time read replays at most one interval of deltas onto the
+ * newest checkpoint before the time. The log is appended after the change itself, so a failure
+ * to append is logged and leaves a gap in the history but does not fail the change.
+ */
+@Service
+@Slf4j
+public class GroupHistoryService {
+    
+    private final GroupHistoryStore historyStore;
+    private final OrganizationProperties.History settings;
+    private final GroupHistoryStore.Compaction compaction;
+    
+    public GroupHistoryService(GroupHistoryStore historyStore, OrganizationProperties properties) {
+        this.historyStore = historyStore;
+        this.settings = properties.getHistory();
+        this.compaction = new GroupHistoryStore.Compaction(settings.getRetention(), settings.getMaxCheckpoints());
+    }
+    
+    /**
+     * Record new groups, or groups written in full
+     */
+    public void recordCheckpoints(List<Group> groups) {
+        List<GroupHistoryStore.Change> changes = new ArrayList<>(groups.size());
+        for (Group group : groups) {
+            changes.add(new GroupHistoryStore.Change(group.getUuid(), checkpoint(group)));
+        }
+        append(changes);
+    }
+    
+    /**
+     * Record a partial update
+     *
+     * @param updated the group as read after the update, which a concurrent update may have changed again
+     * @param version the version the update produced
+     * @param fields the fields written
+     * @param segments the segments written, or null if left as they were
+     */
+    public void recordUpdate(Group updated, long version, Map<GroupField, String> fields, List<String> segments) {
+        GroupHistoryEntry entry;
+        if (version % settings.getCheckpointInterval() == 0 && versionOf(updated) == version) {
+            entry = checkpoint(updated);
+        } else {
+            Map<String, String> written = new LinkedHashMap<>();
+            fields.forEach((field, value) -> written.put(field.getJsonName(), value));
+            entry = GroupHistoryEntry.builder()
+                .type(GroupHistoryEntry.Type.DELTA)
+                .version(version)
+                .fields(written)
+                .segments(segments)
+                .build();
+        }
+        append(List.of(new GroupHistoryStore.Change(updated.getUuid(), entry)));
+    }
+    
+    public void recordDelete(Group deleted) {
+        GroupHistoryEntry entry = GroupHistoryEntry.builder()
+            .type(GroupHistoryEntry.Type.DELETED)
+            .version(versionOf(deleted) + 1)
+            .build();
+        append(List.of(new GroupHistoryStore.Change(deleted.getUuid(), entry)));
+    }
+    
+    /**
+     * The group as it was at the given time, without inheritance. Returns empty if it did not
+     * exist then, was deleted, or that part of its history has been compacted away.
+     */
+    public Optional<Group> findAsOf(String uuid, Instant asOf) {
+        List<GroupHistoryEntry> entries = historyStore.findAsOf(uuid, asOf.toEpochMilli());
+        if (entries.isEmpty() || entries.get(0).getType() != GroupHistoryEntry.Type.CHECKPOINT) {
+            return Optional.empty();
+        }
+        GroupHistoryEntry checkpoint = entries.get(0);
+        // Changes appended concurrently may be out of order in time, but never in version
+        List<GroupHistoryEntry> deltas = entries.subList(1, entries.size()).stream()
+            .filter(entry -> entry.getVersion() > checkpoint.getVersion())
+            .sorted(Comparator.comparingLong(GroupHistoryEntry::getVersion))
+            .toList();
+        Group group = checkpoint.getGroup();
+        for (GroupHistoryEntry delta : deltas) {
+            group = delta.applyTo(group);
+        }
+        return Optional.of(group);
+    }
+    
+    private GroupHistoryEntry checkpoint(Group group) {
+        return GroupHistoryEntry.builder()
+            .type(GroupHistoryEntry.Type.CHECKPOINT)
+            .version(versionOf(group))
+            .group(group)
+            .build();
+    }
+    
+    private void append(List<GroupHistoryStore.Change> changes) {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        try {
+            historyStore.append(changes, compaction);
+        } catch (RuntimeException e) {
+            log.warn("Failed to record {} group changes in the history", changes.size(), e);
+        }
+    }
+    
+    private static long versionOf(Group group) {
+        return group.getVersion() != null ? group.getVersion() : 0;
+    }
+}
@@ -0,0 +1,346 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.dto.GroupCloneRequest;
+import com.muthukumaran.organization.dto.GroupImportNode;
+import com.muthukumaran.organization.dto.GroupImportRequest;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.exception.InvalidImportException;
+import com.muthukumaran.organization.exception.ParentGroupNotFoundException;
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.storage.GroupStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Imports whole group trees in one call.
+ * The document is validated in memory, then written parents-first in pipelined
+ * batches by a background job. UUIDs are derived from the import ID and the
+ * client references, so retrying an import never creates duplicates.
+ * <p>
+ * Subtrees already stored are cloned the same way, within the request: the subtree is read level by
+ * level and the copies are written parents-first in pipelined batches.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GroupImportService {
+    
+    public static final String JOB_TYPE = "group-import";
+    public static final String CLONE_JOB_TYPE = "group-clone";
+    
+    private final GroupStore groupStore;
+    private final BulkJobRunner bulkJobRunner;
+    private final GroupHistoryService groupHistoryService;
+    private final OrganizationProperties properties;
+    
+    /**
+     * Validate the import and start writing it in the background
+     */
+    public BulkJobResponse importGroups(GroupImportRequest request) {
+        String jobId = request.getImportId() != null ? request.getImportId() : UUID.randomUUID().toString();
+        log.info("Importing groups with import ID: {}", jobId);
+        
+        List<PlannedGroup> plan = plan(jobId, request.getGroups());
+        List<Group> groups = new ArrayList<>(plan.size());
+        Map<String, String> uuids = new LinkedHashMap<>();
+        for (PlannedGroup planned : plan) {
+            groups.add(planned.group);
+            uuids.put(planned.ref, planned.group.getUuid());
+        }
+        
+        int batchSize = properties.getBulk().getImportBatchSize();
+        BulkJob job = bulkJobRunner.submit(jobId, JOB_TYPE, groups.size(), (checkpoint, progress) -> {
+            // Groups are in parents-first order, so a resumed import never writes an orphan
+            for (int from = (int) checkpoint; from < groups.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, groups.size());
+                // An import run again, as after its job record expired, only writes the groups still
+                // missing, leaving those written before, and any change made to them since, alone
+                List<Group> batch = groups.subList(from, to);
+                Set<String> existing = groupStore.findExisting(batch.stream().map(Group::getUuid).toList());
+                List<Group> missing = batch.stream().filter(group -> !existing.contains(group.getUuid())).toList();
+                if (!missing.isEmpty()) {
+                    groupStore.insertAll(missing);
+                    groupHistoryService.recordCheckpoints(missing);
+                }
+                progress.processed(to);
+            }
+        });
+        
+        BulkJobResponse response = BulkJobRunner.toResponse(job);
+        response.setUuids(uuids);
+        return response;
+    }
+    
+    public BulkJobResponse getImport(String jobId) {
+        return BulkJobRunner.toResponse(bulkJobRunner.get(jobId, JOB_TYPE));
+    }
+    
+    /**
+     * Copy a group and everything below it under the target parent, or as a new root
+     *
+     * @return the completed job, mapping the UUID of every original to the UUID of its copy
+     */
+    public BulkJobResponse cloneSubtree(String uuid, String targetParentUuid, GroupCloneRequest request) {
+        String cloneId = request.getCloneId() != null ? request.getCloneId() : UUID.randomUUID().toString();
+        log.info("Cloning the subtree of group {} under {} with clone ID: {}", uuid, targetParentUuid, cloneId);
+        
+        String rootAncestors = Group.NO_ANCESTORS;
+        if (targetParentUuid != null) {
+            Map<GroupField, Object> target = groupStore.findFields(targetParentUuid, EnumSet.of(GroupField.ANCESTORS))
+                .orElseThrow(() -> new ParentGroupNotFoundException(targetParentUuid));
+            String targetAncestors = (String) target.get(GroupField.ANCESTORS);
+            rootAncestors = targetAncestors != null ? targetAncestors + targetParentUuid + "/" : null;
+        }
+        List<Group> subtree = readSubtree(uuid);
+        
+        Map<String, String> uuids = new LinkedHashMap<>();
+        for (Group original : subtree) {
+            uuids.put(original.getUuid(),
+                UUID.nameUUIDFromBytes((cloneId + "/" + original.getUuid()).getBytes(StandardCharsets.UTF_8)).toString());
+        }
+        boolean copyInheritable = !Boolean.FALSE.equals(request.getCopyInheritableFields());
+        List<Group> copies = new ArrayList<>(subtree.size());
+        Map<String, Group> copyOf = new HashMap<>();
+        for (Group original : subtree) {
+            boolean root = copies.isEmpty();
+            Group copy = Group.builder()
+                .uuid(uuids.get(original.getUuid()))
+                .parentUuid(root ? targetParentUuid : uuids.get(original.getParentUuid()))
+                .name(original.getName())
+                .displayName(original.getDisplayName())
+                .status(original.getStatus())
+                .version(1L)
+                .ancestors(root ? rootAncestors : copyOf.get(original.getParentUuid()).ancestorsOfChild())
+                .build();
+            if (copyInheritable) {
+                copy.setSpaceId(original.getSpaceId());
+                copy.setLocation(original.getLocation());
+                copy.setLanguage(original.getLanguage());
+                copy.setSegments(original.getSegments());
+            }
+            // Overrides are stored once on the root and cleared below it, so the whole copy inherits them
+            if (request.getSpaceId() != null) {
+                copy.setSpaceId(root ? request.getSpaceId() : null);
+            }
+            if (request.getLocation() != null) {
+                copy.setLocation(root ? request.getLocation() : null);
+            }
+            if (request.getLanguage() != null) {
+                copy.setLanguage(root ? request.getLanguage() : null);
+            }
+            if (request.getSegments() != null) {
+                copy.setSegments(root ? request.getSegments() : null);
+            }
+            if (root) {
+                if (request.getName() != null) {
+                    copy.setName(request.getName());
+                    copy.setDisplayName(request.getName());
+                }
+                if (request.getDisplayName() != null) {
+                    copy.setDisplayName(request.getDisplayName());
+                }
+                if (request.getStatus() != null) {
+                    copy.setStatus(request.getStatus());
+                }
+            }
+            copies.add(copy);
+            copyOf.put(original.getUuid(), copy);
+        }
+        
+        // A retry only writes the copies still missing, leaving those written before, and any
+        // change made to them since, alone
+        Set<String> existing = groupStore.findExisting(uuids.values());
+        List<Group> missing = copies.stream().filter(copy -> !existing.contains(copy.getUuid())).toList();
+        
+        // Parents-first, so a clone that fails halfway leaves no orphans and a retry completes it
+        int batchSize = properties.getBulk().getImportBatchSize();
+        for (int from = 0; from < missing.size(); from += batchSize) {
+            List<Group> batch = missing.subList(from, Math.min(from + batchSize, missing.size()));
+            groupStore.insertAll(batch);
+            groupHistoryService.recordCheckpoints(batch);
+        }
+        log.info("Cloned {} groups of the subtree of group {}, {} already copied", missing.size(), uuid,
+            existing.size());
+        
+        return BulkJobResponse.builder()
+            .jobId(cloneId)
+            .type(CLONE_JOB_TYPE)
+            .status(BulkJobStatus.COMPLETED)
+            .total(copies.size())
+            .processed(copies.size())
+            .uuids(uuids)
+            .build();
+    }
+    
+    /**
+     * The group followed by its descendants, breadth first, reading one level per round trip
+     */
+    private List<Group> readSubtree(String uuid) {
+        Group root = groupStore.findById(uuid).orElseThrow(() -> new GroupNotFoundException(uuid));
+        int maxGroups = properties.getBulk().getImportMaxGroups();
+        List<Group> subtree = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        subtree.add(root);
+        seen.add(uuid);
+        List<String> level = List.of(uuid);
+        while (!level.isEmpty()) {
+            Map<String, List<Group>> children = groupStore.findChildren(level);
+            List<String> next = new ArrayList<>();
+            for (String parentUuid : level) {
+                for (Group child : children.getOrDefault(parentUuid, List.of())) {
+                    // A cycle leads back to groups already seen
+                    if (seen.add(child.getUuid())) {
+                        subtree.add(child);
+                        next.add(child.getUuid());
+                    }
+                }
+            }
+            if (subtree.size() > maxGroups) {
+                throw new InvalidImportException(List.of("subtree of group '" + uuid + "' has more than "
+                    + maxGroups + " groups, the maximum"));
+            }
+            level = next;
+        }
+        return subtree;
+    }
+    
+    /**
+     * Flatten, validate and order the document parents-first
+     */
+    private List<PlannedGroup> plan(String jobId, List<GroupImportNode> roots) {
+        List<String> problems = new ArrayList<>();
+        Map<String, PlannedGroup> byRef = new LinkedHashMap<>();
+        flatten(roots, null, byRef, problems);
+        
+        int maxGroups = properties.getBulk().getImportMaxGroups();
+        if (byRef.size() > maxGroups) {
+            problems.add("import has " + byRef.size() + " groups, the maximum is " + maxGroups);
+        }
+        
+        // Parents must be in the batch or in storage, which also gives the ancestors of their children
+        Set<String> externalParents = new HashSet<>();
+        for (PlannedGroup planned : byRef.values()) {
+            if (planned.parentRef != null && !byRef.containsKey(planned.parentRef)) {
+                problems.add("group '" + planned.ref + "' references unknown parentRef '" + planned.parentRef + "'");
+            }
+            if (planned.node.getParentUuid() != null) {
+                externalParents.add(planned.node.getParentUuid());
+            }
+        }
+        Map<String, String> externalAncestors = new HashMap<>();
+        for (String parentUuid : externalParents) {
+            Optional<Map<GroupField, Object>> parent = groupStore.findFields(parentUuid, EnumSet.of(GroupField.ANCESTORS));
+            if (parent.isEmpty()) {
+                problems.add("parent group '" + parentUuid + "' does not exist");
+                continue;
+            }
+            String ancestors = (String) parent.get().get(GroupField.ANCESTORS);
+            externalAncestors.put(parentUuid, ancestors != null ? ancestors + parentUuid + "/" : null);
+        }
+        if (!problems.isEmpty()) {
+            throw new InvalidImportException(problems);
+        }
+        
+        // Breadth first from the roots; whatever is not reached is part of a cycle
+        Map<String, List<PlannedGroup>> children = new HashMap<>();
+        Deque<PlannedGroup> queue = new ArrayDeque<>();
+        for (PlannedGroup planned : byRef.values()) {
+            if (planned.parentRef == null) {
+                queue.add(planned);
+            } else {
+                children.computeIfAbsent(planned.parentRef, ref -> new ArrayList<>()).add(planned);
+            }
+        }
+        List<PlannedGroup> ordered = new ArrayList<>(byRef.size());
+        while (!queue.isEmpty()) {
+            PlannedGroup planned = queue.poll();
+            String parentUuid;
+            String ancestors;
+            if (planned.parentRef != null) {
+                Group parent = byRef.get(planned.parentRef).group;
+                parentUuid = parent.getUuid();
+                ancestors = parent.ancestorsOfChild();
+            } else {
+                parentUuid = planned.node.getParentUuid();
+                ancestors = parentUuid != null ? externalAncestors.get(parentUuid) : Group.NO_ANCESTORS;
+            }
+            planned.group = toGroup(jobId, planned, parentUuid, ancestors);
+            ordered.add(planned);
+            queue.addAll(children.getOrDefault(planned.ref, List.of()));
+        }
+        if (ordered.size() < byRef.size()) {
+            Set<String> cyclic = new TreeSet<>(byRef.keySet());
+            ordered.forEach(planned -> cyclic.remove(planned.ref));
+            throw new InvalidImportException(List.of("cycle between groups " + cyclic));
+        }
+        return ordered;
+    }
+    
+    private void flatten(List<GroupImportNode> nodes, PlannedGroup nestingParent,
+                         Map<String, PlannedGroup> byRef, List<String> problems) {
+        for (int i = 0; i < nodes.size(); i++) {
+            GroupImportNode node = nodes.get(i);
+            String ref = node.getRef() != null ? node.getRef()
+                : nestingParent != null ? nestingParent.ref + "." + i : "#" + i;
+            
+            if (nestingParent != null && (node.getParentRef() != null || node.getParentUuid() != null)) {
+                problems.add("nested group '" + ref + "' must not declare parentRef or parentUuid");
+            }
+            if (node.getParentRef() != null && node.getParentUuid() != null) {
+                problems.add("group '" + ref + "' declares both parentRef and parentUuid");
+            }
+            
+            PlannedGroup planned = new PlannedGroup(ref, node,
+                nestingParent != null ? nestingParent.ref : node.getParentRef());
+            if (byRef.putIfAbsent(ref, planned) != null) {
+                problems.add("duplicate ref '" + ref + "'");
+                continue;
+            }
+            if (node.getChildren() != null) {
+                flatten(node.getChildren(), planned, byRef, problems);
+            }
+        }
+    }
+    
+    private Group toGroup(String jobId, PlannedGroup planned, String parentUuid, String ancestors) {
+        GroupImportNode node = planned.node;
+        String uuid = UUID.nameUUIDFromBytes((jobId + "/" + planned.ref).getBytes(StandardCharsets.UTF_8)).toString();
+        return Group.builder()
+            .uuid(uuid)
+            .parentUuid(parentUuid)
+            .name(node.getName())
+            .displayName(node.getDisplayName() != null ? node.getDisplayName() : node.getName())
+            .status(node.getStatus() != null ? node.getStatus() : GroupStatus.ACTIVE)
+            .spaceId(node.getSpaceId())
+            .location(node.getLocation())
+            .language(node.getLanguage())
+            .segments(node.getSegments())
+            .version(1L)
+            .ancestors(ancestors)
+            .build();
+    }
+    
+    private static class PlannedGroup {
+        
+        private final String ref;
+        private final GroupImportNode node;
+        private final String parentRef;
+        private Group group;
+        
+        PlannedGroup(String ref, GroupImportNode node, String parentRef) {
+            this.ref = ref;
+            this.node = node;
+            this.parentRef = parentRef;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.muthukumaran.organization.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.config.WireFormat;
+import com.muthukumaran.organization.config.WireFormatConfig.WireFormatMappers;
+import com.muthukumaran.organization.dto.GroupResponse;
+import com.muthukumaran.organization.event.GroupChangedEvent;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.exception.GroupVersionConflictException;
+import com.muthukumaran.organization.resilience.RedisCircuitBreaker;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache of the serialized JSON of resolved groups, so hot reads skip the
+ * ancestor walk, mapping and Jackson serialization entirely.
+ * <p>
+ * An entry remembers every group its resolution read (the group and the ancestors
+ * consulted), and an index from each group to the entries read from it lets a change evict
+ * just those. Changes are stamped in a short log, so a read that raced a write to one of its
+ * groups does not cache a view resolved before that write, while reads of unrelated groups are
+ * cached as usual. When full, the least recently read entry goes first.
+ * <p>
+ * A read presenting a consistency token is resolved afresh, since a change made through
+ * another instance may not have reached this cache yet.
+ * <p>
+ * Evicted entries are kept as stale copies, the oldest dropped first. {@link #getAllowingStale(String)} serves
+ * such a copy when the group's refresh does not finish in time, for instance during a
+ * Redis latency spike, and lets the refresh finish in the background.
+ * <p>
+ * Entries hold the JSON body; a binary representation is encoded the first time it is asked
+ * for and then kept with the entry, under an entity tag of its own.
+ */
+@Component
+@Slf4j
+public class GroupResponseCache {
+    
+    private final GroupService groupService;
+    private final ObjectMapper objectMapper;
+    private final WireFormatMappers mappers;
+    private final OrganizationProperties properties;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final ThreadPoolExecutor refresher;
+    
+    // Changes remembered for the reads in flight; a read that outlasts more changes is not cached
+    private static final int CHANGE_LOG_SIZE = 1024;
+    
+    // Guards the entries, the index, the stale copies and the change log
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, CachedGroupResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    private final LinkedHashMap<String, CachedGroupResponse> staleEntries = new LinkedHashMap<>();
+    private final String[] changeLog = new String[CHANGE_LOG_SIZE];
+    private long changes;
+    
+    private final Map<String, CompletableFuture<CachedGroupResponse>> refreshes = new ConcurrentHashMap<>();
+    
+    public GroupResponseCache(GroupService groupService, ObjectMapper objectMapper, WireFormatMappers mappers,
+                              OrganizationProperties properties, RedisCircuitBreaker circuitBreaker) {
+        this.groupService = groupService;
+        this.objectMapper = objectMapper;
+        this.mappers = mappers;
+        this.properties = properties;
+        this.circuitBreaker = circuitBreaker;
+        OrganizationProperties.StaleReads staleReads = properties.getStaleReads();
+        this.refresher = new ThreadPoolExecutor(staleReads.getRefreshThreads(), staleReads.getRefreshThreads(),
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(staleReads.getRefreshQueue()),
+            new CustomizableThreadFactory("group-refresh-"));
+    }
+    
+    /**
+     * Get the resolved group as JSON bytes with a strong ETag, from cache when possible
+     */
+    public CachedGroupResponse get(String uuid) {
+        CachedGroupResponse cached = ReplicaReadRouter.tokenPresented() ? null : cached(uuid);
+        if (cached != null) {
+            return cached;
+        }
+        
+        if (!properties.getResponseCache().isEnabled() || ReplicaReadRouter.tokenPresented()) {
+            return serialize(groupService.resolveGroup(uuid));
+        }
+        return load(uuid);
+    }
+    
+    /**
+     * Like {@link #get(String)}, but if the group has a stale copy and its refresh takes longer than
+     * the stale-read wait, or Redis is failing, the copy is returned (marked stale) instead.
+     * When the refresh threads are all busy the group is resolved on the calling thread, so a
+     * full queue alone never serves a copy older than a write just made.
+     */
+    public CachedGroupResponse getAllowingStale(String uuid) {
+        if (ReplicaReadRouter.tokenPresented()) {
+            return get(uuid);
+        }
+        CachedGroupResponse cached = cached(uuid);
+        if (cached != null) {
+            return cached;
+        }
+        CachedGroupResponse stale = staleCopy(uuid);
+        if (stale == null) {
+            return get(uuid);
+        }
+        
+        CompletableFuture<CachedGroupResponse> refresh;
+        try {
+            refresh = refresh(uuid);
+        } catch (RejectedExecutionException e) {
+            // A full queue says nothing about Redis, and the copy may predate a write made here
+            if (circuitBreaker.isOpen()) {
+                return stale;
+            }
+            log.debug("Refresh queue full, resolving group {} inline", uuid);
+            try {
+                return get(uuid);
+            } catch (DataAccessException failure) {
+                log.warn("Resolving group {} failed, serving stale copy: {}", uuid, failure.getMessage());
+                return stale;
+            }
+        }
+        long wait = circuitBreaker.isOpen() ? 0 : properties.getStaleReads().getMaxWait().toNanos();
+        try {
+            return refresh.get(wait, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.debug("Refresh of group {} is slow, serving stale copy", uuid);
+            return stale;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return stale;
+        } catch (ExecutionException e) {
+            // Redis failing is what the copy is for; anything else, such as a deleted group, is reported
+            if (e.getCause() instanceof DataAccessException) {
+                log.warn("Refresh of group {} failed, serving stale copy: {}", uuid, e.getCause().getMessage());
+                return stale;
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to refresh group " + uuid, e.getCause());
+        }
+    }
+    
+    /**
+     * Resolve an If-Match header against the current representation of the group.
+     *
+     * @return the group version the matching representation was built from, or null for "*"
+     * @throws GroupVersionConflictException if no entity tag matches
+     */
+    public Long versionMatching(String uuid, String ifMatch) {
+        CachedGroupResponse current = get(uuid);
+        for (String tag : ifMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*")) {
+                return null;
+            }
+            // If-Match uses the strong comparison, so weak tags never match
+            for (WireFormat format : WireFormat.values()) {
+                if (trimmed.equals(current.etag(format))) {
+                    return current.getVersion();
+                }
+            }
+        }
+        throw new GroupVersionConflictException(uuid);
+    }
+    
+    /**
+     * The body of a cached group in the given format, encoded on first use
+     */
+    public byte[] body(CachedGroupResponse cached, WireFormat format) {
+        return cached.encodings.computeIfAbsent(format, key -> {
+            try {
+                return mappers.get(key).writeValueAsBytes(cached.getResponse());
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize group " + cached.getResponse().getUuid(), e);
+            }
+        });
+    }
+    
+    @EventListener
+    public void onGroupChanged(GroupChangedEvent event) {
+        String uuid = event.getUuid();
+        synchronized (lock) {
+            changeLog[(int) (changes % CHANGE_LOG_SIZE)] = uuid;
+            changes++;
+            Set<String> keys = dependents.remove(uuid);
+            if (keys == null) {
+                return;
+            }
+            for (String key : keys) {
+                CachedGroupResponse entry = entries.remove(key);
+                if (entry != null) {
+                    unindex(key, entry);
+                    keepStale(key, entry);
+                }
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+    
+    /**
+     * Resolve the group from the store and cache it
+     */
+    private CachedGroupResponse load(String uuid) {
+        long stamp;
+        synchronized (lock) {
+            stamp = changes;
+        }
+        ResolvedGroup resolved;
+        try {
+            // Cached until the next change, so never resolved from a replica that may lag behind the last one
+            resolved = ReplicaReadRouter.fromPrimary(() -> groupService.resolveGroup(uuid));
+        } catch (GroupNotFoundException e) {
+            synchronized (lock) {
+                staleEntries.remove(uuid);
+            }
+            throw e;
+        }
+        CachedGroupResponse response = serialize(resolved);
+        store(uuid, response, stamp);
+        return response;
+    }
+    
+    /**
+     * Load the group on a refresh thread, joining the refresh already running for it if any
+     *
+     * @throws RejectedExecutionException if all refresh threads are busy and the queue is full
+     */
+    private CompletableFuture<CachedGroupResponse> refresh(String uuid) {
+        CompletableFuture<CachedGroupResponse> running = refreshes.get(uuid);
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<CachedGroupResponse> refresh = new CompletableFuture<>();
+        running = refreshes.putIfAbsent(uuid, refresh);
+        if (running != null) {
+            return running;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    refresh.complete(load(uuid));
+                } catch (RuntimeException e) {
+                    refresh.completeExceptionally(e);
+                } finally {
+                    refreshes.remove(uuid, refresh);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshes.remove(uuid, refresh);
+            throw e;
+        }
+        return refresh;
+    }
+    
+    private CachedGroupResponse cached(String uuid) {
+        synchronized (lock) {
+            return entries.get(uuid);
+        }
+    }
+    
+    /**
+     * Cache the response unless one of the groups it was resolved from changed after the stamp,
+     * since its eviction may have run before the put
+     */
+    private void store(String uuid, CachedGroupResponse response, long stamp) {
+        synchronized (lock) {
+            if (changedSince(stamp, response.getDependencies())) {
+                return;
+            }
+            CachedGroupResponse previous = entries.put(uuid, response);
+            if (previous != null) {
+                unindex(uuid, previous);
+            }
+            for (String dependency : response.getDependencies()) {
+                dependents.computeIfAbsent(dependency, key -> new HashSet<>()).add(uuid);
+            }
+            staleEntries.remove(uuid);
+            while (entries.size() > properties.getResponseCache().getMaxEntries()) {
+                Map.Entry<String, CachedGroupResponse> eldest = entries.entrySet().iterator().next();
+                entries.remove(eldest.getKey());
+                unindex(eldest.getKey(), eldest.getValue());
+                keepStale(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+    
+    private boolean changedSince(long stamp, String[] dependencies) {
+        if (changes - stamp > CHANGE_LOG_SIZE) {
+            return true;
+        }
+        List<String> read = Arrays.asList(dependencies);
+        for (long change = stamp; change < changes; change++) {
+            if (read.contains(changeLog[(int) (change % CHANGE_LOG_SIZE)])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void unindex(String key, CachedGroupResponse entry) {
+        for (String dependency : entry.getDependencies()) {
+            Set<String> keys = dependents.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    dependents.remove(dependency);
+                }
+            }
+        }
+    }
+    
+    private void keepStale(String uuid, CachedGroupResponse response) {
+        OrganizationProperties.StaleReads staleReads = properties.getStaleReads();
+        if (!staleReads.isEnabled()) {
+            return;
+        }
+        staleEntries.remove(uuid);
+        staleEntries.put(uuid, response.withStale(true));
+        while (staleEntries.size() > staleReads.getMaxEntries()) {
+            Iterator<String> oldest = staleEntries.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+    
+    /**
+     * The stale copy of the group, unless there is none or it is too old to serve
+     */
+    private CachedGroupResponse staleCopy(String uuid) {
+        synchronized (lock) {
+            CachedGroupResponse stale = staleEntries.get(uuid);
+            if (stale == null || stale.ageSeconds() <= properties.getStaleReads().getMaxAge().toSeconds()) {
+                return stale;
+            }
+            staleEntries.remove(uuid);
+            return null;
+        }
+    }
+    
+    private CachedGroupResponse serialize(ResolvedGroup resolved) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(resolved.getResponse());
+            String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+            return new CachedGroupResponse(resolved.getResponse(), body, etag, resolved.getResponse().getVersion(),
+                resolved.getDependencies(), System.currentTimeMillis(), false,
+                new ConcurrentHashMap<>(Map.of(WireFormat.JSON, body)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize group " + resolved.getResponse().getUuid(), e);
+        }
+    }
+    
+    @Value
+    public static class CachedGroupResponse {
+        
+        GroupResponse response;
+        
+        /**
+         * The JSON body
+         */
+        byte[] body;
+        
+        /**
+         * The entity tag of the JSON body
+         */
+        String etag;
+        
+        long version;
+        
+        String[] dependencies;
+        
+        /**
+         * When the group was resolved, in epoch milliseconds
+         */
+        long resolvedAt;
+        
+        /**
+         * Whether the group has changed since; only returned by {@link #getAllowingStale(String)}
+         */
+        @With
+        boolean stale;
+        
+        /**
+         * The bodies encoded so far, by format; shared with the stale copy
+         */
+        @Getter(AccessLevel.NONE)
+        Map<WireFormat, byte[]> encodings;
+        
+        /**
+         * The entity tag of the representation in the given format; each format has its own,
+         * since strong tags identify the exact bytes
+         */
+        public String etag(WireFormat format) {
+            if (format == WireFormat.JSON) {
+                return etag;
+            }
+            return etag.substring(0, etag.length() - 1) + "-" + format.name().toLowerCase() + "\"";
+        }
+        
+        /**
+         * Seconds since the group was resolved, for the Age header of stale copies
+         */
+        public long ageSeconds() {
+            return Math.max(0, (System.currentTimeMillis() - resolvedAt) / 1000);
+        }
+    }
+}
@@ -1,28 +1,39 @@
 package com.muthukumaran.organization.service;
 
 import com.muthukumaran.organization.dto.*;
+import com.muthukumaran.organization.event.GroupChangedEvent;
 import com.muthukumaran.organization.exception.*;
 import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
 import com.muthukumaran.organization.model.GroupStatus;
-import com.muthukumaran.organization.repository.GroupRepository;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.MembershipStore;
+import com.muthukumaran.organization.tracing.RequestTracer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GroupService {
     
-    private final GroupRepository groupRepository;
-    private final RedisTemplate<String, Object> redisTemplate;
+    /**
+     * Most users returned per page of recent joiners
+     */
+    public static final int MAX_JOINED_PAGE = 1000;
     
-    private static final String USER_MEMBERSHIP_KEY = "group:%s:users";
-    private static final String USER_GROUP_KEY = "user:%s:group";
+    private final GroupStore groupStore;
+    private final MembershipStore membershipStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final GroupHistoryService groupHistoryService;
     
     /**
      * Create a new group with validation
@@ -32,9 +43,11 @@ public class GroupService {
         log.info("Creating group with name: {}", request.getName());
         
         // Validate parent exists if provided
+        String ancestors = Group.NO_ANCESTORS;
         if (request.getParentUuid() != null && !request.getParentUuid().isEmpty()) {
-            groupRepository.findById(request.getParentUuid())
+            Group parent = groupStore.findById(request.getParentUuid())
                 .orElseThrow(() -> new ParentGroupNotFoundException(request.getParentUuid()));
+            ancestors = parent.ancestorsOfChild();
         }
         
         // Build group entity
@@ -48,9 +61,13 @@ public class GroupService {
             .location(request.getLocation())
             .language(request.getLanguage())
             .segments(request.getSegments())
+            .version(1L)
+            .ancestors(ancestors)
             .build();
         
-        Group savedGroup = groupRepository.save(group);
+        Group savedGroup = groupStore.save(group);
+        groupHistoryService.recordCheckpoints(List.of(savedGroup));
+        eventPublisher.publishEvent(GroupChangedEvent.local(savedGroup.getUuid()));
         log.info("Group created with UUID: {}", savedGroup.getUuid());
         
         return mapToResponse(savedGroup);
@@ -60,21 +77,129 @@ public class GroupService {
      * Get group with inherited properties
      */
     public GroupResponse getGroupWithInheritance(String uuid) {
-        log.info("Fetching group with UUID: {}", uuid);
+        return resolveGroup(uuid).getResponse();
+    }
+    
+    /**
+     * Get group with inherited properties, along with the groups read to resolve it
+     */
+    public ResolvedGroup resolveGroup(String uuid) {
+        log.debug("Fetching group with UUID: {}", uuid);
         
-        Group group = groupRepository.findById(uuid)
+        Group group = groupStore.findById(uuid)
             .orElseThrow(() -> new GroupNotFoundException(uuid));
         
-        // Apply inheritance logic
-        Group resolvedGroup = resolveInheritance(group);
+        // Apply inheritance logic; the effective status depends on every ancestor, so a change to
+        // any of them evicts the cached response
+        List<String> dependencies = new ArrayList<>();
+        dependencies.add(uuid);
+        GroupResponse response = resolveInheritance(group, group.getAncestors(), dependencies, groupStore::findFields);
+        
+        return new ResolvedGroup(response, dependencies.toArray(new String[0]));
+    }
+    
+    /**
+     * Get a group as it was at the given time, with the properties it inherited then.
+     * The group and each ancestor are replayed from their version logs, so the walk follows
+     * the parents they had at that time.
+     *
+     * @param asOf an ISO-8601 instant
+     */
+    public GroupResponse getGroupAsOf(String uuid, String asOf) {
+        Instant time;
+        try {
+            time = Instant.parse(asOf);
+        } catch (DateTimeParseException e) {
+            throw new InvalidAsOfException(asOf);
+        }
+        log.debug("Fetching group with UUID: {} as of {}", uuid, time);
+        
+        Map<String, Optional<Group>> states = new HashMap<>();
+        Function<String, Optional<Group>> stateOf = id -> states.computeIfAbsent(id,
+            ancestor -> groupHistoryService.findAsOf(ancestor, time));
+        Group group = stateOf.apply(uuid)
+            .orElseThrow(() -> new GroupNotFoundException(uuid));
+        
+        // The ancestors kept today may not be the ones the group had then, so the status is walked
+        return resolveInheritance(group, null, new ArrayList<>(),
+            (id, fields) -> stateOf.apply(id).map(state -> GroupStore.fieldsOf(state, fields)));
+    }
+    
+    /**
+     * Get a group as it was at the given time, restricted to the requested fields.
+     * The whole group is replayed, as for {@link #getGroupAsOf(String, String)}, then projected.
+     */
+    public Map<String, Object> getGroupFieldsAsOf(String uuid, String asOf, Set<GroupField> fields) {
+        GroupResponse group = getGroupAsOf(uuid, asOf);
         
-        return mapToResponse(resolvedGroup);
+        Map<String, Object> response = new LinkedHashMap<>();
+        for (GroupField field : fields) {
+            response.put(field.getJsonName(), valueOf(group, field));
+        }
+        return response;
+    }
+    
+    /**
+     * Get a group restricted to the requested fields.
+     * Only those fields are read from Redis and the ancestor walk only covers the
+     * requested inheritable fields; it is skipped entirely when none are requested.
+     */
+    public Map<String, Object> getGroupFields(String uuid, Set<GroupField> fields) {
+        log.debug("Fetching fields {} of group with UUID: {}", fields, uuid);
+        
+        Map<GroupField, Object> values = resolveFields(uuid, fields);
+        
+        Map<String, Object> response = new LinkedHashMap<>();
+        for (GroupField field : fields) {
+            response.put(field.getJsonName(), values.get(field));
+        }
+        return response;
+    }
+    
+    /**
+     * Read the given fields of a group and resolve the inheritable ones among them,
+     * as well as the effective status when requested
+     */
+    public Map<GroupField, Object> resolveFields(String uuid, Set<GroupField> fields) {
+        Set<GroupField> inheritable = EnumSet.noneOf(GroupField.class);
+        inheritable.addAll(fields);
+        inheritable.retainAll(GroupField.inheritable());
+        boolean withEffectiveStatus = fields.contains(GroupField.EFFECTIVE_STATUS);
+        
+        Set<GroupField> toFetch = EnumSet.noneOf(GroupField.class);
+        toFetch.addAll(fields);
+        toFetch.remove(GroupField.EFFECTIVE_STATUS);
+        if (!inheritable.isEmpty() || withEffectiveStatus) {
+            toFetch.add(GroupField.PARENT_UUID);
+        }
+        if (withEffectiveStatus) {
+            toFetch.add(GroupField.STATUS);
+            toFetch.add(GroupField.ANCESTORS);
+        }
+        
+        Map<GroupField, Object> values = groupStore.findFields(uuid, toFetch)
+            .orElseThrow(() -> new GroupNotFoundException(uuid));
+        String ancestors = (String) values.remove(GroupField.ANCESTORS);
+        
+        if (!inheritable.isEmpty() || withEffectiveStatus) {
+            GroupStatus status = withEffectiveStatus
+                ? (GroupStatus) values.getOrDefault(GroupField.STATUS, GroupStatus.ACTIVE) : null;
+            GroupStatus effectiveStatus = inheritMissingFields(uuid, (String) values.get(GroupField.PARENT_UUID),
+                status, ancestors, values, inheritable, null, groupStore::findFields);
+            if (withEffectiveStatus) {
+                values.put(GroupField.EFFECTIVE_STATUS, effectiveStatus);
+            }
+        }
+        return values;
     }
     
     /**
-     * Resolve inherited properties by traversing up the hierarchy
+     * Resolve inherited properties and the effective status by traversing up the hierarchy
+     *
+     * @param ancestors the ancestors kept on the group, or null to walk the chain for the status
      */
-    private Group resolveInheritance(Group group) {
+    private GroupResponse resolveInheritance(Group group, String ancestors, List<String> consulted,
+                                             FieldSource source) {
         Group resolved = Group.builder()
             .uuid(group.getUuid())
             .parentUuid(group.getParentUuid())
@@ -85,102 +210,265 @@ public class GroupService {
             .location(group.getLocation())
             .language(group.getLanguage())
             .segments(group.getSegments())
+            .version(group.getVersion())
             .build();
         
-        // If any inheritable field is null, look up the parent chain
-        if (resolved.getSpaceId() == null || 
-            resolved.getLocation() == null || 
-            resolved.getLanguage() == null || 
-            resolved.getSegments() == null) {
+        // The walk up the parent chain fills the null inheritable fields
+        Map<GroupField, Object> values = new EnumMap<>(GroupField.class);
+        values.put(GroupField.SPACE_ID, group.getSpaceId());
+        values.put(GroupField.LOCATION, group.getLocation());
+        values.put(GroupField.LANGUAGE, group.getLanguage());
+        values.put(GroupField.SEGMENTS, group.getSegments());
+        
+        GroupStatus effectiveStatus = inheritMissingFields(group.getUuid(), group.getParentUuid(),
+            group.getStatus() != null ? group.getStatus() : GroupStatus.ACTIVE, ancestors, values,
+            GroupField.inheritable(), consulted, source);
+        
+        resolved.setSpaceId((String) values.get(GroupField.SPACE_ID));
+        resolved.setLocation((String) values.get(GroupField.LOCATION));
+        resolved.setLanguage((String) values.get(GroupField.LANGUAGE));
+        resolved.setSegments(castSegments(values.get(GroupField.SEGMENTS)));
+        
+        GroupResponse response = mapToResponse(resolved);
+        response.setEffectiveStatus(effectiveStatus);
+        return response;
+    }
+    
+    /**
+     * Fill the null inheritable fields in values from the parent chain, and resolve the
+     * effective status when the group's own status is given: DEACTIVATED if the group or any
+     * ancestor is. With the ancestors known, their statuses are checked in one batched read;
+     * otherwise the walk also reads each ancestor's status until a deactivated one or the root.
+     * Each ancestor walked is read from the source, normally HMGET on the store, for the fields
+     * still missing plus its parentUuid, and the walk stops once none is missing. Every ancestor
+     * read is recorded in consulted when given.
+     *
+     * @param status the group's own status, or null to leave the effective status unresolved
+     * @param ancestors the ancestors kept on the group, or null if unknown
+     * @return the effective status, or null when status is null
+     */
+    private GroupStatus inheritMissingFields(String uuid, String parentUuid, GroupStatus status, String ancestors,
+                                             Map<GroupField, Object> values, Set<GroupField> inheritable,
+                                             List<String> consulted, FieldSource source) {
+        Set<GroupField> missing = EnumSet.noneOf(GroupField.class);
+        for (GroupField field : inheritable) {
+            if (values.get(field) == null) {
+                missing.add(field);
+            }
+        }
+        
+        GroupStatus effectiveStatus = status;
+        List<String> ancestorUuids = status == GroupStatus.ACTIVE ? Group.ancestorUuids(ancestors) : null;
+        if (ancestorUuids != null && !ancestorUuids.isEmpty()) {
+            if (consulted != null) {
+                consulted.addAll(ancestorUuids);
+            }
+            if (groupStore.anyDeactivated(ancestorUuids)) {
+                effectiveStatus = GroupStatus.DEACTIVATED;
+            }
+        }
+        boolean walkStatus = status == GroupStatus.ACTIVE && ancestorUuids == null;
+        
+        String currentParentUuid = parentUuid;
+        Set<String> visited = new HashSet<>();
+        visited.add(uuid);
+        
+        while ((!missing.isEmpty() || walkStatus && effectiveStatus == GroupStatus.ACTIVE)
+                && currentParentUuid != null && !currentParentUuid.isEmpty()) {
+            // Prevent circular references
+            if (!visited.add(currentParentUuid)) {
+                log.warn("Circular reference detected in group hierarchy at UUID: {}", currentParentUuid);
+                break;
+            }
             
-            String currentParentUuid = group.getParentUuid();
-            Set<String> visited = new HashSet<>();
-            visited.add(group.getUuid());
+            Set<GroupField> ancestorFields = EnumSet.of(GroupField.PARENT_UUID);
+            ancestorFields.addAll(missing);
+            if (walkStatus && effectiveStatus == GroupStatus.ACTIVE) {
+                ancestorFields.add(GroupField.STATUS);
+            }
             
-            while (currentParentUuid != null && !currentParentUuid.isEmpty()) {
-                // Prevent circular references
-                if (visited.contains(currentParentUuid)) {
-                    log.warn("Circular reference detected in group hierarchy at UUID: {}", currentParentUuid);
-                    break;
-                }
-                visited.add(currentParentUuid);
-                
-                Optional<Group> parentOpt = groupRepository.findById(currentParentUuid);
-                if (parentOpt.isEmpty()) {
-                    log.warn("Parent group not found: {}", currentParentUuid);
-                    break;
-                }
-                
-                Group parent = parentOpt.get();
-                
-                // Inherit missing fields
-                if (resolved.getSpaceId() == null && parent.getSpaceId() != null) {
-                    resolved.setSpaceId(parent.getSpaceId());
-                }
-                if (resolved.getLocation() == null && parent.getLocation() != null) {
-                    resolved.setLocation(parent.getLocation());
-                }
-                if (resolved.getLanguage() == null && parent.getLanguage() != null) {
-                    resolved.setLanguage(parent.getLanguage());
-                }
-                if (resolved.getSegments() == null && parent.getSegments() != null) {
-                    resolved.setSegments(parent.getSegments());
-                }
-                
-                // Check if all fields are resolved
-                if (resolved.getSpaceId() != null && 
-                    resolved.getLocation() != null && 
-                    resolved.getLanguage() != null && 
-                    resolved.getSegments() != null) {
-                    break;
+            if (consulted != null && (ancestorUuids == null || !ancestorUuids.contains(currentParentUuid))) {
+                consulted.add(currentParentUuid);
+            }
+            RequestTracer.hop(currentParentUuid, ancestorFields);
+            
+            Optional<Map<GroupField, Object>> parentOpt = source.findFields(currentParentUuid, ancestorFields);
+            if (parentOpt.isEmpty()) {
+                log.warn("Parent group not found: {}", currentParentUuid);
+                break;
+            }
+            
+            Map<GroupField, Object> parent = parentOpt.get();
+            
+            // Inherit missing fields
+            Iterator<GroupField> it = missing.iterator();
+            while (it.hasNext()) {
+                GroupField field = it.next();
+                Object value = parent.get(field);
+                if (value != null) {
+                    values.put(field, value);
+                    it.remove();
                 }
-                
-                currentParentUuid = parent.getParentUuid();
             }
+            if (parent.get(GroupField.STATUS) == GroupStatus.DEACTIVATED) {
+                effectiveStatus = GroupStatus.DEACTIVATED;
+            }
+            
+            currentParentUuid = (String) parent.get(GroupField.PARENT_UUID);
         }
+        return effectiveStatus;
+    }
+    
+    /**
+     * Where the ancestor walk reads the fields of a group: the store, or the version log
+     */
+    @FunctionalInterface
+    private interface FieldSource {
         
-        return resolved;
+        Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<String> castSegments(Object segments) {
+        return (List<String>) segments;
+    }
+    
+    /**
+     * A field of a resolved group, empty segments as null like the projection of stored fields
+     */
+    private static Object valueOf(GroupResponse group, GroupField field) {
+        return switch (field) {
+            case UUID -> group.getUuid();
+            case PARENT_UUID -> group.getParentUuid();
+            case NAME -> group.getName();
+            case DISPLAY_NAME -> group.getDisplayName();
+            case STATUS -> group.getStatus();
+            case SPACE_ID -> group.getSpaceId();
+            case LOCATION -> group.getLocation();
+            case LANGUAGE -> group.getLanguage();
+            case SEGMENTS -> group.getSegments() == null || group.getSegments().isEmpty() ? null : group.getSegments();
+            case VERSION -> group.getVersion();
+            case EFFECTIVE_STATUS -> group.getEffectiveStatus();
+            case ANCESTORS -> null;
+        };
     }
     
     /**
      * Update an existing group
      */
-    @Transactional
     public GroupResponse updateGroup(String uuid, GroupUpdateRequest request) {
+        return updateGroup(uuid, request, null);
+    }
+    
+    /**
+     * Update an existing group without locks: only the provided fields are written (HSET),
+     * atomically with the version bump. When expectedVersion is given the update is a
+     * compare-and-set and fails if the group was modified in the meantime.
+     */
+    @Transactional
+    public GroupResponse updateGroup(String uuid, GroupUpdateRequest request, Long expectedVersion) {
         log.info("Updating group with UUID: {}", uuid);
         
-        Group group = groupRepository.findById(uuid)
-            .orElseThrow(() -> new GroupNotFoundException(uuid));
-        
-        // Update fields if provided
+        // Collect fields if provided
+        Map<GroupField, String> changes = new EnumMap<>(GroupField.class);
         if (request.getName() != null) {
-            group.setName(request.getName());
+            changes.put(GroupField.NAME, request.getName());
         }
         if (request.getDisplayName() != null) {
-            group.setDisplayName(request.getDisplayName());
+            changes.put(GroupField.DISPLAY_NAME, request.getDisplayName());
         }
         if (request.getStatus() != null) {
-            group.setStatus(request.getStatus());
+            changes.put(GroupField.STATUS, request.getStatus().name());
         }
         if (request.getSpaceId() != null) {
-            group.setSpaceId(request.getSpaceId());
+            changes.put(GroupField.SPACE_ID, request.getSpaceId());
         }
         if (request.getLocation() != null) {
-            group.setLocation(request.getLocation());
+            changes.put(GroupField.LOCATION, request.getLocation());
         }
         if (request.getLanguage() != null) {
-            group.setLanguage(request.getLanguage());
+            changes.put(GroupField.LANGUAGE, request.getLanguage());
+        }
+        
+        long version = groupStore.updateFields(uuid, expectedVersion, changes, request.getSegments());
+        if (version == GroupStore.NOT_FOUND) {
+            throw new GroupNotFoundException(uuid);
         }
-        if (request.getSegments() != null) {
-            group.setSegments(request.getSegments());
+        if (version == GroupStore.VERSION_MISMATCH) {
+            throw new GroupVersionConflictException(uuid);
         }
+        eventPublisher.publishEvent(GroupChangedEvent.local(uuid));
         
-        Group updatedGroup = groupRepository.save(group);
-        log.info("Group updated successfully: {}", uuid);
+        Group updatedGroup = groupStore.findById(uuid)
+            .orElseThrow(() -> new GroupNotFoundException(uuid));
+        groupHistoryService.recordUpdate(updatedGroup, version, changes, request.getSegments());
+        log.info("Group updated successfully: {} (version {})", uuid, version);
         
         return mapToResponse(updatedGroup);
     }
     
+    /**
+     * Make a group a root, for a group whose parent is gone or that is part of a cycle.
+     * Member counts of former ancestors are left for the consistency audit to recount.
+     * The ancestors kept on its descendants are rewritten, each as a partial update.
+     */
+    public void detachFromParent(String uuid) {
+        log.info("Detaching group {} from its parent", uuid);
+        
+        if (groupStore.findExisting(List.of(uuid)).isEmpty()) {
+            throw new GroupNotFoundException(uuid);
+        }
+        Map<String, String> subtree = subtreeOf(uuid);
+        membershipStore.reroot(new ArrayList<>(subtree.keySet()));
+        // Only the parent is written, so updates made meanwhile to other fields are kept
+        long version = groupStore.clearParent(uuid);
+        if (version == GroupStore.NOT_FOUND) {
+            throw new GroupNotFoundException(uuid);
+        }
+        eventPublisher.publishEvent(GroupChangedEvent.rerooted(uuid));
+        
+        Map<GroupField, String> changes = new EnumMap<>(GroupField.class);
+        changes.put(GroupField.PARENT_UUID, null);
+        groupStore.findById(uuid).ifPresent(updated -> groupHistoryService.recordUpdate(updated, version, changes, null));
+        
+        Map<String, String> ancestors = new HashMap<>();
+        ancestors.put(uuid, Group.NO_ANCESTORS);
+        subtree.forEach((descendant, parent) -> {
+            if (parent == null) {
+                return;
+            }
+            String value = ancestors.get(parent) + parent + "/";
+            ancestors.put(descendant, value);
+            long relabeled = groupStore.updateFields(descendant, null, Map.of(GroupField.ANCESTORS, value), null);
+            if (relabeled >= 0) {
+                eventPublisher.publishEvent(GroupChangedEvent.local(descendant));
+                // Nothing the history replays changed, but the version moved on
+                groupStore.findById(descendant).ifPresent(updated ->
+                    groupHistoryService.recordUpdate(updated, relabeled, Map.of(), null));
+            }
+        });
+    }
+    
+    /**
+     * The group followed by its descendants, breadth first, each with its parent (null for the group)
+     */
+    private Map<String, String> subtreeOf(String uuid) {
+        Map<String, String> subtree = new LinkedHashMap<>();
+        List<String> queue = new ArrayList<>();
+        subtree.put(uuid, null);
+        queue.add(uuid);
+        // A cycle leads back to groups already seen
+        for (int i = 0; i < queue.size(); i++) {
+            for (Group child : groupStore.findByParentUuid(queue.get(i))) {
+                if (!subtree.containsKey(child.getUuid())) {
+                    subtree.put(child.getUuid(), queue.get(i));
+                    queue.add(child.getUuid());
+                }
+            }
+        }
+        return subtree;
+    }
+    
     /**
      * Delete a group (only if it has no children)
      */
@@ -188,21 +476,24 @@ public class GroupService {
     public void deleteGroup(String uuid) {
         log.info("Deleting group with UUID: {}", uuid);
         
-        Group group = groupRepository.findById(uuid)
+        Group group = groupStore.findById(uuid)
             .orElseThrow(() -> new GroupNotFoundException(uuid));
         
         // Check if group has children
-        List<Group> children = groupRepository.findByParentUuid(uuid);
+        List<Group> children = groupStore.findByParentUuid(uuid);
         if (!children.isEmpty()) {
             throw new GroupHasChildrenException(uuid);
         }
         
-        // Delete user memberships
-        String membershipKey = String.format(USER_MEMBERSHIP_KEY, uuid);
-        redisTemplate.delete(membershipKey);
+        // Delete user memberships and take them off the ancestors' counts
+        List<String> lineage = groupStore.findLineage(uuid)
+            .orElseThrow(() -> new GroupNotFoundException(uuid));
+        membershipStore.deleteGroup(lineage);
         
         // Delete the group
-        groupRepository.delete(group);
+        groupStore.delete(group);
+        groupHistoryService.recordDelete(group);
+        eventPublisher.publishEvent(GroupChangedEvent.local(uuid));
         log.info("Group deleted successfully: {}", uuid);
     }
     
@@ -211,20 +502,25 @@ public class GroupService {
      */
     @Transactional
     public void addUserToGroup(String groupUuid, String userId) {
+        addUserToGroup(groupUuid, userId, null);
+    }
+    
+    /**
+     * Add a user to a group until the given time, or for good if it is null
+     */
+    @Transactional
+    public void addUserToGroup(String groupUuid, String userId, Instant expiresAt) {
         log.info("Adding user {} to group {}", userId, groupUuid);
         
         // Verify group exists
-        groupRepository.findById(groupUuid)
+        List<String> lineage = groupStore.findLineage(groupUuid)
             .orElseThrow(() -> new GroupNotFoundException(groupUuid));
         
-        String membershipKey = String.format(USER_MEMBERSHIP_KEY, groupUuid);
-        String userGroupKey = String.format(USER_GROUP_KEY, userId);
+        // The expiry goes first, so a failure in between leaves at most an expiry of a non-member
+        setOrClearExpiry(userId, groupUuid, expiresAt);
         
-        // Add user to group's set
-        redisTemplate.opsForSet().add(membershipKey, userId);
-        
-        // Track user's current group
-        redisTemplate.opsForValue().set(userGroupKey, groupUuid);
+        // Add user to group's set, track user's current group and update the counts
+        membershipStore.add(lineage, userId);
         
         log.info("User {} added to group {}", userId, groupUuid);
     }
@@ -237,23 +533,14 @@ public class GroupService {
         log.info("Removing user {} from group {}", userId, groupUuid);
         
         // Verify group exists
-        groupRepository.findById(groupUuid)
+        List<String> lineage = groupStore.findLineage(groupUuid)
             .orElseThrow(() -> new GroupNotFoundException(groupUuid));
         
-        String membershipKey = String.format(USER_MEMBERSHIP_KEY, groupUuid);
-        String userGroupKey = String.format(USER_GROUP_KEY, userId);
-        
-        // Check if user is in the group
-        Boolean isMember = redisTemplate.opsForSet().isMember(membershipKey, userId);
-        if (Boolean.FALSE.equals(isMember)) {
+        // Remove user from group's set along with the user's group tracking
+        if (!membershipStore.remove(lineage, userId)) {
             throw new UserNotFoundException(userId);
         }
-        
-        // Remove user from group's set
-        redisTemplate.opsForSet().remove(membershipKey, userId);
-        
-        // Remove user's group tracking
-        redisTemplate.delete(userGroupKey);
+        membershipStore.clearExpiry(userId, groupUuid);
         
         log.info("User {} removed from group {}", userId, groupUuid);
     }
@@ -263,52 +550,145 @@ public class GroupService {
      */
     @Transactional
     public void moveUser(String userId, String targetGroupUuid) {
+        moveUser(userId, targetGroupUuid, null);
+    }
+    
+    /**
+     * Move user to target group until the given time, or for good if it is null.
+     * An expiry of the membership in the group the user leaves is dropped along with the move.
+     */
+    @Transactional
+    public void moveUser(String userId, String targetGroupUuid, Instant expiresAt) {
         log.info("Moving user {} to group {}", userId, targetGroupUuid);
         
         // Verify target group exists
-        groupRepository.findById(targetGroupUuid)
+        List<String> targetLineage = groupStore.findLineage(targetGroupUuid)
             .orElseThrow(() -> new GroupNotFoundException(targetGroupUuid));
-        
-        String userGroupKey = String.format(USER_GROUP_KEY, userId);
-        
-        // Get user's current group
-        String currentGroupUuid = (String) redisTemplate.opsForValue().get(userGroupKey);
-        
-        if (currentGroupUuid != null) {
-            // Remove from current group
-            String currentMembershipKey = String.format(USER_MEMBERSHIP_KEY, currentGroupUuid);
-            redisTemplate.opsForSet().remove(currentMembershipKey, userId);
-        }
-        
-        // Add to target group
-        String targetMembershipKey = String.format(USER_MEMBERSHIP_KEY, targetGroupUuid);
-        redisTemplate.opsForSet().add(targetMembershipKey, userId);
-        
-        // Update user's current group
-        redisTemplate.opsForValue().set(userGroupKey, targetGroupUuid);
+        Long expiry = expiresAt != null ? expiresAt.toEpochMilli() : null;
+        
+        // The move is a compare-and-set on the user's current group; a concurrent move of the
+        // same user makes it retry with the new source group
+        String currentGroupUuid;
+        long result;
+        do {
+            currentGroupUuid = membershipStore.findGroupOfUser(userId).orElse(null);
+            List<String> sourceLineage = currentGroupUuid == null ? List.of()
+                : groupStore.findLineage(currentGroupUuid).orElse(List.of(currentGroupUuid));
+            result = membershipStore.move(new MembershipStore.Move(userId, sourceLineage, targetLineage, expiry));
+        } while (result == MembershipStore.POINTER_CHANGED);
         
         log.info("User {} moved from group {} to group {}", userId, currentGroupUuid, targetGroupUuid);
     }
     
+    private void setOrClearExpiry(String userId, String groupUuid, Instant expiresAt) {
+        if (expiresAt != null) {
+            membershipStore.setExpiry(new MembershipStore.Expiry(userId, groupUuid, expiresAt.toEpochMilli()));
+        } else {
+            membershipStore.clearExpiry(userId, groupUuid);
+        }
+    }
+    
     /**
      * Get all users in a group
      */
     public Set<String> getUsersInGroup(String groupUuid) {
-        log.info("Fetching users in group {}", groupUuid);
+        log.debug("Fetching users in group {}", groupUuid);
         
         // Verify group exists
-        groupRepository.findById(groupUuid)
+        groupStore.findById(groupUuid)
             .orElseThrow(() -> new GroupNotFoundException(groupUuid));
         
-        String membershipKey = String.format(USER_MEMBERSHIP_KEY, groupUuid);
-        Set<Object> members = redisTemplate.opsForSet().members(membershipKey);
+        return membershipStore.findMembers(groupUuid);
+    }
+    
+    /**
+     * Get the users that joined a group since the given time, or after the given cursor, in the
+     * order they joined. The cursor names the join time and ID of the last user returned, so users
+     * joining in the same millisecond are neither skipped nor repeated, even when some of those
+     * already returned leave or join again before the next page is read.
+     *
+     * @param since ISO-8601 instant, used when there is no cursor; the epoch when both are null
+     * @param cursor the nextCursor of an earlier response
+     */
+    public JoinedMembersResponse getUsersJoinedSince(String groupUuid, String since, String cursor, int limit) {
+        log.debug("Fetching users that joined group {} since {}", groupUuid, cursor != null ? cursor : since);
         
-        Set<String> users = new HashSet<>();
-        if (members != null) {
-            members.forEach(member -> users.add(member.toString()));
-        }
+        groupStore.findById(groupUuid)
+            .orElseThrow(() -> new GroupNotFoundException(groupUuid));
         
-        return users;
+        long from;
+        String after = null;
+        if (cursor != null) {
+            int separator = cursor.indexOf('-');
+            try {
+                from = Long.parseLong(cursor.substring(0, separator));
+            } catch (RuntimeException e) {
+                throw new InvalidMemberRangeException("cursor", cursor);
+            }
+            if (from < 0) {
+                throw new InvalidMemberRangeException("cursor", cursor);
+            }
+            if (separator + 1 < cursor.length()) {
+                after = cursor.substring(separator + 1);
+            }
+        } else if (since != null) {
+            try {
+                from = Instant.parse(since).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                throw new InvalidMemberRangeException("since", since);
+            }
+        } else {
+            from = 0;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_JOINED_PAGE));
+        List<MembershipStore.Joined> joined = membershipStore.findMembersJoinedSince(groupUuid, from, after, pageSize);
+        
+        List<JoinedMember> users = new ArrayList<>(joined.size());
+        long last = from;
+        String lastUser = after;
+        for (MembershipStore.Joined member : joined) {
+            users.add(new JoinedMember(member.userId(), Instant.ofEpochMilli(member.joinedAt())));
+            last = member.joinedAt();
+            lastUser = member.userId();
+        }
+        return JoinedMembersResponse.builder()
+            .uuid(groupUuid)
+            .users(users)
+            .nextCursor(last + "-" + (lastUser != null ? lastUser : ""))
+            .build();
+    }
+    
+    /**
+     * Get the direct and subtree membership counts of a group
+     */
+    public GroupStatsResponse getGroupStats(String groupUuid) {
+        List<GroupStatsResponse> stats = getGroupStats(List.of(groupUuid));
+        if (stats.isEmpty()) {
+            throw new GroupNotFoundException(groupUuid);
+        }
+        return stats.get(0);
+    }
+    
+    /**
+     * Get the membership counts of many groups from the maintained counters,
+     * in two pipelined round trips. Unknown groups are left out.
+     */
+    public List<GroupStatsResponse> getGroupStats(List<String> groupUuids) {
+        log.debug("Fetching membership stats of {} groups", groupUuids.size());
+        
+        Set<String> existing = groupStore.findExisting(groupUuids);
+        List<String> found = groupUuids.stream().filter(existing::contains).distinct().toList();
+        List<long[]> counts = membershipStore.findCounts(found);
+        
+        List<GroupStatsResponse> stats = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            stats.add(GroupStatsResponse.builder()
+                .uuid(found.get(i))
+                .directMembers(counts.get(i)[0])
+                .totalMembers(counts.get(i)[1])
+                .build());
+        }
+        return stats;
     }
     
     /**
@@ -325,6 +705,7 @@ public class GroupService {
             .location(group.getLocation())
             .language(group.getLanguage())
             .segments(group.getSegments())
+            .version(group.getVersion() != null ? group.getVersion() : 0L)
             .build();
     }
 }
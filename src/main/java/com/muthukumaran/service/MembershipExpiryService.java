@@ -0,0 +1,91 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.MembershipStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ends memberships whose expiry has passed.
+ * <p>
+ * Expiries are kept by the membership store ordered by time, so each poll only reads the ones
+ * due, however many are pending. Every instance polls; a batch is claimed with a lease first,
+ * so instances end disjoint batches, and one that stops halfway leaves its batch to be claimed
+ * again once the lease runs out. An expiry set again or cleared after it was claimed is not applied.
+ */
+@Service
+@Slf4j
+public class MembershipExpiryService {
+    
+    private final GroupStore groupStore;
+    private final MembershipStore membershipStore;
+    private final OrganizationProperties.MembershipExpiry settings;
+    private final ScheduledExecutorService scheduler;
+    
+    public MembershipExpiryService(GroupStore groupStore, MembershipStore membershipStore,
+                                   OrganizationProperties properties) {
+        this.groupStore = groupStore;
+        this.membershipStore = membershipStore;
+        this.settings = properties.getMembershipExpiry();
+        if (!settings.isEnabled()) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("membership-expiry-"));
+        long interval = settings.getPollInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::expireDueQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * End the memberships due by now, batch by batch until none are left
+     *
+     * @return the number of users removed from their groups
+     */
+    public long expireDue() {
+        long removed = 0;
+        int batchSize = settings.getBatchSize();
+        List<MembershipStore.Expiry> claimed;
+        do {
+            long now = System.currentTimeMillis();
+            long leaseUntil = now + settings.getLease().toMillis();
+            claimed = membershipStore.claimDueExpiries(now, batchSize, leaseUntil);
+            if (claimed.isEmpty()) {
+                break;
+            }
+            Map<String, List<String>> lineages = new HashMap<>();
+            for (MembershipStore.Expiry expiry : claimed) {
+                lineages.computeIfAbsent(expiry.groupUuid(),
+                    uuid -> groupStore.findLineage(uuid).orElse(List.of(uuid)));
+            }
+            long ended = membershipStore.expire(claimed, leaseUntil, lineages);
+            log.info("Ended {} of {} expired memberships", ended, claimed.size());
+            removed += ended;
+        } while (claimed.size() == batchSize);
+        return removed;
+    }
+    
+    private void expireDueQuietly() {
+        try {
+            expireDue();
+        } catch (RuntimeException e) {
+            log.warn("Failed to end expired memberships, retrying at the next poll", e);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
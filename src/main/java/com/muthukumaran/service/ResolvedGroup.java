@@ -0,0 +1,16 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.dto.GroupResponse;
+import lombok.Value;
+
+/**
+ * A group with inheritance applied, along with the UUIDs of every group that was
+ * read to resolve it (the group itself first, then the ancestors consulted).
+ */
+@Value
+public class ResolvedGroup {
+    
+    GroupResponse response;
+    
+    String[] dependencies;
+}
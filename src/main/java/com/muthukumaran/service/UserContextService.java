@@ -0,0 +1,89 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.dto.UserContextResponse;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.exception.UserNotFoundException;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.storage.MembershipStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Resolves which group a user is in together with the group's effective properties,
+ * so callers need a single request instead of a pointer read, a group read and an ancestor walk.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserContextService {
+    
+    private static final Set<GroupField> CONTEXT_FIELDS = EnumSet.of(
+        GroupField.NAME, GroupField.STATUS, GroupField.EFFECTIVE_STATUS,
+        GroupField.SPACE_ID, GroupField.LOCATION, GroupField.LANGUAGE, GroupField.SEGMENTS);
+    
+    private final GroupService groupService;
+    private final MembershipStore membershipStore;
+    
+    /**
+     * Get a user's group with its resolved properties
+     */
+    public UserContextResponse getUserContext(String userId) {
+        List<UserContextResponse> contexts = getUserContexts(List.of(userId));
+        if (contexts.isEmpty()) {
+            throw new UserNotFoundException(userId);
+        }
+        return contexts.get(0);
+    }
+    
+    /**
+     * Get the context of many users: one MGET for the group pointers, then each distinct
+     * group is resolved once. Users without a group, or whose group no longer exists, are left out.
+     */
+    public List<UserContextResponse> getUserContexts(List<String> userIds) {
+        log.debug("Fetching context of {} users", userIds.size());
+        
+        List<String> groupUuids = membershipStore.findGroupsOfUsers(userIds);
+        
+        Map<String, Optional<Map<GroupField, Object>>> resolved = new HashMap<>();
+        List<UserContextResponse> contexts = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            String groupUuid = groupUuids.get(i);
+            if (groupUuid == null) {
+                continue;
+            }
+            Optional<Map<GroupField, Object>> group = resolved.computeIfAbsent(groupUuid, this::resolveGroup);
+            String userId = userIds.get(i);
+            group.ifPresent(values -> contexts.add(toResponse(userId, groupUuid, values)));
+        }
+        return contexts;
+    }
+    
+    private Optional<Map<GroupField, Object>> resolveGroup(String groupUuid) {
+        try {
+            return Optional.of(groupService.resolveFields(groupUuid, CONTEXT_FIELDS));
+        } catch (GroupNotFoundException e) {
+            // Deleting a group leaves its former members' pointers behind
+            log.warn("User points at missing group: {}", groupUuid);
+            return Optional.empty();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private UserContextResponse toResponse(String userId, String groupUuid, Map<GroupField, Object> values) {
+        return UserContextResponse.builder()
+            .userId(userId)
+            .groupUuid(groupUuid)
+            .groupName((String) values.get(GroupField.NAME))
+            .groupStatus((GroupStatus) values.get(GroupField.STATUS))
+            .effectiveGroupStatus((GroupStatus) values.get(GroupField.EFFECTIVE_STATUS))
+            .spaceId((String) values.get(GroupField.SPACE_ID))
+            .location((String) values.get(GroupField.LOCATION))
+            .language((String) values.get(GroupField.LANGUAGE))
+            .segments((List<String>) values.get(GroupField.SEGMENTS))
+            .build();
+    }
+}
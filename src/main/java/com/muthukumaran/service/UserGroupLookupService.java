@@ -0,0 +1,103 @@
+package com.muthukumaran.organization.service;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.storage.MembershipStore;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves the current group of very many users.
+ * The user pointers are read in chunked MGETs, several chunks per pipeline and several
+ * pipelines in flight, and results are handed out pipeline by pipeline as they arrive
+ * so callers can stream them instead of buffering the whole answer.
+ */
+@Service
+@Slf4j
+public class UserGroupLookupService {
+    
+    private final MembershipStore membershipStore;
+    private final OrganizationProperties properties;
+    private final ExecutorService executor;
+    
+    public UserGroupLookupService(MembershipStore membershipStore, OrganizationProperties properties) {
+        this.membershipStore = membershipStore;
+        this.properties = properties;
+        this.executor = Executors.newFixedThreadPool(properties.getLookup().getPipelines(),
+            new CustomizableThreadFactory("group-lookup-"));
+    }
+    
+    /**
+     * Receives the groups of a slice of the users, in request order; null for users without a group
+     */
+    @FunctionalInterface
+    public interface LookupSink {
+        void accept(Map<String, String> groupsByUser) throws IOException;
+    }
+    
+    /**
+     * Hand the groups of the users to the sink slice by slice. A user listed more than once is
+     * looked up and handed out once, where it was first listed, so a streamed object never
+     * repeats a key.
+     */
+    public void lookupGroups(List<String> requested, LookupSink sink) throws IOException {
+        List<String> userIds = new ArrayList<>(new LinkedHashSet<>(requested));
+        log.debug("Looking up the groups of {} users", userIds.size());
+        
+        OrganizationProperties.Lookup lookup = properties.getLookup();
+        int perPipeline = lookup.getMgetChunkSize() * lookup.getChunksPerPipeline();
+        
+        // Keep a window of pipelines in flight and emit them in order
+        Deque<CompletableFuture<Map<String, String>>> inFlight = new ArrayDeque<>();
+        for (int from = 0; from < userIds.size(); from += perPipeline) {
+            List<String> slice = userIds.subList(from, Math.min(from + perPipeline, userIds.size()));
+            inFlight.add(CompletableFuture.supplyAsync(
+                ReplicaReadRouter.propagate(() -> lookupSlice(slice, lookup.getMgetChunkSize())), executor));
+            if (inFlight.size() >= lookup.getPipelines()) {
+                sink.accept(join(inFlight.poll()));
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            sink.accept(join(inFlight.poll()));
+        }
+    }
+    
+    private Map<String, String> lookupSlice(List<String> userIds, int chunkSize) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < userIds.size(); from += chunkSize) {
+            chunks.add(userIds.subList(from, Math.min(from + chunkSize, userIds.size())));
+        }
+        List<String> groupUuids = membershipStore.findGroupsOfUsersPipelined(chunks);
+        
+        Map<String, String> groupsByUser = new LinkedHashMap<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            groupsByUser.put(userIds.get(i), groupUuids.get(i));
+        }
+        return groupsByUser;
+    }
+    
+    private static Map<String, String> join(CompletableFuture<Map<String, String>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
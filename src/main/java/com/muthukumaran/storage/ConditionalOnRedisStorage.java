@@ -0,0 +1,15 @@
+package com.muthukumaran.organization.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import java.lang.annotation.*;
+
+/**
+ * Registers the bean only with the Redis storage backend, the default
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@ConditionalOnProperty(prefix = "organization.storage", name = "type", havingValue = "redis", matchIfMissing = true)
+public @interface ConditionalOnRedisStorage {
+}
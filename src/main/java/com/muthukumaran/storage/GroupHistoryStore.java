@@ -0,0 +1,42 @@
+package com.muthukumaran.organization.storage;
+
+import com.muthukumaran.organization.model.GroupHistoryEntry;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Storage of the version log of each group: checkpoints holding the full group, and the
+ * deltas written between them, both ordered by the time of the change
+ */
+public interface GroupHistoryStore {
+    
+    /**
+     * A change to append to the log of a group
+     */
+    record Change(String uuid, GroupHistoryEntry entry) {
+    }
+    
+    /**
+     * Limits of the log of each group, applied whenever a checkpoint is appended: checkpoints
+     * older than the retention are dropped except the newest of them, which the reads within
+     * the retention start from, as are all but the newest maxCheckpoints checkpoints. Deltas
+     * older than the oldest checkpoint kept go with them. The log of a deleted group is
+     * dropped entirely once the retention has passed.
+     */
+    record Compaction(Duration retention, int maxCheckpoints) {
+    }
+    
+    /**
+     * Append changes, each at the current time
+     */
+    void append(List<Change> changes, Compaction compaction);
+    
+    /**
+     * The newest checkpoint at or before the given time followed by the deltas after it up to
+     * that time, oldest first. Returns an empty list if there is no such checkpoint.
+     *
+     * @param asOf epoch milliseconds
+     */
+    List<GroupHistoryEntry> findAsOf(String uuid, long asOf);
+}
@@ -0,0 +1,135 @@
+package com.muthukumaran.organization.storage;
+
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import org.springframework.beans.BeanUtils;
+
+import java.util.*;
+
+/**
+ * Storage of the groups and their hierarchy
+ */
+public interface GroupStore {
+    
+    long NOT_FOUND = -1;
+    long VERSION_MISMATCH = -2;
+    
+    Optional<Group> findById(String uuid);
+    
+    List<Group> findByParentUuid(String parentUuid);
+    
+    /**
+     * The children of each of the given groups; groups without children are absent from the map
+     */
+    default Map<String, List<Group>> findChildren(Collection<String> parentUuids) {
+        Map<String, List<Group>> children = new HashMap<>();
+        for (String parentUuid : parentUuids) {
+            List<Group> found = findByParentUuid(parentUuid);
+            if (!found.isEmpty()) {
+                children.put(parentUuid, found);
+            }
+        }
+        return children;
+    }
+    
+    /**
+     * Create or replace a group
+     */
+    Group save(Group group);
+    
+    void delete(Group group);
+    
+    /**
+     * Fetch only the given fields of a group.
+     * Returns empty if the group does not exist. Fields without a value are absent from the map.
+     */
+    Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields);
+    
+    /**
+     * Atomically apply a partial update: write only the given fields, replace the segments
+     * when given, and bump the version. When expectedVersion is set the write only happens
+     * if the stored version still matches (compare-and-set).
+     *
+     * @return the new version, {@link #NOT_FOUND} or {@link #VERSION_MISMATCH}
+     */
+    long updateFields(String uuid, Long expectedVersion, Map<GroupField, String> fields, List<String> segments);
+    
+    /**
+     * Atomically make a group a root: clear its parent and bump the version, leaving the other
+     * fields as concurrent updates wrote them
+     *
+     * @return the new version or {@link #NOT_FOUND}
+     */
+    long clearParent(String uuid);
+    
+    /**
+     * The group followed by its ancestors, nearest first.
+     * Returns empty if the group does not exist.
+     */
+    Optional<List<String>> findLineage(String uuid);
+    
+    /**
+     * Whether any of the given groups is deactivated; groups that do not exist are not
+     */
+    default boolean anyDeactivated(List<String> uuids) {
+        for (String uuid : uuids) {
+            Optional<Map<GroupField, Object>> fields = findFields(uuid, EnumSet.of(GroupField.STATUS));
+            if (fields.isPresent() && fields.get().get(GroupField.STATUS) == GroupStatus.DEACTIVATED) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Check which of the given groups exist
+     */
+    Set<String> findExisting(Collection<String> uuids);
+    
+    /**
+     * Write new groups, parents before children. Rewriting the same groups is idempotent.
+     */
+    void insertAll(List<Group> groups);
+    
+    /**
+     * The given fields of a group held in full, as {@link #findFields} returns them:
+     * fields without a value and empty segments are absent
+     */
+    static Map<GroupField, Object> fieldsOf(Group group, Set<GroupField> fields) {
+        Map<GroupField, Object> values = new EnumMap<>(GroupField.class);
+        for (GroupField field : fields) {
+            Object value = switch (field) {
+                case UUID -> group.getUuid();
+                case PARENT_UUID -> group.getParentUuid();
+                case NAME -> group.getName();
+                case DISPLAY_NAME -> group.getDisplayName();
+                case STATUS -> group.getStatus();
+                case SPACE_ID -> group.getSpaceId();
+                case LOCATION -> group.getLocation();
+                case LANGUAGE -> group.getLanguage();
+                case SEGMENTS -> group.getSegments() == null || group.getSegments().isEmpty()
+                    ? null : new ArrayList<>(group.getSegments());
+                case VERSION -> group.getVersion();
+                case EFFECTIVE_STATUS -> null;
+                case ANCESTORS -> group.getAncestors();
+            };
+            if (value != null) {
+                values.put(field, value);
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * A copy of a group whose instance is shared, for callers that may modify it
+     */
+    static Group copyOf(Group group) {
+        Group copy = new Group();
+        BeanUtils.copyProperties(group, copy);
+        if (group.getSegments() != null) {
+            copy.setSegments(new ArrayList<>(group.getSegments()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,39 @@
+package com.muthukumaran.organization.storage;
+
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage of the state of bulk jobs
+ */
+public interface JobStore {
+    
+    /**
+     * Atomically claim a job: start it if new, failed or abandoned (no progress for staleAfter),
+     * keeping the processed checkpoint of an earlier attempt
+     *
+     * @return true if the caller should run the job
+     */
+    boolean claim(String jobId, String type, long total, Duration staleAfter, Duration ttl);
+    
+    Optional<BulkJob> findById(String jobId);
+    
+    /**
+     * Record a checkpoint and add the outcome counts of the items since the last one, atomically
+     */
+    void updateProgress(String jobId, long processed, Map<String, Long> counts);
+    
+    void finish(String jobId, BulkJobStatus status, String error);
+    
+    /**
+     * Append an example finding to the job, kept as long as the job itself
+     */
+    void addFinding(String jobId, String finding, Duration ttl);
+    
+    List<String> findFindings(String jobId);
+}
@@ -0,0 +1,148 @@
+package com.muthukumaran.organization.storage;
+
+import java.util.*;
+
+/**
+ * Storage of the user memberships: the members of each group, the current group of
+ * each user, and the direct and total (including descendant groups) member counts.
+ * Operations take the lineage of the group, the group followed by its ancestors,
+ * whose counts they keep up to date.
+ */
+public interface MembershipStore {
+    
+    long MOVED = 1;
+    long UNCHANGED = 0;
+    long POINTER_CHANGED = -1;
+    
+    /**
+     * A move of a user from the group they are expected to be in into the target group.
+     * Unless the move fails, the expiry of the membership the user leaves is dropped and the
+     * one of the target membership is set to expiresAt, or dropped if it is null.
+     *
+     * @param sourceLineage the expected source group and its ancestors, or an empty list for none
+     * @param targetLineage the target group and its ancestors
+     * @param expiresAt the end of the target membership in epoch milliseconds, or null for none
+     */
+    record Move(String userId, List<String> sourceLineage, List<String> targetLineage, Long expiresAt) {
+        
+        public Move(String userId, List<String> sourceLineage, List<String> targetLineage) {
+            this(userId, sourceLineage, targetLineage, null);
+        }
+    }
+    
+    /**
+     * The time a user's membership of a group ends, in epoch milliseconds
+     */
+    record Expiry(String userId, String groupUuid, long expiresAt) {
+    }
+    
+    /**
+     * A member of a group and the time they joined it, in epoch milliseconds
+     */
+    record Joined(String userId, long joinedAt) {
+    }
+    
+    /**
+     * Add a user to a group and make it the user's current group
+     *
+     * @return false if the user already was a member
+     */
+    boolean add(List<String> lineage, String userId);
+    
+    /**
+     * Remove a user from a group, and clear the user's current group if it is this one
+     *
+     * @return false if the user was not a member
+     */
+    boolean remove(List<String> lineage, String userId);
+    
+    /**
+     * Atomically move a user, as long as they are still in the expected source group
+     *
+     * @return {@link #MOVED}, {@link #UNCHANGED} if already in the target group, or {@link #POINTER_CHANGED}
+     */
+    default long move(Move move) {
+        return moveAll(List.of(move)).get(0);
+    }
+    
+    /**
+     * Apply many moves at once, each one as {@link #move}
+     */
+    List<Long> moveAll(List<Move> moves);
+    
+    /**
+     * Drop all memberships of a group that is being deleted
+     *
+     * @return the number of members removed
+     */
+    long deleteGroup(List<String> lineage);
+    
+    /**
+     * A group and its descendants are about to get the group as their new root.
+     * Backends that place memberships by root group move them along.
+     *
+     * @param subtree the group followed by its descendants
+     */
+    default void reroot(List<String> subtree) {
+    }
+    
+    /**
+     * Set the time the user's membership of the group ends, replacing an earlier one
+     */
+    void setExpiry(Expiry expiry);
+    
+    /**
+     * Let the user's membership of the group last, if it was set to end
+     */
+    void clearExpiry(String userId, String groupUuid);
+    
+    /**
+     * Claim up to limit memberships due to end by now, in order of their expiry. A claimed
+     * expiry is not handed out again before leaseUntil, so instances claim disjoint batches and
+     * an instance that fails before ending a batch leaves it to the next claim after the lease.
+     */
+    List<Expiry> claimDueExpiries(long now, int limit, long leaseUntil);
+    
+    /**
+     * End claimed memberships: remove each user from the group, clearing the user's current
+     * group if it is this one, and drop the expiry. Expiries set again or cleared since the
+     * claim are left alone.
+     *
+     * @param lineages the group followed by its ancestors, for each group of the expiries
+     * @return the number of users removed from a group
+     */
+    long expire(List<Expiry> claimed, long leaseUntil, Map<String, List<String>> lineages);
+    
+    Optional<String> findGroupOfUser(String userId);
+    
+    /**
+     * The current group of each user, in order; null for users without a group
+     */
+    List<String> findGroupsOfUsers(List<String> userIds);
+    
+    /**
+     * {@link #findGroupsOfUsers} for several chunks of users at once, concatenated.
+     * Backends with round trips use one for all chunks.
+     */
+    default List<String> findGroupsOfUsersPipelined(List<List<String>> chunks) {
+        List<String> groupUuids = new ArrayList<>();
+        chunks.forEach(chunk -> groupUuids.addAll(findGroupsOfUsers(chunk)));
+        return groupUuids;
+    }
+    
+    Set<String> findMembers(String groupUuid);
+    
+    /**
+     * Members of a group in the order they joined: up to limit of those that joined at or after
+     * since, leaving out those that joined at since up to and including the after member when it
+     * is given. Members that joined in the same millisecond are ordered by a key of the member, so
+     * paging on from the last member returned neither skips nor repeats one, even when members of
+     * the page leave in between. Members joining in the current millisecond are left for a later call.
+     */
+    List<Joined> findMembersJoinedSince(String groupUuid, long since, String after, int limit);
+    
+    /**
+     * Direct and total member counts of each group, in order
+     */
+    List<long[]> findCounts(List<String> groupUuids);
+}
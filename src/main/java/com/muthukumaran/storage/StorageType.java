@@ -0,0 +1,11 @@
+package com.muthukumaran.organization.storage;
+
+/**
+ * Backend holding the groups, memberships and bulk jobs
+ */
+public enum StorageType {
+    /** Redis, shared by all instances */
+    REDIS,
+    /** In-process, durable through snapshots and an append-only log; for a single instance */
+    MEMORY
+}
@@ -0,0 +1,94 @@
+package com.muthukumaran.organization.storage.hot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Count-min sketch estimating how often each key was read recently, in a fixed amount of memory.
+ * <p>
+ * Each key maps to one counter in each of four rows; its estimate is the smallest of them, so
+ * collisions can only make it too high. Only the counters at that minimum are raised
+ * (conservative update), which keeps collisions from inflating other keys. After every
+ * {@code 10 × width} reads all counters are halved, so the estimates follow the current load and
+ * keys that were hot once fade out.
+ * <p>
+ * Counters are updated without synchronization: concurrent reads of one key may lose an increment,
+ * which only makes the estimate lower.
+ */
+final class FrequencySketch {
+    
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 64;
+    
+    private final int[] table;
+    private final int width;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+    
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    FrequencySketch(int width) {
+        this.width = Integer.highestOneBit(Math.max(MIN_WIDTH, width) - 1) << 1;
+        this.mask = this.width - 1;
+        this.table = new int[DEPTH * this.width];
+        this.sampleSize = 10 * this.width;
+    }
+    
+    /**
+     * Count a read of the key
+     *
+     * @return the estimate including this read
+     */
+    int increment(String key) {
+        int hash = spread(key.hashCode());
+        int rehash = spread(hash * 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, table[index(row, hash, rehash)]);
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(row, hash, rehash);
+            if (table[index] == min) {
+                table[index] = min + 1;
+            }
+        }
+        if (additions.incrementAndGet() % sampleSize == 0) {
+            halve();
+        }
+        return min + 1;
+    }
+    
+    int estimate(String key) {
+        int hash = spread(key.hashCode());
+        int rehash = spread(hash * 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, table[index(row, hash, rehash)]);
+        }
+        return min;
+    }
+    
+    /**
+     * Reads counted before the estimates are halved
+     */
+    int sampleSize() {
+        return sampleSize;
+    }
+    
+    private int index(int row, int hash, int rehash) {
+        return row * width + ((hash + row * rehash) & mask);
+    }
+    
+    private void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+    }
+    
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,242 @@
+package com.muthukumaran.organization.storage.hot;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.HotGroup;
+import com.muthukumaran.organization.dto.HotGroupStatsResponse;
+import com.muthukumaran.organization.event.GroupChangedEvent;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.repository.GroupHashRepository;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local copies of the few groups that take most of the reads reaching Redis, such as roots and
+ * departments read as ancestors of every group below them.
+ * <p>
+ * Every read counts towards a {@link FrequencySketch}; a group is copied once its estimate
+ * reaches the hot threshold, so groups read now and then never take a place. When the tier is
+ * full a newcomer must be read more often than the coldest copy, which it then replaces. A copy
+ * is served for the length of its lease; after that one reader compares its version with the
+ * one in Redis, a single HMGET, and extends the lease or fetches the group again, while the
+ * other readers go to Redis as usual. Changes made through this instance or relayed from others
+ * drop the copy at once, so the lease only bounds how long a write that bypassed the service
+ * stays unseen. Copies are read from the primary, as they outlive the request. Reads presenting a
+ * consistency token skip the tier, as a change relayed from another instance may not have arrived.
+ */
+@Component
+@ConditionalOnRedisStorage
+@Slf4j
+public class HotGroupTier {
+    
+    private final GroupHashRepository groupHashRepository;
+    private final OrganizationProperties.HotGroups settings;
+    private final FrequencySketch sketch;
+    private final long leaseNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> admitting = ConcurrentHashMap.newKeySet();
+    
+    // Bumped by every change, so a copy fetched while a change was applied is not kept
+    private final AtomicLong changes = new AtomicLong();
+    
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    private static final class Entry {
+        
+        final Group group;
+        final long version;
+        final LongAdder hits = new LongAdder();
+        final AtomicBoolean renewing = new AtomicBoolean();
+        volatile long leaseExpires;
+        
+        Entry(Group group, long leaseExpires) {
+            this.group = group;
+            this.version = group.getVersion() != null ? group.getVersion() : 0L;
+            this.leaseExpires = leaseExpires;
+        }
+    }
+    
+    public HotGroupTier(GroupHashRepository groupHashRepository, OrganizationProperties properties) {
+        this.groupHashRepository = groupHashRepository;
+        this.settings = properties.getHotGroups();
+        this.sketch = new FrequencySketch(settings.getSketchWidth());
+        this.leaseNanos = settings.getLease().toNanos();
+    }
+    
+    /**
+     * Count a read of the group and serve it locally if it is hot
+     *
+     * @return the local copy, not to be modified, or null to read the group from Redis
+     */
+    public Group find(String uuid) {
+        if (!settings.isEnabled() || ReplicaReadRouter.tokenPresented()) {
+            return null;
+        }
+        reads.increment();
+        int estimate = sketch.increment(uuid);
+        Entry entry = entries.get(uuid);
+        if (entry != null) {
+            if (System.nanoTime() - entry.leaseExpires < 0) {
+                return hit(entry);
+            }
+            return entry.renewing.compareAndSet(false, true) ? renew(uuid, entry, estimate) : null;
+        }
+        if (estimate < settings.getHotThreshold()) {
+            return null;
+        }
+        // Once the tier is full, a hot group tries again only every threshold reads, so groups that
+        // lose to the copies do not scan them on every read
+        if (entries.size() >= settings.getMaxEntries() && estimate % settings.getHotThreshold() != 0) {
+            return null;
+        }
+        return admit(uuid, estimate);
+    }
+    
+    /**
+     * Drop the copy of a group this instance is changing
+     */
+    public void invalidate(String uuid) {
+        changes.incrementAndGet();
+        entries.remove(uuid);
+    }
+    
+    @EventListener
+    public void onGroupChanged(GroupChangedEvent event) {
+        invalidate(event.getUuid());
+    }
+    
+    public HotGroupStatsResponse getStats() {
+        long readCount = reads.sum();
+        long hitCount = hits.sum();
+        List<HotGroup> groups = new ArrayList<>();
+        entries.forEach((uuid, entry) -> groups.add(HotGroup.builder()
+            .uuid(uuid)
+            .estimatedReads(sketch.estimate(uuid))
+            .hits(entry.hits.sum())
+            .version(entry.version)
+            .build()));
+        groups.sort(Comparator.comparingInt(HotGroup::getEstimatedReads).reversed());
+        return HotGroupStatsResponse.builder()
+            .enabled(settings.isEnabled())
+            .reads(readCount)
+            .hits(hitCount)
+            .hitRatio(readCount == 0 ? 0 : (double) hitCount / readCount)
+            .leaseRenewals(renewals.sum())
+            .admissions(admissions.sum())
+            .rejectedAdmissions(rejections.sum())
+            .evictions(evictions.sum())
+            .hotThreshold(settings.getHotThreshold())
+            .windowReads(sketch.sampleSize())
+            .maxEntries(settings.getMaxEntries())
+            .groups(groups)
+            .build();
+    }
+    
+    private Group hit(Entry entry) {
+        entry.hits.increment();
+        hits.increment();
+        return entry.group;
+    }
+    
+    /**
+     * Check the version of a copy whose lease ran out; run by one reader at a time
+     */
+    private Group renew(String uuid, Entry entry, int estimate) {
+        try {
+            if (estimate < settings.getHotThreshold() / 2) {
+                if (entries.remove(uuid, entry)) {
+                    evictions.increment();
+                    log.debug("Unpinned group {} after it cooled down", uuid);
+                }
+                return null;
+            }
+            long epoch = changes.get();
+            Long version = ReplicaReadRouter.fromPrimary(() -> groupHashRepository.findVersions(List.of(uuid))).get(uuid);
+            if (version == null) {
+                entries.remove(uuid, entry);
+                return null;
+            }
+            if (version == entry.version) {
+                entry.leaseExpires = System.nanoTime() + leaseNanos;
+                renewals.increment();
+                return hit(entry);
+            }
+            return fetch(uuid, epoch);
+        } finally {
+            entry.renewing.set(false);
+        }
+    }
+    
+    private Group admit(String uuid, int estimate) {
+        if (!admitting.add(uuid)) {
+            return null;
+        }
+        try {
+            if (entries.size() >= settings.getMaxEntries() && !evictColderThan(estimate)) {
+                rejections.increment();
+                return null;
+            }
+            return fetch(uuid, changes.get());
+        } finally {
+            admitting.remove(uuid);
+        }
+    }
+    
+    /**
+     * Read the whole group and keep it, unless a change was applied meanwhile
+     *
+     * @param epoch the change count taken before the read
+     */
+    private Group fetch(String uuid, long epoch) {
+        Group group = ReplicaReadRouter.fromPrimary(() -> groupHashRepository.findAll(List.of(uuid))).get(uuid);
+        if (group == null) {
+            entries.remove(uuid);
+            return null;
+        }
+        Entry entry = new Entry(group, System.nanoTime() + leaseNanos);
+        entries.put(uuid, entry);
+        if (changes.get() != epoch) {
+            entries.remove(uuid, entry);
+        } else {
+            admissions.increment();
+            log.debug("Pinned hot group {} at version {}", uuid, entry.version);
+        }
+        return group;
+    }
+    
+    private boolean evictColderThan(int estimate) {
+        String coldest = null;
+        int coldestEstimate = Integer.MAX_VALUE;
+        for (String uuid : entries.keySet()) {
+            int candidate = sketch.estimate(uuid);
+            if (candidate < coldestEstimate) {
+                coldest = uuid;
+                coldestEstimate = candidate;
+            }
+        }
+        if (coldest == null || coldestEstimate >= estimate) {
+            return false;
+        }
+        if (entries.remove(coldest) != null) {
+            evictions.increment();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,117 @@
+package com.muthukumaran.organization.storage.memory;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of non-negative ints in a single open addressing array, without boxing.
+ * Not thread-safe; {@link MemoryStore} guards it with its lock.
+ */
+final class IntSet {
+    
+    private static final int FREE = -1;
+    
+    private int[] slots;
+    private int size;
+    
+    IntSet() {
+        this(4);
+    }
+    
+    IntSet(int expected) {
+        slots = new int[tableSize(expected)];
+        Arrays.fill(slots, FREE);
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    boolean isEmpty() {
+        return size == 0;
+    }
+    
+    boolean contains(int value) {
+        return slots[find(slots, value)] == value;
+    }
+    
+    /**
+     * @return false if the value was already present
+     */
+    boolean add(int value) {
+        int slot = find(slots, value);
+        if (slots[slot] == value) {
+            return false;
+        }
+        slots[slot] = value;
+        if (++size * 4 > slots.length * 3) {
+            resize(slots.length * 2);
+        }
+        return true;
+    }
+    
+    /**
+     * @return false if the value was not present
+     */
+    boolean remove(int value) {
+        int slot = find(slots, value);
+        if (slots[slot] != value) {
+            return false;
+        }
+        // Shift the following entries of the probe run back so lookups never stop early
+        int mask = slots.length - 1;
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (slots[next] != FREE) {
+            int home = hash(slots[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                slots[free] = slots[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[free] = FREE;
+        size--;
+        return true;
+    }
+    
+    void forEach(IntConsumer action) {
+        for (int value : slots) {
+            if (value != FREE) {
+                action.accept(value);
+            }
+        }
+    }
+    
+    private void resize(int length) {
+        int[] resized = new int[length];
+        Arrays.fill(resized, FREE);
+        for (int value : slots) {
+            if (value != FREE) {
+                resized[find(resized, value)] = value;
+            }
+        }
+        slots = resized;
+    }
+    
+    private static int find(int[] table, int value) {
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        while (table[slot] != FREE && table[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private static int hash(int value) {
+        return value * 0x9E3779B9 >>> 1;
+    }
+    
+    private static int tableSize(int expected) {
+        int length = 8;
+        while (length * 3 < expected * 4) {
+            length *= 2;
+        }
+        return length;
+    }
+}
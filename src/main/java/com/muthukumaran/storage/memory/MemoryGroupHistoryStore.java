@@ -0,0 +1,113 @@
+package com.muthukumaran.organization.storage.memory;
+
+import com.muthukumaran.organization.model.GroupHistoryEntry;
+import com.muthukumaran.organization.storage.ConditionalOnMemoryStorage;
+import com.muthukumaran.organization.storage.GroupHistoryStore;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The version log of each group held in the process.
+ * Like the bulk jobs it is not written to disk, so the history starts over after a restart.
+ */
+@Repository
+@ConditionalOnMemoryStorage
+public class MemoryGroupHistoryStore implements GroupHistoryStore {
+    
+    private record Timed(long at, GroupHistoryEntry entry) {
+    }
+    
+    private record Expiring(String uuid, long expiresAt) {
+    }
+    
+    private static final class Log {
+        final List<Timed> checkpoints = new ArrayList<>();
+        final List<Timed> deltas = new ArrayList<>();
+        long expiresAt = Long.MAX_VALUE;
+    }
+    
+    private final Map<String, Log> logs = new HashMap<>();
+    
+    /**
+     * Logs of deleted groups in the order they expire, as the retention is the same for all.
+     * An entry is passed over once its log is gone or has another expiry, as when the group was
+     * created again after the deletion.
+     */
+    private final Deque<Expiring> expiring = new ArrayDeque<>();
+    
+    @Override
+    public synchronized void append(List<Change> changes, Compaction compaction) {
+        long now = System.currentTimeMillis();
+        while (!expiring.isEmpty() && expiring.peekFirst().expiresAt() <= now) {
+            Expiring expired = expiring.pollFirst();
+            Log log = logs.get(expired.uuid());
+            if (log != null && log.expiresAt == expired.expiresAt()) {
+                logs.remove(expired.uuid());
+            }
+        }
+        for (Change change : changes) {
+            Log log = logs.computeIfAbsent(change.uuid(), uuid -> new Log());
+            Timed timed = new Timed(now, change.entry());
+            if (change.entry().getType() == GroupHistoryEntry.Type.DELTA) {
+                log.deltas.add(timed);
+                continue;
+            }
+            log.checkpoints.add(timed);
+            compact(log, now, compaction);
+            if (change.entry().getType() == GroupHistoryEntry.Type.DELETED) {
+                log.expiresAt = now + compaction.retention().toMillis();
+                expiring.addLast(new Expiring(change.uuid(), log.expiresAt));
+            } else {
+                log.expiresAt = Long.MAX_VALUE;
+            }
+        }
+    }
+    
+    @Override
+    public synchronized List<GroupHistoryEntry> findAsOf(String uuid, long asOf) {
+        Log log = logs.get(uuid);
+        List<GroupHistoryEntry> entries = new ArrayList<>();
+        if (log == null || log.expiresAt <= System.currentTimeMillis()) {
+            return entries;
+        }
+        Timed checkpoint = null;
+        for (Timed timed : log.checkpoints) {
+            if (timed.at() > asOf) {
+                break;
+            }
+            checkpoint = timed;
+        }
+        if (checkpoint == null) {
+            return entries;
+        }
+        entries.add(checkpoint.entry());
+        for (Timed timed : log.deltas) {
+            if (timed.at() >= checkpoint.at() && timed.at() <= asOf) {
+                entries.add(timed.entry());
+            }
+        }
+        return entries;
+    }
+    
+    private static void compact(Log log, long now, Compaction compaction) {
+        long cutoff = now - compaction.retention().toMillis();
+        int keepFrom = 0;
+        for (int i = 0; i < log.checkpoints.size() && log.checkpoints.get(i).at() <= cutoff; i++) {
+            keepFrom = i;
+        }
+        keepFrom = Math.max(keepFrom, log.checkpoints.size() - compaction.maxCheckpoints());
+        log.checkpoints.subList(0, keepFrom).clear();
+        long oldest = log.checkpoints.get(0).at();
+        Iterator<Timed> it = log.deltas.iterator();
+        while (it.hasNext() && it.next().at() < oldest) {
+            it.remove();
+        }
+    }
+}
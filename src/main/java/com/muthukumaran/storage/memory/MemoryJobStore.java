@@ -0,0 +1,113 @@
+package com.muthukumaran.organization.storage.memory;
+
+import com.muthukumaran.organization.model.BulkJob;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.storage.ConditionalOnMemoryStorage;
+import com.muthukumaran.organization.storage.JobStore;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Bulk job state held in the process.
+ * Unlike the groups and memberships it is not written to disk: a job interrupted by a restart
+ * is resubmitted from the start, which is safe because the bulk operations are idempotent.
+ */
+@Repository
+@ConditionalOnMemoryStorage
+public class MemoryJobStore implements JobStore {
+    
+    private static final class Entry {
+        BulkJob job;
+        final List<String> findings = new ArrayList<>();
+        long expiresAt;
+    }
+    
+    private final Map<String, Entry> jobs = new HashMap<>();
+    
+    @Override
+    public synchronized boolean claim(String jobId, String type, long total, Duration staleAfter, Duration ttl) {
+        long now = System.currentTimeMillis();
+        Entry entry = find(jobId);
+        if (entry != null) {
+            BulkJob job = entry.job;
+            if (job.getStatus() == BulkJobStatus.COMPLETED) {
+                return false;
+            }
+            if (job.getStatus() == BulkJobStatus.RUNNING && job.getUpdatedAt() > now - staleAfter.toMillis()) {
+                return false;
+            }
+        } else {
+            entry = new Entry();
+            entry.job = BulkJob.builder().jobId(jobId).counts(new TreeMap<>()).build();
+            jobs.put(jobId, entry);
+        }
+        entry.job.setType(type);
+        entry.job.setTotal(total);
+        entry.job.setStatus(BulkJobStatus.RUNNING);
+        entry.job.setError(null);
+        entry.job.setUpdatedAt(now);
+        entry.expiresAt = now + ttl.toMillis();
+        return true;
+    }
+    
+    @Override
+    public synchronized Optional<BulkJob> findById(String jobId) {
+        Entry entry = find(jobId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        BulkJob job = entry.job;
+        return Optional.of(new BulkJob(job.getJobId(), job.getType(), job.getStatus(), job.getTotal(),
+            job.getProcessed(), job.getError(), new TreeMap<>(job.getCounts()), job.getUpdatedAt()));
+    }
+    
+    @Override
+    public synchronized void updateProgress(String jobId, long processed, Map<String, Long> counts) {
+        Entry entry = find(jobId);
+        if (entry != null) {
+            counts.forEach((outcome, count) -> entry.job.getCounts().merge(outcome, count, Long::sum));
+            entry.job.setProcessed(processed);
+            entry.job.setUpdatedAt(System.currentTimeMillis());
+        }
+    }
+    
+    @Override
+    public synchronized void finish(String jobId, BulkJobStatus status, String error) {
+        Entry entry = find(jobId);
+        if (entry != null) {
+            entry.job.setStatus(status);
+            entry.job.setError(error);
+            entry.job.setUpdatedAt(System.currentTimeMillis());
+        }
+    }
+    
+    @Override
+    public synchronized void addFinding(String jobId, String finding, Duration ttl) {
+        Entry entry = find(jobId);
+        if (entry != null) {
+            entry.findings.add(finding);
+        }
+    }
+    
+    @Override
+    public synchronized List<String> findFindings(String jobId) {
+        Entry entry = find(jobId);
+        return entry != null ? new ArrayList<>(entry.findings) : List.of();
+    }
+    
+    /**
+     * The job unless expired, dropping expired jobs on the way
+     */
+    private Entry find(String jobId) {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(entry -> entry.expiresAt <= now);
+        return jobs.get(jobId);
+    }
+}
@@ -0,0 +1,1151 @@
+package com.muthukumaran.organization.storage.memory;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.storage.ConditionalOnMemoryStorage;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.MembershipStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Repository;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Groups and memberships held in the process, for single instance deployments and tests.
+ * Groups and users are numbered, so the tree, the members of each group and the current
+ * group of each user are kept in int arrays and int sets instead of boxed collections.
+ * Every change is applied under a write lock and appended to a log, which is synced to disk
+ * periodically and folded into a snapshot now and then; startup loads the snapshot and replays the log.
+ * Log records describe the effect of a change rather than the request, so replaying one is unconditional;
+ * a membership that began is followed by a record of its join time.
+ * The hierarchy is at hand, so the lineages passed to the membership operations only name the group.
+ */
+@Repository
+@ConditionalOnMemoryStorage
+@Slf4j
+public class MemoryStore implements GroupStore, MembershipStore {
+    
+    private static final int NONE = -1;
+    private static final int UNKNOWN = -2;
+    
+    private static final byte PUT_GROUP = 1;
+    private static final byte DELETE_GROUP = 2;
+    private static final byte ADD_MEMBER = 3;
+    private static final byte REMOVE_MEMBER = 4;
+    private static final byte MOVE_MEMBER = 5;
+    private static final byte CLEAR_MEMBERS = 6;
+    private static final byte SET_EXPIRY = 7;
+    private static final byte CLEAR_EXPIRY = 8;
+    private static final byte JOINED = 9;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final OrganizationProperties.Memory settings;
+    private final MemoryStoreFiles files;
+    private final ScheduledExecutorService scheduler;
+    
+    // Groups by number; a deleted group's number is not reused
+    private final Map<String, Integer> groupNumbers = new HashMap<>();
+    private Group[] groups = new Group[1024];
+    private int[] parents = new int[1024];
+    private IntSet[] children = new IntSet[1024];
+    private IntSet[] members = new IntSet[1024];
+    private long[] totals = new long[1024];
+    private int groupCount;
+    
+    // Users by number, with the number of their current group
+    private final Map<String, Integer> userNumbers = new HashMap<>();
+    private String[] userIds = new String[1024];
+    private int[] pointers = new int[1024];
+    private int userCount;
+    
+    // Join times by user and group number, and the same as {group, time, user} in order of group,
+    // time and user ID; a negative user sorts before every user of its time
+    private final Map<Long, Long> joinTimes = new HashMap<>();
+    private final TreeSet<long[]> joinOrder = new TreeSet<>(this::compareJoins);
+    
+    // Membership expiries by user and group number, and the same in order of time
+    private final Map<Long, Long> expiries = new HashMap<>();
+    private final TreeSet<long[]> expiryOrder = new TreeSet<>(
+        Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+    
+    private long changesSinceSnapshot;
+    
+    public MemoryStore(OrganizationProperties properties) throws IOException {
+        this.settings = properties.getStorage().getMemory();
+        this.files = new MemoryStoreFiles(Path.of(settings.getDirectory()));
+        files.recover(this::readSnapshot, this::replay);
+        log.info("In-memory store ready with {} groups and {} users", groupNumbers.size(), userNumbers.size());
+        
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("memory-store-"));
+        long fsync = settings.getFsyncInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::sync, fsync, fsync, TimeUnit.MILLISECONDS);
+        long snapshot = settings.getSnapshotInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshot, snapshot, TimeUnit.MILLISECONDS);
+    }
+    
+    // ---- GroupStore
+    
+    @Override
+    public Optional<Group> findById(String uuid) {
+        lock.readLock().lock();
+        try {
+            int group = groupNumber(uuid);
+            return group < 0 ? Optional.empty() : Optional.of(withAncestors(group));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<Group> findByParentUuid(String parentUuid) {
+        lock.readLock().lock();
+        try {
+            int parent = groupNumber(parentUuid);
+            List<Group> found = new ArrayList<>();
+            if (parent >= 0) {
+                children[parent].forEach(child -> found.add(withAncestors(child)));
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public Group save(Group group) {
+        lock.writeLock().lock();
+        try {
+            Group stored = copy(group);
+            putGroup(stored);
+            writeGroup(stored);
+            flush();
+            return copy(stored);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void delete(Group group) {
+        lock.writeLock().lock();
+        try {
+            int number = groupNumber(group.getUuid());
+            if (number >= 0) {
+                deleteGroup(number);
+                write(DELETE_GROUP, group.getUuid());
+                flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields) {
+        lock.readLock().lock();
+        try {
+            int group = groupNumber(uuid);
+            if (group < 0) {
+                return Optional.empty();
+            }
+            return Optional.of(GroupStore.fieldsOf(fields.contains(GroupField.ANCESTORS) ? withAncestors(group) : groups[group], fields));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public long updateFields(String uuid, Long expectedVersion, Map<GroupField, String> fields, List<String> segments) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(uuid);
+            if (group < 0) {
+                return NOT_FOUND;
+            }
+            Group updated = copy(groups[group]);
+            long current = updated.getVersion() != null ? updated.getVersion() : 0;
+            if (expectedVersion != null && expectedVersion != current) {
+                return VERSION_MISMATCH;
+            }
+            fields.forEach((field, value) -> {
+                switch (field) {
+                    case NAME -> updated.setName(value);
+                    case DISPLAY_NAME -> updated.setDisplayName(value);
+                    case STATUS -> updated.setStatus(GroupStatus.valueOf(value));
+                    case SPACE_ID -> updated.setSpaceId(value);
+                    case LOCATION -> updated.setLocation(value);
+                    case LANGUAGE -> updated.setLanguage(value);
+                    case ANCESTORS -> {
+                        // Derived from the parents, not stored
+                    }
+                    default -> throw new IllegalArgumentException("Field cannot be updated: " + field);
+                }
+            });
+            if (segments != null) {
+                updated.setSegments(new ArrayList<>(segments));
+            }
+            updated.setVersion(current + 1);
+            putGroup(updated);
+            writeGroup(updated);
+            flush();
+            return current + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public long clearParent(String uuid) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(uuid);
+            if (group < 0) {
+                return NOT_FOUND;
+            }
+            Group updated = copy(groups[group]);
+            long version = (updated.getVersion() != null ? updated.getVersion() : 0) + 1;
+            updated.setParentUuid(null);
+            updated.setVersion(version);
+            putGroup(updated);
+            writeGroup(updated);
+            flush();
+            return version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public Optional<List<String>> findLineage(String uuid) {
+        lock.readLock().lock();
+        try {
+            int group = groupNumber(uuid);
+            if (group < 0) {
+                return Optional.empty();
+            }
+            List<String> lineage = new ArrayList<>();
+            for (int current = group, steps = 0; current != NONE && steps <= groupCount; current = parents[current], steps++) {
+                lineage.add(groups[current].getUuid());
+            }
+            return Optional.of(lineage);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public Set<String> findExisting(Collection<String> uuids) {
+        lock.readLock().lock();
+        try {
+            Set<String> existing = new HashSet<>();
+            for (String uuid : uuids) {
+                if (groupNumbers.containsKey(uuid)) {
+                    existing.add(uuid);
+                }
+            }
+            return existing;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public void insertAll(List<Group> batch) {
+        lock.writeLock().lock();
+        try {
+            for (Group group : batch) {
+                Group stored = copy(group);
+                putGroup(stored);
+                writeGroup(stored);
+            }
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // ---- MembershipStore
+    
+    @Override
+    public boolean add(List<String> lineage, String userId) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(lineage.get(0));
+            if (group < 0) {
+                return false;
+            }
+            int user = userNumber(userId);
+            boolean added = addMember(user, group);
+            write(ADD_MEMBER, userId, lineage.get(0));
+            if (added) {
+                writeJoined(user, group, userId, lineage.get(0));
+            }
+            flush();
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean remove(List<String> lineage, String userId) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(lineage.get(0));
+            Integer user = userNumbers.get(userId);
+            if (group < 0 || user == null || !removeMember(user, group)) {
+                return false;
+            }
+            write(REMOVE_MEMBER, userId, lineage.get(0));
+            flush();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<Long> moveAll(List<Move> moves) {
+        lock.writeLock().lock();
+        try {
+            List<Long> results = new ArrayList<>(moves.size());
+            for (Move move : moves) {
+                String targetUuid = move.targetLineage().get(0);
+                int target = groupNumber(targetUuid);
+                int user = userNumber(move.userId());
+                int expected = move.sourceLineage().isEmpty() ? NONE : groupNumber(move.sourceLineage().get(0));
+                if (pointers[user] != expected || expected == UNKNOWN) {
+                    results.add(POINTER_CHANGED);
+                } else if (target < 0 || pointers[user] == target && members[target].contains(user)) {
+                    // A target deleted since it was looked up is left alone like one the user is already in
+                    results.add(UNCHANGED);
+                } else {
+                    boolean joined = !members[target].contains(user);
+                    moveMember(user, expected, target);
+                    write(MOVE_MEMBER, move.userId(), expected == NONE ? "" : move.sourceLineage().get(0), targetUuid);
+                    if (joined) {
+                        writeJoined(user, target, move.userId(), targetUuid);
+                    }
+                    results.add(MOVED);
+                }
+                if (results.get(results.size() - 1) != POINTER_CHANGED && target >= 0) {
+                    moveExpiry(move, user, expected, target);
+                }
+            }
+            flush();
+            return results;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public long deleteGroup(List<String> lineage) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(lineage.get(0));
+            if (group < 0) {
+                return 0;
+            }
+            long removed = clearMembers(group);
+            write(CLEAR_MEMBERS, lineage.get(0));
+            flush();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void setExpiry(Expiry expiry) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(expiry.groupUuid());
+            if (group < 0) {
+                return;
+            }
+            putExpiry(pair(userNumber(expiry.userId()), group), expiry.expiresAt());
+            write(SET_EXPIRY, expiry.userId(), expiry.groupUuid(), Long.toString(expiry.expiresAt()));
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void clearExpiry(String userId, String groupUuid) {
+        lock.writeLock().lock();
+        try {
+            int group = groupNumber(groupUuid);
+            Integer user = userNumbers.get(userId);
+            if (group < 0 || user == null || !removeExpiry(pair(user, group))) {
+                return;
+            }
+            write(CLEAR_EXPIRY, userId, groupUuid);
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * The lease is only held in memory: a restart forgets it along with the instance that held it
+     */
+    @Override
+    public List<Expiry> claimDueExpiries(long now, int limit, long leaseUntil) {
+        lock.writeLock().lock();
+        try {
+            List<Expiry> claimed = new ArrayList<>();
+            List<long[]> due = new ArrayList<>();
+            for (long[] entry : expiryOrder) {
+                if (entry[0] > now || due.size() >= limit) {
+                    break;
+                }
+                due.add(entry);
+            }
+            for (long[] entry : due) {
+                int user = (int) (entry[1] >>> 32);
+                int group = (int) entry[1];
+                if (groups[group] == null) {
+                    // The group was deleted along with its memberships
+                    removeExpiry(entry[1]);
+                    continue;
+                }
+                putExpiry(entry[1], leaseUntil);
+                claimed.add(new Expiry(userIds[user], groups[group].getUuid(), entry[0]));
+            }
+            return claimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public long expire(List<Expiry> claimed, long leaseUntil, Map<String, List<String>> lineages) {
+        lock.writeLock().lock();
+        try {
+            long removed = 0;
+            for (Expiry expiry : claimed) {
+                int group = groupNumber(expiry.groupUuid());
+                Integer user = userNumbers.get(expiry.userId());
+                if (group < 0 || user == null || !Long.valueOf(leaseUntil).equals(expiries.get(pair(user, group)))) {
+                    continue;
+                }
+                removeExpiry(pair(user, group));
+                write(CLEAR_EXPIRY, expiry.userId(), expiry.groupUuid());
+                if (removeMember(user, group)) {
+                    write(REMOVE_MEMBER, expiry.userId(), expiry.groupUuid());
+                    removed++;
+                }
+            }
+            flush();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public Optional<String> findGroupOfUser(String userId) {
+        return Optional.ofNullable(findGroupsOfUsers(List.of(userId)).get(0));
+    }
+    
+    @Override
+    public List<String> findGroupsOfUsers(List<String> userIds) {
+        lock.readLock().lock();
+        try {
+            List<String> groupUuids = new ArrayList<>(userIds.size());
+            for (String userId : userIds) {
+                Integer user = userNumbers.get(userId);
+                int group = user == null ? NONE : pointers[user];
+                groupUuids.add(group == NONE ? null : groups[group].getUuid());
+            }
+            return groupUuids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public Set<String> findMembers(String groupUuid) {
+        lock.readLock().lock();
+        try {
+            int group = groupNumber(groupUuid);
+            Set<String> users = new HashSet<>();
+            if (group >= 0) {
+                members[group].forEach(user -> users.add(userIds[user]));
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<Joined> findMembersJoinedSince(String groupUuid, long since, String after, int limit) {
+        lock.readLock().lock();
+        try {
+            int group = groupNumber(groupUuid);
+            List<Joined> found = new ArrayList<>();
+            if (group < 0) {
+                return found;
+            }
+            // A user known here can be looked up directly; one dropped by a snapshot since is passed by ID
+            Integer afterUser = after != null ? userNumbers.get(after) : null;
+            long[] from = afterUser != null
+                ? new long[] {group, since, afterUser} : new long[] {group, since, Long.MIN_VALUE};
+            long now = System.currentTimeMillis();
+            Iterator<long[]> entries = joinOrder.subSet(
+                from, afterUser == null, new long[] {group, now, Long.MIN_VALUE}, false).iterator();
+            while (found.size() < limit && entries.hasNext()) {
+                long[] entry = entries.next();
+                String userId = userIds[(int) entry[2]];
+                if (after == null || entry[1] != since || userId.compareTo(after) > 0) {
+                    found.add(new Joined(userId, entry[1]));
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<long[]> findCounts(List<String> groupUuids) {
+        lock.readLock().lock();
+        try {
+            List<long[]> counts = new ArrayList<>(groupUuids.size());
+            for (String groupUuid : groupUuids) {
+                int group = groupNumber(groupUuid);
+                counts.add(group < 0 ? new long[] {0, 0} : new long[] {members[group].size(), totals[group]});
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // ---- State changes, shared by the operations and the log replay
+    
+    private void putGroup(Group group) {
+        int number = groupNumbers.getOrDefault(group.getUuid(), NONE);
+        if (number == NONE) {
+            number = groupCount++;
+            ensureGroupCapacity(groupCount);
+            groupNumbers.put(group.getUuid(), number);
+            parents[number] = NONE;
+            children[number] = new IntSet();
+            members[number] = new IntSet();
+            totals[number] = 0;
+        }
+        groups[number] = group;
+        
+        int parent = groupNumber(group.getParentUuid());
+        if (parent == UNKNOWN) {
+            parent = NONE;
+        }
+        if (parent != parents[number]) {
+            // Carry the subtree's members over to the new ancestors
+            adjustTotals(parents[number], -totals[number]);
+            if (parents[number] != NONE) {
+                children[parents[number]].remove(number);
+            }
+            parents[number] = parent;
+            if (parent != NONE) {
+                children[parent].add(number);
+            }
+            adjustTotals(parent, totals[number]);
+        }
+        changesSinceSnapshot++;
+    }
+    
+    private void deleteGroup(int group) {
+        clearMembers(group);
+        children[group].forEach(child -> parents[child] = NONE);
+        if (parents[group] != NONE) {
+            children[parents[group]].remove(group);
+        }
+        adjustTotals(parents[group], -totals[group]);
+        groupNumbers.remove(groups[group].getUuid());
+        groups[group] = null;
+        children[group] = null;
+        members[group] = null;
+        changesSinceSnapshot++;
+    }
+    
+    private boolean addMember(int user, int group) {
+        boolean added = members[group].add(user);
+        if (added) {
+            adjustTotals(group, 1);
+        }
+        pointers[user] = group;
+        changesSinceSnapshot++;
+        return added;
+    }
+    
+    private boolean removeMember(int user, int group) {
+        if (!members[group].remove(user)) {
+            return false;
+        }
+        removeJoinTime(user, group);
+        adjustTotals(group, -1);
+        if (pointers[user] == group) {
+            pointers[user] = NONE;
+        }
+        changesSinceSnapshot++;
+        return true;
+    }
+    
+    private void moveMember(int user, int source, int target) {
+        if (source >= 0 && members[source].remove(user)) {
+            removeJoinTime(user, source);
+            adjustTotals(source, -1);
+        }
+        if (members[target].add(user)) {
+            adjustTotals(target, 1);
+        }
+        pointers[user] = target;
+        changesSinceSnapshot++;
+    }
+    
+    /**
+     * Remove all members of a group, clearing the users whose current group it is
+     */
+    private long clearMembers(int group) {
+        IntSet removed = members[group];
+        removed.forEach(user -> {
+            if (pointers[user] == group) {
+                pointers[user] = NONE;
+            }
+            removeJoinTime(user, group);
+        });
+        members[group] = new IntSet();
+        adjustTotals(group, -removed.size());
+        changesSinceSnapshot++;
+        return removed.size();
+    }
+    
+    /**
+     * Record when a user joined a group; replay sets the time logged after the membership record
+     */
+    private void putJoinTime(int user, int group, long joinedAt) {
+        Long previous = joinTimes.put(pair(user, group), joinedAt);
+        if (previous != null) {
+            joinOrder.remove(new long[] {group, previous, user});
+        }
+        joinOrder.add(new long[] {group, joinedAt, user});
+    }
+    
+    private int compareJoins(long[] a, long[] b) {
+        int order = Long.compare(a[0], b[0]);
+        if (order == 0) {
+            order = Long.compare(a[1], b[1]);
+        }
+        if (order != 0 || a[2] == b[2]) {
+            return order;
+        }
+        if (a[2] < 0 || b[2] < 0) {
+            return Long.compare(a[2], b[2]);
+        }
+        return userIds[(int) a[2]].compareTo(userIds[(int) b[2]]);
+    }
+    
+    private void removeJoinTime(int user, int group) {
+        Long previous = joinTimes.remove(pair(user, group));
+        if (previous != null) {
+            joinOrder.remove(new long[] {group, previous, user});
+        }
+    }
+    
+    /**
+     * Drop the expiry of the membership the user left, and set or drop that of the target membership
+     */
+    private void moveExpiry(Move move, int user, int source, int target) {
+        if (source >= 0 && source != target && removeExpiry(pair(user, source))) {
+            write(CLEAR_EXPIRY, move.userId(), move.sourceLineage().get(0));
+        }
+        String targetUuid = move.targetLineage().get(0);
+        if (move.expiresAt() != null) {
+            putExpiry(pair(user, target), move.expiresAt());
+            write(SET_EXPIRY, move.userId(), targetUuid, move.expiresAt().toString());
+        } else if (removeExpiry(pair(user, target))) {
+            write(CLEAR_EXPIRY, move.userId(), targetUuid);
+        }
+    }
+    
+    private void putExpiry(long pair, long expiresAt) {
+        Long previous = expiries.put(pair, expiresAt);
+        if (previous != null) {
+            expiryOrder.remove(new long[] {previous, pair});
+        }
+        expiryOrder.add(new long[] {expiresAt, pair});
+        changesSinceSnapshot++;
+    }
+    
+    private boolean removeExpiry(long pair) {
+        Long previous = expiries.remove(pair);
+        if (previous == null) {
+            return false;
+        }
+        expiryOrder.remove(new long[] {previous, pair});
+        changesSinceSnapshot++;
+        return true;
+    }
+    
+    private static long pair(int user, int group) {
+        return (long) user << 32 | group & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Add to the total of the group and its ancestors
+     */
+    private void adjustTotals(int group, long by) {
+        for (int current = group, steps = 0; current != NONE && steps <= groupCount; current = parents[current], steps++) {
+            totals[current] += by;
+        }
+    }
+    
+    /**
+     * A copy of the group with its ancestors derived from the parents
+     */
+    private Group withAncestors(int group) {
+        Group found = copy(groups[group]);
+        found.setAncestors(ancestorsOf(group));
+        return found;
+    }
+    
+    /**
+     * The ancestors of the group as kept on {@link Group}, or null if its lineage is broken
+     */
+    private String ancestorsOf(int group) {
+        Deque<String> uuids = new ArrayDeque<>();
+        for (int current = group, steps = 0; steps <= groupCount; steps++) {
+            int parent = parents[current];
+            if (parent == NONE) {
+                String parentUuid = groups[current].getParentUuid();
+                if (parentUuid != null && !parentUuid.isEmpty()) {
+                    return null;
+                }
+                StringBuilder ancestors = new StringBuilder(Group.NO_ANCESTORS);
+                uuids.forEach(uuid -> ancestors.append(uuid).append('/'));
+                return ancestors.toString();
+            }
+            uuids.addFirst(groups[parent].getUuid());
+            current = parent;
+        }
+        return null;
+    }
+    
+    private int groupNumber(String uuid) {
+        if (uuid == null || uuid.isEmpty()) {
+            return NONE;
+        }
+        return groupNumbers.getOrDefault(uuid, UNKNOWN);
+    }
+    
+    private int userNumber(String userId) {
+        Integer number = userNumbers.get(userId);
+        if (number != null) {
+            return number;
+        }
+        int user = userCount++;
+        if (userCount > userIds.length) {
+            userIds = Arrays.copyOf(userIds, userIds.length * 2);
+            pointers = Arrays.copyOf(pointers, pointers.length * 2);
+        }
+        userIds[user] = userId;
+        pointers[user] = NONE;
+        userNumbers.put(userId, user);
+        return user;
+    }
+    
+    private void ensureGroupCapacity(int count) {
+        if (count > groups.length) {
+            int length = groups.length * 2;
+            groups = Arrays.copyOf(groups, length);
+            parents = Arrays.copyOf(parents, length);
+            children = Arrays.copyOf(children, length);
+            members = Arrays.copyOf(members, length);
+            totals = Arrays.copyOf(totals, length);
+        }
+    }
+    
+    private static Group copy(Group group) {
+        return Group.builder()
+            .uuid(group.getUuid())
+            .parentUuid(group.getParentUuid())
+            .name(group.getName())
+            .displayName(group.getDisplayName())
+            .status(group.getStatus())
+            .spaceId(group.getSpaceId())
+            .location(group.getLocation())
+            .language(group.getLanguage())
+            .segments(group.getSegments() != null ? new ArrayList<>(group.getSegments()) : null)
+            .version(group.getVersion())
+            .build();
+    }
+    
+    // ---- Log
+    
+    private void write(byte op, String... values) {
+        try {
+            DataOutputStream out = files.log();
+            out.writeByte(op);
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the log", e);
+        }
+    }
+    
+    private void writeJoined(int user, int group, String userId, String groupUuid) {
+        long joinedAt = System.currentTimeMillis();
+        putJoinTime(user, group, joinedAt);
+        write(JOINED, userId, groupUuid, Long.toString(joinedAt));
+    }
+    
+    private void writeGroup(Group group) {
+        try {
+            DataOutputStream out = files.log();
+            out.writeByte(PUT_GROUP);
+            writeGroup(out, group);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to the log", e);
+        }
+    }
+    
+    private void flush() {
+        try {
+            files.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the log", e);
+        }
+    }
+    
+    private void replay(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case PUT_GROUP -> putGroup(readGroup(in));
+            case DELETE_GROUP -> {
+                int group = groupNumber(in.readUTF());
+                if (group >= 0) {
+                    deleteGroup(group);
+                }
+            }
+            case ADD_MEMBER -> {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                if (group >= 0) {
+                    addMember(user, group);
+                }
+            }
+            case REMOVE_MEMBER -> {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                if (group >= 0) {
+                    removeMember(user, group);
+                }
+            }
+            case MOVE_MEMBER -> {
+                int user = userNumber(in.readUTF());
+                int source = groupNumber(in.readUTF());
+                int target = groupNumber(in.readUTF());
+                if (target >= 0) {
+                    moveMember(user, source, target);
+                }
+            }
+            case CLEAR_MEMBERS -> {
+                int group = groupNumber(in.readUTF());
+                if (group >= 0) {
+                    clearMembers(group);
+                }
+            }
+            case JOINED -> {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                long joinedAt = Long.parseLong(in.readUTF());
+                if (group >= 0 && members[group].contains(user)) {
+                    putJoinTime(user, group, joinedAt);
+                }
+            }
+            case SET_EXPIRY -> {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                long expiresAt = Long.parseLong(in.readUTF());
+                if (group >= 0) {
+                    putExpiry(pair(user, group), expiresAt);
+                }
+            }
+            case CLEAR_EXPIRY -> {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                if (group >= 0) {
+                    removeExpiry(pair(user, group));
+                }
+            }
+            default -> throw new IOException("Unknown log record " + op);
+        }
+    }
+    
+    // ---- Snapshot
+    
+    private void sync() {
+        try {
+            files.sync();
+            if (files.logSize() > settings.getMaxLogSize()) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            log.error("Failed to sync the log", e);
+        }
+    }
+    
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.error("Failed to write a snapshot", e);
+        }
+    }
+    
+    /**
+     * Write the whole state to a new snapshot and start a new log.
+     * Changes wait meanwhile; reads go on.
+     */
+    public synchronized void snapshot() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (changesSinceSnapshot == 0) {
+                return;
+            }
+            long started = System.nanoTime();
+            files.snapshot(this::writeSnapshot);
+            changesSinceSnapshot = 0;
+            log.info("Snapshot of {} groups and {} users written in {} ms", groupNumbers.size(), userNumbers.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Groups, then the users that have a group or are members, then the members of each group by
+     * the users' positions in the snapshot, then the expiries of memberships in existing groups,
+     * then the join times of the memberships
+     */
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(groupNumbers.size());
+        for (int group = 0; group < groupCount; group++) {
+            if (groups[group] != null) {
+                writeGroup(out, groups[group]);
+            }
+        }
+        
+        int[] positions = new int[userCount];
+        Arrays.fill(positions, NONE);
+        for (int group = 0; group < groupCount; group++) {
+            if (groups[group] != null) {
+                members[group].forEach(user -> positions[user] = 0);
+            }
+        }
+        int written = 0;
+        for (int user = 0; user < userCount; user++) {
+            if (pointers[user] != NONE || positions[user] == 0) {
+                positions[user] = written++;
+            }
+        }
+        out.writeInt(written);
+        for (int user = 0; user < userCount; user++) {
+            if (positions[user] != NONE) {
+                out.writeUTF(userIds[user]);
+                out.writeUTF(pointers[user] == NONE ? "" : groups[pointers[user]].getUuid());
+            }
+        }
+        
+        out.writeInt(groupNumbers.size());
+        for (int group = 0; group < groupCount; group++) {
+            if (groups[group] != null) {
+                out.writeUTF(groups[group].getUuid());
+                out.writeInt(members[group].size());
+                IOException[] failure = new IOException[1];
+                members[group].forEach(user -> {
+                    try {
+                        out.writeInt(positions[user]);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }
+        
+        List<long[]> live = new ArrayList<>(expiryOrder.size());
+        for (long[] entry : expiryOrder) {
+            if (groups[(int) entry[1]] != null) {
+                live.add(entry);
+            }
+        }
+        out.writeInt(live.size());
+        for (long[] entry : live) {
+            out.writeUTF(userIds[(int) (entry[1] >>> 32)]);
+            out.writeUTF(groups[(int) entry[1]].getUuid());
+            out.writeLong(entry[0]);
+        }
+        
+        out.writeInt(joinOrder.size());
+        for (long[] entry : joinOrder) {
+            out.writeInt(positions[(int) entry[2]]);
+            out.writeUTF(groups[(int) entry[0]].getUuid());
+            out.writeLong(entry[1]);
+        }
+    }
+    
+    private void readSnapshot(DataInputStream in) throws IOException {
+        int groupTotal = in.readInt();
+        List<Group> loaded = new ArrayList<>(groupTotal);
+        for (int i = 0; i < groupTotal; i++) {
+            loaded.add(readGroup(in));
+        }
+        // Number every group before linking, since a parent may come after its child
+        for (Group group : loaded) {
+            Group root = copy(group);
+            root.setParentUuid(null);
+            putGroup(root);
+        }
+        for (Group group : loaded) {
+            putGroup(group);
+        }
+        
+        int userTotal = in.readInt();
+        int[] users = new int[userTotal];
+        String[] groupOfUser = new String[userTotal];
+        for (int i = 0; i < userTotal; i++) {
+            users[i] = userNumber(in.readUTF());
+            groupOfUser[i] = in.readUTF();
+        }
+        
+        int groupsWithMembers = in.readInt();
+        for (int i = 0; i < groupsWithMembers; i++) {
+            int group = groupNumber(in.readUTF());
+            int size = in.readInt();
+            for (int m = 0; m < size; m++) {
+                addMember(users[in.readInt()], group);
+            }
+        }
+        // Adding the members moved the pointers; set them as they were
+        for (int i = 0; i < userTotal; i++) {
+            int group = groupNumber(groupOfUser[i]);
+            pointers[users[i]] = group >= 0 ? group : NONE;
+        }
+        
+        // Snapshots of the first format predate expiries
+        if (files.snapshotFormat() >= 2) {
+            int expiryTotal = in.readInt();
+            for (int i = 0; i < expiryTotal; i++) {
+                int user = userNumber(in.readUTF());
+                int group = groupNumber(in.readUTF());
+                long expiresAt = in.readLong();
+                if (group >= 0) {
+                    putExpiry(pair(user, group), expiresAt);
+                }
+            }
+        }
+        // Snapshots before the third format predate join times
+        if (files.snapshotFormat() >= 3) {
+            int joinTotal = in.readInt();
+            for (int i = 0; i < joinTotal; i++) {
+                int user = users[in.readInt()];
+                int group = groupNumber(in.readUTF());
+                long joinedAt = in.readLong();
+                if (group >= 0) {
+                    putJoinTime(user, group, joinedAt);
+                }
+            }
+        }
+        changesSinceSnapshot = 0;
+    }
+    
+    private static void writeGroup(DataOutputStream out, Group group) throws IOException {
+        out.writeUTF(group.getUuid());
+        writeNullable(out, group.getParentUuid());
+        writeNullable(out, group.getName());
+        writeNullable(out, group.getDisplayName());
+        writeNullable(out, group.getStatus() != null ? group.getStatus().name() : null);
+        writeNullable(out, group.getSpaceId());
+        writeNullable(out, group.getLocation());
+        writeNullable(out, group.getLanguage());
+        List<String> segments = group.getSegments();
+        out.writeInt(segments != null ? segments.size() : NONE);
+        if (segments != null) {
+            for (String segment : segments) {
+                out.writeUTF(segment);
+            }
+        }
+        out.writeLong(group.getVersion() != null ? group.getVersion() : NONE);
+    }
+    
+    private static Group readGroup(DataInputStream in) throws IOException {
+        Group group = new Group();
+        group.setUuid(in.readUTF());
+        group.setParentUuid(readNullable(in));
+        group.setName(readNullable(in));
+        group.setDisplayName(readNullable(in));
+        String status = readNullable(in);
+        group.setStatus(status != null ? GroupStatus.valueOf(status) : null);
+        group.setSpaceId(readNullable(in));
+        group.setLocation(readNullable(in));
+        group.setLanguage(readNullable(in));
+        int segments = in.readInt();
+        if (segments != NONE) {
+            List<String> values = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                values.add(in.readUTF());
+            }
+            group.setSegments(values);
+        }
+        long version = in.readLong();
+        group.setVersion(version != NONE ? version : null);
+        return group;
+    }
+    
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Snapshot the state so the next start does not need to replay the log
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        snapshotQuietly();
+        try {
+            files.close();
+        } catch (IOException e) {
+            log.error("Failed to close the log", e);
+        }
+    }
+}
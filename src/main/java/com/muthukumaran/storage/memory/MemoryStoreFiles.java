@@ -0,0 +1,202 @@
+package com.muthukumaran.organization.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot and append-only log files of the in-process store.
+ * Logs are numbered by generation. A snapshot records the generation of the log that continues
+ * after it, so recovery reads the snapshot and replays that log and any later ones, and a crash
+ * at any point of a snapshot leaves either the old or the new snapshot with the logs it needs.
+ */
+@Slf4j
+final class MemoryStoreFiles implements Closeable {
+    
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String SNAPSHOT_TEMP = "snapshot.bin.tmp";
+    private static final Pattern LOG = Pattern.compile("appendonly\\.(\\d+)\\.log");
+    private static final int MAGIC = 0x4F524731;
+    private static final int FORMAT = 3;
+    private static final int OLDEST_FORMAT = 1;
+    
+    /**
+     * Writes the whole state
+     */
+    @FunctionalInterface
+    interface SnapshotWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    /**
+     * Reads the whole state back, or one log record
+     */
+    @FunctionalInterface
+    interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+    
+    private final Path directory;
+    private int snapshotFormat = FORMAT;
+    private long generation;
+    private FileChannel channel;
+    private DataOutputStream out;
+    
+    MemoryStoreFiles(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Load the snapshot and replay the logs written after it, then open the log for appending.
+     * A record torn by a crash at the end of the last log is dropped.
+     */
+    void recover(Reader snapshot, Reader record) throws IOException {
+        generation = 0;
+        Path snapshotFile = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshotFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a snapshot of this store: " + snapshotFile);
+                }
+                snapshotFormat = in.readInt();
+                if (snapshotFormat < OLDEST_FORMAT || snapshotFormat > FORMAT) {
+                    throw new IOException("Unsupported snapshot format " + snapshotFormat + ": " + snapshotFile);
+                }
+                generation = in.readLong();
+                snapshot.read(in);
+            }
+            log.info("Loaded snapshot {} (log generation {})", snapshotFile, generation);
+        }
+        
+        long records = 0;
+        for (long logGeneration : logGenerations()) {
+            if (logGeneration < generation) {
+                Files.delete(logFile(logGeneration));
+                continue;
+            }
+            Path file = logFile(logGeneration);
+            byte[] bytes = Files.readAllBytes(file);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            long complete = 0;
+            try {
+                while (in.available() > 0) {
+                    record.read(in);
+                    complete = bytes.length - in.available();
+                    records++;
+                }
+            } catch (EOFException e) {
+                log.warn("Dropping a torn record at the end of {}", file);
+                try (FileChannel torn = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    torn.truncate(complete);
+                }
+            }
+            generation = logGeneration;
+        }
+        log.info("Replayed {} log records from {}", records, directory);
+        open(generation);
+    }
+    
+    /**
+     * Format of the snapshot being loaded, so the reader can tell which sections it has
+     */
+    int snapshotFormat() {
+        return snapshotFormat;
+    }
+    
+    DataOutputStream log() {
+        return out;
+    }
+    
+    long logSize() throws IOException {
+        return channel.size();
+    }
+    
+    /**
+     * Hand the records written so far to the operating system
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+    
+    /**
+     * Make the records handed to the operating system durable
+     */
+    void sync() throws IOException {
+        FileChannel current = channel;
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // Switched to a new log meanwhile; the old one was synced when closed
+        }
+    }
+    
+    /**
+     * Write a snapshot of the current state and start a new log after it.
+     * The caller must keep the state from changing meanwhile.
+     */
+    void snapshot(SnapshotWriter writer) throws IOException {
+        long next = generation + 1;
+        Path temp = directory.resolve(SNAPSHOT_TEMP);
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT);
+            data.writeLong(next);
+            writer.write(data);
+            data.flush();
+            file.getFD().sync();
+        }
+        
+        close();
+        open(next);
+        Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (long logGeneration : logGenerations()) {
+            if (logGeneration < next) {
+                Files.delete(logFile(logGeneration));
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.flush();
+            channel.force(false);
+            out.close();
+        }
+    }
+    
+    private void open(long logGeneration) throws IOException {
+        generation = logGeneration;
+        channel = FileChannel.open(logFile(logGeneration),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+    
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = LOG.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+    
+    private Path logFile(long logGeneration) {
+        return directory.resolve(String.format("appendonly.%06d.log", logGeneration));
+    }
+}
@@ -0,0 +1,327 @@
+package com.muthukumaran.organization.storage.replica;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.config.RedisConfig;
+import com.muthukumaran.organization.exception.InvalidConsistencyTokenException;
+import com.muthukumaran.organization.storage.StorageType;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Sends reads that can be served from a Redis replica there, and everything else to the primary.
+ * <p>
+ * Writes hand out a consistency token: the primary's replication offset right after the write.
+ * A read presenting it goes to the replica only once the replica has applied the stream up to
+ * that offset; it waits up to the configured time for that and otherwise reads from the primary.
+ * Reads without a token go to the replica as long as its link to the primary is up. A read with a
+ * token also skips the copies this instance keeps (response cache, hot groups, snapshot), which may
+ * not have seen a write made through another instance yet.
+ * <p>
+ * The route is chosen per thread: the Redis templates get their connections through
+ * {@link #routing(RedisConnectionFactory)}, which hands out replica connections only inside
+ * {@link #read(String, Read)}. Background work and the write paths always use the primary.
+ */
+@Component
+@Slf4j
+public class ReplicaReadRouter {
+    
+    public static final String TOKEN_HEADER = "X-Consistency-Token";
+    
+    private static final ThreadLocal<Boolean> ON_REPLICA = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> TOKEN_PRESENTED = new ThreadLocal<>();
+    
+    // First pause between replica checks of a read waiting for its token, doubled after each check
+    private static final long FIRST_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    /**
+     * A read, which may throw the checked exception of the caller
+     */
+    @FunctionalInterface
+    public interface Read<T, E extends Exception> {
+        T get() throws E;
+    }
+    
+    private final OrganizationProperties.ReplicaReads settings;
+    private final LettuceConnectionFactory primary;
+    private final LettuceConnectionFactory replica;
+    private final ScheduledExecutorService scheduler;
+    
+    private volatile boolean replicaUp;
+    private volatile long replicaOffset = -1;
+    
+    // Number of replica checks so far, so waiting reads share them
+    private long checks;
+    
+    // Queries of the primary's offset for tokens, so concurrent writes share them
+    private final Object offsetLock = new Object();
+    private long offsetQueries;
+    private boolean offsetQuerying;
+    private String primaryOffset;
+    
+    public ReplicaReadRouter(RedisConnectionFactory connectionFactory, OrganizationProperties properties) {
+        this.settings = properties.getReplicaReads();
+        boolean active = settings.isEnabled() && properties.getStorage().getType() == StorageType.REDIS;
+        if (!active) {
+            this.primary = null;
+            this.replica = null;
+            this.scheduler = null;
+            return;
+        }
+        if (!(connectionFactory instanceof LettuceConnectionFactory lettuce)) {
+            throw new IllegalStateException("Replica reads need the Lettuce Redis client");
+        }
+        if (lettuce.isClusterAware()) {
+            throw new IllegalStateException("Replica reads are not supported with Redis Cluster");
+        }
+        this.primary = lettuce;
+        this.replica = createReplicaFactory(lettuce);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("replica-check-"));
+        long interval = settings.getCheckInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::checkReplica, 0, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Same credentials, database and client settings as the primary, at the replica's address
+     */
+    private LettuceConnectionFactory createReplicaFactory(LettuceConnectionFactory primary) {
+        RedisStandaloneConfiguration primaryConfiguration = primary.getStandaloneConfiguration();
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(settings.getHost(), settings.getPort());
+        configuration.setUsername(primaryConfiguration.getUsername());
+        configuration.setPassword(primaryConfiguration.getPassword());
+        configuration.setDatabase(primaryConfiguration.getDatabase());
+        
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration, primary.getClientConfiguration());
+        factory.setPipeliningFlushPolicy(RedisConfig.pipeliningFlushPolicy());
+        factory.afterPropertiesSet();
+        factory.start();
+        log.info("Reading from Redis replica {}:{}", settings.getHost(), settings.getPort());
+        return factory;
+    }
+    
+    /**
+     * Wrap the primary's connection factory so connections come from the replica inside replica reads
+     */
+    public RedisConnectionFactory routing(RedisConnectionFactory connectionFactory) {
+        return replica != null ? new RoutingConnectionFactory(connectionFactory, replica) : connectionFactory;
+    }
+    
+    /**
+     * The token of the writes made so far, or null when reads are not split.
+     * <p>
+     * Writes finishing together share one query of the primary's offset: a query sent after the
+     * caller's write covers it, so the caller waits for the next one to start rather than sending its own.
+     */
+    public String issueToken() {
+        if (primary == null) {
+            return null;
+        }
+        synchronized (offsetLock) {
+            // A query in flight may have been sent before the caller's write, the one after it was not
+            long needed = offsetQueries + (offsetQuerying ? 2 : 1);
+            while (offsetQueries < needed) {
+                if (!offsetQuerying) {
+                    offsetQuerying = true;
+                    break;
+                }
+                try {
+                    offsetLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return queryPrimaryOffset();
+                }
+            }
+            if (offsetQueries >= needed) {
+                return primaryOffset;
+            }
+        }
+        String offset = null;
+        try {
+            offset = queryPrimaryOffset();
+            return offset;
+        } finally {
+            synchronized (offsetLock) {
+                // After a failed query the waiting writes go without a token, as if reads were not split
+                primaryOffset = offset;
+                offsetQueries++;
+                offsetQuerying = false;
+                offsetLock.notifyAll();
+            }
+        }
+    }
+    
+    private String queryPrimaryOffset() {
+        try (RedisConnection connection = primary.getConnection()) {
+            Properties info = connection.serverCommands().info("replication");
+            return info != null ? info.getProperty("master_repl_offset") : null;
+        }
+    }
+    
+    /**
+     * Run a read on the replica if it has caught up with the token, else on the primary
+     *
+     * @param token consistency token of an earlier write, or null to accept any replica state
+     */
+    public <T, E extends Exception> T read(String token, Read<T, E> read) throws E {
+        long offset = parse(token);
+        boolean onReplica = replica != null && caughtUp(offset);
+        Boolean previous = ON_REPLICA.get();
+        Boolean previousToken = TOKEN_PRESENTED.get();
+        ON_REPLICA.set(onReplica);
+        TOKEN_PRESENTED.set(replica != null && offset >= 0);
+        try {
+            return read.get();
+        } finally {
+            ON_REPLICA.set(previous);
+            TOKEN_PRESENTED.set(previousToken);
+        }
+    }
+    
+    /**
+     * Run a read on the primary even inside a replica read, for reads whose result is kept
+     * beyond the request and must not be older than the change that invalidated it
+     */
+    public static <T> T fromPrimary(Supplier<T> read) {
+        Boolean previous = ON_REPLICA.get();
+        ON_REPLICA.remove();
+        try {
+            return read.get();
+        } finally {
+            ON_REPLICA.set(previous);
+        }
+    }
+    
+    /**
+     * Carry the current route over to a task run on another thread
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        Boolean route = ON_REPLICA.get();
+        Boolean token = TOKEN_PRESENTED.get();
+        return () -> {
+            Boolean previous = ON_REPLICA.get();
+            Boolean previousToken = TOKEN_PRESENTED.get();
+            ON_REPLICA.set(route);
+            TOKEN_PRESENTED.set(token);
+            try {
+                return task.get();
+            } finally {
+                ON_REPLICA.set(previous);
+                TOKEN_PRESENTED.set(previousToken);
+            }
+        };
+    }
+    
+    /**
+     * Whether the Redis reads of the current thread go to the replica
+     */
+    public static boolean onReplica() {
+        return Boolean.TRUE.equals(ON_REPLICA.get());
+    }
+    
+    /**
+     * Whether the current read presented a consistency token, so it must not be served from copies
+     * kept by this instance: they learn of writes through other instances only when the change is relayed
+     */
+    public static boolean tokenPresented() {
+        return Boolean.TRUE.equals(TOKEN_PRESENTED.get());
+    }
+    
+    private static long parse(String token) {
+        if (token == null || token.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(token.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidConsistencyTokenException(token);
+        }
+    }
+    
+    /**
+     * Whether the replica is up and at or past the offset, checking it again until the wait runs out.
+     * The pause between checks starts at a millisecond and doubles, so a lagging replica is not
+     * flooded with checks.
+     */
+    private boolean caughtUp(long offset) {
+        if (!replicaUp) {
+            return false;
+        }
+        if (replicaOffset >= offset) {
+            return true;
+        }
+        long deadline = System.nanoTime() + settings.getMaxWait().toNanos();
+        long pause = FIRST_POLL_NANOS;
+        while (true) {
+            long seen;
+            synchronized (this) {
+                seen = checks;
+            }
+            checkAfter(seen);
+            if (!replicaUp) {
+                return false;
+            }
+            if (replicaOffset >= offset) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(Math.min(pause, remaining));
+            pause *= 2;
+        }
+        log.debug("Replica did not reach offset {} within {}, reading from the primary", offset, settings.getMaxWait());
+        return false;
+    }
+    
+    /**
+     * Check the replica unless another thread did since the caller last looked
+     */
+    private synchronized void checkAfter(long seen) {
+        if (checks == seen) {
+            checkReplica();
+        }
+    }
+    
+    private synchronized void checkReplica() {
+        boolean wasUp = replicaUp;
+        try (RedisConnection connection = replica.getConnection()) {
+            Properties info = connection.serverCommands().info("replication");
+            String offset = info != null ? info.getProperty("slave_repl_offset") : null;
+            replicaUp = offset != null && "up".equals(info.getProperty("master_link_status"));
+            replicaOffset = replicaUp ? Long.parseLong(offset) : -1;
+        } catch (RuntimeException e) {
+            replicaUp = false;
+            replicaOffset = -1;
+        }
+        checks++;
+        if (wasUp != replicaUp) {
+            if (replicaUp) {
+                log.info("Redis replica {}:{} is in sync, serving reads", settings.getHost(), settings.getPort());
+            } else {
+                log.warn("Redis replica {}:{} is unreachable or not linked to the primary, reading from the primary",
+                    settings.getHost(), settings.getPort());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            replica.destroy();
+        }
+    }
+}
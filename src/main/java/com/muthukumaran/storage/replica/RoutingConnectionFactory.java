@@ -0,0 +1,46 @@
+package com.muthukumaran.organization.storage.replica;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+
+/**
+ * Hands out replica connections to replica reads and primary connections otherwise
+ */
+class RoutingConnectionFactory implements RedisConnectionFactory {
+    
+    private final RedisConnectionFactory primary;
+    private final RedisConnectionFactory replica;
+    
+    RoutingConnectionFactory(RedisConnectionFactory primary, RedisConnectionFactory replica) {
+        this.primary = primary;
+        this.replica = replica;
+    }
+    
+    @Override
+    public RedisConnection getConnection() {
+        return ReplicaReadRouter.onReplica() ? replica.getConnection() : primary.getConnection();
+    }
+    
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        return primary.getClusterConnection();
+    }
+    
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return primary.getConvertPipelineAndTxResults();
+    }
+    
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        return primary.getSentinelConnection();
+    }
+    
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return primary.translateExceptionIfPossible(ex);
+    }
+}
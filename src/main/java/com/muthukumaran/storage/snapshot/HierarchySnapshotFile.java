@@ -0,0 +1,295 @@
+package com.muthukumaran.organization.storage.snapshot;
+
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupStatus;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Read-only, memory-mapped file of group records with an open addressing index, so a lookup
+ * is a few reads from the page cache and opening the file costs nothing however many groups it holds.
+ * <p>
+ * Layout: a header (magic, format, time the groups were read as of, record count, index position
+ * and size), the records, then the index of record positions by uuid hash. Records are limited to 1 GB.
+ */
+final class HierarchySnapshotFile {
+    
+    private static final int MAGIC = 0x4F524748;
+    private static final int FORMAT = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final int MAX_RECORDS_SIZE = 1 << 30;
+    private static final int FREE = -1;
+    private static final int NONE = -1;
+    
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int indexPosition;
+    private final int indexSize;
+    private final long createdAt;
+    
+    private HierarchySnapshotFile(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException("Not a hierarchy snapshot");
+        }
+        this.buffer = buffer;
+        this.createdAt = buffer.getLong(8);
+        this.count = buffer.getInt(16);
+        this.indexPosition = buffer.getInt(20);
+        this.indexSize = buffer.getInt(24);
+    }
+    
+    /**
+     * Map an existing snapshot
+     */
+    static HierarchySnapshotFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new HierarchySnapshotFile(buffer);
+        }
+    }
+    
+    int count() {
+        return count;
+    }
+    
+    /**
+     * The time the groups were read as of: changes made since are not in the snapshot
+     */
+    long createdAt() {
+        return createdAt;
+    }
+    
+    /**
+     * Add the groups held, except those keep rejects, to a new snapshot
+     */
+    void copyTo(Writer writer, Predicate<String> keep) throws IOException {
+        for (int slot = 0; slot < indexSize; slot++) {
+            int position = buffer.getInt(indexPosition + slot * 4);
+            if (position != FREE) {
+                Group group = decode(buffer.slice(position, buffer.capacity() - position));
+                if (keep.test(group.getUuid())) {
+                    writer.add(group);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The record of a group, or null if the snapshot does not hold it
+     */
+    ByteBuffer find(String uuid) {
+        byte[] key = uuid.getBytes(StandardCharsets.UTF_8);
+        int mask = indexSize - 1;
+        for (int slot = hash(uuid) & mask; ; slot = (slot + 1) & mask) {
+            int position = buffer.getInt(indexPosition + slot * 4);
+            if (position == FREE) {
+                return null;
+            }
+            if (uuidEquals(position, key)) {
+                return buffer.slice(position, buffer.capacity() - position);
+            }
+        }
+    }
+    
+    private boolean uuidEquals(int position, byte[] key) {
+        if (buffer.getInt(position) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + 4 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Writes a new snapshot to a temporary file and moves it into place once complete,
+     * so readers of the old file and a crash midway are unaffected
+     */
+    static final class Writer implements Closeable {
+        
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private int[] positions = new int[1024];
+        private int[] hashes = new int[1024];
+        private int count;
+        
+        Writer(Path file) throws IOException {
+            this.file = file;
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            this.temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+        
+        void add(Group group) throws IOException {
+            ByteBuffer record = encode(group);
+            if (out.size() > MAX_RECORDS_SIZE) {
+                throw new IOException("Hierarchy snapshot exceeds " + MAX_RECORDS_SIZE + " bytes");
+            }
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            positions[count] = out.size();
+            hashes[count] = hash(group.getUuid());
+            count++;
+            out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+        }
+        
+        /**
+         * Write the index and the header, then replace the snapshot
+         *
+         * @param createdAt the time the groups were read as of
+         * @return the new snapshot, mapped before it replaces the old one
+         */
+        HierarchySnapshotFile commit(long createdAt) throws IOException {
+            int indexSize = 16;
+            while (indexSize < count * 2) {
+                indexSize *= 2;
+            }
+            int[] index = new int[indexSize];
+            Arrays.fill(index, FREE);
+            int mask = indexSize - 1;
+            for (int i = 0; i < count; i++) {
+                int slot = hashes[i] & mask;
+                while (index[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                index[slot] = positions[i];
+            }
+            int indexPosition = out.size();
+            for (int position : index) {
+                out.writeInt(position);
+            }
+            out.flush();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(FORMAT)
+                .putLong(createdAt)
+                .putInt(count)
+                .putInt(indexPosition)
+                .putInt(indexSize)
+                .flip();
+            channel.write(header, 0);
+            channel.force(false);
+            out.close();
+            HierarchySnapshotFile written = open(temp);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return written;
+        }
+        
+        /**
+         * Discard the temporary file unless committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                out.close();
+            }
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private static int hash(String uuid) {
+        return uuid.hashCode() * 0x9E3779B9 >>> 1;
+    }
+    
+    // ---- Records
+    
+    /**
+     * Encode a group as a record: strings as length and UTF-8 bytes (length -1 for null),
+     * segments as their count (-1 for none) and strings, the version (-1 for none), then the ancestors
+     */
+    static ByteBuffer encode(Group group) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, group.getUuid());
+            writeString(out, group.getParentUuid());
+            writeString(out, group.getName());
+            writeString(out, group.getDisplayName());
+            writeString(out, group.getStatus() != null ? group.getStatus().name() : null);
+            writeString(out, group.getSpaceId());
+            writeString(out, group.getLocation());
+            writeString(out, group.getLanguage());
+            List<String> segments = group.getSegments();
+            out.writeInt(segments != null ? segments.size() : NONE);
+            if (segments != null) {
+                for (String segment : segments) {
+                    writeString(out, segment);
+                }
+            }
+            out.writeLong(group.getVersion() != null ? group.getVersion() : NONE);
+            writeString(out, group.getAncestors());
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    static Group decode(ByteBuffer record) {
+        ByteBuffer in = record.duplicate();
+        Group group = new Group();
+        group.setUuid(readString(in));
+        group.setParentUuid(readString(in));
+        group.setName(readString(in));
+        group.setDisplayName(readString(in));
+        String status = readString(in);
+        group.setStatus(status != null ? GroupStatus.valueOf(status) : null);
+        group.setSpaceId(readString(in));
+        group.setLocation(readString(in));
+        group.setLanguage(readString(in));
+        int segments = in.getInt();
+        if (segments != NONE) {
+            List<String> values = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                values.add(readString(in));
+            }
+            group.setSegments(values);
+        }
+        long version = in.getLong();
+        group.setVersion(version != NONE ? version : null);
+        group.setAncestors(readString(in));
+        return group;
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NONE);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NONE) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,415 @@
+package com.muthukumaran.organization.storage.snapshot;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.event.GroupChangeRelay;
+import com.muthukumaran.organization.event.GroupChangedEvent;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.repository.GroupHashRepository;
+import com.muthukumaran.organization.repository.RedisGroupStore;
+import com.muthukumaran.organization.storage.ConditionalOnRedisStorage;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves group reads, and with them the ancestor walks of inheritance, from a local
+ * memory-mapped snapshot of all groups in front of Redis, so a freshly started instance
+ * does not have to warm up against Redis.
+ * <p>
+ * Changes announced by {@link GroupChangedEvent}s, local or relayed from other instances,
+ * make reads of the group go to Redis until it is refetched shortly after. At startup the
+ * groups the change log lists since the snapshot was written are treated the same way, so
+ * the snapshot is served at once for all others; reading the log again every
+ * {@code catch-up-interval} covers events that were missed. Only when there is no snapshot, or
+ * it is older than the change log reaches back, is it rebuilt by comparing the version of every
+ * group in Redis, reusing the records whose version still matches, before it is served.
+ * Refetched groups are held in memory until the snapshot is rewritten from memory, every
+ * {@code rewrite-interval} or once there are more than {@code max-refreshed} of them.
+ * Groups the snapshot does not hold, reads presenting a consistency token, and all writes, go to Redis.
+ */
+@Repository
+@Primary
+@ConditionalOnRedisStorage
+@ConditionalOnProperty(prefix = "organization.hierarchy-snapshot", name = "enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class SnapshotGroupStore implements GroupStore {
+    
+    /**
+     * A snapshot file and the groups refetched since it was written
+     */
+    private record View(HierarchySnapshotFile file, Map<String, Optional<Group>> refreshed) {
+        
+        /**
+         * The group, empty if deleted since the snapshot, or null if unknown
+         */
+        Optional<Group> find(String uuid) {
+            Optional<Group> group = refreshed.get(uuid);
+            if (group != null) {
+                return group;
+            }
+            ByteBuffer record = file != null ? file.find(uuid) : null;
+            return record != null ? Optional.of(HierarchySnapshotFile.decode(record)) : null;
+        }
+    }
+    
+    // Changes are read from this much before the view was last caught up, as instance clocks may be apart
+    private static final long CLOCK_SKEW = TimeUnit.MINUTES.toMillis(1);
+    
+    private final RedisGroupStore delegate;
+    private final GroupHashRepository groupHashRepository;
+    private final GroupChangeRelay groupChangeRelay;
+    private final OrganizationProperties.HierarchySnapshot settings;
+    private final Path path;
+    private final ScheduledExecutorService scheduler;
+    
+    private volatile View view;
+    // Whether the changes made since the view was read are known, so it may be served
+    private volatile boolean caughtUp;
+    // The time up to which the change log has been read into the view
+    private volatile long caughtUpTo;
+    private final AtomicBoolean rewriteRequested = new AtomicBoolean();
+    
+    // Groups changed and not refetched yet, with the sequence number of their latest change
+    private final Map<String, Long> changed = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    
+    public SnapshotGroupStore(RedisGroupStore delegate, GroupHashRepository groupHashRepository,
+                              GroupChangeRelay groupChangeRelay, OrganizationProperties properties) {
+        this.delegate = delegate;
+        this.groupHashRepository = groupHashRepository;
+        this.groupChangeRelay = groupChangeRelay;
+        this.settings = properties.getHierarchySnapshot();
+        this.path = Path.of(settings.getFile());
+        this.view = new View(open(path), new ConcurrentHashMap<>());
+        this.caughtUpTo = view.file() != null ? view.file().createdAt() : 0;
+        
+        // A single read of the change log, so the snapshot is served from the first request
+        try {
+            readChanges();
+        } catch (RuntimeException e) {
+            log.warn("Failed to read the changes since the hierarchy snapshot: {}", e.getMessage());
+        }
+        
+        // One thread, so refetches, catch-ups and rewrites never interleave
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hierarchy-snapshot-"));
+        long catchUp = settings.getCatchUpInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::catchUpQuietly, caughtUp ? catchUp : 0, catchUp, TimeUnit.MILLISECONDS);
+        long refresh = settings.getRefreshInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, refresh, refresh, TimeUnit.MILLISECONDS);
+        long rewrite = settings.getRewriteInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::rewriteQuietly, rewrite, rewrite, TimeUnit.MILLISECONDS);
+    }
+    
+    @EventListener
+    public void onGroupChanged(GroupChangedEvent event) {
+        markChanged(event.getUuid());
+    }
+    
+    @Override
+    public Optional<Group> findById(String uuid) {
+        if (servable(uuid)) {
+            Optional<Group> group = view.find(uuid);
+            if (group != null && group.isPresent()) {
+                return group;
+            }
+        }
+        return delegate.findById(uuid);
+    }
+    
+    @Override
+    public Optional<Map<GroupField, Object>> findFields(String uuid, Set<GroupField> fields) {
+        if (servable(uuid)) {
+            Optional<Group> group = view.find(uuid);
+            if (group != null && group.isPresent()) {
+                return Optional.of(GroupStore.fieldsOf(group.get(), fields));
+            }
+        }
+        return delegate.findFields(uuid, fields);
+    }
+    
+    @Override
+    public boolean anyDeactivated(List<String> uuids) {
+        List<String> unknown = new ArrayList<>();
+        for (String uuid : uuids) {
+            Optional<Group> group = servable(uuid) ? view.find(uuid) : null;
+            if (group == null || group.isEmpty()) {
+                unknown.add(uuid);
+            } else if (group.get().getStatus() == GroupStatus.DEACTIVATED) {
+                return true;
+            }
+        }
+        return !unknown.isEmpty() && delegate.anyDeactivated(unknown);
+    }
+    
+    @Override
+    public List<Group> findByParentUuid(String parentUuid) {
+        return delegate.findByParentUuid(parentUuid);
+    }
+    
+    @Override
+    public Map<String, List<Group>> findChildren(Collection<String> parentUuids) {
+        return delegate.findChildren(parentUuids);
+    }
+    
+    @Override
+    public Group save(Group group) {
+        return delegate.save(group);
+    }
+    
+    @Override
+    public void delete(Group group) {
+        delegate.delete(group);
+    }
+    
+    @Override
+    public long updateFields(String uuid, Long expectedVersion, Map<GroupField, String> fields, List<String> segments) {
+        return delegate.updateFields(uuid, expectedVersion, fields, segments);
+    }
+    
+    @Override
+    public long clearParent(String uuid) {
+        return delegate.clearParent(uuid);
+    }
+    
+    /**
+     * Always from Redis: membership counters are kept along the lineage, so it must be current
+     */
+    @Override
+    public Optional<List<String>> findLineage(String uuid) {
+        return delegate.findLineage(uuid);
+    }
+    
+    @Override
+    public Set<String> findExisting(Collection<String> uuids) {
+        return delegate.findExisting(uuids);
+    }
+    
+    @Override
+    public void insertAll(List<Group> groups) {
+        delegate.insertAll(groups);
+    }
+    
+    /**
+     * Refetch the groups changed since the last refresh, and rewrite the snapshot once more
+     * groups than {@code max-refreshed} have been refetched since it was written
+     */
+    public synchronized void refresh() {
+        refetchChanged();
+        if (view.refreshed().size() > settings.getMaxRefreshed() && rewriteRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::rewriteQuietly);
+        }
+    }
+    
+    /**
+     * Mark the groups the change log lists since the view was last caught up for refetching,
+     * or rebuild the snapshot from Redis when the log no longer reaches back that far
+     */
+    public synchronized void catchUp() throws IOException {
+        if (!readChanges()) {
+            rebuild();
+        }
+    }
+    
+    /**
+     * Write the view out as a new snapshot, once caught up with the change log and with the
+     * changed groups refetched, so the groups held in memory start over
+     */
+    public synchronized void rewrite() throws IOException {
+        long started = System.nanoTime();
+        rewriteRequested.set(false);
+        if (!readChanges()) {
+            rebuild();
+            return;
+        }
+        long readAsOf = caughtUpTo;
+        refetchChanged();
+        View current = view;
+        HierarchySnapshotFile file;
+        try (HierarchySnapshotFile.Writer writer = new HierarchySnapshotFile.Writer(path)) {
+            Map<String, Optional<Group>> refreshed = current.refreshed();
+            current.file().copyTo(writer, uuid -> !refreshed.containsKey(uuid));
+            for (Optional<Group> group : refreshed.values()) {
+                if (group.isPresent()) {
+                    writer.add(group.get());
+                }
+            }
+            file = writer.commit(readAsOf);
+        }
+        view = new View(file, new ConcurrentHashMap<>());
+        log.info("Hierarchy snapshot rewritten in {} ms: {} groups, {} of them refetched",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), file.count(), current.refreshed().size());
+    }
+    
+    /**
+     * Mark the groups the change log lists since the view was last caught up for refetching
+     *
+     * @return false if there is no snapshot or the change log no longer reaches back to it
+     */
+    private boolean readChanges() {
+        long now = System.currentTimeMillis();
+        long since = caughtUpTo - CLOCK_SKEW;
+        View current = view;
+        if (current.file() == null || since < now - settings.getChangeLogRetention().toMillis()) {
+            return false;
+        }
+        Set<String> uuids = groupChangeRelay.changedSince(since);
+        uuids.forEach(this::markChanged);
+        caughtUpTo = now;
+        if (!caughtUp) {
+            caughtUp = true;
+            log.info("Serving the hierarchy snapshot of {} groups, {} changed since it was written",
+                current.file().count(), uuids.size());
+        }
+        return true;
+    }
+    
+    private void refetchChanged() {
+        Map<String, Long> pending = new HashMap<>(changed);
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> uuids = new ArrayList<>(pending.keySet());
+        View current = view;
+        for (int from = 0; from < uuids.size(); from += settings.getBatchSize()) {
+            List<String> batch = uuids.subList(from, Math.min(from + settings.getBatchSize(), uuids.size()));
+            Map<String, Group> groups = groupHashRepository.findAll(batch);
+            for (String uuid : batch) {
+                current.refreshed().put(uuid, Optional.ofNullable(groups.get(uuid)));
+                // A change after the fetch keeps the group going to Redis until the next refresh
+                changed.remove(uuid, pending.get(uuid));
+            }
+        }
+    }
+    
+    /**
+     * Build the snapshot from Redis, comparing the version of every group with the view:
+     * groups whose version matches are taken from it, the others are refetched
+     */
+    private void rebuild() throws IOException {
+        long started = System.nanoTime();
+        long readAsOf = System.currentTimeMillis();
+        View current = view;
+        long[] refetched = new long[1];
+        HierarchySnapshotFile file;
+        try (HierarchySnapshotFile.Writer writer = new HierarchySnapshotFile.Writer(path)) {
+            IOException[] failure = new IOException[1];
+            groupHashRepository.scanUuids(settings.getBatchSize(), batch -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                Map<String, Long> versions = groupHashRepository.findVersions(batch);
+                Map<String, Group> groups = new HashMap<>();
+                List<String> stale = new ArrayList<>();
+                versions.forEach((uuid, version) -> {
+                    Optional<Group> known = current.find(uuid);
+                    if (known != null && known.isPresent() && versionOf(known.get()) == version) {
+                        groups.put(uuid, known.get());
+                    } else {
+                        stale.add(uuid);
+                    }
+                });
+                if (!stale.isEmpty()) {
+                    groups.putAll(groupHashRepository.findAll(stale));
+                    refetched[0] += stale.size();
+                }
+                try {
+                    for (Group group : groups.values()) {
+                        writer.add(group);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            file = writer.commit(readAsOf);
+        }
+        view = new View(file, new ConcurrentHashMap<>());
+        caughtUpTo = readAsOf;
+        caughtUp = true;
+        log.info("Hierarchy snapshot rebuilt in {} ms: {} groups, {} refetched from Redis",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), file.count(), refetched[0]);
+    }
+    
+    private void markChanged(String uuid) {
+        changed.put(uuid, changes.incrementAndGet());
+    }
+    
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refetch changed groups: {}", e.getMessage());
+        }
+    }
+    
+    private void catchUpQuietly() {
+        try {
+            catchUp();
+        } catch (IOException | RuntimeException e) {
+            // Until it succeeds, a snapshot not caught up yet is not served
+            log.warn("Failed to catch up the hierarchy snapshot: {}", e.getMessage());
+        }
+    }
+    
+    private void rewriteQuietly() {
+        try {
+            rewrite();
+        } catch (IOException | RuntimeException e) {
+            // The groups refetched stay in memory until the next rewrite
+            log.warn("Failed to rewrite the hierarchy snapshot: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Whether a read of the group may use the snapshot: not before the changes made since it was
+     * written are known, nor while the group awaits a refetch
+     */
+    private boolean servable(String uuid) {
+        return caughtUp && !changed.containsKey(uuid) && !ReplicaReadRouter.tokenPresented();
+    }
+    
+    private static long versionOf(Group group) {
+        return group.getVersion() != null ? group.getVersion() : 0;
+    }
+    
+    private static HierarchySnapshotFile open(Path path) {
+        try {
+            HierarchySnapshotFile file = HierarchySnapshotFile.open(path);
+            log.info("Mapped hierarchy snapshot {} with {} groups, written {}", path, file.count(),
+                new Date(file.createdAt()));
+            return file;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable hierarchy snapshot {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
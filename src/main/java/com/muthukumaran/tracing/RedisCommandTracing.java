@@ -0,0 +1,196 @@
+package com.muthukumaran.organization.tracing;
+
+import io.lettuce.core.output.CommandOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CompleteableCommand;
+import io.lettuce.core.protocol.RedisCommand;
+import io.lettuce.core.tracing.TraceContext;
+import io.lettuce.core.tracing.TraceContextProvider;
+import io.lettuce.core.tracing.Tracer;
+import io.lettuce.core.tracing.TracerProvider;
+import io.lettuce.core.tracing.Tracing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Feeds the Redis commands of traced requests into their {@link RequestTrace}, through the
+ * tracing hooks of the Lettuce client.
+ * <p>
+ * Lettuce asks for the trace context when a command is dispatched, on the calling thread, which
+ * is where the slot is claimed; it then opens a span when the command is written and the span
+ * ends with the reply, both on the I/O thread. Commands of untraced requests get no context and
+ * share one span that does nothing. Sizes are only measured for traced commands.
+ */
+public class RedisCommandTracing implements Tracing {
+    
+    private static final Tracer.Span NO_SPAN = new NoSpan();
+    
+    private final Tracer tracer = new Tracer() {
+        
+        @Override
+        public Tracer.Span nextSpan() {
+            return NO_SPAN;
+        }
+        
+        @Override
+        public Tracer.Span nextSpan(TraceContext context) {
+            return context instanceof CommandSlot slot ? new CommandSpan(slot) : NO_SPAN;
+        }
+    };
+    
+    private final TraceContextProvider contextProvider = () -> {
+        RequestTrace trace = RequestTracer.current();
+        if (trace == null) {
+            return null;
+        }
+        int slot = trace.claimCommand();
+        return slot >= 0 ? new CommandSlot(trace, slot) : null;
+    };
+    
+    @Override
+    public TracerProvider getTracerProvider() {
+        return () -> tracer;
+    }
+    
+    @Override
+    public TraceContextProvider initialTraceContextProvider() {
+        return contextProvider;
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+    
+    @Override
+    public boolean includeCommandArgsInSpanTags() {
+        return false;
+    }
+    
+    @Override
+    public Endpoint createEndpoint(SocketAddress socketAddress) {
+        return null;
+    }
+    
+    private record CommandSlot(RequestTrace trace, int slot) implements TraceContext {
+    }
+    
+    private static final class CommandSpan extends NoSpan {
+        
+        private final CommandSlot slot;
+        
+        CommandSpan(CommandSlot slot) {
+            this.slot = slot;
+        }
+        
+        @Override
+        public Tracer.Span start(RedisCommand<?, ?, ?> command) {
+            slot.trace().commandWritten(slot.slot(), command.getType().toString(), encodedSize(command.getArgs()));
+            if (command instanceof CompleteableCommand<?> completeable) {
+                completeable.onComplete((result, failure) -> {
+                    CommandOutput<?, ?, ?> output = command.getOutput();
+                    String error = output != null ? output.getError() : null;
+                    if (error == null && failure != null) {
+                        error = failure.toString();
+                    }
+                    slot.trace().commandCompleted(slot.slot(), output != null ? valueSize(output.get()) : 0, error);
+                });
+            }
+            return this;
+        }
+    }
+    
+    /**
+     * A span that records nothing
+     */
+    private static class NoSpan extends Tracer.Span {
+        
+        @Override
+        public Tracer.Span start(RedisCommand<?, ?, ?> command) {
+            return this;
+        }
+        
+        @Override
+        public Tracer.Span name(String name) {
+            return this;
+        }
+        
+        @Override
+        public Tracer.Span annotate(String value) {
+            return this;
+        }
+        
+        @Override
+        public Tracer.Span tag(String key, String value) {
+            return this;
+        }
+        
+        @Override
+        public Tracer.Span error(Throwable throwable) {
+            return this;
+        }
+        
+        @Override
+        public Tracer.Span remoteEndpoint(Endpoint endpoint) {
+            return this;
+        }
+        
+        @Override
+        public void finish() {
+        }
+    }
+    
+    /**
+     * The size of the arguments as sent, without the command name and array header
+     */
+    private static int encodedSize(CommandArgs<?, ?> args) {
+        if (args == null) {
+            return 0;
+        }
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            args.encode(buf);
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+    
+    /**
+     * The bytes of the values in a reply; numbers count as 8
+     */
+    private static int valueSize(Object value) {
+        if (value instanceof byte[] bytes) {
+            return bytes.length;
+        }
+        if (value instanceof ByteBuffer buffer) {
+            return buffer.remaining();
+        }
+        if (value instanceof CharSequence text) {
+            return text.length();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return 8;
+        }
+        if (value instanceof Collection<?> values) {
+            int size = 0;
+            for (Object element : values) {
+                size += valueSize(element);
+            }
+            return size;
+        }
+        if (value instanceof Map<?, ?> entries) {
+            int size = 0;
+            for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                size += valueSize(entry.getKey()) + valueSize(entry.getValue());
+            }
+            return size;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,150 @@
+package com.muthukumaran.organization.tracing;
+
+import com.muthukumaran.organization.dto.RequestTraceResponse;
+import com.muthukumaran.organization.dto.TraceEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The events of one traced request, kept in preallocated arrays so recording allocates nothing.
+ * <p>
+ * A slot is claimed on the request thread, in issue order; a command's details are filled in by
+ * the Redis client's I/O thread when it is written and when its reply arrives. The request thread
+ * waits for the replies it needs, so by the time the trace is published the slots are complete,
+ * apart from replies nobody waited for.
+ */
+final class RequestTrace {
+    
+    private static final byte COMMAND = 1;
+    private static final byte HOP = 2;
+    private static final long PENDING = -1;
+    
+    final long id;
+    private final String method;
+    private final String path;
+    private final long startedAtMillis;
+    private final long startNanos;
+    
+    private final byte[] types;
+    private final long[] offsets;
+    private final long[] durations;
+    private final int[] requestBytes;
+    private final int[] responseBytes;
+    private final String[] names;
+    private final String[] details;
+    private final AtomicInteger size = new AtomicInteger();
+    
+    private volatile int status;
+    private volatile long durationNanos;
+    
+    RequestTrace(long id, String method, String path, int capacity) {
+        this.id = id;
+        this.method = method;
+        this.path = path;
+        this.startedAtMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.types = new byte[capacity];
+        this.offsets = new long[capacity];
+        this.durations = new long[capacity];
+        this.requestBytes = new int[capacity];
+        this.responseBytes = new int[capacity];
+        this.names = new String[capacity];
+        this.details = new String[capacity];
+    }
+    
+    /**
+     * Claim the slot of the next command
+     *
+     * @return the slot, or -1 once the trace is full
+     */
+    int claimCommand() {
+        int slot = size.getAndIncrement();
+        if (slot >= types.length) {
+            return -1;
+        }
+        types[slot] = COMMAND;
+        durations[slot] = PENDING;
+        return slot;
+    }
+    
+    /**
+     * A command was written to Redis
+     */
+    void commandWritten(int slot, String command, int bytes) {
+        names[slot] = command;
+        requestBytes[slot] = bytes;
+        offsets[slot] = System.nanoTime() - startNanos;
+    }
+    
+    /**
+     * The reply of a command arrived, or it failed
+     */
+    void commandCompleted(int slot, int bytes, String error) {
+        responseBytes[slot] = bytes;
+        details[slot] = error;
+        durations[slot] = System.nanoTime() - startNanos - offsets[slot];
+    }
+    
+    void hop(String groupUuid, String fields) {
+        int slot = size.getAndIncrement();
+        if (slot >= types.length) {
+            return;
+        }
+        types[slot] = HOP;
+        offsets[slot] = System.nanoTime() - startNanos;
+        names[slot] = groupUuid;
+        details[slot] = fields;
+    }
+    
+    void finish(int status) {
+        this.status = status;
+        this.durationNanos = System.nanoTime() - startNanos;
+    }
+    
+    RequestTraceResponse toResponse(boolean withEvents) {
+        int recorded = Math.min(size.get(), types.length);
+        List<TraceEvent> events = withEvents ? new ArrayList<>(recorded) : null;
+        int commands = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (types[i] == COMMAND) {
+                commands++;
+            }
+            if (!withEvents) {
+                continue;
+            }
+            if (types[i] == HOP) {
+                events.add(TraceEvent.builder()
+                    .type(TraceEvent.Type.HOP)
+                    .offsetMicros(offsets[i] / 1000)
+                    .groupUuid(names[i])
+                    .fields(details[i])
+                    .build());
+            } else {
+                boolean completed = durations[i] != PENDING;
+                events.add(TraceEvent.builder()
+                    .type(TraceEvent.Type.COMMAND)
+                    .offsetMicros(offsets[i] / 1000)
+                    .command(names[i])
+                    .durationMicros(completed ? durations[i] / 1000 : null)
+                    .requestBytes(requestBytes[i])
+                    .responseBytes(completed ? responseBytes[i] : null)
+                    .error(details[i])
+                    .build());
+            }
+        }
+        return RequestTraceResponse.builder()
+            .traceId(Long.toHexString(id))
+            .method(method)
+            .path(path)
+            .status(status)
+            .startedAt(Instant.ofEpochMilli(startedAtMillis))
+            .durationMicros(durationNanos / 1000)
+            .commands(commands)
+            .droppedEvents(Math.max(0, size.get() - types.length))
+            .events(events)
+            .build();
+    }
+}
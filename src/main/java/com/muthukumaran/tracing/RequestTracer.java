@@ -0,0 +1,131 @@
+package com.muthukumaran.organization.tracing;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.RequestTraceResponse;
+import com.muthukumaran.organization.exception.TraceNotFoundException;
+import com.muthukumaran.organization.model.GroupField;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Samples API requests and records, for each sampled one, the Redis commands it issues and the
+ * ancestor hops of its inheritance walk.
+ * <p>
+ * The trace of the request being handled lives in a thread local, so untraced requests pay one
+ * lookup per command and hop. Completed traces go into a fixed ring; publishing one is a single
+ * write, and turning traces into responses is left to the debug endpoint. Only work done on the
+ * request thread is traced, not the parallel pipelines of bulk lookups or background refreshes.
+ */
+@Component
+public class RequestTracer {
+    
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    
+    private final OrganizationProperties.Tracing settings;
+    private final AtomicReferenceArray<RequestTrace> completed;
+    private final AtomicLong ids = new AtomicLong();
+    
+    public RequestTracer(OrganizationProperties properties) {
+        this.settings = properties.getTracing();
+        this.completed = new AtomicReferenceArray<>(Math.max(1, settings.getMaxTraces()));
+    }
+    
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+    
+    /**
+     * Whether to trace a request: forced ones always, the rest at the sample rate
+     */
+    boolean sample(boolean forced) {
+        return settings.isEnabled() && (forced || ThreadLocalRandom.current().nextDouble() < settings.getSampleRate());
+    }
+    
+    /**
+     * Start tracing the request on the current thread
+     */
+    RequestTrace begin(String method, String path) {
+        RequestTrace trace = new RequestTrace(ids.incrementAndGet(), method, path, settings.getMaxEventsPerTrace());
+        CURRENT.set(trace);
+        return trace;
+    }
+    
+    /**
+     * Stop tracing on the current thread and publish the trace
+     */
+    void end(RequestTrace trace, int status) {
+        CURRENT.remove();
+        trace.finish(status);
+        completed.set((int) (trace.id % completed.length()), trace);
+    }
+    
+    /**
+     * Record a hop of the ancestor walk, if the request is traced
+     *
+     * @param fields the fields read from the ancestor
+     */
+    public static void hop(String groupUuid, Iterable<GroupField> fields) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.hop(groupUuid, join(fields));
+        }
+    }
+    
+    /**
+     * The trace of the request on the current thread, or null if it is not traced
+     */
+    static RequestTrace current() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * The most recent traces, newest first, without their events
+     */
+    public List<RequestTraceResponse> recent(int limit) {
+        List<RequestTraceResponse> traces = new ArrayList<>();
+        long newest = ids.get();
+        for (long id = newest; id > 0 && id > newest - completed.length() && traces.size() < limit; id--) {
+            RequestTrace trace = completed.get((int) (id % completed.length()));
+            // A request still running, or one overwritten by a later trace
+            if (trace != null && trace.id == id) {
+                traces.add(trace.toResponse(false));
+            }
+        }
+        return traces;
+    }
+    
+    /**
+     * A trace with its events
+     *
+     * @throws TraceNotFoundException if the trace is unknown, not finished or already overwritten
+     */
+    public RequestTraceResponse get(String traceId) {
+        long id;
+        try {
+            id = Long.parseLong(traceId, 16);
+        } catch (NumberFormatException e) {
+            throw new TraceNotFoundException(traceId);
+        }
+        RequestTrace trace = id > 0 ? completed.get((int) (id % completed.length())) : null;
+        if (trace == null || trace.id != id) {
+            throw new TraceNotFoundException(traceId);
+        }
+        return trace.toResponse(true);
+    }
+    
+    private static String join(Iterable<GroupField> fields) {
+        StringBuilder joined = new StringBuilder();
+        for (GroupField field : fields) {
+            if (!joined.isEmpty()) {
+                joined.append(',');
+            }
+            joined.append(field.getJsonName());
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.muthukumaran.organization.tracing;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Traces sampled API requests, and those sending {@code X-Trace: true}, and returns the ID of
+ * their trace in {@code X-Trace-Id}. A streamed response is traced up to the start of the stream.
+ */
+@Component
+public class RequestTracingFilter extends OncePerRequestFilter {
+    
+    public static final String TRACE_HEADER = "X-Trace";
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+    
+    private static final String API_PATH = "/api/";
+    private static final String DEBUG_PATH = "/api/v1/debug/";
+    
+    private final RequestTracer requestTracer;
+    
+    public RequestTracingFilter(RequestTracer requestTracer) {
+        this.requestTracer = requestTracer;
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !requestTracer.isEnabled() || !path.startsWith(API_PATH) || path.startsWith(DEBUG_PATH);
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!requestTracer.sample("true".equalsIgnoreCase(request.getHeader(TRACE_HEADER)))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        RequestTrace trace = requestTracer.begin(request.getMethod(), request.getRequestURI());
+        response.setHeader(TRACE_ID_HEADER, Long.toHexString(trace.id));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            requestTracer.end(trace, response.getStatus());
+        }
+    }
+}
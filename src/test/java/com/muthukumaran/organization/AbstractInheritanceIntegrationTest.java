@@ -0,0 +1,363 @@
+package com.muthukumaran.organization;
+
+import com.muthukumaran.organization.dto.GroupCreateRequest;
+import com.muthukumaran.organization.dto.GroupResponse;
+import com.muthukumaran.organization.dto.GroupUpdateRequest;
+import com.muthukumaran.organization.dto.UserContextResponse;
+import com.muthukumaran.organization.exception.UserNotFoundException;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.service.GroupResponseCache;
+import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.service.ResolvedGroup;
+import com.muthukumaran.organization.service.UserContextService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test for verifying the inheritance logic of the Organization Service.
+ * This test ensures that child groups correctly inherit properties from their parent hierarchy.
+ * The subclasses run it against each storage backend.
+ */
+@SpringBootTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+abstract class AbstractInheritanceIntegrationTest {
+    
+    @Autowired
+    private GroupService groupService;
+    
+    @Autowired
+    private UserContextService userContextService;
+    
+    @Autowired
+    private GroupResponseCache groupResponseCache;
+    
+    // Set by earlier tests for later ones; one instance serves all tests of the class
+    private String rootGroupUuid;
+    private String parentGroupUuid;
+    private String childGroupUuid;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should create root group with all properties defined")
+    void testCreateRootGroup() {
+        // Given: A root group with all properties defined
+        GroupCreateRequest rootRequest = GroupCreateRequest.builder()
+                .name("Root Organization")
+                .displayName("Root Organization")
+                .status(GroupStatus.ACTIVE)
+                .spaceId("space-root")
+                .location("USA")
+                .language("en-US")
+                .segments(Arrays.asList("Corporate", "Education"))
+                .build();
+        
+        // When: Creating the root group
+        GroupResponse rootGroup = groupService.createGroup(rootRequest);
+        
+        // Then: Root group should be created with all properties
+        assertNotNull(rootGroup);
+        assertNotNull(rootGroup.getUuid());
+        assertEquals("Root Organization", rootGroup.getName());
+        assertEquals("space-root", rootGroup.getSpaceId());
+        assertEquals("USA", rootGroup.getLocation());
+        assertEquals("en-US", rootGroup.getLanguage());
+        assertEquals(2, rootGroup.getSegments().size());
+        
+        rootGroupUuid = rootGroup.getUuid();
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should create parent group with partial properties")
+    void testCreateParentGroup() {
+        // Given: A parent group with only some properties defined (to be inherited from root)
+        GroupCreateRequest parentRequest = GroupCreateRequest.builder()
+                .parentUuid(rootGroupUuid)
+                .name("Engineering Department")
+                .displayName("Engineering Department")
+                .status(GroupStatus.ACTIVE)
+                .spaceId("space-eng")
+                // No location - should inherit from root
+                .language("en-US")
+                // No segments - should inherit from root
+                .build();
+        
+        // When: Creating the parent group
+        GroupResponse parentGroup = groupService.createGroup(parentRequest);
+        
+        // Then: Parent group should be created
+        assertNotNull(parentGroup);
+        assertNotNull(parentGroup.getUuid());
+        assertEquals("Engineering Department", parentGroup.getName());
+        assertEquals("space-eng", parentGroup.getSpaceId());
+        assertNull(parentGroup.getLocation()); // Not inherited during creation
+        assertEquals("en-US", parentGroup.getLanguage());
+        assertNull(parentGroup.getSegments()); // Not inherited during creation
+        
+        parentGroupUuid = parentGroup.getUuid();
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should create child group with minimal properties")
+    void testCreateChildGroup() {
+        // Given: A child group with only name defined
+        GroupCreateRequest childRequest = GroupCreateRequest.builder()
+                .parentUuid(parentGroupUuid)
+                .name("Frontend Team")
+                .displayName("Frontend Team")
+                .status(GroupStatus.ACTIVE)
+                // No spaceId, location, language, segments - should inherit from parent/root
+                .build();
+        
+        // When: Creating the child group
+        GroupResponse childGroup = groupService.createGroup(childRequest);
+        
+        // Then: Child group should be created
+        assertNotNull(childGroup);
+        assertNotNull(childGroup.getUuid());
+        assertEquals("Frontend Team", childGroup.getName());
+        assertNull(childGroup.getSpaceId()); // Not inherited during creation
+        assertNull(childGroup.getLocation()); // Not inherited during creation
+        assertNull(childGroup.getLanguage()); // Not inherited during creation
+        assertNull(childGroup.getSegments()); // Not inherited during creation
+        
+        childGroupUuid = childGroup.getUuid();
+    }
+    
+    @Test
+    @Order(4)
+    @DisplayName("Should inherit properties when retrieving child group")
+    void testInheritanceLogic() {
+        // When: Retrieving the child group with inheritance
+        GroupResponse childGroup = groupService.getGroupWithInheritance(childGroupUuid);
+        
+        // Then: Child group should have inherited properties from parent and root
+        assertNotNull(childGroup);
+        assertEquals("Frontend Team", childGroup.getName());
+        
+        // spaceId should be inherited from parent (space-eng)
+        assertEquals("space-eng", childGroup.getSpaceId());
+        
+        // location should be inherited from root (USA) since parent doesn't have it
+        assertEquals("USA", childGroup.getLocation());
+        
+        // language should be inherited from parent (en-US)
+        assertEquals("en-US", childGroup.getLanguage());
+        
+        // segments should be inherited from root (Corporate, Education) since parent doesn't have it
+        assertNotNull(childGroup.getSegments());
+        assertEquals(2, childGroup.getSegments().size());
+        assertTrue(childGroup.getSegments().contains("Corporate"));
+        assertTrue(childGroup.getSegments().contains("Education"));
+    }
+    
+    @Test
+    @Order(5)
+    @DisplayName("Should inherit properties when retrieving parent group")
+    void testParentGroupInheritance() {
+        // When: Retrieving the parent group with inheritance
+        GroupResponse parentGroup = groupService.getGroupWithInheritance(parentGroupUuid);
+        
+        // Then: Parent group should have inherited missing properties from root
+        assertNotNull(parentGroup);
+        assertEquals("Engineering Department", parentGroup.getName());
+        
+        // spaceId is defined in parent
+        assertEquals("space-eng", parentGroup.getSpaceId());
+        
+        // location should be inherited from root
+        assertEquals("USA", parentGroup.getLocation());
+        
+        // language is defined in parent
+        assertEquals("en-US", parentGroup.getLanguage());
+        
+        // segments should be inherited from root
+        assertNotNull(parentGroup.getSegments());
+        assertEquals(2, parentGroup.getSegments().size());
+        assertTrue(parentGroup.getSegments().contains("Corporate"));
+        assertTrue(parentGroup.getSegments().contains("Education"));
+    }
+    
+    @Test
+    @Order(6)
+    @DisplayName("Root group should not inherit any properties")
+    void testRootGroupNoInheritance() {
+        // When: Retrieving the root group
+        GroupResponse rootGroup = groupService.getGroupWithInheritance(rootGroupUuid);
+        
+        // Then: Root group should have only its own properties (no inheritance)
+        assertNotNull(rootGroup);
+        assertEquals("Root Organization", rootGroup.getName());
+        assertEquals("space-root", rootGroup.getSpaceId());
+        assertEquals("USA", rootGroup.getLocation());
+        assertEquals("en-US", rootGroup.getLanguage());
+        assertNotNull(rootGroup.getSegments());
+        assertEquals(2, rootGroup.getSegments().size());
+    }
+    
+    @Test
+    @Order(7)
+    @DisplayName("Should resolve only the requested fields")
+    void testFieldProjection() {
+        // Given: A root with spaceId and location, and a child with neither
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Projection Root")
+                .spaceId("space-projection")
+                .location("India")
+                .build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(root.getUuid())
+                .name("Projection Child")
+                .build());
+        
+        // When: Requesting only spaceId and status
+        Map<String, Object> projection = groupService.getGroupFields(
+                child.getUuid(), GroupField.parse("spaceId,status"));
+        
+        // Then: Only those fields are returned, with spaceId inherited from root
+        assertEquals(2, projection.size());
+        assertEquals("space-projection", projection.get("spaceId"));
+        assertEquals(GroupStatus.ACTIVE, projection.get("status"));
+        
+        // And: Non-inheritable selections are returned as stored
+        Map<String, Object> names = groupService.getGroupFields(child.getUuid(), GroupField.parse("name"));
+        assertEquals(Map.of("name", "Projection Child"), names);
+    }
+    
+    @Test
+    @Order(8)
+    @DisplayName("Should resolve a user's group and inherited properties in one call")
+    void testUserContext() {
+        // Given: Two users in a child group that inherits everything but language
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Context Root")
+                .spaceId("space-context")
+                .location("Germany")
+                .language("de-DE")
+                .build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(root.getUuid())
+                .name("Context Child")
+                .language("en-GB")
+                .build());
+        groupService.addUserToGroup(child.getUuid(), "context-user-1");
+        groupService.addUserToGroup(child.getUuid(), "context-user-2");
+        
+        // When: Fetching one user's context
+        UserContextResponse context = userContextService.getUserContext("context-user-1");
+        
+        // Then: The group's own and inherited values are resolved
+        assertEquals(child.getUuid(), context.getGroupUuid());
+        assertEquals("Context Child", context.getGroupName());
+        assertEquals("space-context", context.getSpaceId());
+        assertEquals("Germany", context.getLocation());
+        assertEquals("en-GB", context.getLanguage());
+        
+        // And: The batch variant leaves out users without a group
+        List<UserContextResponse> contexts = userContextService.getUserContexts(
+                List.of("context-user-2", "context-user-unknown", "context-user-1"));
+        assertEquals(List.of("context-user-2", "context-user-1"),
+                contexts.stream().map(UserContextResponse::getUserId).toList());
+        assertThrows(UserNotFoundException.class, () -> userContextService.getUserContext("context-user-unknown"));
+    }
+    
+    @Test
+    @Order(9)
+    @DisplayName("Should report descendants of a deactivated group as effectively deactivated")
+    void testEffectiveStatus() {
+        // Given: A three-level hierarchy with every inheritable field set on the leaf
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Status Root")
+                .build());
+        GroupResponse middle = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(root.getUuid())
+                .name("Status Middle")
+                .build());
+        GroupResponse leaf = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(middle.getUuid())
+                .name("Status Leaf")
+                .spaceId("space-status")
+                .location("Spain")
+                .language("es-ES")
+                .segments(List.of("Retail"))
+                .build());
+        groupService.addUserToGroup(leaf.getUuid(), "status-user");
+        assertEquals(GroupStatus.ACTIVE, groupService.getGroupWithInheritance(leaf.getUuid()).getEffectiveStatus());
+        assertTrue(cachedBody(leaf.getUuid()).contains("\"effectiveStatus\":\"ACTIVE\""));
+        
+        // When: Deactivating the root
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().status(GroupStatus.DEACTIVATED).build());
+        
+        // Then: Every descendant is effectively deactivated while keeping its own status
+        GroupResponse resolved = groupService.getGroupWithInheritance(leaf.getUuid());
+        assertEquals(GroupStatus.ACTIVE, resolved.getStatus());
+        assertEquals(GroupStatus.DEACTIVATED, resolved.getEffectiveStatus());
+        assertEquals(GroupStatus.DEACTIVATED, groupService.getGroupWithInheritance(middle.getUuid()).getEffectiveStatus());
+        assertTrue(cachedBody(leaf.getUuid()).contains("\"effectiveStatus\":\"DEACTIVATED\""));
+        assertEquals(GroupStatus.DEACTIVATED, groupService.getGroupFields(leaf.getUuid(),
+                GroupField.parse("effectiveStatus")).get("effectiveStatus"));
+        assertEquals(GroupStatus.DEACTIVATED, userContextService.getUserContext("status-user").getEffectiveGroupStatus());
+        
+        // And: Reactivating the root restores them
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().status(GroupStatus.ACTIVE).build());
+        assertEquals(GroupStatus.ACTIVE, groupService.getGroupWithInheritance(leaf.getUuid()).getEffectiveStatus());
+        assertTrue(cachedBody(leaf.getUuid()).contains("\"effectiveStatus\":\"ACTIVE\""));
+        assertEquals(GroupStatus.ACTIVE, userContextService.getUserContext("status-user").getEffectiveGroupStatus());
+    }
+    
+    @Test
+    @Order(10)
+    @DisplayName("Should check the statuses of the known ancestors at once and walk only for missing fields")
+    void testEffectiveStatusFromKnownAncestors() {
+        // Given: A chain whose leaf sets every inheritable field, and one whose leaf inherits its language
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder().name("Known Root").language("de-DE").build());
+        GroupResponse middle = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(root.getUuid()).name("Known Middle").build());
+        GroupResponse full = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(middle.getUuid()).name("Known Full").spaceId("space-known").location("Austria")
+                .language("de-AT").segments(List.of("Public")).build());
+        GroupResponse partial = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(middle.getUuid()).name("Known Partial").spaceId("space-known").location("Austria")
+                .segments(List.of("Public")).build());
+        
+        // When: Resolving both
+        ResolvedGroup resolvedFull = groupService.resolveGroup(full.getUuid());
+        ResolvedGroup resolvedPartial = groupService.resolveGroup(partial.getUuid());
+        
+        // Then: Each depends on every ancestor, root first, listed once
+        assertEquals(GroupStatus.ACTIVE, resolvedFull.getResponse().getEffectiveStatus());
+        assertArrayEquals(new String[] {full.getUuid(), root.getUuid(), middle.getUuid()}, resolvedFull.getDependencies());
+        assertEquals("de-DE", resolvedPartial.getResponse().getLanguage());
+        assertArrayEquals(new String[] {partial.getUuid(), root.getUuid(), middle.getUuid()}, resolvedPartial.getDependencies());
+        
+        // And: Deactivating the root reaches the full leaf, through the response cache too
+        assertTrue(cachedBody(full.getUuid()).contains("\"effectiveStatus\":\"ACTIVE\""));
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().status(GroupStatus.DEACTIVATED).build());
+        assertEquals(GroupStatus.DEACTIVATED, groupService.resolveGroup(full.getUuid()).getResponse().getEffectiveStatus());
+        assertTrue(cachedBody(full.getUuid()).contains("\"effectiveStatus\":\"DEACTIVATED\""));
+        assertEquals(GroupStatus.DEACTIVATED, groupService.getGroupFields(full.getUuid(),
+                GroupField.parse("effectiveStatus")).get("effectiveStatus"));
+        
+        // And: Once the middle group is detached, the leaves no longer count the root among their ancestors
+        groupService.detachFromParent(middle.getUuid());
+        ResolvedGroup detached = groupService.resolveGroup(full.getUuid());
+        assertEquals(GroupStatus.ACTIVE, detached.getResponse().getEffectiveStatus());
+        assertArrayEquals(new String[] {full.getUuid(), middle.getUuid()}, detached.getDependencies());
+        assertTrue(cachedBody(partial.getUuid()).contains("\"effectiveStatus\":\"ACTIVE\""));
+    }
+    
+    private String cachedBody(String uuid) {
+        return new String(groupResponseCache.get(uuid).getBody(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,884 @@
+package com.muthukumaran.organization;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.*;
+import com.muthukumaran.organization.exception.GroupHasChildrenException;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.exception.GroupVersionConflictException;
+import com.muthukumaran.organization.exception.InvalidAsOfException;
+import com.muthukumaran.organization.exception.InvalidImportException;
+import com.muthukumaran.organization.exception.InvalidMemberRangeException;
+import com.muthukumaran.organization.exception.JobNotFoundException;
+import com.muthukumaran.organization.exception.ParentGroupNotFoundException;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.Group;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.GroupHistoryEntry;
+import com.muthukumaran.organization.model.GroupStatus;
+import com.muthukumaran.organization.model.MoveOutcome;
+import com.muthukumaran.organization.service.BulkMoveService;
+import com.muthukumaran.organization.service.GroupImportService;
+import com.muthukumaran.organization.service.GroupResponseCache;
+import com.muthukumaran.organization.service.GroupResponseCache.CachedGroupResponse;
+import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.service.MembershipExpiryService;
+import com.muthukumaran.organization.service.UserGroupLookupService;
+import com.muthukumaran.organization.storage.GroupHistoryStore;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.MembershipStore;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Comprehensive integration tests for the Organization Service, run against each storage
+ * backend by the subclasses
+ */
+@SpringBootTest(properties = {
+    "organization.tracing.enabled=true",
+    "organization.tracing.sample-rate=0"
+})
+@AutoConfigureMockMvc
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+abstract class AbstractOrganizationServiceIntegrationTest {
+    
+    @Autowired
+    protected GroupService groupService;
+    
+    @Autowired
+    protected GroupResponseCache groupResponseCache;
+    
+    @Autowired
+    protected GroupImportService groupImportService;
+    
+    @Autowired
+    protected UserGroupLookupService userGroupLookupService;
+    
+    @Autowired
+    protected BulkMoveService bulkMoveService;
+    
+    @Autowired
+    protected MembershipExpiryService membershipExpiryService;
+    
+    @Autowired
+    protected MembershipStore membershipStore;
+    
+    @Autowired
+    protected GroupStore groupStore;
+    
+    @Autowired
+    protected GroupHistoryStore groupHistoryStore;
+    
+    @Autowired
+    protected ObjectMapper objectMapper;
+    
+    @Autowired
+    protected OrganizationProperties properties;
+    
+    @Autowired
+    protected MockMvc mockMvc;
+    
+    // Set by earlier tests for later ones; one instance serves all tests of the class
+    private String testGroupUuid;
+    private String childGroupUuid;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should create a group with default status ACTIVE")
+    void testCreateGroupWithDefaultStatus() {
+        GroupCreateRequest request = GroupCreateRequest.builder()
+                .name("Test Group")
+                .build();
+        
+        GroupResponse response = groupService.createGroup(request);
+        
+        assertNotNull(response);
+        assertNotNull(response.getUuid());
+        assertEquals("Test Group", response.getName());
+        assertEquals("Test Group", response.getDisplayName()); // Should default to name
+        assertEquals(GroupStatus.ACTIVE, response.getStatus());
+        
+        testGroupUuid = response.getUuid();
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should fail to create group with non-existent parent")
+    void testCreateGroupWithInvalidParent() {
+        GroupCreateRequest request = GroupCreateRequest.builder()
+                .parentUuid("non-existent-uuid")
+                .name("Invalid Group")
+                .build();
+        
+        assertThrows(ParentGroupNotFoundException.class, () -> {
+            groupService.createGroup(request);
+        });
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should create child group with valid parent")
+    void testCreateChildGroup() {
+        GroupCreateRequest request = GroupCreateRequest.builder()
+                .parentUuid(testGroupUuid)
+                .name("Child Group")
+                .displayName("Child Group Display")
+                .location("France")
+                .build();
+        
+        GroupResponse response = groupService.createGroup(request);
+        
+        assertNotNull(response);
+        assertEquals("Child Group", response.getName());
+        assertEquals(testGroupUuid, response.getParentUuid());
+        assertEquals("France", response.getLocation());
+        
+        childGroupUuid = response.getUuid();
+    }
+    
+    @Test
+    @Order(4)
+    @DisplayName("Should update group properties")
+    void testUpdateGroup() {
+        GroupUpdateRequest request = GroupUpdateRequest.builder()
+                .name("Updated Group")
+                .location("Germany")
+                .segments(Arrays.asList("Healthcare", "Finance"))
+                .build();
+        
+        GroupResponse response = groupService.updateGroup(testGroupUuid, request);
+        
+        assertEquals("Updated Group", response.getName());
+        assertEquals("Germany", response.getLocation());
+        assertEquals(2, response.getSegments().size());
+    }
+    
+    @Test
+    @Order(5)
+    @DisplayName("Should fail to delete group with children")
+    void testDeleteGroupWithChildren() {
+        assertThrows(GroupHasChildrenException.class, () -> {
+            groupService.deleteGroup(testGroupUuid);
+        });
+    }
+    
+    @Test
+    @Order(6)
+    @DisplayName("Should add user to group")
+    void testAddUserToGroup() {
+        groupService.addUserToGroup(testGroupUuid, "user-123");
+        
+        Set<String> users = groupService.getUsersInGroup(testGroupUuid);
+        assertTrue(users.contains("user-123"));
+    }
+    
+    @Test
+    @Order(7)
+    @DisplayName("Should move user between groups")
+    void testMoveUser() {
+        groupService.addUserToGroup(testGroupUuid, "user-456");
+        
+        // Verify user is in the first group
+        Set<String> usersBeforeMove = groupService.getUsersInGroup(testGroupUuid);
+        assertTrue(usersBeforeMove.contains("user-456"));
+        
+        // Move user to child group
+        groupService.moveUser("user-456", childGroupUuid);
+        
+        // Verify user is no longer in the first group
+        Set<String> usersAfterMove = groupService.getUsersInGroup(testGroupUuid);
+        assertFalse(usersAfterMove.contains("user-456"));
+        
+        // Verify user is in the child group
+        Set<String> childUsers = groupService.getUsersInGroup(childGroupUuid);
+        assertTrue(childUsers.contains("user-456"));
+    }
+    
+    @Test
+    @Order(8)
+    @DisplayName("Should remove user from group")
+    void testRemoveUserFromGroup() {
+        groupService.addUserToGroup(testGroupUuid, "user-789");
+        
+        // Verify user is in the group
+        Set<String> usersBefore = groupService.getUsersInGroup(testGroupUuid);
+        assertTrue(usersBefore.contains("user-789"));
+        
+        // Remove user
+        groupService.removeUserFromGroup(testGroupUuid, "user-789");
+        
+        // Verify user is no longer in the group
+        Set<String> usersAfter = groupService.getUsersInGroup(testGroupUuid);
+        assertFalse(usersAfter.contains("user-789"));
+    }
+    
+    @Test
+    @Order(9)
+    @DisplayName("Should delete group without children")
+    void testDeleteGroupWithoutChildren() {
+        // Delete child group first (it has no children)
+        groupService.deleteGroup(childGroupUuid);
+        
+        // Verify it's deleted
+        assertThrows(GroupNotFoundException.class, () -> {
+            groupService.getGroupWithInheritance(childGroupUuid);
+        });
+        
+        // Now parent group can be deleted
+        groupService.deleteGroup(testGroupUuid);
+        
+        // Verify it's deleted
+        assertThrows(GroupNotFoundException.class, () -> {
+            groupService.getGroupWithInheritance(testGroupUuid);
+        });
+    }
+    
+    @Test
+    @Order(10)
+    @DisplayName("Should fail to get non-existent group")
+    void testGetNonExistentGroup() {
+        assertThrows(GroupNotFoundException.class, () -> {
+            groupService.getGroupWithInheritance("non-existent-uuid");
+        });
+    }
+    
+    @Test
+    @Order(11)
+    @DisplayName("Should evict cached responses when an ancestor changes")
+    void testResponseCacheInvalidation() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Cache Root")
+                .location("Spain")
+                .build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .parentUuid(root.getUuid())
+                .name("Cache Child")
+                .build());
+        
+        CachedGroupResponse first = groupResponseCache.get(child.getUuid());
+        assertSame(first, groupResponseCache.get(child.getUuid()));
+        assertEquals("Spain", objectMapper.readValue(first.getBody(), GroupResponse.class).getLocation());
+        
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().location("Portugal").build());
+        
+        CachedGroupResponse second = groupResponseCache.get(child.getUuid());
+        assertNotEquals(first.getEtag(), second.getEtag());
+        assertEquals("Portugal", objectMapper.readValue(second.getBody(), GroupResponse.class).getLocation());
+    }
+    
+    @Test
+    @Order(12)
+    @DisplayName("Should reject an update based on a stale version")
+    void testOptimisticConcurrencyControl() {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Versioned Group")
+                .segments(Arrays.asList("Corporate", "Education"))
+                .build());
+        assertEquals(1L, group.getVersion());
+        
+        GroupResponse updated = groupService.updateGroup(group.getUuid(),
+                GroupUpdateRequest.builder().segments(List.of("Healthcare")).build(), 1L);
+        assertEquals(2L, updated.getVersion());
+        assertEquals(List.of("Healthcare"), updated.getSegments());
+        assertEquals("Versioned Group", updated.getName());
+        
+        // A second writer still holding version 1 loses instead of overwriting
+        assertThrows(GroupVersionConflictException.class, () -> {
+            groupService.updateGroup(group.getUuid(),
+                    GroupUpdateRequest.builder().name("Stale Write").build(), 1L);
+        });
+        assertEquals("Versioned Group", groupService.getGroupWithInheritance(group.getUuid()).getName());
+    }
+    
+    @Test
+    @Order(13)
+    @DisplayName("Should import a tree of groups idempotently")
+    void testImportGroups() throws Exception {
+        GroupImportRequest request = GroupImportRequest.builder()
+                .importId("import-" + System.nanoTime())
+                .groups(List.of(
+                        GroupImportNode.builder()
+                                .ref("root")
+                                .name("Imported Root")
+                                .location("Canada")
+                                .children(List.of(GroupImportNode.builder().ref("child").name("Imported Child").build()))
+                                .build(),
+                        GroupImportNode.builder().ref("sibling").parentRef("root").name("Imported Sibling").build()))
+                .build();
+        
+        BulkJobResponse submitted = groupImportService.importGroups(request);
+        assertEquals(3, submitted.getTotal());
+        
+        BulkJobResponse job = submitted;
+        for (int i = 0; i < 100 && job.getStatus() == BulkJobStatus.RUNNING; i++) {
+            Thread.sleep(100);
+            job = groupImportService.getImport(submitted.getJobId());
+        }
+        assertEquals(BulkJobStatus.COMPLETED, job.getStatus());
+        assertEquals(3, job.getProcessed());
+        
+        String rootUuid = submitted.getUuids().get("root");
+        GroupResponse child = groupService.getGroupWithInheritance(submitted.getUuids().get("child"));
+        assertEquals(rootUuid, child.getParentUuid());
+        assertEquals("Canada", child.getLocation());
+        assertThrows(GroupHasChildrenException.class, () -> groupService.deleteGroup(rootUuid));
+        
+        // Retrying the same import is a no-op that returns the same UUIDs
+        BulkJobResponse retried = groupImportService.importGroups(request);
+        assertEquals(BulkJobStatus.COMPLETED, retried.getStatus());
+        assertEquals(submitted.getUuids(), retried.getUuids());
+        
+        // Job IDs are scoped by type, so a move with the same ID is another job
+        assertThrows(JobNotFoundException.class, () -> bulkMoveService.getMove(submitted.getJobId()));
+    }
+    
+    @Test
+    @Order(14)
+    @DisplayName("Should reject an import containing a cycle")
+    void testImportGroupsWithCycle() {
+        GroupImportRequest request = GroupImportRequest.builder()
+                .groups(List.of(
+                        GroupImportNode.builder().ref("a").parentRef("b").name("A").build(),
+                        GroupImportNode.builder().ref("b").parentRef("a").name("B").build()))
+                .build();
+        
+        assertThrows(InvalidImportException.class, () -> groupImportService.importGroups(request));
+    }
+    
+    @Test
+    @Order(15)
+    @DisplayName("Should maintain direct and subtree membership counts")
+    void testMembershipCounters() {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder().name("Counted Root").build());
+        GroupResponse child = groupService.createGroup(
+                GroupCreateRequest.builder().name("Counted Child").parentUuid(root.getUuid()).build());
+        GroupResponse grandchild = groupService.createGroup(
+                GroupCreateRequest.builder().name("Counted Grandchild").parentUuid(child.getUuid()).build());
+        
+        groupService.addUserToGroup(root.getUuid(), "counted-1");
+        groupService.addUserToGroup(child.getUuid(), "counted-2");
+        groupService.addUserToGroup(grandchild.getUuid(), "counted-3");
+        groupService.addUserToGroup(grandchild.getUuid(), "counted-3");
+        
+        assertCounts(root.getUuid(), 1, 3);
+        assertCounts(child.getUuid(), 1, 2);
+        assertCounts(grandchild.getUuid(), 1, 1);
+        
+        // Moving within the subtree only shifts the direct counts
+        groupService.moveUser("counted-1", grandchild.getUuid());
+        assertCounts(root.getUuid(), 0, 3);
+        assertCounts(grandchild.getUuid(), 2, 2);
+        
+        groupService.removeUserFromGroup(child.getUuid(), "counted-2");
+        assertCounts(root.getUuid(), 0, 2);
+        assertCounts(child.getUuid(), 0, 2);
+        
+        // Deleting a group takes its members off the ancestors
+        groupService.deleteGroup(grandchild.getUuid());
+        assertCounts(root.getUuid(), 0, 0);
+        assertCounts(child.getUuid(), 0, 0);
+        
+        List<GroupStatsResponse> stats = groupService.getGroupStats(
+                List.of(child.getUuid(), "non-existent-uuid", root.getUuid()));
+        assertEquals(List.of(child.getUuid(), root.getUuid()),
+                stats.stream().map(GroupStatsResponse::getUuid).toList());
+        assertThrows(GroupNotFoundException.class, () -> groupService.getGroupStats(grandchild.getUuid()));
+    }
+    
+    @Test
+    @Order(16)
+    @DisplayName("Should look up the groups of many users in request order")
+    void testLookupGroupsOfUsers() throws Exception {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder().name("Lookup Group").build());
+        groupService.addUserToGroup(group.getUuid(), "lookup-1");
+        groupService.addUserToGroup(group.getUuid(), "lookup-2");
+        
+        List<String> userIds = new ArrayList<>(List.of("lookup-1", "lookup-unknown", "lookup-2"));
+        for (int i = 0; i < 25_000; i++) {
+            userIds.add("lookup-absent-" + i);
+        }
+        
+        List<String> requested = new ArrayList<>(userIds);
+        // Repeated in a later slice, and still only reported once
+        requested.add("lookup-1");
+        List<String> reported = new ArrayList<>();
+        Map<String, String> groups = new LinkedHashMap<>();
+        userGroupLookupService.lookupGroups(requested, groupsByUser -> {
+            reported.addAll(groupsByUser.keySet());
+            groups.putAll(groupsByUser);
+        });
+        
+        assertEquals(userIds, reported);
+        assertEquals(userIds, new ArrayList<>(groups.keySet()));
+        assertEquals(group.getUuid(), groups.get("lookup-1"));
+        assertNull(groups.get("lookup-unknown"));
+        assertEquals(group.getUuid(), groups.get("lookup-2"));
+        assertNull(groups.get("lookup-absent-24999"));
+    }
+    
+    @Test
+    @Order(17)
+    @DisplayName("Should move users in bulk and report each outcome")
+    void testBulkMoveUsers() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder().name("Bulk Move Root").build());
+        GroupResponse source = groupService.createGroup(
+                GroupCreateRequest.builder().name("Bulk Move Source").parentUuid(root.getUuid()).build());
+        GroupResponse target = groupService.createGroup(
+                GroupCreateRequest.builder().name("Bulk Move Target").parentUuid(root.getUuid()).build());
+        groupService.addUserToGroup(source.getUuid(), "bulk-1");
+        groupService.addUserToGroup(target.getUuid(), "bulk-2");
+        
+        // Small batches are applied within the call
+        BulkJobResponse response = bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(
+                        new UserMove("bulk-1", target.getUuid()),
+                        new UserMove("bulk-2", target.getUuid()),
+                        new UserMove("bulk-3", "non-existent-uuid")))
+                .build());
+        assertEquals(BulkJobStatus.COMPLETED, response.getStatus());
+        assertEquals(Map.of(
+                "bulk-1", MoveOutcome.MOVED,
+                "bulk-2", MoveOutcome.UNCHANGED,
+                "bulk-3", MoveOutcome.TARGET_MISSING), response.getOutcomes());
+        assertCounts(source.getUuid(), 0, 0);
+        assertCounts(target.getUuid(), 2, 2);
+        
+        // Large batches run as a job
+        List<UserMove> moves = new ArrayList<>();
+        for (int i = 0; i < 2_500; i++) {
+            moves.add(new UserMove("bulk-job-" + i, i % 2 == 0 ? source.getUuid() : target.getUuid()));
+        }
+        BulkJobResponse submitted = bulkMoveService.moveUsers(
+                BulkMoveRequest.builder().moveId("bulk-move-" + System.nanoTime()).moves(moves).build());
+        assertNotNull(submitted.getJobId());
+        
+        BulkJobResponse job = submitted;
+        for (int i = 0; i < 100 && job.getStatus() == BulkJobStatus.RUNNING; i++) {
+            Thread.sleep(100);
+            job = bulkMoveService.getMove(submitted.getJobId());
+        }
+        assertEquals(BulkJobStatus.COMPLETED, job.getStatus());
+        assertEquals(Map.of("MOVED", 2_500L), job.getCounts());
+        assertCounts(source.getUuid(), 1_250, 1_250);
+        assertCounts(target.getUuid(), 1_252, 1_252);
+        assertCounts(root.getUuid(), 0, 2_502);
+    }
+    
+    @Test
+    @Order(20)
+    @DisplayName("Should end memberships once their expiry passes, unless it was changed meanwhile")
+    void testMembershipExpiry() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder().name("Expiry Root").build());
+        GroupResponse child = groupService.createGroup(
+                GroupCreateRequest.builder().name("Expiry Child").parentUuid(root.getUuid()).build());
+        
+        groupService.addUserToGroup(child.getUuid(), "expiry-1", Instant.now().plusSeconds(1));
+        groupService.addUserToGroup(child.getUuid(), "expiry-2", Instant.now().plusSeconds(1));
+        groupService.addUserToGroup(child.getUuid(), "expiry-3");
+        // Moving away drops the expiry of the group left
+        groupService.moveUser("expiry-2", root.getUuid());
+        assertCounts(child.getUuid(), 2, 2);
+        
+        // The scheduler ends the membership within a poll of its expiry
+        for (int i = 0; i < 50 && groupService.getUsersInGroup(child.getUuid()).contains("expiry-1"); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(Set.of("expiry-3"), groupService.getUsersInGroup(child.getUuid()));
+        assertTrue(membershipStore.findGroupOfUser("expiry-1").isEmpty());
+        assertEquals(Optional.of(root.getUuid()), membershipStore.findGroupOfUser("expiry-2"));
+        assertCounts(child.getUuid(), 1, 1);
+        assertCounts(root.getUuid(), 1, 2);
+        assertEquals(0, membershipExpiryService.expireDue());
+        
+        // Claims look ahead of the scheduler, so it does not take these first
+        long later = Instant.now().plusSeconds(600).toEpochMilli();
+        groupService.addUserToGroup(child.getUuid(), "expiry-4", Instant.ofEpochMilli(later));
+        groupService.addUserToGroup(child.getUuid(), "expiry-5", Instant.ofEpochMilli(later));
+        List<MembershipStore.Expiry> claimed = membershipStore.claimDueExpiries(later, 10, later + 60_000);
+        assertEquals(2, claimed.size());
+        assertTrue(membershipStore.claimDueExpiries(later, 10, later + 60_000).isEmpty());
+        
+        // Extended after the claim, so only expiry-5 ends
+        groupService.addUserToGroup(child.getUuid(), "expiry-4", Instant.ofEpochMilli(later + 1000));
+        Map<String, List<String>> lineages = Map.of(child.getUuid(), List.of(child.getUuid(), root.getUuid()));
+        assertEquals(1, membershipStore.expire(claimed, later + 60_000, lineages));
+        assertEquals(Set.of("expiry-3", "expiry-4"), groupService.getUsersInGroup(child.getUuid()));
+        assertCounts(child.getUuid(), 2, 2);
+        assertCounts(root.getUuid(), 1, 3);
+        
+        groupService.removeUserFromGroup(child.getUuid(), "expiry-4");
+        assertTrue(membershipStore.claimDueExpiries(later + 1000, 10, later + 60_000).isEmpty());
+    }
+    
+    @Test
+    @Order(21)
+    @DisplayName("Should page through the users of a group in the order they joined")
+    void testRecentJoiners() throws Exception {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder().name("Joiners Group").build());
+        String start = Instant.now().toString();
+        groupService.addUserToGroup(group.getUuid(), "joiner-1");
+        Thread.sleep(5);
+        // Joined in the same script, so at the same millisecond
+        bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(
+                        new UserMove("joiner-2", group.getUuid()),
+                        new UserMove("joiner-3", group.getUuid()),
+                        new UserMove("joiner-4", group.getUuid())))
+                .build());
+        groupService.removeUserFromGroup(group.getUuid(), "joiner-3");
+        Thread.sleep(5);
+        
+        JoinedMembersResponse first = groupService.getUsersJoinedSince(group.getUuid(), start, null, 2);
+        assertEquals(List.of("joiner-1", "joiner-2"), first.getUsers().stream().map(JoinedMember::getUserId).toList());
+        JoinedMembersResponse second = groupService.getUsersJoinedSince(group.getUuid(), null, first.getNextCursor(), 2);
+        assertEquals(List.of("joiner-4"), second.getUsers().stream().map(JoinedMember::getUserId).toList());
+        assertEquals(first.getUsers().get(1).getJoinedAt(), second.getUsers().get(0).getJoinedAt());
+        
+        // Nothing new yet; the cursor stays put until someone joins
+        JoinedMembersResponse empty = groupService.getUsersJoinedSince(group.getUuid(), null, second.getNextCursor(), 2);
+        assertTrue(empty.getUsers().isEmpty());
+        assertEquals(second.getNextCursor(), empty.getNextCursor());
+        groupService.moveUser("joiner-1", group.getUuid());
+        groupService.addUserToGroup(group.getUuid(), "joiner-5");
+        Thread.sleep(5);
+        JoinedMembersResponse latest = groupService.getUsersJoinedSince(group.getUuid(), null, empty.getNextCursor(), 2);
+        assertEquals(List.of("joiner-5"), latest.getUsers().stream().map(JoinedMember::getUserId).toList());
+        
+        assertThrows(InvalidMemberRangeException.class,
+                () -> groupService.getUsersJoinedSince(group.getUuid(), null, "yesterday", 2));
+        assertThrows(InvalidMemberRangeException.class,
+                () -> groupService.getUsersJoinedSince(group.getUuid(), "yesterday", null, 2));
+    }
+    
+    @Test
+    @Order(22)
+    @DisplayName("Should read groups and their inheritance as they were at a point in time")
+    void testPointInTimeReads() throws InterruptedException {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("History Root")
+                .location("Norway")
+                .build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .name("History Child 0")
+                .parentUuid(root.getUuid())
+                .build());
+        Thread.sleep(5);
+        String created = Instant.now().toString();
+        Thread.sleep(5);
+        
+        // More updates than the checkpoint interval, so reads replay deltas onto a later checkpoint
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder()
+                .location("Sweden").status(GroupStatus.DEACTIVATED).build());
+        List<String> renamedAt = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            groupService.updateGroup(child.getUuid(), GroupUpdateRequest.builder()
+                    .name("History Child " + i).segments(List.of("Segment " + i)).build());
+            Thread.sleep(2);
+            renamedAt.add(Instant.now().toString());
+            Thread.sleep(2);
+        }
+        
+        GroupResponse original = groupService.getGroupAsOf(child.getUuid(), created);
+        assertEquals("History Child 0", original.getName());
+        assertEquals("Norway", original.getLocation());
+        assertEquals(GroupStatus.ACTIVE, original.getEffectiveStatus());
+        assertEquals(1L, original.getVersion());
+        
+        for (int i : List.of(1, 19, 20, 25, 30)) {
+            GroupResponse renamed = groupService.getGroupAsOf(child.getUuid(), renamedAt.get(i - 1));
+            assertEquals("History Child " + i, renamed.getName());
+            assertEquals(List.of("Segment " + i), renamed.getSegments());
+            assertEquals("Sweden", renamed.getLocation());
+            assertEquals(GroupStatus.DEACTIVATED, renamed.getEffectiveStatus());
+            assertEquals(i + 1L, renamed.getVersion());
+        }
+        
+        // With fields the historical group is projected, inherited fields included
+        Map<String, Object> projected = groupService.getGroupFieldsAsOf(child.getUuid(), created,
+                GroupField.parse("name,location,effectiveStatus"));
+        assertEquals(List.of("name", "location", "effectiveStatus"), new ArrayList<>(projected.keySet()));
+        assertEquals("History Child 0", projected.get("name"));
+        assertEquals("Norway", projected.get("location"));
+        assertEquals(GroupStatus.ACTIVE, projected.get("effectiveStatus"));
+        
+        // A deleted group is gone from then on, but its earlier states remain readable
+        groupService.deleteGroup(child.getUuid());
+        Thread.sleep(5);
+        assertThrows(GroupNotFoundException.class,
+                () -> groupService.getGroupAsOf(child.getUuid(), Instant.now().toString()));
+        assertEquals("History Child 30", groupService.getGroupAsOf(child.getUuid(), renamedAt.get(29)).getName());
+        assertThrows(GroupNotFoundException.class,
+                () -> groupService.getGroupAsOf(root.getUuid(), "2000-01-01T00:00:00Z"));
+        assertThrows(InvalidAsOfException.class, () -> groupService.getGroupAsOf(root.getUuid(), "last tuesday"));
+    }
+    
+    @Test
+    @Order(23)
+    @DisplayName("Should answer in CBOR or Smile when asked, and in JSON by default")
+    void testBinaryRepresentations() throws Exception {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Binary Group")
+                .location("Iceland")
+                .segments(List.of("Enterprise", "Nordics"))
+                .build());
+        groupService.addUserToGroup(group.getUuid(), "binary-1");
+        ObjectMapper cbor = objectMapper.copyWith(new CBORFactory());
+        ObjectMapper smile = objectMapper.copyWith(new SmileFactory());
+        
+        MvcResult json = mockMvc.perform(get("/api/v1/groups/" + group.getUuid())).andReturn();
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, json.getResponse().getContentType());
+        GroupResponse fromJson = objectMapper.readValue(json.getResponse().getContentAsByteArray(), GroupResponse.class);
+        assertEquals(MediaType.APPLICATION_JSON_VALUE, mockMvc.perform(get("/api/v1/groups/" + group.getUuid())
+                .header(HttpHeaders.ACCEPT, "*/*, application/cbor;q=0.5")).andReturn().getResponse().getContentType());
+        
+        MvcResult binary = mockMvc.perform(get("/api/v1/groups/" + group.getUuid())
+                .header(HttpHeaders.ACCEPT, "application/cbor, application/json;q=0.9")).andReturn();
+        assertEquals("application/cbor", binary.getResponse().getContentType());
+        assertEquals(fromJson, cbor.readValue(binary.getResponse().getContentAsByteArray(), GroupResponse.class));
+        assertTrue(binary.getResponse().getContentAsByteArray().length < json.getResponse().getContentAsByteArray().length);
+        String etag = binary.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(json.getResponse().getHeader(HttpHeaders.ETAG), etag);
+        assertEquals(304, mockMvc.perform(get("/api/v1/groups/" + group.getUuid())
+                .header(HttpHeaders.ACCEPT, "application/cbor")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn().getResponse().getStatus());
+        assertEquals(group.getVersion(), groupResponseCache.versionMatching(group.getUuid(), etag));
+        
+        MvcResult smileGroup = mockMvc.perform(get("/api/v1/groups/" + group.getUuid())
+                .header(HttpHeaders.ACCEPT, "application/x-jackson-smile")).andReturn();
+        assertEquals(fromJson, smile.readValue(smileGroup.getResponse().getContentAsByteArray(), GroupResponse.class));
+        
+        // Batch responses go through the message converters
+        MvcResult contexts = mockMvc.perform(post("/api/v1/users/context")
+                .header(HttpHeaders.ACCEPT, "application/cbor")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"userIds\":[\"binary-1\"]}")).andReturn();
+        assertEquals("application/cbor", contexts.getResponse().getContentType());
+        List<UserContextResponse> decoded = cbor.readValue(contexts.getResponse().getContentAsByteArray(),
+                new TypeReference<List<UserContextResponse>>() { });
+        assertEquals("Iceland", decoded.get(0).getLocation());
+        
+        // The streamed lookup writes the same object in the negotiated format
+        MvcResult started = mockMvc.perform(post("/api/v1/users/groups:lookup")
+                .header(HttpHeaders.ACCEPT, "application/cbor")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"userIds\":[\"binary-1\",\"binary-2\"]}")).andReturn();
+        MvcResult lookup = mockMvc.perform(asyncDispatch(started)).andReturn();
+        assertEquals("application/cbor", lookup.getResponse().getContentType());
+        Map<String, String> groups = cbor.readValue(lookup.getResponse().getContentAsByteArray(),
+                new TypeReference<Map<String, String>>() { });
+        assertEquals(group.getUuid(), groups.get("binary-1"));
+        assertTrue(groups.containsKey("binary-2"));
+        assertNull(groups.get("binary-2"));
+    }
+    
+    @Test
+    @Order(27)
+    @DisplayName("Should clone a subtree with fresh UUIDs, copying, overriding or dropping inheritable fields")
+    void testCloneSubtree() throws Exception {
+        GroupResponse template = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Region Template").location("Template City").spaceId("space-template").build());
+        GroupResponse sales = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Template Sales").parentUuid(template.getUuid()).language("en-US").location("Sales City").build());
+        GroupResponse leads = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Template Leads").parentUuid(sales.getUuid()).build());
+        groupService.addUserToGroup(leads.getUuid(), "clone-1");
+        GroupResponse regions = groupService.createGroup(GroupCreateRequest.builder().name("Regions").build());
+        
+        BulkJobResponse cloned = groupImportService.cloneSubtree(template.getUuid(), regions.getUuid(),
+                GroupCloneRequest.builder().cloneId("apac").name("APAC").location("Singapore").build());
+        assertEquals(BulkJobStatus.COMPLETED, cloned.getStatus());
+        assertEquals(3, cloned.getTotal());
+        Map<String, String> uuids = cloned.getUuids();
+        assertEquals(Set.of(template.getUuid(), sales.getUuid(), leads.getUuid()), uuids.keySet());
+        
+        GroupResponse apac = groupService.getGroupWithInheritance(uuids.get(template.getUuid()));
+        assertEquals("APAC", apac.getName());
+        assertEquals(regions.getUuid(), apac.getParentUuid());
+        assertEquals("Singapore", apac.getLocation());
+        assertEquals("space-template", apac.getSpaceId());
+        GroupResponse apacSales = groupService.getGroupWithInheritance(uuids.get(sales.getUuid()));
+        assertEquals("Template Sales", apacSales.getName());
+        assertEquals(apac.getUuid(), apacSales.getParentUuid());
+        assertEquals("en-US", apacSales.getLanguage());
+        // The override replaces the location the original set below the root
+        assertEquals("Singapore", apacSales.getLocation());
+        GroupResponse apacLeads = groupService.getGroupWithInheritance(uuids.get(leads.getUuid()));
+        assertEquals(apacSales.getUuid(), apacLeads.getParentUuid());
+        assertEquals("en-US", apacLeads.getLanguage());
+        assertTrue(groupService.getUsersInGroup(apacLeads.getUuid()).isEmpty());
+        assertEquals(Set.of("clone-1"), groupService.getUsersInGroup(leads.getUuid()));
+        assertEquals("Sales City", groupService.getGroupWithInheritance(sales.getUuid()).getLocation());
+        
+        // Retrying with the same clone ID only writes the copies still missing, keeping later edits
+        groupService.updateGroup(apacSales.getUuid(), GroupUpdateRequest.builder().name("APAC Sales").build());
+        groupStore.delete(groupStore.findById(apacLeads.getUuid()).orElseThrow());
+        BulkJobResponse retried = groupImportService.cloneSubtree(template.getUuid(), regions.getUuid(),
+                GroupCloneRequest.builder().cloneId("apac").name("APAC").location("Singapore").build());
+        assertEquals(uuids, retried.getUuids());
+        assertEquals(1, groupStore.findByParentUuid(regions.getUuid()).size());
+        GroupResponse retriedSales = groupService.getGroupWithInheritance(apacSales.getUuid());
+        assertEquals("APAC Sales", retriedSales.getName());
+        assertEquals(2L, retriedSales.getVersion());
+        assertEquals(apacSales.getUuid(), groupService.getGroupWithInheritance(apacLeads.getUuid()).getParentUuid());
+        
+        // Without copying, the copies set no inheritable field and a root copy has nothing to inherit
+        MvcResult result = mockMvc.perform(post("/api/v1/groups/" + template.getUuid() + "/clone")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"copyInheritableFields\":false}"))
+                .andReturn();
+        assertEquals(201, result.getResponse().getStatus());
+        BulkJobResponse bare = objectMapper.readValue(result.getResponse().getContentAsString(), BulkJobResponse.class);
+        assertEquals("/api/v1/groups/" + bare.getUuids().get(template.getUuid()),
+                result.getResponse().getHeader(HttpHeaders.LOCATION));
+        GroupResponse bareRoot = groupService.getGroupWithInheritance(bare.getUuids().get(template.getUuid()));
+        assertNull(bareRoot.getParentUuid());
+        assertEquals("Region Template", bareRoot.getName());
+        assertNull(bareRoot.getLocation());
+        assertNull(groupService.getGroupWithInheritance(bare.getUuids().get(leads.getUuid())).getLanguage());
+        assertNotEquals(uuids.get(template.getUuid()), bareRoot.getUuid());
+        
+        assertEquals(404, mockMvc.perform(post("/api/v1/groups/no-such-group/clone")).andReturn().getResponse().getStatus());
+        assertEquals(404, mockMvc.perform(post("/api/v1/groups/" + template.getUuid() + "/clone?targetParent=no-such-group"))
+                .andReturn().getResponse().getStatus());
+    }
+    
+    @Test
+    @Order(31)
+    @DisplayName("Should evict only the responses resolved from a changed group, and the least recently read when full")
+    void testResponseCacheEviction() {
+        GroupResponse first = groupService.createGroup(GroupCreateRequest.builder().name("Evicted Root").build());
+        GroupResponse firstChild = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Evicted Child").parentUuid(first.getUuid()).build());
+        GroupResponse second = groupService.createGroup(GroupCreateRequest.builder().name("Kept Root").build());
+        GroupResponse secondChild = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Kept Child").parentUuid(second.getUuid()).build());
+        CachedGroupResponse evicted = groupResponseCache.get(firstChild.getUuid());
+        CachedGroupResponse kept = groupResponseCache.get(secondChild.getUuid());
+        
+        groupService.updateGroup(first.getUuid(), GroupUpdateRequest.builder().location("Chile").build());
+        assertNotSame(evicted, groupResponseCache.get(firstChild.getUuid()));
+        assertSame(kept, groupResponseCache.get(secondChild.getUuid()));
+        
+        int maxEntries = properties.getResponseCache().getMaxEntries();
+        properties.getResponseCache().setMaxEntries(3);
+        try {
+            CachedGroupResponse a = groupResponseCache.get(first.getUuid());
+            CachedGroupResponse b = groupResponseCache.get(firstChild.getUuid());
+            groupResponseCache.get(second.getUuid());
+            assertSame(a, groupResponseCache.get(first.getUuid()));
+            groupResponseCache.get(secondChild.getUuid());
+            assertSame(a, groupResponseCache.get(first.getUuid()));
+            assertNotSame(b, groupResponseCache.get(firstChild.getUuid()));
+        } finally {
+            properties.getResponseCache().setMaxEntries(maxEntries);
+        }
+    }
+    
+    @Test
+    @Order(32)
+    @DisplayName("Should answer an update with the resolved group its ETag was computed from")
+    void testUpdateResponseMatchesETag() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Tagged Root").location("Kenya").build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Tagged Child").parentUuid(root.getUuid()).build());
+        
+        MvcResult updated = mockMvc.perform(put("/api/v1/groups/" + child.getUuid())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"displayName\":\"Renamed Tagged Child\"}")).andReturn();
+        assertEquals(200, updated.getResponse().getStatus());
+        GroupResponse body = objectMapper.readValue(updated.getResponse().getContentAsByteArray(), GroupResponse.class);
+        assertEquals("Renamed Tagged Child", body.getDisplayName());
+        assertEquals("Kenya", body.getLocation());
+        
+        String etag = updated.getResponse().getHeader(HttpHeaders.ETAG);
+        MvcResult read = mockMvc.perform(get("/api/v1/groups/" + child.getUuid())).andReturn();
+        assertEquals(etag, read.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals(body, objectMapper.readValue(read.getResponse().getContentAsByteArray(), GroupResponse.class));
+    }
+    
+    @Test
+    @Order(33)
+    @DisplayName("Should not lose a joiner when a user already returned leaves between pages")
+    void testRecentJoinersAcrossRemoval() throws Exception {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder().name("Synced Group").build());
+        String start = Instant.now().toString();
+        // Joined in the same script, so at the same millisecond
+        bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(
+                        new UserMove("synced-1", group.getUuid()),
+                        new UserMove("synced-2", group.getUuid()),
+                        new UserMove("synced-3", group.getUuid()),
+                        new UserMove("synced-4", group.getUuid())))
+                .build());
+        Thread.sleep(5);
+        
+        JoinedMembersResponse first = groupService.getUsersJoinedSince(group.getUuid(), start, null, 2);
+        assertEquals(List.of("synced-1", "synced-2"), first.getUsers().stream().map(JoinedMember::getUserId).toList());
+        groupService.removeUserFromGroup(group.getUuid(), "synced-1");
+        
+        JoinedMembersResponse second = groupService.getUsersJoinedSince(group.getUuid(), null, first.getNextCursor(), 2);
+        assertEquals(List.of("synced-3", "synced-4"), second.getUsers().stream().map(JoinedMember::getUserId).toList());
+    }
+    
+    @Test
+    @Order(34)
+    @DisplayName("Should keep the history of a group created again under a deleted UUID")
+    void testHistoryOfRecreatedGroup() throws Exception {
+        GroupHistoryStore.Compaction compaction = new GroupHistoryStore.Compaction(Duration.ofMillis(50), 10);
+        String uuid = UUID.randomUUID().toString();
+        String other = UUID.randomUUID().toString();
+        GroupHistoryEntry checkpoint = GroupHistoryEntry.builder().type(GroupHistoryEntry.Type.CHECKPOINT).version(1)
+                .group(Group.builder().uuid(uuid).name("Recreated").build()).build();
+        GroupHistoryEntry deleted = GroupHistoryEntry.builder().type(GroupHistoryEntry.Type.DELETED).version(2).build();
+        
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(uuid, checkpoint)), compaction);
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(uuid, deleted)), compaction);
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(uuid, checkpoint)), compaction);
+        Thread.sleep(100);
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(other, checkpoint)), compaction);
+        // The retention of the first deletion has passed, but the group was created again since
+        assertEquals(GroupHistoryEntry.Type.CHECKPOINT,
+                groupHistoryStore.findAsOf(uuid, System.currentTimeMillis()).get(0).getType());
+        
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(uuid, deleted)), compaction);
+        Thread.sleep(100);
+        // Both deletions have expired; appending goes on and the log is gone
+        groupHistoryStore.append(List.of(new GroupHistoryStore.Change(other, checkpoint)), compaction);
+        assertTrue(groupHistoryStore.findAsOf(uuid, System.currentTimeMillis()).isEmpty());
+        assertFalse(groupHistoryStore.findAsOf(other, System.currentTimeMillis()).isEmpty());
+    }
+    
+    protected void assertCounts(String uuid, long direct, long total) {
+        GroupStatsResponse stats = groupService.getGroupStats(uuid);
+        assertEquals(direct, stats.getDirectMembers(), "direct members of " + uuid);
+        assertEquals(total, stats.getTotalMembers(), "total members of " + uuid);
+    }
+}
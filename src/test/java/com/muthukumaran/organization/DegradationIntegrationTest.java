@@ -0,0 +1,171 @@
+package com.muthukumaran.organization;
+
+import com.muthukumaran.organization.dto.GroupCreateRequest;
+import com.muthukumaran.organization.dto.GroupUpdateRequest;
+import com.muthukumaran.organization.resilience.RedisCircuitBreaker;
+import com.muthukumaran.organization.service.GroupService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test of the degradation mode, with Redis stalled through CLIENT PAUSE
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "spring.data.redis.timeout=1s",
+    "organization.hierarchy-snapshot.enabled=false",
+    "organization.stale-reads.max-wait=100ms",
+    "organization.circuit-breaker.failure-threshold=2",
+    "organization.circuit-breaker.open-duration=1s",
+    "organization.admission.max-concurrent-requests=2",
+    "organization.admission.max-wait=0s"
+})
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class DegradationIntegrationTest {
+    
+    @Container
+    static GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine"))
+            .withExposedPorts(6379);
+    
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", redis::getHost);
+        registry.add("spring.data.redis.port", () -> redis.getMappedPort(6379));
+    }
+    
+    @LocalServerPort
+    private int port;
+    
+    @Autowired
+    private GroupService groupService;
+    
+    @Autowired
+    private RedisCircuitBreaker circuitBreaker;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    private final HttpClient client = HttpClient.newHttpClient();
+    
+    private static String groupUuid;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should serve the copy from before a change while Redis is slow, then the refreshed group")
+    void testStaleWhileRevalidate() throws Exception {
+        groupUuid = groupService.createGroup(GroupCreateRequest.builder().name("Degradation Group").build()).getUuid();
+        HttpResponse<String> fresh = get("/api/v1/groups/" + groupUuid);
+        assertEquals(200, fresh.statusCode());
+        assertTrue(fresh.headers().firstValue("Age").isEmpty());
+        String etag = fresh.headers().firstValue("ETag").orElseThrow();
+        
+        groupService.updateGroup(groupUuid, GroupUpdateRequest.builder().name("Degradation Group Renamed").build());
+        pauseRedis(600);
+        long start = System.nanoTime();
+        HttpResponse<String> stale = get("/api/v1/groups/" + groupUuid);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        
+        assertEquals(200, stale.statusCode());
+        assertTrue(elapsedMillis < 500, "stale copy served after " + elapsedMillis + "ms");
+        assertTrue(stale.headers().firstValue("Age").isPresent());
+        assertEquals(etag, stale.headers().firstValue("ETag").orElseThrow());
+        assertTrue(stale.body().contains("\"Degradation Group\""));
+        
+        // The refresh started by the stale read completes once Redis resumes
+        Thread.sleep(1000);
+        HttpResponse<String> refreshed = get("/api/v1/groups/" + groupUuid);
+        assertTrue(refreshed.headers().firstValue("Age").isEmpty());
+        assertTrue(refreshed.body().contains("Degradation Group Renamed"));
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should reject writes without calling Redis once writes time out, and close after a trial write")
+    void testCircuitBreaker() throws Exception {
+        pauseRedis(3000);
+        assertEquals(500, addUser("degradation-1").statusCode());
+        assertEquals(500, addUser("degradation-2").statusCode());
+        assertTrue(circuitBreaker.isOpen());
+        
+        long start = System.nanoTime();
+        HttpResponse<String> rejected = addUser("degradation-3");
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(503, rejected.statusCode());
+        assertTrue(rejected.headers().firstValue("Retry-After").isPresent());
+        assertTrue(elapsedMillis < 500, "write rejected after " + elapsedMillis + "ms");
+        
+        Thread.sleep(1500);
+        assertEquals(200, addUser("degradation-4").statusCode());
+        assertFalse(circuitBreaker.isOpen());
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should shed requests beyond the concurrency limit while Redis is slow")
+    void testAdmissionControl() throws Exception {
+        pauseRedis(1500);
+        CompletableFuture<HttpResponse<String>> first = getAsync("/api/v1/groups/" + groupUuid + "/stats");
+        CompletableFuture<HttpResponse<String>> second = getAsync("/api/v1/groups/" + groupUuid + "/stats");
+        Thread.sleep(300);
+        
+        HttpResponse<String> shed = get("/api/v1/groups/" + groupUuid + "/stats");
+        assertEquals(503, shed.statusCode());
+        assertEquals("1", shed.headers().firstValue("Retry-After").orElseThrow());
+        
+        first.join();
+        second.join();
+        Thread.sleep(1000);
+        assertEquals(200, get("/api/v1/groups/" + groupUuid + "/stats").statusCode());
+    }
+    
+    /**
+     * Stall every client of Redis, including this service, for the given time
+     */
+    private void pauseRedis(long millis) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("CLIENT",
+            bytes("PAUSE"), bytes(Long.toString(millis)), bytes("ALL")));
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private CompletableFuture<HttpResponse<String>> getAsync(String path) {
+        return client.sendAsync(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private HttpResponse<String> addUser(String userId) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/v1/groups/" + groupUuid + "/users"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString("{\"userId\":\"" + userId + "\"}"))
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,10 @@
+package com.muthukumaran.organization;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * The inheritance tests on the in-process storage backend
+ */
+@TestPropertySource(properties = "organization.storage.type=memory")
+class MemoryInheritanceIntegrationTest extends AbstractInheritanceIntegrationTest {
+}
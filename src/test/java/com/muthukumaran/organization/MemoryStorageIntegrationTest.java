@@ -0,0 +1,204 @@
+package com.muthukumaran.organization;
+
+import com.muthukumaran.organization.config.OrganizationProperties;
+import com.muthukumaran.organization.dto.BulkMoveRequest;
+import com.muthukumaran.organization.dto.GroupCreateRequest;
+import com.muthukumaran.organization.dto.GroupResponse;
+import com.muthukumaran.organization.dto.GroupUpdateRequest;
+import com.muthukumaran.organization.dto.UserMove;
+import com.muthukumaran.organization.exception.GroupNotFoundException;
+import com.muthukumaran.organization.service.BulkMoveService;
+import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.storage.MembershipStore;
+import com.muthukumaran.organization.storage.memory.MemoryStore;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test of the recovery of the in-process storage backend from its snapshot and log.
+ * The service itself is tested on this backend by the memory subclasses of the shared suites.
+ */
+@SpringBootTest
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class MemoryStorageIntegrationTest {
+    
+    private static final Path DIRECTORY = createDirectory();
+    
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("organization.storage.type", () -> "memory");
+        registry.add("organization.storage.memory.directory", DIRECTORY::toString);
+    }
+    
+    @Autowired
+    private GroupService groupService;
+    
+    @Autowired
+    private BulkMoveService bulkMoveService;
+    
+    @Autowired
+    private MemoryStore memoryStore;
+    
+    private static String rootUuid;
+    private static String childUuid;
+    private static String otherUuid;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should recover the state from the snapshot and the log")
+    void testRecovery() throws Exception {
+        createGroupsAndMembers();
+        memoryStore.snapshot();
+        
+        // Changes after the snapshot only reach the log
+        GroupResponse leaf = groupService.createGroup(
+                GroupCreateRequest.builder().name("Memory Leaf").parentUuid(childUuid).build());
+        groupService.addUserToGroup(leaf.getUuid(), "memory-5");
+        groupService.updateGroup(childUuid, GroupUpdateRequest.builder().language("fr-FR").build());
+        groupService.moveUser("memory-4", otherUuid);
+        groupService.deleteGroup(leaf.getUuid());
+        
+        // Recover a copy of the files, with a record torn by a crash at the end of the log
+        Path copy = Files.createTempDirectory("memory-store-copy");
+        try (Stream<Path> files = Files.list(DIRECTORY)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        try (Stream<Path> files = Files.list(copy)) {
+            Path log = files.filter(file -> file.toString().endsWith(".log")).findFirst().orElseThrow();
+            Files.write(log, new byte[] {1, 0}, StandardOpenOption.APPEND);
+        }
+        OrganizationProperties properties = new OrganizationProperties();
+        properties.getStorage().getMemory().setDirectory(copy.toString());
+        MemoryStore recovered = new MemoryStore(properties);
+        try {
+            assertEquals(memoryStore.findById(childUuid), recovered.findById(childUuid));
+            assertEquals("fr-FR", recovered.findById(childUuid).orElseThrow().getLanguage());
+            assertTrue(recovered.findById(leaf.getUuid()).isEmpty());
+            assertEquals(memoryStore.findLineage(childUuid), recovered.findLineage(childUuid));
+            assertEquals(memoryStore.findMembers(otherUuid), recovered.findMembers(otherUuid));
+            assertEquals(Optional.of(otherUuid), recovered.findGroupOfUser("memory-2"));
+            assertEquals(Optional.of(otherUuid), recovered.findGroupOfUser("memory-4"));
+            assertTrue(recovered.findGroupOfUser("memory-5").isEmpty());
+            List<String> uuids = List.of(rootUuid, childUuid, otherUuid);
+            assertArrayEquals(memoryStore.findCounts(uuids).toArray(), recovered.findCounts(uuids).toArray());
+        } finally {
+            recovered.shutdown();
+        }
+        
+        assertThrows(GroupNotFoundException.class, () -> groupService.getGroupWithInheritance(leaf.getUuid()));
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should recover membership expiries and end them")
+    void testExpiryRecovery() throws Exception {
+        long later = Instant.now().plusSeconds(600).toEpochMilli();
+        groupService.addUserToGroup(childUuid, "memory-6", Instant.ofEpochMilli(later));
+        memoryStore.snapshot();
+        groupService.addUserToGroup(childUuid, "memory-7", Instant.ofEpochMilli(later));
+        groupService.addUserToGroup(childUuid, "memory-8", Instant.ofEpochMilli(later));
+        groupService.moveUser("memory-8", otherUuid);
+        
+        Path copy = Files.createTempDirectory("memory-store-copy");
+        try (Stream<Path> files = Files.list(DIRECTORY)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        OrganizationProperties properties = new OrganizationProperties();
+        properties.getStorage().getMemory().setDirectory(copy.toString());
+        MemoryStore recovered = new MemoryStore(properties);
+        try {
+            List<MembershipStore.Expiry> claimed = recovered.claimDueExpiries(later, 10, later + 60_000);
+            assertEquals(Set.of("memory-6", "memory-7"),
+                Set.copyOf(claimed.stream().map(MembershipStore.Expiry::userId).toList()));
+            assertEquals(2, recovered.expire(claimed, later + 60_000, Map.of()));
+            assertEquals(memoryStore.findMembers(childUuid).size() - 2, recovered.findMembers(childUuid).size());
+            assertTrue(recovered.findGroupOfUser("memory-6").isEmpty());
+        } finally {
+            recovered.shutdown();
+        }
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should list recent joiners on the memory backend and recover their join times")
+    void testJoinTimeRecovery() throws Exception {
+        groupService.addUserToGroup(otherUuid, "memory-9");
+        memoryStore.snapshot();
+        groupService.moveUser("memory-2", childUuid);
+        // Joins of the same millisecond are listed by user ID, so keep these apart in time
+        Thread.sleep(5);
+        groupService.addUserToGroup(childUuid, "memory-10");
+        Thread.sleep(5);
+        
+        List<MembershipStore.Joined> joined = memoryStore.findMembersJoinedSince(childUuid, 0, null, 100);
+        assertEquals(List.of("memory-2", "memory-10"), joined.subList(joined.size() - 2, joined.size()).stream()
+            .map(MembershipStore.Joined::userId).toList());
+        
+        Path copy = Files.createTempDirectory("memory-store-copy");
+        try (Stream<Path> files = Files.list(DIRECTORY)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        OrganizationProperties properties = new OrganizationProperties();
+        properties.getStorage().getMemory().setDirectory(copy.toString());
+        MemoryStore recovered = new MemoryStore(properties);
+        try {
+            assertEquals(joined, recovered.findMembersJoinedSince(childUuid, 0, null, 100));
+            assertEquals(memoryStore.findMembersJoinedSince(otherUuid, 0, null, 100),
+                recovered.findMembersJoinedSince(otherUuid, 0, null, 100));
+        } finally {
+            recovered.shutdown();
+        }
+    }
+    
+    /**
+     * Groups and memberships changed in each way the log records, single and bulk
+     */
+    private void createGroupsAndMembers() {
+        rootUuid = groupService.createGroup(
+                GroupCreateRequest.builder().name("Memory Root").location("USA").build()).getUuid();
+        childUuid = groupService.createGroup(
+                GroupCreateRequest.builder().name("Memory Child").parentUuid(rootUuid).build()).getUuid();
+        otherUuid = groupService.createGroup(
+                GroupCreateRequest.builder().name("Memory Other").parentUuid(rootUuid).build()).getUuid();
+        groupService.addUserToGroup(rootUuid, "memory-1");
+        groupService.addUserToGroup(childUuid, "memory-2");
+        groupService.addUserToGroup(childUuid, "memory-3");
+        groupService.moveUser("memory-1", otherUuid);
+        groupService.removeUserFromGroup(childUuid, "memory-3");
+        bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(
+                        new UserMove("memory-2", otherUuid),
+                        new UserMove("memory-4", childUuid)))
+                .build());
+    }
+    
+    private static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("memory-store");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,33 +1,60 @@
 package com.muthukumaran.organization;
 
 import com.muthukumaran.organization.dto.*;
-import com.muthukumaran.organization.exception.GroupHasChildrenException;
+import com.muthukumaran.organization.event.GroupChangeRelay;
 import com.muthukumaran.organization.exception.GroupNotFoundException;
-import com.muthukumaran.organization.exception.ParentGroupNotFoundException;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.Group;
 import com.muthukumaran.organization.model.GroupStatus;
-import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.model.MoveOutcome;
+import com.muthukumaran.organization.repository.GroupHashRepository;
+import com.muthukumaran.organization.repository.GroupReadBatcher;
+import com.muthukumaran.organization.repository.GroupRepository;
+import com.muthukumaran.organization.repository.RedisGroupStore;
+import com.muthukumaran.organization.service.ConsistencyAuditService;
+import com.muthukumaran.organization.service.GroupImportService;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.hot.HotGroupTier;
+import com.muthukumaran.organization.storage.snapshot.SnapshotGroupStore;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MvcResult;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 
 /**
- * Comprehensive integration tests for the Organization Service
+ * The service tests on the Redis storage backend, and those of the parts only it has
  */
-@SpringBootTest
 @Testcontainers
-@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
-class OrganizationServiceIntegrationTest {
+class OrganizationServiceIntegrationTest extends AbstractOrganizationServiceIntegrationTest {
     
     @Container
     static GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine"))
@@ -40,168 +67,498 @@ class OrganizationServiceIntegrationTest {
     }
     
     @Autowired
-    private GroupService groupService;
+    private ConsistencyAuditService consistencyAuditService;
     
-    private String testGroupUuid;
-    private String childGroupUuid;
+    @Autowired
+    private RedisGroupStore redisGroupStore;
+    
+    @Autowired
+    private GroupRepository groupRepository;
+    
+    @Autowired
+    private GroupHashRepository groupHashRepository;
+    
+    @Autowired
+    private HotGroupTier hotGroupTier;
+    
+    @Autowired
+    private GroupReadBatcher groupReadBatcher;
+    
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private SnapshotGroupStore snapshotGroupStore;
+    
+    @Autowired
+    private GroupChangeRelay groupChangeRelay;
     
     @Test
-    @Order(1)
-    @DisplayName("Should create a group with default status ACTIVE")
-    void testCreateGroupWithDefaultStatus() {
-        GroupCreateRequest request = GroupCreateRequest.builder()
-                .name("Test Group")
-                .build();
+    @Order(18)
+    @DisplayName("Should find and repair inconsistent memberships in an audit")
+    void testConsistencyAudit() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder().name("Audit Root").build());
+        GroupResponse child = groupService.createGroup(
+                GroupCreateRequest.builder().name("Audit Child").parentUuid(root.getUuid()).build());
+        groupService.addUserToGroup(root.getUuid(), "audit-1");
+        groupService.addUserToGroup(child.getUuid(), "audit-2");
+        
+        // A second membership, a lost pointer and drifted counters
+        redisTemplate.opsForSet().add("group:" + child.getUuid() + ":users", "audit-1");
+        redisTemplate.delete("user:audit-2:group");
+        stringRedisTemplate.opsForHash().increment("group:" + root.getUuid() + ":counts", "total", 5);
         
-        GroupResponse response = groupService.createGroup(request);
+        BulkJobResponse report = awaitAudit(consistencyAuditService.startAudit(false));
+        assertEquals(BulkJobStatus.COMPLETED, report.getStatus());
+        assertTrue(report.getCounts().containsKey("DUPLICATE_MEMBERSHIP"));
+        assertTrue(report.getCounts().containsKey("MISSING_POINTER"));
+        assertTrue(report.getCounts().containsKey("COUNTER_DRIFT"));
+        assertFalse(report.getCounts().containsKey(ConsistencyAuditService.REPAIRED));
+        assertTrue(groupService.getUsersInGroup(child.getUuid()).contains("audit-1"));
         
-        assertNotNull(response);
-        assertNotNull(response.getUuid());
-        assertEquals("Test Group", response.getName());
-        assertEquals("Test Group", response.getDisplayName()); // Should default to name
-        assertEquals(GroupStatus.ACTIVE, response.getStatus());
+        BulkJobResponse repair = awaitAudit(consistencyAuditService.startAudit(true));
+        assertEquals(BulkJobStatus.COMPLETED, repair.getStatus());
+        assertTrue(repair.getCounts().get(ConsistencyAuditService.REPAIRED) >= 3);
+        assertEquals(Set.of("audit-2"), groupService.getUsersInGroup(child.getUuid()));
+        assertEquals(child.getUuid(), redisTemplate.opsForValue().get("user:audit-2:group"));
+        assertCounts(child.getUuid(), 1, 1);
+        assertCounts(root.getUuid(), 1, 2);
         
-        testGroupUuid = response.getUuid();
+        BulkJobResponse clean = awaitAudit(consistencyAuditService.startAudit(false));
+        assertEquals(BulkJobStatus.COMPLETED, clean.getStatus());
+        assertNull(clean.getCounts());
     }
     
     @Test
-    @Order(2)
-    @DisplayName("Should fail to create group with non-existent parent")
-    void testCreateGroupWithInvalidParent() {
-        GroupCreateRequest request = GroupCreateRequest.builder()
-                .parentUuid("non-existent-uuid")
-                .name("Invalid Group")
-                .build();
+    @Order(19)
+    @DisplayName("Should serve groups from the hierarchy snapshot at once and catch up with Redis")
+    void testHierarchySnapshot() throws Exception {
+        GroupResponse root = groupService.createGroup(
+                GroupCreateRequest.builder().name("Snapshot Root").location("USA").build());
+        GroupResponse child = groupService.createGroup(
+                GroupCreateRequest.builder().name("Snapshot Child").parentUuid(root.getUuid()).build());
+        snapshotGroupStore.refresh();
+        snapshotGroupStore.rewrite();
         
-        assertThrows(ParentGroupNotFoundException.class, () -> {
-            groupService.createGroup(request);
-        });
+        // A change made by another instance while this one was down: in Redis but announced by no event
+        stringRedisTemplate.opsForZSet().remove("groups:changed", root.getUuid(), child.getUuid());
+        stringRedisTemplate.opsForHash().putAll("Group:" + root.getUuid(), Map.of("location", "India", "version", "2"));
+        SnapshotGroupStore unlogged = new SnapshotGroupStore(redisGroupStore, groupHashRepository, groupChangeRelay, properties);
+        try {
+            // Without it in the change log, a restarted instance serves the snapshot as written
+            assertEquals("USA", unlogged.findById(root.getUuid()).orElseThrow().getLocation());
+        } finally {
+            unlogged.shutdown();
+        }
+        stringRedisTemplate.opsForZSet().add("groups:changed", root.getUuid(), System.currentTimeMillis());
+        SnapshotGroupStore restarted = new SnapshotGroupStore(redisGroupStore, groupHashRepository, groupChangeRelay, properties);
+        try {
+            // With it, the group goes to Redis from the first read while the others are served from the snapshot
+            assertEquals("India", restarted.findById(root.getUuid()).orElseThrow().getLocation());
+            assertEquals("Snapshot Child", restarted.findById(child.getUuid()).orElseThrow().getName());
+        } finally {
+            restarted.shutdown();
+        }
+        
+        // A running instance that missed the event finds the change in the log
+        assertEquals("USA", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        snapshotGroupStore.catchUp();
+        assertEquals("India", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        snapshotGroupStore.refresh();
+        assertEquals("India", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        
+        // A snapshot older than the change log reaches back is rebuilt from Redis
+        stringRedisTemplate.opsForHash().putAll("Group:" + root.getUuid(), Map.of("location", "Chile", "version", "3"));
+        Duration retention = properties.getHierarchySnapshot().getChangeLogRetention();
+        properties.getHierarchySnapshot().setChangeLogRetention(Duration.ZERO);
+        try {
+            snapshotGroupStore.catchUp();
+        } finally {
+            properties.getHierarchySnapshot().setChangeLogRetention(retention);
+        }
+        assertEquals("Chile", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        
+        // Changes made through the service are read back right away, and refetched later
+        groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().location("Japan").build());
+        assertEquals("Japan", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        snapshotGroupStore.refresh();
+        assertEquals("Japan", groupService.getGroupWithInheritance(child.getUuid()).getLocation());
+        
+        groupService.deleteGroup(child.getUuid());
+        snapshotGroupStore.refresh();
+        assertThrows(GroupNotFoundException.class, () -> groupService.getGroupWithInheritance(child.getUuid()));
+        
+        // Past max-refreshed refetched groups, the snapshot is rewritten early
+        Path file = Path.of(properties.getHierarchySnapshot().getFile());
+        FileTime written = Files.getLastModifiedTime(file);
+        int maxRefreshed = properties.getHierarchySnapshot().getMaxRefreshed();
+        properties.getHierarchySnapshot().setMaxRefreshed(0);
+        try {
+            groupService.updateGroup(root.getUuid(), GroupUpdateRequest.builder().location("Peru").build());
+            snapshotGroupStore.refresh();
+            for (int i = 0; i < 100 && written.equals(Files.getLastModifiedTime(file)); i++) {
+                Thread.sleep(100);
+            }
+            assertNotEquals(written, Files.getLastModifiedTime(file));
+            assertEquals("Peru", groupStore.findById(root.getUuid()).orElseThrow().getLocation());
+        } finally {
+            properties.getHierarchySnapshot().setMaxRefreshed(maxRefreshed);
+        }
     }
     
     @Test
-    @Order(3)
-    @DisplayName("Should create child group with valid parent")
-    void testCreateChildGroup() {
-        GroupCreateRequest request = GroupCreateRequest.builder()
-                .parentUuid(testGroupUuid)
-                .name("Child Group")
-                .displayName("Child Group Display")
-                .location("France")
-                .build();
+    @Order(24)
+    @DisplayName("Should trace the Redis commands and ancestor hops of requests asking for it")
+    void testRequestTracing() throws Exception {
+        GroupResponse root = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Traced Root")
+                .location("Finland")
+                .language("fi")
+                .build());
+        GroupResponse middle = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Traced Middle")
+                .language("sv")
+                .parentUuid(root.getUuid())
+                .build());
+        GroupResponse leaf = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Traced Leaf")
+                .parentUuid(middle.getUuid())
+                .build());
+        
+        // Nothing is sampled at rate 0 unless asked for
+        MvcResult untraced = mockMvc.perform(get("/api/v1/groups/" + leaf.getUuid() + "/stats")).andReturn();
+        assertNull(untraced.getResponse().getHeader("X-Trace-Id"));
         
-        GroupResponse response = groupService.createGroup(request);
+        MvcResult traced = mockMvc.perform(get("/api/v1/groups/" + leaf.getUuid()).header("X-Trace", "true")).andReturn();
+        assertEquals(200, traced.getResponse().getStatus());
+        String traceId = traced.getResponse().getHeader("X-Trace-Id");
+        assertNotNull(traceId);
         
-        assertNotNull(response);
-        assertEquals("Child Group", response.getName());
-        assertEquals(testGroupUuid, response.getParentUuid());
-        assertEquals("France", response.getLocation());
+        RequestTraceResponse trace = objectMapper.readValue(mockMvc.perform(get("/api/v1/debug/traces/" + traceId))
+                .andReturn().getResponse().getContentAsByteArray(), RequestTraceResponse.class);
+        assertEquals("/api/v1/groups/" + leaf.getUuid(), trace.getPath());
+        assertEquals(200, trace.getStatus());
+        List<TraceEvent> hops = trace.getEvents().stream()
+                .filter(event -> event.getType() == TraceEvent.Type.HOP)
+                .toList();
+        assertEquals(List.of(middle.getUuid(), root.getUuid()), hops.stream().map(TraceEvent::getGroupUuid).toList());
+        // The middle group sets the language, so it is no longer read from the root
+        assertEquals("parentUuid,spaceId,location,language,segments", hops.get(0).getFields());
+        assertEquals("parentUuid,spaceId,location,segments", hops.get(1).getFields());
+        List<TraceEvent> commands = trace.getEvents().stream()
+                .filter(event -> event.getType() == TraceEvent.Type.COMMAND)
+                .toList();
+        assertFalse(commands.isEmpty());
+        assertEquals(commands.size(), trace.getCommands());
+        for (TraceEvent command : commands) {
+            assertNotNull(command.getCommand());
+            assertNotNull(command.getDurationMicros());
+            assertTrue(command.getRequestBytes() > 0);
+        }
         
-        childGroupUuid = response.getUuid();
+        MvcResult listed = mockMvc.perform(get("/api/v1/debug/traces?limit=5")).andReturn();
+        assertTrue(listed.getResponse().getContentAsString().contains("\"traceId\":\"" + traceId + "\""));
+        assertEquals(404, mockMvc.perform(get("/api/v1/debug/traces/ffffffff")).andReturn().getResponse().getStatus());
     }
     
     @Test
-    @Order(4)
-    @DisplayName("Should update group properties")
-    void testUpdateGroup() {
-        GroupUpdateRequest request = GroupUpdateRequest.builder()
-                .name("Updated Group")
-                .location("Germany")
-                .segments(Arrays.asList("Healthcare", "Finance"))
-                .build();
+    @Order(25)
+    @DisplayName("Should keep local copies of hot groups only, and drop them on change or once their version moves")
+    void testHotGroups() throws Exception {
+        GroupResponse hot = groupService.createGroup(GroupCreateRequest.builder().name("Hot Group").build());
+        GroupResponse cold = groupService.createGroup(GroupCreateRequest.builder().name("Cold Group").build());
+        Set<GroupField> fields = Set.of(GroupField.NAME, GroupField.VERSION);
+        
+        redisGroupStore.findFields(cold.getUuid(), fields);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("Hot Group", redisGroupStore.findFields(hot.getUuid(), fields).orElseThrow().get(GroupField.NAME));
+        }
+        HotGroupStatsResponse stats = hotGroupTier.getStats();
+        List<String> pinned = stats.getGroups().stream().map(HotGroup::getUuid).toList();
+        assertTrue(pinned.contains(hot.getUuid()));
+        assertFalse(pinned.contains(cold.getUuid()));
+        HotGroup entry = stats.getGroups().stream().filter(group -> group.getUuid().equals(hot.getUuid())).findFirst().orElseThrow();
+        assertTrue(entry.getHits() > 0);
+        assertTrue(entry.getEstimatedReads() >= stats.getHotThreshold());
+        
+        // A copy served through findById may be changed by the caller without touching the local one
+        redisGroupStore.findById(hot.getUuid()).orElseThrow().setName("Changed Locally");
+        assertEquals("Hot Group", redisGroupStore.findFields(hot.getUuid(), fields).orElseThrow().get(GroupField.NAME));
+        
+        groupService.updateGroup(hot.getUuid(), GroupUpdateRequest.builder().name("Hot Group Renamed").build());
+        assertEquals("Hot Group Renamed", redisGroupStore.findFields(hot.getUuid(), fields).orElseThrow().get(GroupField.NAME));
+        for (int i = 0; i < 40; i++) {
+            redisGroupStore.findFields(hot.getUuid(), fields);
+        }
+        assertTrue(hotGroupTier.getStats().getGroups().stream().anyMatch(group -> group.getUuid().equals(hot.getUuid())));
+        
+        // A write bypassing the service shows once the lease runs out and the version check fails
+        stringRedisTemplate.opsForHash().putAll("Group:" + hot.getUuid(), Map.of("name", "Hot Group Direct", "version", "99"));
+        Thread.sleep(1100);
+        Map<GroupField, Object> refreshed = redisGroupStore.findFields(hot.getUuid(), fields).orElseThrow();
+        assertEquals("Hot Group Direct", refreshed.get(GroupField.NAME));
+        assertEquals(99L, ((Number) refreshed.get(GroupField.VERSION)).longValue());
         
-        GroupResponse response = groupService.updateGroup(testGroupUuid, request);
+        // A bulk write of the group, as an import or clone makes, drops the local copy at once
+        for (int i = 0; i < 40; i++) {
+            redisGroupStore.findFields(hot.getUuid(), fields);
+        }
+        Group written = redisGroupStore.findById(hot.getUuid()).orElseThrow();
+        written.setName("Hot Group Imported");
+        redisGroupStore.insertAll(List.of(written));
+        assertEquals("Hot Group Imported", redisGroupStore.findFields(hot.getUuid(), fields).orElseThrow().get(GroupField.NAME));
         
-        assertEquals("Updated Group", response.getName());
-        assertEquals("Germany", response.getLocation());
-        assertEquals(2, response.getSegments().size());
+        MvcResult result = mockMvc.perform(get("/api/v1/debug/hot-groups")).andReturn();
+        assertEquals(200, result.getResponse().getStatus());
+        assertTrue(result.getResponse().getContentAsString().contains("\"uuid\":\"" + hot.getUuid() + "\""));
     }
     
     @Test
-    @Order(5)
-    @DisplayName("Should fail to delete group with children")
-    void testDeleteGroupWithChildren() {
-        assertThrows(GroupHasChildrenException.class, () -> {
-            groupService.deleteGroup(testGroupUuid);
-        });
+    @Order(26)
+    @DisplayName("Should send the group reads of concurrent requests in shared batches and hand each its own result")
+    void testReadBatching() throws Exception {
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            uuids.add(groupService.createGroup(GroupCreateRequest.builder().name("Batched " + i).build()).getUuid());
+        }
+        GroupReadBatcher.Stats before = groupReadBatcher.getStats();
+        int threads = 32;
+        int readsPerThread = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < readsPerThread; i++) {
+                    int index = (offset * readsPerThread + i) % uuids.size();
+                    if (i % 2 == 0) {
+                        Group group = redisGroupStore.findById(uuids.get(index)).orElseThrow();
+                        assertEquals("Batched " + index, group.getName());
+                        group.setName("Changed by reader");
+                    } else {
+                        Map<GroupField, Object> fields = redisGroupStore.findFields(uuids.get(index), Set.of(GroupField.NAME))
+                            .orElseThrow();
+                        assertEquals(Map.of(GroupField.NAME, "Batched " + index), fields);
+                        fields.put(GroupField.NAME, "Changed by reader");
+                    }
+                }
+                assertTrue(redisGroupStore.findById("no-such-group-" + offset).isEmpty());
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        
+        GroupReadBatcher.Stats after = groupReadBatcher.getStats();
+        long reads = after.reads() - before.reads();
+        assertEquals(threads * (readsPerThread + 1), reads);
+        assertTrue(after.batches() - before.batches() < reads, "every read was sent on its own");
+        assertTrue(after.largestBatch() > 1);
     }
     
     @Test
-    @Order(6)
-    @DisplayName("Should add user to group")
-    void testAddUserToGroup() {
-        groupService.addUserToGroup(testGroupUuid, "user-123");
+    @Order(35)
+    @DisplayName("Should read projections with segments in a batch after Redis dropped its scripts")
+    void testBatchedSegmentReadsAfterScriptFlush() {
+        GroupResponse group = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Scripted").segments(List.of("Segment A", "Segment B")).build());
+        Map<GroupField, Object> expected = Map.of(
+                GroupField.NAME, "Scripted", GroupField.SEGMENTS, List.of("Segment A", "Segment B"));
+        
+        // Through the batcher, which sends the field script by SHA and falls back to its source
+        flushScripts();
+        assertEquals(expected, redisGroupStore.findFields(group.getUuid(), Set.of(GroupField.NAME, GroupField.SEGMENTS))
+                .orElseThrow());
         
-        Set<String> users = groupService.getUsersInGroup(testGroupUuid);
-        assertTrue(users.contains("user-123"));
+        // A pipeline mixing the script with HMGET and HGETALL reads, before and after the script is loaded
+        flushScripts();
+        for (int i = 0; i < 2; i++) {
+            List<Object> values = groupHashRepository.readAll(List.of(
+                    new GroupHashRepository.Read(group.getUuid(), Set.of(GroupField.NAME, GroupField.SEGMENTS)),
+                    new GroupHashRepository.Read(group.getUuid(), Set.of(GroupField.NAME)),
+                    new GroupHashRepository.Read(group.getUuid(), null),
+                    new GroupHashRepository.Read("no-such-scripted-group", Set.of(GroupField.SEGMENTS))));
+            assertEquals(expected, values.get(0));
+            assertEquals(Map.of(GroupField.NAME, "Scripted"), values.get(1));
+            assertEquals(List.of("Segment A", "Segment B"), ((Group) values.get(2)).getSegments());
+            assertNull(values.get(3));
+        }
+    }
+    
+    private void flushScripts() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
     }
     
     @Test
-    @Order(7)
-    @DisplayName("Should move user between groups")
-    void testMoveUser() {
-        groupService.addUserToGroup(testGroupUuid, "user-456");
+    @Order(36)
+    @DisplayName("Should only write the missing groups when an import runs again after its job expired")
+    void testImportAfterJobExpired() throws Exception {
+        GroupImportRequest request = GroupImportRequest.builder()
+                .importId("expired-import-" + System.nanoTime())
+                .groups(List.of(GroupImportNode.builder()
+                        .ref("root")
+                        .name("Expired Root")
+                        .children(List.of(GroupImportNode.builder().ref("child").name("Expired Child").build()))
+                        .build()))
+                .build();
+        BulkJobResponse submitted = awaitImport(groupImportService.importGroups(request));
+        String rootUuid = submitted.getUuids().get("root");
+        String childUuid = submitted.getUuids().get("child");
+        groupService.updateGroup(rootUuid, GroupUpdateRequest.builder().name("Edited Root").build());
+        groupStore.delete(groupStore.findById(childUuid).orElseThrow());
         
-        // Verify user is in the first group
-        Set<String> usersBeforeMove = groupService.getUsersInGroup(testGroupUuid);
-        assertTrue(usersBeforeMove.contains("user-456"));
+        stringRedisTemplate.delete("job:" + GroupImportService.JOB_TYPE + ":" + submitted.getJobId());
+        assertEquals(BulkJobStatus.COMPLETED, awaitImport(groupImportService.importGroups(request)).getStatus());
         
-        // Move user to child group
-        groupService.moveUser("user-456", childGroupUuid);
+        GroupResponse root = groupService.getGroupWithInheritance(rootUuid);
+        assertEquals("Edited Root", root.getName());
+        assertEquals(2L, root.getVersion());
+        assertEquals(rootUuid, groupService.getGroupWithInheritance(childUuid).getParentUuid());
+    }
+    
+    private BulkJobResponse awaitImport(BulkJobResponse submitted) throws InterruptedException {
+        BulkJobResponse job = submitted;
+        for (int i = 0; i < 100 && job.getStatus() == BulkJobStatus.RUNNING; i++) {
+            Thread.sleep(100);
+            job = groupImportService.getImport(submitted.getJobId());
+        }
+        return job;
+    }
+    
+    @Test
+    @Order(28)
+    @DisplayName("Should write and read group hashes in bulk exactly as the repository does")
+    void testBulkHashCodec() {
+        GroupResponse parent = groupService.createGroup(GroupCreateRequest.builder().name("Codec Parent").build());
+        Group saved = Group.builder()
+                .uuid("codec-saved")
+                .parentUuid(parent.getUuid())
+                .name("Codec")
+                .displayName("Codec Group")
+                .status(GroupStatus.ACTIVE)
+                .location("Lisbon")
+                .segments(List.of("retail", "emea"))
+                .version(3L)
+                .build();
+        Group inserted = GroupStore.copyOf(saved);
+        inserted.setUuid("codec-inserted");
+        groupRepository.save(saved);
+        groupHashRepository.insertAll(List.of(inserted));
         
-        // Verify user is no longer in the first group
-        Set<String> usersAfterMove = groupService.getUsersInGroup(testGroupUuid);
-        assertFalse(usersAfterMove.contains("user-456"));
+        Map<Object, Object> savedHash = new LinkedHashMap<>(stringRedisTemplate.opsForHash().entries("Group:codec-saved"));
+        Map<Object, Object> insertedHash = new LinkedHashMap<>(stringRedisTemplate.opsForHash().entries("Group:codec-inserted"));
+        assertEquals("codec-saved", savedHash.remove("uuid"));
+        assertEquals("codec-inserted", insertedHash.remove("uuid"));
+        assertEquals(savedHash, insertedHash);
+        assertEquals(Set.of("Group:uuid:codec-saved", "Group:parentUuid:" + parent.getUuid()),
+                stringRedisTemplate.opsForSet().members("Group:codec-saved:idx"));
+        assertEquals(Set.of("Group:uuid:codec-inserted", "Group:parentUuid:" + parent.getUuid()),
+                stringRedisTemplate.opsForSet().members("Group:codec-inserted:idx"));
+        assertEquals(Set.of("codec-saved", "codec-inserted"),
+                stringRedisTemplate.opsForSet().members("Group:parentUuid:" + parent.getUuid()));
+        assertTrue(stringRedisTemplate.opsForSet().isMember("Group", "codec-inserted"));
         
-        // Verify user is in the child group
-        Set<String> childUsers = groupService.getUsersInGroup(childGroupUuid);
-        assertTrue(childUsers.contains("user-456"));
+        Map<String, Group> read = groupHashRepository.findAll(List.of("codec-saved", "codec-inserted"));
+        assertEquals(groupRepository.findById("codec-saved").orElseThrow(), read.get("codec-saved"));
+        assertEquals(groupRepository.findById("codec-inserted").orElseThrow(), read.get("codec-inserted"));
+        assertEquals(inserted, read.get("codec-inserted"));
+        assertEquals(Set.of("codec-saved", "codec-inserted"), groupHashRepository.findChildren(List.of(parent.getUuid()))
+                .get(parent.getUuid()).stream().map(Group::getUuid).collect(Collectors.toSet()));
     }
     
     @Test
-    @Order(8)
-    @DisplayName("Should remove user from group")
-    void testRemoveUserFromGroup() {
-        groupService.addUserToGroup(testGroupUuid, "user-789");
+    @Order(29)
+    @DisplayName("Should drop the expiries of the memberships left and joined by bulk moves")
+    void testBulkMoveClearsExpiries() throws Exception {
+        GroupResponse first = groupService.createGroup(GroupCreateRequest.builder().name("Bulk Expiry A").build());
+        GroupResponse second = groupService.createGroup(GroupCreateRequest.builder().name("Bulk Expiry B").build());
+        long expiresAt = Instant.now().plusSeconds(1).toEpochMilli();
+        groupService.addUserToGroup(first.getUuid(), "bulk-expiry-1", Instant.ofEpochMilli(expiresAt));
+        groupService.addUserToGroup(second.getUuid(), "bulk-expiry-2", Instant.ofEpochMilli(expiresAt));
         
-        // Verify user is in the group
-        Set<String> usersBefore = groupService.getUsersInGroup(testGroupUuid);
-        assertTrue(usersBefore.contains("user-789"));
+        BulkJobResponse away = bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(new UserMove("bulk-expiry-1", second.getUuid()), new UserMove("bulk-expiry-2", second.getUuid())))
+                .build());
+        assertEquals(Map.of("bulk-expiry-1", MoveOutcome.MOVED, "bulk-expiry-2", MoveOutcome.UNCHANGED), away.getOutcomes());
+        assertNull(stringRedisTemplate.opsForZSet().score("membership:expiries", first.getUuid() + ":bulk-expiry-1"));
+        // A bulk move into the group a user is already in lets the membership last
+        assertNull(stringRedisTemplate.opsForZSet().score("membership:expiries", second.getUuid() + ":bulk-expiry-2"));
         
-        // Remove user
-        groupService.removeUserFromGroup(testGroupUuid, "user-789");
+        // Moved back, the user stays past the expiry the membership had before
+        bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(new UserMove("bulk-expiry-1", first.getUuid())))
+                .build());
+        Thread.sleep(Math.max(0, expiresAt - System.currentTimeMillis()) + 200);
+        assertEquals(0, membershipExpiryService.expireDue());
+        assertEquals(Set.of("bulk-expiry-1"), groupService.getUsersInGroup(first.getUuid()));
+        assertEquals(Set.of("bulk-expiry-2"), groupService.getUsersInGroup(second.getUuid()));
         
-        // Verify user is no longer in the group
-        Set<String> usersAfter = groupService.getUsersInGroup(testGroupUuid);
-        assertFalse(usersAfter.contains("user-789"));
+        // An expiring move is set atomically with the move and ends the new membership
+        groupService.moveUser("bulk-expiry-1", second.getUuid(), Instant.now().plusMillis(300));
+        assertNotNull(stringRedisTemplate.opsForZSet().score("membership:expiries", second.getUuid() + ":bulk-expiry-1"));
+        for (int i = 0; i < 50 && groupService.getUsersInGroup(second.getUuid()).contains("bulk-expiry-1"); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(Set.of("bulk-expiry-2"), groupService.getUsersInGroup(second.getUuid()));
+        assertTrue(groupService.getUsersInGroup(first.getUuid()).isEmpty());
     }
     
     @Test
-    @Order(9)
-    @DisplayName("Should delete group without children")
-    void testDeleteGroupWithoutChildren() {
-        // Delete child group first (it has no children)
-        groupService.deleteGroup(childGroupUuid);
-        
-        // Verify it's deleted
-        assertThrows(GroupNotFoundException.class, () -> {
-            groupService.getGroupWithInheritance(childGroupUuid);
-        });
+    @Order(30)
+    @DisplayName("Should detach a group writing only its parent and version, keeping concurrent updates")
+    void testDetachFromParent() throws Exception {
+        GroupResponse parent = groupService.createGroup(GroupCreateRequest.builder().name("Detach Parent").build());
+        GroupResponse child = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Detach Child").parentUuid(parent.getUuid()).location("Porto").build());
+        GroupResponse grandchild = groupService.createGroup(GroupCreateRequest.builder()
+                .name("Detach Grandchild").parentUuid(child.getUuid()).build());
+        Group read = snapshotGroupStore.findById(child.getUuid()).orElseThrow();
+        groupService.updateGroup(child.getUuid(), GroupUpdateRequest.builder().displayName("Renamed Child").build());
+        String beforeDetach = Instant.now().toString();
+        Thread.sleep(5);
         
-        // Now parent group can be deleted
-        groupService.deleteGroup(testGroupUuid);
+        groupService.detachFromParent(child.getUuid());
+        Group detached = groupRepository.findById(child.getUuid()).orElseThrow();
+        assertNull(detached.getParentUuid());
+        assertEquals(3L, detached.getVersion());
+        assertEquals("Renamed Child", detached.getDisplayName());
+        assertEquals("Porto", detached.getLocation());
+        // The group the store handed out earlier is left as it was
+        assertEquals(parent.getUuid(), read.getParentUuid());
+        assertEquals(1L, read.getVersion());
         
-        // Verify it's deleted
-        assertThrows(GroupNotFoundException.class, () -> {
-            groupService.getGroupWithInheritance(testGroupUuid);
-        });
+        assertTrue(groupRepository.findByParentUuid(parent.getUuid()).isEmpty());
+        assertEquals(Set.of("Group:uuid:" + child.getUuid()),
+                stringRedisTemplate.opsForSet().members("Group:" + child.getUuid() + ":idx"));
+        assertEquals(child.getUuid(), groupService.getGroupWithInheritance(grandchild.getUuid()).getParentUuid());
+        
+        GroupResponse before = groupService.getGroupAsOf(child.getUuid(), beforeDetach);
+        assertEquals(parent.getUuid(), before.getParentUuid());
+        GroupResponse after = groupService.getGroupAsOf(child.getUuid(), Instant.now().plusSeconds(1).toString());
+        assertNull(after.getParentUuid());
+        assertEquals("Renamed Child", after.getDisplayName());
+        assertEquals(3L, after.getVersion());
+        
+        assertThrows(GroupNotFoundException.class, () -> groupService.detachFromParent("no-such-group"));
     }
     
-    @Test
-    @Order(10)
-    @DisplayName("Should fail to get non-existent group")
-    void testGetNonExistentGroup() {
-        assertThrows(GroupNotFoundException.class, () -> {
-            groupService.getGroupWithInheritance("non-existent-uuid");
-        });
+    private BulkJobResponse awaitAudit(BulkJobResponse submitted) throws InterruptedException {
+        BulkJobResponse job = submitted;
+        for (int i = 0; i < 100 && job.getStatus() == BulkJobStatus.RUNNING; i++) {
+            Thread.sleep(100);
+            job = consistencyAuditService.getAudit(submitted.getJobId());
+        }
+        return job;
     }
 }
@@ -0,0 +1,278 @@
+package com.muthukumaran.organization;
+
+import com.muthukumaran.organization.dto.*;
+import com.muthukumaran.organization.event.GroupChangeRelay;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import com.muthukumaran.organization.model.MoveOutcome;
+import com.muthukumaran.organization.repository.MembershipRepository;
+import com.muthukumaran.organization.repository.RedisKeys;
+import com.muthukumaran.organization.service.BulkMoveService;
+import com.muthukumaran.organization.service.ConsistencyAuditService;
+import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.service.UserContextService;
+import com.muthukumaran.organization.service.UserGroupLookupService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test against Redis Cluster: a single node serving all slots, which rejects
+ * commands spanning slots just like a larger cluster
+ */
+@SpringBootTest
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class RedisClusterIntegrationTest {
+    
+    private static final int PORT = 6379;
+    
+    @Container
+    static GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine"))
+            .withCommand("redis-server", "--cluster-enabled", "yes")
+            .withExposedPorts(PORT);
+    
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) throws Exception {
+        // The node tells clients where to find it, so it announces the address mapped on the host
+        String host = InetAddress.getByName(redis.getHost()).getHostAddress();
+        String port = Integer.toString(redis.getMappedPort(PORT));
+        redis.execInContainer("redis-cli", "config", "set", "cluster-announce-ip", host);
+        redis.execInContainer("redis-cli", "config", "set", "cluster-announce-port", port);
+        redis.execInContainer("redis-cli", "cluster", "addslotsrange", "0", "16383");
+        for (int attempt = 0; attempt < 100; attempt++) {
+            if (redis.execInContainer("redis-cli", "cluster", "info").getStdout().contains("cluster_state:ok")) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        registry.add("spring.data.redis.cluster.nodes", () -> host + ":" + port);
+    }
+    
+    @Autowired
+    private GroupService groupService;
+    
+    @Autowired
+    private UserContextService userContextService;
+    
+    @Autowired
+    private UserGroupLookupService userGroupLookupService;
+    
+    @Autowired
+    private BulkMoveService bulkMoveService;
+    
+    @Autowired
+    private ConsistencyAuditService consistencyAuditService;
+    
+    @Autowired
+    private RedisKeys redisKeys;
+    
+    @Autowired
+    private MembershipRepository membershipRepository;
+    
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    private static String rootA;
+    private static String childA;
+    private static String leafA;
+    private static String rootB;
+    private static String childB;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should keep the membership keys of an organisation in the slot of its root")
+    void testTenantSlot() throws Exception {
+        assertTrue(redisKeys.isClustered());
+        rootA = create("Cluster Root A", null);
+        childA = create("Cluster Child A", rootA);
+        leafA = create("Cluster Leaf A", childA);
+        rootB = create("Cluster Root B", null);
+        childB = create("Cluster Child B", rootB);
+        
+        groupService.addUserToGroup(leafA, "cluster-1");
+        groupService.addUserToGroup(childA, "cluster-2");
+        
+        int slot = ClusterSlotHashUtil.calculateSlot(rootA);
+        for (String group : List.of(rootA, childA, leafA)) {
+            assertEquals(slot, ClusterSlotHashUtil.calculateSlot(redisKeys.members(rootA, group)));
+            assertEquals(slot, ClusterSlotHashUtil.calculateSlot(redisKeys.counts(rootA, group)));
+        }
+        assertEquals(Set.of("cluster-1"), redisTemplate.opsForSet().members(redisKeys.members(rootA, leafA)));
+        assertCounts(leafA, 1, 1);
+        assertCounts(childA, 1, 2);
+        assertCounts(rootA, 0, 2);
+        assertEquals(leafA, userContextService.getUserContext("cluster-1").getGroupUuid());
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should move and remove users across organisations")
+    void testMoveAcrossTenants() throws Exception {
+        groupService.moveUser("cluster-1", childB);
+        assertEquals(childB, userContextService.getUserContext("cluster-1").getGroupUuid());
+        assertEquals(Set.of("cluster-1"), groupService.getUsersInGroup(childB));
+        assertCounts(rootA, 0, 1);
+        assertCounts(childB, 1, 1);
+        assertCounts(rootB, 0, 1);
+        
+        groupService.removeUserFromGroup(childA, "cluster-2");
+        assertCounts(rootA, 0, 0);
+        Map<String, String> groups = new LinkedHashMap<>();
+        userGroupLookupService.lookupGroups(List.of("cluster-1", "cluster-2"), groups::putAll);
+        assertEquals(childB, groups.get("cluster-1"));
+        assertNull(groups.get("cluster-2"));
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should apply bulk moves spanning organisations")
+    void testBulkMoveAcrossTenants() {
+        groupService.addUserToGroup(leafA, "cluster-3");
+        groupService.addUserToGroup(childB, "cluster-4");
+        
+        BulkJobResponse response = bulkMoveService.moveUsers(BulkMoveRequest.builder()
+                .moves(List.of(
+                        new UserMove("cluster-1", leafA),
+                        new UserMove("cluster-3", childB),
+                        new UserMove("cluster-4", childB),
+                        new UserMove("cluster-5", rootA)))
+                .build());
+        assertEquals(BulkJobStatus.COMPLETED, response.getStatus());
+        assertEquals(Map.of(
+                "cluster-1", MoveOutcome.MOVED,
+                "cluster-3", MoveOutcome.MOVED,
+                "cluster-4", MoveOutcome.UNCHANGED,
+                "cluster-5", MoveOutcome.MOVED), response.getOutcomes());
+        assertEquals(Set.of("cluster-1"), groupService.getUsersInGroup(leafA));
+        assertEquals(Set.of("cluster-3", "cluster-4"), groupService.getUsersInGroup(childB));
+        assertCounts(rootA, 1, 2);
+        assertCounts(childA, 0, 1);
+        assertCounts(rootB, 0, 2);
+    }
+    
+    @Test
+    @Order(4)
+    @DisplayName("Should audit all nodes and repair a lost pointer")
+    void testAuditAcrossSlots() throws InterruptedException {
+        redisTemplate.delete(redisKeys.pointer("cluster-3"));
+        
+        BulkJobResponse repair = awaitAudit(consistencyAuditService.startAudit(true));
+        assertEquals(BulkJobStatus.COMPLETED, repair.getStatus());
+        assertEquals(1L, repair.getCounts().get("MISSING_POINTER"));
+        assertEquals(childB, redisTemplate.opsForValue().get(redisKeys.pointer("cluster-3")));
+        
+        BulkJobResponse clean = awaitAudit(consistencyAuditService.startAudit(false));
+        assertEquals(BulkJobStatus.COMPLETED, clean.getStatus());
+        assertNull(clean.getCounts());
+    }
+    
+    @Test
+    @Order(5)
+    @DisplayName("Should move the memberships of a detached group into its own slot")
+    void testDetachMovesMemberships() {
+        groupService.detachFromParent(childA);
+        
+        assertEquals(Set.of("cluster-1"), groupService.getUsersInGroup(leafA));
+        assertEquals(Set.of("cluster-1"), redisTemplate.opsForSet().members(redisKeys.members(childA, leafA)));
+        assertCounts(childA, 0, 1);
+        groupService.removeUserFromGroup(leafA, "cluster-1");
+        assertCounts(childA, 0, 0);
+    }
+    
+    @Test
+    @Order(6)
+    @DisplayName("Should end expired memberships across organisations")
+    void testMembershipExpiry() throws InterruptedException {
+        groupService.addUserToGroup(childB, "cluster-6", Instant.now().plusSeconds(1));
+        groupService.addUserToGroup(leafA, "cluster-7", Instant.now().plusSeconds(1));
+        assertCounts(rootB, 0, 3);
+        
+        for (int i = 0; i < 50 && redisTemplate.hasKey(redisKeys.pointer("cluster-7")); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(groupService.getUsersInGroup(childB).contains("cluster-6"));
+        assertFalse(groupService.getUsersInGroup(leafA).contains("cluster-7"));
+        assertNull(redisTemplate.opsForValue().get(redisKeys.pointer("cluster-6")));
+        assertNull(redisTemplate.opsForValue().get(redisKeys.pointer("cluster-7")));
+        assertCounts(rootB, 0, 2);
+        assertCounts(childA, 0, 0);
+    }
+    
+    @Test
+    @Order(7)
+    @DisplayName("Should keep join times in the slot of the organisation and move them along")
+    void testJoinTimes() throws InterruptedException {
+        String since = Instant.now().toString();
+        groupService.addUserToGroup(rootB, "cluster-8");
+        groupService.moveUser("cluster-8", childB);
+        Thread.sleep(5);
+        
+        assertEquals(ClusterSlotHashUtil.calculateSlot(rootB),
+            ClusterSlotHashUtil.calculateSlot(redisKeys.joined(rootB, childB)));
+        assertTrue(groupService.getUsersJoinedSince(rootB, since, null, 10).getUsers().isEmpty());
+        assertEquals(List.of("cluster-8"), groupService.getUsersJoinedSince(childB, since, null, 10).getUsers()
+            .stream().map(JoinedMember::getUserId).toList());
+    }
+    
+    @Test
+    @Order(8)
+    @DisplayName("Should look the roots up again once another instance detached a subtree")
+    @SuppressWarnings("unchecked")
+    void testRerootRelayed() throws InterruptedException {
+        // Stands for the root leafA had before another instance detached childA
+        Map<String, String> tenants = (Map<String, String>) ReflectionTestUtils.getField(membershipRepository, "tenants");
+        tenants.put(leafA, rootA);
+        
+        stringRedisTemplate.convertAndSend(GroupChangeRelay.CHANNEL, "other-instance|" + childA + "|rerooted");
+        for (int i = 0; i < 50 && tenants.containsKey(leafA); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(tenants.containsKey(leafA));
+        
+        groupService.addUserToGroup(leafA, "cluster-9");
+        assertEquals(Set.of("cluster-9"), redisTemplate.opsForSet().members(redisKeys.members(childA, leafA)));
+        assertCounts(childA, 0, 1);
+        groupService.removeUserFromGroup(leafA, "cluster-9");
+    }
+    
+    private String create(String name, String parentUuid) {
+        return groupService.createGroup(GroupCreateRequest.builder().name(name).parentUuid(parentUuid).build()).getUuid();
+    }
+    
+    private BulkJobResponse awaitAudit(BulkJobResponse submitted) throws InterruptedException {
+        BulkJobResponse job = submitted;
+        for (int i = 0; i < 100 && job.getStatus() == BulkJobStatus.RUNNING; i++) {
+            Thread.sleep(100);
+            job = consistencyAuditService.getAudit(submitted.getJobId());
+        }
+        return job;
+    }
+    
+    private void assertCounts(String uuid, long direct, long total) {
+        GroupStatsResponse stats = groupService.getGroupStats(uuid);
+        assertEquals(direct, stats.getDirectMembers(), "direct members of " + uuid);
+        assertEquals(total, stats.getTotalMembers(), "total members of " + uuid);
+    }
+}
@@ -0,0 +1,180 @@
+package com.muthukumaran.organization;
+
+import com.muthukumaran.organization.dto.GroupCreateRequest;
+import com.muthukumaran.organization.exception.InvalidConsistencyTokenException;
+import com.muthukumaran.organization.model.GroupField;
+import com.muthukumaran.organization.repository.GroupHashRepository;
+import com.muthukumaran.organization.service.GroupResponseCache;
+import com.muthukumaran.organization.service.GroupService;
+import com.muthukumaran.organization.service.UserContextService;
+import com.muthukumaran.organization.storage.GroupStore;
+import com.muthukumaran.organization.storage.replica.ReplicaReadRouter;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.Network;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration test of reads split between a Redis primary and its replica
+ */
+@SpringBootTest
+@Testcontainers
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ReplicaReadsIntegrationTest {
+    
+    private static final Network NETWORK = Network.newNetwork();
+    
+    @Container
+    static GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine"))
+            .withNetwork(NETWORK)
+            .withNetworkAliases("primary")
+            .withExposedPorts(6379);
+    
+    @Container
+    static GenericContainer<?> replica = new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine"))
+            .withNetwork(NETWORK)
+            .withCommand("redis-server", "--replicaof", "primary", "6379")
+            .dependsOn(redis)
+            .withExposedPorts(6379);
+    
+    @DynamicPropertySource
+    static void configureProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", redis::getHost);
+        registry.add("spring.data.redis.port", () -> redis.getMappedPort(6379));
+        registry.add("organization.replica-reads.enabled", () -> "true");
+        registry.add("organization.replica-reads.host", replica::getHost);
+        registry.add("organization.replica-reads.port", () -> replica.getMappedPort(6379));
+    }
+    
+    @Autowired
+    private GroupService groupService;
+    
+    @Autowired
+    private UserContextService userContextService;
+    
+    @Autowired
+    private ReplicaReadRouter replicaReadRouter;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private GroupResponseCache groupResponseCache;
+    
+    @Autowired
+    private GroupHashRepository groupHashRepository;
+    
+    @Autowired
+    private GroupStore groupStore;
+    
+    private static String groupUuid;
+    
+    @Test
+    @Order(1)
+    @DisplayName("Should serve reads with the token of a write from the replica")
+    void testReadYourWrites() throws InterruptedException {
+        awaitReplicaReads();
+        groupUuid = groupService.createGroup(GroupCreateRequest.builder().name("Replica Root").build()).getUuid();
+        groupService.addUserToGroup(groupUuid, "replica-1");
+        String token = replicaReadRouter.issueToken();
+        assertNotNull(token);
+        
+        Set<String> users = replicaReadRouter.read(token, () -> {
+            assertEquals("slave", role());
+            return groupService.getUsersInGroup(groupUuid);
+        });
+        assertEquals(Set.of("replica-1"), users);
+        assertEquals(groupUuid, replicaReadRouter.read(token,
+            () -> userContextService.getUserContext("replica-1").getGroupUuid()));
+    }
+    
+    @Test
+    @Order(2)
+    @DisplayName("Should read from the primary when the replica does not reach the token in time")
+    void testTokenAheadOfReplica() {
+        String token = Long.toString(Long.MAX_VALUE);
+        assertEquals("master", replicaReadRouter.read(token, this::role));
+    }
+    
+    @Test
+    @Order(3)
+    @DisplayName("Should keep cache fills on the primary and carry the route to worker threads")
+    void testRouteScope() {
+        assertEquals("master", role());
+        assertEquals("master", replicaReadRouter.read(null, () -> ReplicaReadRouter.fromPrimary(this::role)));
+        assertEquals("slave", replicaReadRouter.read(null,
+            () -> CompletableFuture.supplyAsync(ReplicaReadRouter.propagate(this::role)).join()));
+        assertEquals("master", CompletableFuture.supplyAsync(this::role).join());
+    }
+    
+    @Test
+    @Order(4)
+    @DisplayName("Should reject a malformed consistency token")
+    void testInvalidToken() {
+        assertThrows(InvalidConsistencyTokenException.class,
+            () -> replicaReadRouter.read("not-a-token", () -> groupService.getUsersInGroup(groupUuid)));
+    }
+    
+    @Test
+    @Order(5)
+    @DisplayName("Should skip the local copies for reads with a token, and share offset queries between writes")
+    void testTokenSkipsLocalCopies() throws Exception {
+        assertEquals("Replica Root", groupResponseCache.get(groupUuid).getResponse().getName());
+        // A write through another instance whose change event has not arrived yet
+        groupHashRepository.updateFields(groupUuid, null, Map.of(GroupField.NAME, "Renamed Elsewhere"), null);
+        
+        List<CompletableFuture<String>> tokens = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tokens.add(CompletableFuture.supplyAsync(replicaReadRouter::issueToken));
+        }
+        long written = Long.parseLong(replicaReadRouter.issueToken());
+        for (CompletableFuture<String> token : tokens) {
+            assertNotNull(token.get(10, TimeUnit.SECONDS));
+        }
+        String token = Long.toString(written);
+        
+        assertEquals("Replica Root", groupResponseCache.get(groupUuid).getResponse().getName());
+        assertEquals("Renamed Elsewhere", replicaReadRouter.read(token,
+            () -> groupResponseCache.getAllowingStale(groupUuid).getResponse().getName()));
+        assertEquals("Renamed Elsewhere", replicaReadRouter.read(token,
+            () -> groupStore.findById(groupUuid).orElseThrow().getName()));
+    }
+    
+    /**
+     * The role of the Redis server the current route leads to
+     */
+    private String role() {
+        return stringRedisTemplate.execute((RedisCallback<String>) connection ->
+            connection.serverCommands().info("replication").getProperty("role"));
+    }
+    
+    /**
+     * The replica is only used once it has synced with the primary and been checked
+     */
+    private void awaitReplicaReads() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            if ("slave".equals(replicaReadRouter.read(null, this::role))) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("Replica reads did not start");
+    }
+}
@@ -0,0 +1,59 @@
+package com.muthukumaran.organization.loadtest;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latencies of one kind of request, recorded by a single client thread and merged afterwards
+ */
+final class LatencyRecorder {
+    
+    private long[] nanos = new long[1024];
+    private int count;
+    private long errors;
+    
+    void record(long elapsedNanos, boolean failed) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = elapsedNanos;
+        if (failed) {
+            errors++;
+        }
+    }
+    
+    static LatencyRecorder merge(List<LatencyRecorder> recorders) {
+        LatencyRecorder merged = new LatencyRecorder();
+        merged.nanos = new long[Math.max(1, recorders.stream().mapToInt(recorder -> recorder.count).sum())];
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.nanos, 0, merged.nanos, merged.count, recorder.count);
+            merged.count += recorder.count;
+            merged.errors += recorder.errors;
+        }
+        Arrays.sort(merged.nanos, 0, merged.count);
+        return merged;
+    }
+    
+    int count() {
+        return count;
+    }
+    
+    long errors() {
+        return errors;
+    }
+    
+    /**
+     * The latency in milliseconds that the given share of the requests stayed within; only on merged recorders
+     */
+    double percentileMillis(double share) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = Math.max(0, (int) Math.ceil(share * count) - 1);
+        return nanos[index] / 1_000_000.0;
+    }
+    
+    double maxMillis() {
+        return count == 0 ? 0 : nanos[count - 1] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,51 @@
+package com.muthukumaran.organization.loadtest;
+
+/**
+ * Settings of a load test run, read from system properties prefixed with "loadtest."
+ * (for example -Dloadtest.depth=6)
+ *
+ * @param baseUrl service to drive; null drives the instance the harness starts
+ * @param depth levels below the root groups
+ * @param fanOut children per group
+ * @param roots independent trees, each an organisation
+ * @param fieldRatio share of the inheritable fields set on non-root groups; the rest is inherited
+ * @param users users placed into groups before the run
+ * @param membershipSkew Zipf exponent of the group sizes
+ * @param accessSkew Zipf exponent of the groups and users picked by the requests
+ * @param readRatio share of the requests that read a group
+ * @param moveRatio share of the requests that move a user; the remaining ones update a group
+ * @param threads concurrent clients, each sending its next request once the last one is answered
+ * @param warmupSeconds time before latencies are recorded
+ * @param durationSeconds time latencies are recorded for
+ * @param seed seed of the generated tree and memberships, so runs can be compared
+ */
+record LoadSettings(String baseUrl, int depth, int fanOut, int roots, double fieldRatio, int users,
+                    double membershipSkew, double accessSkew, double readRatio, double moveRatio,
+                    int threads, int warmupSeconds, int durationSeconds, long seed) {
+    
+    static LoadSettings fromSystemProperties() {
+        return new LoadSettings(
+            System.getProperty("loadtest.base-url"),
+            intProperty("depth", 4),
+            intProperty("fan-out", 8),
+            intProperty("roots", 2),
+            doubleProperty("field-ratio", 0.2),
+            intProperty("users", 50_000),
+            doubleProperty("membership-skew", 1.1),
+            doubleProperty("access-skew", 0.99),
+            doubleProperty("read-ratio", 0.9),
+            doubleProperty("move-ratio", 0.08),
+            intProperty("threads", 32),
+            intProperty("warmup-seconds", 10),
+            intProperty("duration-seconds", 60),
+            Long.parseLong(System.getProperty("loadtest.seed", "42")));
+    }
+    
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(System.getProperty("loadtest." + name, Integer.toString(defaultValue)));
+    }
+    
+    private static double doubleProperty(String name, double defaultValue) {
+        return Double.parseDouble(System.getProperty("loadtest." + name, Double.toString(defaultValue)));
+    }
+}
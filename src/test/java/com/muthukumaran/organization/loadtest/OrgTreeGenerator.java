@@ -0,0 +1,63 @@
+package com.muthukumaran.organization.loadtest;
+
+import com.muthukumaran.organization.dto.GroupImportNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthesizes organisation trees as a flat import document, parents first.
+ * Root groups set every inheritable field; below them each field is set with the configured
+ * ratio and otherwise inherited, so reads walk ancestors as deep as sparse trees make them.
+ */
+final class OrgTreeGenerator {
+    
+    private static final String[] LOCATIONS = {"USA", "India", "Germany", "Brazil", "Japan", "France"};
+    private static final String[] LANGUAGES = {"en-US", "hi-IN", "de-DE", "pt-BR", "ja-JP", "fr-FR"};
+    private static final String[] SEGMENTS = {"Corporate", "Education", "Healthcare", "Finance", "Retail"};
+    
+    private final LoadSettings settings;
+    private final Random random;
+    
+    OrgTreeGenerator(LoadSettings settings, Random random) {
+        this.settings = settings;
+        this.random = random;
+    }
+    
+    List<GroupImportNode> generate() {
+        List<GroupImportNode> groups = new ArrayList<>();
+        for (int root = 0; root < settings.roots(); root++) {
+            GroupImportNode node = node("r" + root, null, 1);
+            groups.add(node);
+            int levelStart = groups.size() - 1;
+            for (int level = 1; level <= settings.depth(); level++) {
+                int levelEnd = groups.size();
+                for (int parent = levelStart; parent < levelEnd; parent++) {
+                    String parentRef = groups.get(parent).getRef();
+                    for (int child = 0; child < settings.fanOut(); child++) {
+                        groups.add(node(parentRef + "." + child, parentRef, settings.fieldRatio()));
+                    }
+                }
+                levelStart = levelEnd;
+            }
+        }
+        return groups;
+    }
+    
+    private GroupImportNode node(String ref, String parentRef, double fieldRatio) {
+        return GroupImportNode.builder()
+            .ref(ref)
+            .parentRef(parentRef)
+            .name("Load " + ref)
+            .spaceId(random.nextDouble() < fieldRatio ? "space-" + ref : null)
+            .location(random.nextDouble() < fieldRatio ? pick(LOCATIONS) : null)
+            .language(random.nextDouble() < fieldRatio ? pick(LANGUAGES) : null)
+            .segments(random.nextDouble() < fieldRatio ? List.of(pick(SEGMENTS), pick(SEGMENTS)) : null)
+            .build();
+    }
+    
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
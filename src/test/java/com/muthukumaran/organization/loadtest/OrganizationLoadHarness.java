@@ -0,0 +1,235 @@
+package com.muthukumaran.organization.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muthukumaran.organization.dto.BulkJobResponse;
+import com.muthukumaran.organization.dto.BulkMoveRequest;
+import com.muthukumaran.organization.dto.GroupImportNode;
+import com.muthukumaran.organization.dto.GroupImportRequest;
+import com.muthukumaran.organization.dto.UserMove;
+import com.muthukumaran.organization.model.BulkJobStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test harness: builds synthetic organisation trees, fills them with users, then drives the
+ * REST API with a mix of reads, moves and updates and reports throughput and latency percentiles.
+ * <p>
+ * Not part of the regular test run. Start it with {@code mvn test -Ploadtest}, tuned through the
+ * properties of {@link LoadSettings}. It starts the service against the Redis configured for the
+ * tests (localhost:6379) unless loadtest.base-url points at a running one; either way every run
+ * adds new groups and users, so point it at a scratch Redis. The report is printed and written to
+ * target/loadtest-report.txt.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "logging.level.com.muthukumaran.organization=WARN",
+    "logging.level.org.springframework.data.redis=WARN"
+})
+class OrganizationLoadHarness {
+    
+    private static final int MOVES_PER_REQUEST = 1000;
+    
+    private enum Operation { READ, MOVE, UPDATE }
+    
+    @LocalServerPort
+    private int port;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    
+    private String baseUrl;
+    
+    @Test
+    void run() throws Exception {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        baseUrl = (settings.baseUrl() != null ? settings.baseUrl() : "http://localhost:" + port) + "/api/v1";
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        Random random = new Random(settings.seed());
+        List<String> report = new ArrayList<>();
+        report.add("Load test " + runId + " against " + baseUrl);
+        
+        List<GroupImportNode> nodes = new OrgTreeGenerator(settings, random).generate();
+        long start = System.nanoTime();
+        List<String> groups = importTree(runId, nodes);
+        report.add(String.format("Tree: %d groups in %d organisations, depth %d, fan-out %d, %.0f%% of inheritable fields set; imported in %.1fs",
+            groups.size(), settings.roots(), settings.depth(), settings.fanOut(), settings.fieldRatio() * 100, seconds(start)));
+        
+        // Ranks are spread over the trees, so the hot groups are not all siblings near a root
+        Collections.shuffle(groups, random);
+        List<String> users = new ArrayList<>(settings.users());
+        start = System.nanoTime();
+        int[] sizes = populate(runId, groups, users, settings, random);
+        Arrays.sort(sizes);
+        report.add(String.format("Members: %d users, Zipf s=%.2f over groups; largest group %d, median %d; placed in %.1fs",
+            users.size(), settings.membershipSkew(), sizes[sizes.length - 1], sizes[sizes.length / 2], seconds(start)));
+        
+        Map<Operation, LatencyRecorder> results = drive(groups, users, settings);
+        report.add(String.format("Load: %d threads, %.0f%% reads, %.0f%% moves, %.0f%% updates, Zipf s=%.2f over groups and users; "
+                + "%ds measured after %ds warm-up",
+            settings.threads(), settings.readRatio() * 100, settings.moveRatio() * 100,
+            (1 - settings.readRatio() - settings.moveRatio()) * 100, settings.accessSkew(),
+            settings.durationSeconds(), settings.warmupSeconds()));
+        report.add("");
+        report.add(String.format("%-8s %10s %10s %8s %9s %9s %9s %9s %9s",
+            "request", "count", "per sec", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        LatencyRecorder all = LatencyRecorder.merge(List.copyOf(results.values()));
+        results.forEach((operation, recorder) -> report.add(row(operation.name().toLowerCase(), recorder, settings)));
+        report.add(row("total", all, settings));
+        
+        String text = String.join(System.lineSeparator(), report) + System.lineSeparator();
+        System.out.print(text);
+        Files.createDirectories(Path.of("target"));
+        Files.writeString(Path.of("target", "loadtest-report.txt"), text);
+        assertTrue(all.count() > 0, "no request completed");
+    }
+    
+    /**
+     * Import the trees in one background job and wait for it
+     *
+     * @return the UUIDs of the new groups
+     */
+    private List<String> importTree(String runId, List<GroupImportNode> nodes) throws Exception {
+        GroupImportRequest request = GroupImportRequest.builder().importId("loadtest-" + runId).groups(nodes).build();
+        HttpResponse<String> accepted = send(HttpRequest.newBuilder(uri("/groups/import")), "POST", request);
+        assertEquals(202, accepted.statusCode(), accepted.body());
+        BulkJobResponse job = objectMapper.readValue(accepted.body(), BulkJobResponse.class);
+        List<String> uuids = new ArrayList<>(job.getUuids().values());
+        
+        while (job.getStatus() == BulkJobStatus.RUNNING) {
+            Thread.sleep(200);
+            HttpResponse<String> progress = send(HttpRequest.newBuilder(uri("/groups/import/" + job.getJobId())), "GET", null);
+            job = objectMapper.readValue(progress.body(), BulkJobResponse.class);
+        }
+        assertEquals(BulkJobStatus.COMPLETED, job.getStatus(), job.getError());
+        return uuids;
+    }
+    
+    /**
+     * Place every user in a group drawn from a Zipf distribution over the groups
+     *
+     * @return the size of each group
+     */
+    private int[] populate(String runId, List<String> groups, List<String> users, LoadSettings settings,
+                           Random random) throws Exception {
+        ZipfDistribution distribution = new ZipfDistribution(groups.size(), settings.membershipSkew());
+        int[] sizes = new int[groups.size()];
+        List<UserMove> moves = new ArrayList<>(MOVES_PER_REQUEST);
+        for (int i = 0; i < settings.users(); i++) {
+            String userId = "load-" + runId + "-" + i;
+            int group = distribution.sample(random);
+            sizes[group]++;
+            users.add(userId);
+            moves.add(new UserMove(userId, groups.get(group)));
+            if (moves.size() == MOVES_PER_REQUEST || i == settings.users() - 1) {
+                BulkMoveRequest request = BulkMoveRequest.builder().moves(moves).build();
+                HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/users/move")), "POST", request);
+                assertEquals(200, response.statusCode(), response.body());
+                moves = new ArrayList<>(MOVES_PER_REQUEST);
+            }
+        }
+        return sizes;
+    }
+    
+    /**
+     * Run closed-loop clients for the warm-up and the measured time
+     */
+    private Map<Operation, LatencyRecorder> drive(List<String> groups, List<String> users,
+                                                  LoadSettings settings) throws Exception {
+        ZipfDistribution groupAccess = new ZipfDistribution(groups.size(), settings.accessSkew());
+        ZipfDistribution userAccess = new ZipfDistribution(users.size(), settings.accessSkew());
+        long measureFrom = System.nanoTime() + settings.warmupSeconds() * 1_000_000_000L;
+        long end = measureFrom + settings.durationSeconds() * 1_000_000_000L;
+        
+        ExecutorService clients = Executors.newFixedThreadPool(settings.threads());
+        List<Future<Map<Operation, LatencyRecorder>>> futures = new ArrayList<>();
+        for (int i = 0; i < settings.threads(); i++) {
+            futures.add(clients.submit(() -> {
+                Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+                for (Operation operation : Operation.values()) {
+                    recorders.put(operation, new LatencyRecorder());
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long sent;
+                while ((sent = System.nanoTime()) < end) {
+                    double draw = random.nextDouble();
+                    Operation operation = draw < settings.readRatio() ? Operation.READ
+                        : draw < settings.readRatio() + settings.moveRatio() ? Operation.MOVE : Operation.UPDATE;
+                    String group = groups.get(groupAccess.sample(random));
+                    HttpRequest request = switch (operation) {
+                        case READ -> HttpRequest.newBuilder(uri("/groups/" + group)).GET().build();
+                        case MOVE -> json(HttpRequest.newBuilder(uri("/users/" + users.get(userAccess.sample(random)) + "/move")),
+                            "PUT", Map.of("targetGroupUuid", group));
+                        case UPDATE -> json(HttpRequest.newBuilder(uri("/groups/" + group)),
+                            "PUT", Map.of("displayName", "Load " + sent));
+                    };
+                    boolean failed;
+                    try {
+                        failed = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 400;
+                    } catch (IOException e) {
+                        failed = true;
+                    }
+                    if (sent >= measureFrom) {
+                        recorders.get(operation).record(System.nanoTime() - sent, failed);
+                    }
+                }
+                return recorders;
+            }));
+        }
+        
+        Map<Operation, List<LatencyRecorder>> perOperation = new EnumMap<>(Operation.class);
+        for (Future<Map<Operation, LatencyRecorder>> future : futures) {
+            future.get().forEach((operation, recorder) ->
+                perOperation.computeIfAbsent(operation, key -> new ArrayList<>()).add(recorder));
+        }
+        clients.shutdown();
+        Map<Operation, LatencyRecorder> merged = new EnumMap<>(Operation.class);
+        perOperation.forEach((operation, recorders) -> merged.put(operation, LatencyRecorder.merge(recorders)));
+        return merged;
+    }
+    
+    private static String row(String name, LatencyRecorder recorder, LoadSettings settings) {
+        return String.format("%-8s %10d %10.0f %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+            name, recorder.count(), (double) recorder.count() / settings.durationSeconds(), recorder.errors(),
+            recorder.percentileMillis(0.5), recorder.percentileMillis(0.9), recorder.percentileMillis(0.99),
+            recorder.percentileMillis(0.999), recorder.maxMillis());
+    }
+    
+    private HttpResponse<String> send(HttpRequest.Builder builder, String method, Object body) throws Exception {
+        HttpRequest request = body == null ? builder.GET().build() : json(builder, method, body);
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private HttpRequest json(HttpRequest.Builder builder, String method, Object body) {
+        try {
+            return builder.header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+    
+    private static double seconds(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+    }
+}
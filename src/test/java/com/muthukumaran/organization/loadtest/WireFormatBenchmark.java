@@ -0,0 +1,141 @@
+package com.muthukumaran.organization.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muthukumaran.organization.config.WireFormat;
+import com.muthukumaran.organization.config.WireFormatConfig;
+import com.muthukumaran.organization.config.WireFormatConfig.WireFormatMappers;
+import com.muthukumaran.organization.dto.GroupResponse;
+import com.muthukumaran.organization.dto.UserContextResponse;
+import com.muthukumaran.organization.model.GroupStatus;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the payload size and the encode and decode cost of JSON, CBOR and Smile for the
+ * responses internal callers fetch most: a single group, a batch of user contexts and a large
+ * group lookup.
+ * <p>
+ * Not part of the regular test run. Start it with {@code mvn test -Ploadtest -Dtest=WireFormatBenchmark}.
+ * The report is printed and written to target/wireformat-report.txt.
+ */
+class WireFormatBenchmark {
+    
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    
+    private final WireFormatMappers mappers = new WireFormatConfig()
+        .wireFormatMappers(new ObjectMapper().findAndRegisterModules());
+    
+    private long sink;
+    
+    @Test
+    void run() throws Exception {
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-22s %-6s %10s %8s %12s %12s",
+            "payload", "format", "bytes", "vs JSON", "encode us", "decode us"));
+        benchmark(report, "group", group(0), new TypeReference<GroupResponse>() { });
+        benchmark(report, "1000 user contexts", contexts(1000), new TypeReference<List<UserContextResponse>>() { });
+        benchmark(report, "50000 user lookups", lookups(50_000), new TypeReference<Map<String, String>>() { });
+        
+        String text = String.join(System.lineSeparator(), report) + System.lineSeparator();
+        System.out.print(text);
+        Files.createDirectories(Path.of("target"));
+        Files.writeString(Path.of("target", "wireformat-report.txt"), text);
+        assertTrue(sink != 0);
+    }
+    
+    private <T> void benchmark(List<String> report, String name, T payload, TypeReference<T> type) throws Exception {
+        int jsonSize = mappers.get(WireFormat.JSON).writeValueAsBytes(payload).length;
+        for (WireFormat format : WireFormat.values()) {
+            ObjectMapper mapper = mappers.get(format);
+            byte[] encoded = mapper.writeValueAsBytes(payload);
+            assertEquals(payload, mapper.readValue(encoded, type));
+            
+            double encodeMicros = measure(() -> sink += mapper.writeValueAsBytes(payload).length);
+            double decodeMicros = measure(() -> sink += mapper.readValue(encoded, type).hashCode());
+            report.add(String.format("%-22s %-6s %10d %7.0f%% %12.2f %12.2f", name, format.name().toLowerCase(),
+                encoded.length, 100.0 * encoded.length / jsonSize, encodeMicros, decodeMicros));
+        }
+    }
+    
+    /**
+     * Run the operation for the warm-up and then the measured time
+     *
+     * @return the mean microseconds per operation while measured
+     */
+    private static double measure(Operation operation) throws Exception {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            operation.run();
+        }
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 16; i++) {
+                operation.run();
+            }
+            operations += 16;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        return elapsed / 1000.0 / operations;
+    }
+    
+    private static GroupResponse group(int i) {
+        return GroupResponse.builder()
+            .uuid(UUID.nameUUIDFromBytes(("group-" + i).getBytes()).toString())
+            .parentUuid(UUID.nameUUIDFromBytes(("parent-" + i / 8).getBytes()).toString())
+            .name("Engineering Team " + i)
+            .displayName("Engineering Team " + i + " (EMEA)")
+            .status(GroupStatus.ACTIVE)
+            .effectiveStatus(GroupStatus.ACTIVE)
+            .spaceId("space-" + (i % 16))
+            .location("Germany")
+            .language("de")
+            .segments(List.of("Enterprise", "EMEA", "Engineering"))
+            .version(42L + i)
+            .build();
+    }
+    
+    private static List<UserContextResponse> contexts(int count) {
+        List<UserContextResponse> contexts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GroupResponse group = group(i % 50);
+            contexts.add(UserContextResponse.builder()
+                .userId("user-" + i)
+                .groupUuid(group.getUuid())
+                .groupName(group.getName())
+                .groupStatus(group.getStatus())
+                .effectiveGroupStatus(group.getEffectiveStatus())
+                .spaceId(group.getSpaceId())
+                .location(group.getLocation())
+                .language(group.getLanguage())
+                .segments(group.getSegments())
+                .build());
+        }
+        return contexts;
+    }
+    
+    private static Map<String, String> lookups(int count) {
+        Map<String, String> groups = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            groups.put("user-" + i, i % 10 == 0 ? null : group(i % 500).getUuid());
+        }
+        return groups;
+    }
+    
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
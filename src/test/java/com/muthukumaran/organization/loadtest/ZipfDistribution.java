@@ -0,0 +1,31 @@
+package com.muthukumaran.organization.loadtest;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Zipf distribution over the ranks 0 to n - 1: rank k is drawn with a probability proportional
+ * to 1 / (k + 1)^exponent. An exponent of 0 is uniform; around 1 a few ranks take most draws.
+ */
+final class ZipfDistribution {
+    
+    private final double[] cumulative;
+    
+    ZipfDistribution(int n, double exponent) {
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+    
+    int sample(RandomGenerator random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+}